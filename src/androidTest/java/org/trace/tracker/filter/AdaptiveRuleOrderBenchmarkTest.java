@@ -0,0 +1,179 @@
+package org.trace.tracker.filter;
+
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.trace.tracker.pipeline.LocationSink;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays a recorded-like drive through the OutlierFilteringLocationQueue, with the rules in their
+ * declared order and adaptively reordered. Unlike the simulated costs of the unit tests, the times
+ * measured here include the cost of the real rules on real locations, as well as the cost of
+ * timing each rule, which is paid in both modes. The times are only reported, as they vary with
+ * the device's load, while the assertions are on the rules' evaluations, which are deterministic.
+ */
+public class AdaptiveRuleOrderBenchmarkTest extends AndroidTestCase {
+
+    private static final String LOG_TAG = "RuleOrderBenchmark";
+
+    private static final int FIXES = 20000;
+    private static final int ROUNDS = 10;
+
+    private static final double EARTH_RADIUS = 6371 * 1000;
+
+    /**
+     * The expensive, and mostly permissive, rules are declared first, as in the default chain,
+     * while the cheap accuracy rule rejects most outliers.
+     */
+    private static FilterChainSpec createChain(){
+        List<FilterChainSpec.RuleSpec> rules = new ArrayList<>();
+        rules.add(new FilterChainSpec.RuleSpec(FilterChainSpec.RuleType.OVERLAPPING));
+        rules.add(new FilterChainSpec.RuleSpec(FilterChainSpec.RuleType.SPEED, 55.56f));
+        rules.add(new FilterChainSpec.RuleSpec(FilterChainSpec.RuleType.ACCURACY, 40));
+        rules.add(new FilterChainSpec.RuleSpec(FilterChainSpec.RuleType.PASS_THROUGH_SPEED, FilterChainSpec.DEFAULT_PASS_THROUGH_SPEED));
+        return new FilterChainSpec(rules);
+    }
+
+    /**
+     * Urban drive, at 20 m/s, with a fix every second, where 20% of the fixes are inaccurate and
+     * 5% report an unrealistic speed.
+     */
+    private static List<TraceLocation> createDrive(Random random){
+
+        List<TraceLocation> locations = new ArrayList<>(FIXES);
+        double latitude = 38.7369, longitude = -9.1388, heading = 0;
+
+        for(int i = 0; i < FIXES; i++){
+
+            if(random.nextInt(30) == 0)
+                heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;
+
+            latitude += Math.toDegrees(20 * Math.cos(heading) / EARTH_RADIUS);
+            longitude += Math.toDegrees(20 * Math.sin(heading) / (EARTH_RADIUS * Math.cos(Math.toRadians(latitude))));
+
+            float draw = random.nextFloat();
+
+            TraceLocation location = new TraceLocation();
+            location.setProvider("fused");
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setTime(i * 1000L);
+            location.setAccuracy(draw < 0.2f ? 60 + random.nextFloat() * 90 : 4 + random.nextFloat() * 5);
+            location.setSpeed(draw > 0.95f ? 80 : 20);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+                location.setElapsedRealtimeNanos(i * 1000000000L);
+
+            locations.add(location);
+        }
+
+        return locations;
+    }
+
+    private static class CountingSink implements LocationSink {
+
+        long count = 0;
+
+        @Override
+        public void onLocation(TraceLocation location) {
+            count++;
+        }
+    }
+
+    /**
+     * @return The number of rule evaluations, of every rule.
+     */
+    private static long countEvaluations(FilterMetrics metrics){
+        long evaluations = 0;
+
+        for(RuleMetrics rule : metrics.getRuleMetrics())
+            evaluations += rule.getEvaluatedCount();
+
+        return evaluations;
+    }
+
+    /**
+     * @return The time, in nanoseconds, the replay took.
+     */
+    private static long replay(OutlierFilteringLocationQueue queue, List<TraceLocation> locations){
+        queue.clearQueue();
+
+        long start = System.nanoTime();
+
+        for(int i = 0; i < locations.size(); i++)
+            queue.addLocation(locations.get(i));
+
+        return System.nanoTime() - start;
+    }
+
+    public void testAdaptiveOrdering_reducesTheEvaluationsPerFix() throws Exception {
+
+        List<TraceLocation> drive = createDrive(new Random(42));
+        FilterChainSpec chain = createChain();
+
+        OutlierFilteringLocationQueue declared = new OutlierFilteringLocationQueue(),
+                adaptive = new OutlierFilteringLocationQueue();
+
+        CountingSink declaredSink = new CountingSink(), adaptiveSink = new CountingSink();
+
+        declared.setFilterChain(chain.compile());
+        declared.setAdaptiveOrdering(false);
+        declared.setNext(declaredSink);
+
+        adaptive.setFilterChain(chain.compile());
+        adaptive.setAdaptiveOrdering(true);
+        adaptive.setNext(adaptiveSink);
+
+        //Warm-up, which also lets the adaptive order settle
+        replay(declared, drive);
+        replay(adaptive, drive);
+
+        declared.resetMetrics();
+        adaptive.resetMetrics();
+        declaredSink.count = adaptiveSink.count = 0;
+
+        long declaredNanos = 0, adaptiveNanos = 0;
+
+        //Interleaved, so that both modes share any change in the device's clock speed
+        for(int round = 0; round < ROUNDS; round++){
+            declaredNanos += replay(declared, drive);
+            adaptiveNanos += replay(adaptive, drive);
+        }
+
+        FilterMetrics declaredMetrics = declared.getMetrics(),
+                adaptiveMetrics = adaptive.getMetrics();
+
+        double fixes = ROUNDS * (double) FIXES;
+        long declaredEvaluations = countEvaluations(declaredMetrics),
+                adaptiveEvaluations = countEvaluations(adaptiveMetrics);
+
+        Log.i(LOG_TAG, String.format(
+                "Adaptive rule ordering: %.1f ns per fix declared, %.1f ns per fix adaptive (%.2fx)",
+                declaredNanos / fixes, adaptiveNanos / fixes, declaredNanos / (double) adaptiveNanos));
+        Log.i(LOG_TAG, String.format(
+                "Rule evaluations: %.2f per fix declared, %.2f per fix adaptive",
+                declaredEvaluations / fixes, adaptiveEvaluations / fixes));
+        Log.i(LOG_TAG, "Declared: " + declaredMetrics);
+        Log.i(LOG_TAG, "Adaptive: " + adaptiveMetrics);
+
+        //The order only changes the cost, never the outcome
+        assertEquals(declaredMetrics.getRejectedCount(), adaptiveMetrics.getRejectedCount());
+        assertEquals(declaredMetrics.getRetractedCount(), adaptiveMetrics.getRetractedCount());
+        assertEquals(declaredSink.count, adaptiveSink.count);
+
+        //The cheap and selective accuracy rule moved first, and so spared the expensive rules
+        //the locations it rejects
+        RuleMetrics accuracy = adaptiveMetrics.getRuleMetrics().get(2);
+        assertEquals(FilterChainSpec.RuleType.ACCURACY.getKey(), accuracy.getName());
+        assertEquals(adaptiveMetrics.getReceivedCount(), accuracy.getEvaluatedCount());
+        assertTrue(adaptiveMetrics.getRuleMetrics().get(0).getEvaluatedCount()
+                < declaredMetrics.getRuleMetrics().get(0).getEvaluatedCount());
+        assertTrue(adaptiveEvaluations < declaredEvaluations);
+    }
+}
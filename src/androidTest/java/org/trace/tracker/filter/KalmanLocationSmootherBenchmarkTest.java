@@ -0,0 +1,80 @@
+package org.trace.tracker.filter;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of a single update of the KalmanLocationSmoother, over a long replay of a
+ * noisy drive. The cost is only reported, as it varies with the device and its load.
+ */
+public class KalmanLocationSmootherBenchmarkTest extends AndroidTestCase {
+
+    private static final String LOG_TAG = "KalmanBenchmark";
+
+    private static final int FIXES = 100000;
+    private static final int ROUNDS = 20;
+
+    private static final double EARTH_RADIUS = 6371 * 1000;
+    private static final double ORIGIN_LATITUDE = 38.7369, ORIGIN_LONGITUDE = -9.1388;
+
+    private final double[] mLatitude = new double[FIXES], mLongitude = new double[FIXES];
+    private final float[] mAccuracy = new float[FIXES];
+    private final long[] mTime = new long[FIXES];
+
+    /**
+     * Urban drive, at 12 m/s, with a fix every second and accuracies between 5 and 20 meters.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Random random = new Random(1);
+        double metersPerDegreeLat = Math.toRadians(EARTH_RADIUS),
+                metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(ORIGIN_LATITUDE));
+        double north = 0, east = 0, heading = 0;
+
+        for(int i = 0; i < FIXES; i++){
+
+            if(random.nextInt(30) == 0)
+                heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;
+
+            north += 12 * Math.cos(heading);
+            east += 12 * Math.sin(heading);
+
+            float accuracy = 5 + random.nextFloat() * 15;
+
+            mTime[i] = i * 1000L;
+            mAccuracy[i] = accuracy;
+            mLatitude[i] = ORIGIN_LATITUDE + (north + random.nextGaussian() * accuracy / 1.515) / metersPerDegreeLat;
+            mLongitude[i] = ORIGIN_LONGITUDE + (east + random.nextGaussian() * accuracy / 1.515) / metersPerDegreeLon;
+        }
+    }
+
+    private void replay(KalmanLocationSmoother smoother){
+        smoother.reset();
+
+        for(int i = 0; i < FIXES; i++)
+            smoother.update(mLatitude[i], mLongitude[i], mAccuracy[i], mTime[i]);
+    }
+
+    public void testPerFixCost() {
+        KalmanLocationSmoother smoother = new KalmanLocationSmoother(
+                KalmanLocationSmoother.VEHICLE_PROCESS_NOISE, KalmanLocationSmoother.DEFAULT_MAX_TIME_GAP);
+
+        //Warm-up
+        for(int round = 0; round < 5; round++) replay(smoother);
+
+        long start = System.nanoTime();
+
+        for(int round = 0; round < ROUNDS; round++) replay(smoother);
+
+        double nanosPerFix = (System.nanoTime() - start) / (double) (ROUNDS * FIXES);
+
+        Log.i(LOG_TAG, String.format("Kalman smoothing: %.1f ns per fix", nanosPerFix));
+
+        assertTrue(smoother.isInitialized());
+        assertFalse(Double.isNaN(smoother.getLatitude()) || Double.isNaN(smoother.getLongitude()));
+    }
+}
@@ -0,0 +1,145 @@
+package org.trace.tracker.filter;
+
+import android.test.AndroidTestCase;
+
+import org.trace.tracker.pipeline.LocationSink;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays a stop-heavy trip through the StayPointDetectionStage, and checks the locations it
+ * actually emits, that is, the driving fixes, unchanged, and a single location per stop, which
+ * spans the whole stop through its dwell time.
+ */
+public class StayPointDetectionStageTest extends AndroidTestCase {
+
+    private static final double EARTH_RADIUS = 6371 * 1000;
+    private static final double ORIGIN_LATITUDE = 38.7369, ORIGIN_LONGITUDE = -9.1388;
+
+    private static final double METERS_PER_DEGREE_LAT = Math.toRadians(EARTH_RADIUS),
+            METERS_PER_DEGREE_LON = METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(ORIGIN_LATITUDE));
+
+    private static final int LEGS = 5, DRIVING_FIXES = 60, STOP_FIXES = 120;
+    private static final long INTERVAL = 5000;
+
+    private static class CollectingSink implements LocationSink {
+
+        final List<TraceLocation> locations = new ArrayList<>();
+
+        @Override
+        public void onLocation(TraceLocation location) {
+            locations.add(location);
+        }
+    }
+
+    private static class CountingListener implements StayPointDetectionStage.OnStayListener {
+
+        int started = 0, ended = 0;
+
+        @Override
+        public void onStayStarted(double latitude, double longitude, long startTime) {
+            started++;
+        }
+
+        @Override
+        public void onStayEnded(TraceLocation stayPoint) {
+            ended++;
+        }
+    }
+
+    /**
+     * Urban trip: 5 legs of 5 minutes driving, at 10 m/s, each followed by a 10 minute stop, with
+     * fixes every 5 seconds wandering around the true position.
+     */
+    private static List<TraceLocation> createTrip(Random random){
+        List<TraceLocation> locations = new ArrayList<>();
+        long time = 0;
+        double north = 0;
+
+        for(int leg = 0; leg < LEGS; leg++){
+            for(int phase = 0; phase < 2; phase++){
+
+                boolean isDriving = phase == 0;
+                int fixes = isDriving ? DRIVING_FIXES : STOP_FIXES;
+
+                for(int i = 0; i < fixes; i++, time += INTERVAL){
+
+                    if(isDriving) north += 10 * INTERVAL / 1000;
+
+                    TraceLocation location = new TraceLocation();
+                    location.setProvider("fused");
+                    location.setLatitude(latitude(north + random.nextGaussian() * 8));
+                    location.setLongitude(longitude(random.nextGaussian() * 8));
+                    location.setAccuracy(10);
+                    location.setSpeed(isDriving ? 10 : 0);
+                    location.setTime(time);
+                    locations.add(location);
+                }
+            }
+        }
+
+        return locations;
+    }
+
+    public void testStopHeavyTrip_emitsASingleLocationPerStop() {
+
+        List<TraceLocation> trip = createTrip(new Random(42));
+
+        StayPointDetectionStage stage = new StayPointDetectionStage();
+        CollectingSink sink = new CollectingSink();
+        CountingListener listener = new CountingListener();
+
+        stage.setNext(sink);
+        stage.setOnStayListener(listener);
+
+        for(TraceLocation location : trip)
+            stage.onLocation(location);
+
+        stage.flush();
+
+        List<TraceLocation> emitted = sink.locations;
+
+        assertEquals(trip.size(), stage.getReceivedCount());
+        assertEquals(emitted.size(), stage.getEmittedCount());
+        assertEquals(LEGS, stage.getStayCount());
+        assertEquals(LEGS, listener.started);
+        assertEquals(LEGS, listener.ended);
+
+        //Only the driving fixes and a single location per stop remain
+        assertEquals(LEGS * DRIVING_FIXES + LEGS, emitted.size(), LEGS * 3);
+
+        int stays = 0;
+        long previousEnd = -1;
+
+        for(TraceLocation location : emitted){
+
+            //The locations are emitted in order, and never overlap a previous stay
+            assertTrue(location.getTime() > previousEnd);
+            previousEnd = location.getTime() + location.getDwellTime();
+
+            if(location.getDwellTime() == 0) {
+                assertTrue("Not a received fix", trip.contains(location));
+                continue;
+            }
+
+            //A stay point spans the whole 10 minute stop, give or take the fixes at its ends
+            stays++;
+            assertFalse(trip.contains(location));
+            assertEquals(0, location.getSpeed(), 0);
+            assertEquals(STOP_FIXES * INTERVAL, location.getDwellTime(), 2 * INTERVAL);
+        }
+
+        assertEquals(LEGS, stays);
+    }
+
+    private static double latitude(double north){
+        return ORIGIN_LATITUDE + north / METERS_PER_DEGREE_LAT;
+    }
+
+    private static double longitude(double east){
+        return ORIGIN_LONGITUDE + east / METERS_PER_DEGREE_LON;
+    }
+}
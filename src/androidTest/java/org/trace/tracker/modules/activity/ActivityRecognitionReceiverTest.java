@@ -0,0 +1,85 @@
+package org.trace.tracker.modules.activity;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.location.ActivityRecognitionResult;
+import com.google.android.gms.location.DetectedActivity;
+
+import org.trace.tracker.filter.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency from the moment the activity recognition fires the PendingIntent until the
+ * detected activities reach the sink.
+ */
+public class ActivityRecognitionReceiverTest extends AndroidTestCase {
+
+    private static final String LOG_TAG = "ActivityDeliveryTest";
+
+    /** The extra under which the activity recognition delivers its results. */
+    private static final String EXTRA_ACTIVITY_RESULT = "com.google.android.location.internal.EXTRA_ACTIVITY_RESULT";
+
+    private static final int UPDATES = 200;
+
+    private volatile CountDownLatch mDelivered;
+    private volatile long mDeliveredAt;
+    private volatile List<DetectedActivity> mActivities;
+
+    public void testDeliveryLatency() throws Exception {
+
+        ActivityRecognitionReceiver receiver = new ActivityRecognitionReceiver(new ActivitySink() {
+            @Override
+            public void onActivities(List<DetectedActivity> activities, long time) {
+                mDeliveredAt = System.nanoTime();
+                mActivities = activities;
+                mDelivered.countDown();
+            }
+        });
+
+        getContext().registerReceiver(receiver, ActivityRecognitionReceiver.getIntentFilter(),
+                ActivityRecognitionReceiver.getPermission(getContext()), null);
+
+        PendingIntent pendingIntent = ActivityRecognitionReceiver.getPendingIntent(getContext());
+        LatencyHistogram latency = new LatencyHistogram();
+
+        try {
+            for (int i = 0; i < UPDATES; i++) {
+
+                List<DetectedActivity> activities = new ArrayList<>();
+                activities.add(new DetectedActivity(DetectedActivity.WALKING, 80));
+                activities.add(new DetectedActivity(DetectedActivity.STILL, 20));
+
+                Intent result = new Intent();
+                result.putExtra(EXTRA_ACTIVITY_RESULT, new ActivityRecognitionResult(
+                        activities, System.currentTimeMillis(), SystemClock.elapsedRealtime()));
+
+                mDelivered = new CountDownLatch(1);
+
+                long sentAt = System.nanoTime();
+                pendingIntent.send(getContext(), 0, result);
+
+                assertTrue(mDelivered.await(5, TimeUnit.SECONDS));
+                assertEquals(DetectedActivity.WALKING, mActivities.get(0).getType());
+
+                latency.record(mDeliveredAt - sentAt);
+            }
+        } finally {
+            getContext().unregisterReceiver(receiver);
+        }
+
+        Log.i(LOG_TAG, "Delivery latency: " + latency);
+
+        assertEquals(UPDATES, receiver.getDeliveryLatency().getCount());
+
+        //A single in-process broadcast, without starting any service
+        assertTrue(latency.getPercentile(0.5) < TimeUnit.MILLISECONDS.toNanos(20));
+    }
+}
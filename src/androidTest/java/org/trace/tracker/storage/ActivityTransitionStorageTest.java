@@ -0,0 +1,154 @@
+package org.trace.tracker.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import org.trace.tracker.storage.PersistentTrackStorage.TraceEntry;
+import org.trace.tracker.storage.data.TraceLocation;
+import org.trace.tracker.storage.data.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores a track whose activity changes within and across batches, and checks that each location
+ * is read back with its own activity, both from the whole track and from a time range that
+ * starts in the middle of a run.
+ */
+public class ActivityTransitionStorageTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "TraceTracker.db";
+    private static final String SESSION = "1";
+
+    private static final long START = 1460000000000L;
+
+    private PersistentTrackStorage mStorage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PersistentTrackStorage.getInstance(getContext()).close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mStorage = PersistentTrackStorage.getInstance(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStorage.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * @param from The first location's index, where the i-th location is stored i seconds after the start.
+     */
+    private static List<TraceLocation> createBatch(int from, int size, int activity, int confidence){
+        List<TraceLocation> locations = new ArrayList<>(size);
+
+        for(int i = from; i < from + size; i++){
+            TraceLocation location = new TraceLocation();
+            location.setProvider("fused");
+            location.setLatitude(38.7369 + i * 0.00001);
+            location.setLongitude(-9.1388);
+            location.setTime(START + i * 1000L);
+            location.setAccuracy(8);
+            location.setSpeed(1.4f);
+            location.setActivity(activity, confidence);
+            locations.add(location);
+        }
+
+        return locations;
+    }
+
+    /**
+     * 0-9s walking, 10-14s walking, 15-19s driving and 20-29s cycling, in three batches, where the
+     * second one continues the first one's activity.
+     */
+    private void storeTrack(){
+        mStorage.storeLocations(createBatch(0, 10, DetectedActivity.WALKING, 80), SESSION, false, 0);
+
+        List<TraceLocation> batch = createBatch(10, 5, DetectedActivity.WALKING, 80);
+        batch.addAll(createBatch(15, 5, DetectedActivity.IN_VEHICLE, 90));
+        mStorage.storeLocations(batch, SESSION, false, 0);
+
+        mStorage.storeLocations(createBatch(20, 10, DetectedActivity.ON_BICYCLE, 70), SESSION, false, 0);
+    }
+
+    private static void assertActivity(int index, TraceLocation location){
+        assertEquals(START + index * 1000L, location.getTime());
+
+        if(index < 15) {
+            assertEquals(DetectedActivity.WALKING, location.getActivityType());
+            assertEquals(80, location.getActivityConfidence());
+        }else if(index < 20) {
+            assertEquals(DetectedActivity.IN_VEHICLE, location.getActivityType());
+            assertEquals(90, location.getActivityConfidence());
+        }else {
+            assertEquals(DetectedActivity.ON_BICYCLE, location.getActivityType());
+            assertEquals(70, location.getActivityConfidence());
+        }
+    }
+
+    /**
+     * @return The number of locations iterated, each of which was checked against its index.
+     */
+    private static int assertActivities(TrackLocationIterator locations, int from){
+        int index = from;
+
+        try {
+            while (locations.hasNext())
+                assertActivity(index++, locations.next());
+        }finally {
+            locations.close();
+        }
+
+        return index - from;
+    }
+
+    public void testEachLocationKeepsItsActivity() {
+
+        storeTrack();
+
+        assertEquals(30, assertActivities(mStorage.iterateTrack(SESSION), 0));
+
+        Track track = mStorage.getTrack(SESSION);
+        assertNotNull(track);
+
+        int index = 0;
+        for(TraceLocation location : track.getTracedTrack())
+            assertActivity(index++, location);
+
+        assertEquals(30, index);
+
+        //Only the changes of activity are stored, even across batches
+        assertEquals(3, countTransitions());
+    }
+
+    public void testRangeStartingMidRunKeepsTheRunsActivity() {
+
+        storeTrack();
+
+        //Starts after the driving transition, which is thus before the range
+        assertEquals(9, assertActivities(mStorage.iterateTrack(SESSION, START + 17000, START + 25000), 17));
+
+        //Lies within the walking run, whose transition is at the track's start
+        assertEquals(10, assertActivities(mStorage.iterateTrack(SESSION, START + 3000, START + 12000), 3));
+    }
+
+    private int countTransitions(){
+        SQLiteDatabase db = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM " + TraceEntry.TABLE_NAME_ACTIVITIES, null);
+
+        try {
+            c.moveToFirst();
+            return c.getInt(0);
+        }finally {
+            c.close();
+            db.close();
+        }
+    }
+}
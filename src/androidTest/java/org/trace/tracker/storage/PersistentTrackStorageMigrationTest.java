@@ -0,0 +1,201 @@
+package org.trace.tracker.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import org.trace.tracker.storage.data.TraceLocation;
+import org.trace.tracker.storage.data.Track;
+
+/**
+ * Upgrades a version 2 database, holding 500k locations, into the current schema and compares
+ * the time it takes to load and delete a track before and after the migration.
+ */
+public class PersistentTrackStorageMigrationTest extends AndroidTestCase {
+
+    private static final String LOG_TAG = "MigrationTest";
+    private static final String DATABASE_NAME = "TraceTracker.db";
+
+    private static final int TRACKS = 50;
+    private static final int LOCATIONS_PER_TRACK = 10000;
+
+    //Version 2 schema, as it was before the migrations were introduced
+    private static final String V2_CREATE_TRACKS =
+            "CREATE TABLE tracks ( _id INTEGER PRIMARY KEY AUTOINCREMENT, localSession TEXT, " +
+                    "isValid INTEGER DEFAULT 0, isClosed INTEGER DEFAULT 0, elapsedTime DOUBLE, elapsedDistance DOUBLE)";
+
+    private static final String V2_CREATE_TRACES =
+            "CREATE TABLE traces (_id INTEGER PRIMARY KEY AUTOINCREMENT, latitude DOUBLE, longitude DOUBLE, " +
+                    "attributes TEXT, timestamp LONG, trackId INTEGER, " +
+                    " FOREIGN KEY ( trackId ) REFERENCES tracks ( _id ) ON DELETE CASCADE)";
+
+    private static final String V2_QUERY_TRACK =
+            "SELECT latitude, longitude, timestamp, attributes, localSession, isClosed, isValid, elapsedDistance, elapsedTime" +
+                    " FROM tracks INNER JOIN traces ON tracks._id=traces.trackId WHERE localSession = ?";
+
+    private static final String ATTRIBUTES =
+            "{\"accuracy\":8.0,\"speed\":1.4,\"bearing\":90.0,\"altitude\":100.0,\"elapsedNanos\":0," +
+                    "\"provider\":\"fused\",\"activity\":\"{\\\"type\\\":\\\"Walking\\\",\\\"confidence\\\":80}\"}";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PersistentTrackStorage.getInstance(getContext()).close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        createVersion2Database();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PersistentTrackStorage.getInstance(getContext()).close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeKeepsDataAndSpeedsUpQueries() {
+
+        //Before: version 2 schema, without indexes
+        SQLiteDatabase legacy = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        long start = System.nanoTime();
+        int loaded = loadLegacyTrack(legacy, "1");
+        long legacyLoad = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        legacy.execSQL("DELETE FROM traces WHERE trackId = 2");
+        legacy.execSQL("DELETE FROM tracks WHERE _id = 2");
+        long legacyDelete = System.nanoTime() - start;
+
+        legacy.close();
+        assertEquals(LOCATIONS_PER_TRACK, loaded);
+
+        //Upgrade
+        start = System.nanoTime();
+        PersistentTrackStorage storage = PersistentTrackStorage.getInstance(getContext());
+        int tracks = storage.getTracksCount();
+        long upgrade = System.nanoTime() - start;
+
+        assertEquals(TRACKS - 1, tracks);
+
+        //After: current schema
+        start = System.nanoTime();
+        Track track = storage.getTrack("3");
+        long currentLoad = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        boolean deleted = storage.deleteTrackById("4");
+        long currentDelete = System.nanoTime() - start;
+
+        assertNotNull(track);
+        assertEquals(LOCATIONS_PER_TRACK, track.getTracedTrack().size());
+        assertEquals(LOCATIONS_PER_TRACK, assertMigratedActivities(storage.iterateTrack("3")));
+        assertTrue(deleted);
+        assertFalse(storage.trackExists("4"));
+        assertEquals(TRACKS - 2, storage.getTracksCount());
+        assertEquals((TRACKS - 2) * LOCATIONS_PER_TRACK, countLocations());
+
+        Log.i(LOG_TAG, "Upgrade of "+(TRACKS * LOCATIONS_PER_TRACK)+" locations took "+toMillis(upgrade)+"ms");
+        Log.i(LOG_TAG, "getTrack: "+toMillis(legacyLoad)+"ms before, "+toMillis(currentLoad)+"ms after");
+        Log.i(LOG_TAG, "delete: "+toMillis(legacyDelete)+"ms before, "+toMillis(currentDelete)+"ms after");
+    }
+
+    private void createVersion2Database(){
+
+        SQLiteDatabase db = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        db.beginTransaction();
+        try {
+            db.execSQL(V2_CREATE_TRACKS);
+            db.execSQL(V2_CREATE_TRACES);
+
+            SQLiteStatement track = db.compileStatement(
+                    "INSERT INTO tracks (localSession, isValid, isClosed, elapsedTime, elapsedDistance) VALUES (?, 0, 0, 0, 0)");
+
+            SQLiteStatement location = db.compileStatement(
+                    "INSERT INTO traces (latitude, longitude, attributes, timestamp, trackId) VALUES (?, ?, ?, ?, ?)");
+
+            long timestamp = 1460000000000L;
+
+            for(int i = 1; i <= TRACKS; i++){
+                track.bindString(1, String.valueOf(i));
+                long trackId = track.executeInsert();
+
+                for(int j = 0; j < LOCATIONS_PER_TRACK; j++){
+                    location.bindDouble(1, 38.7369 + j * 0.00001);
+                    location.bindDouble(2, -9.1427 + j * 0.00001);
+                    location.bindString(3, ATTRIBUTES);
+                    location.bindLong(4, timestamp += 1000);
+                    location.bindLong(5, trackId);
+                    location.executeInsert();
+                }
+            }
+
+            db.setVersion(2);
+            db.setTransactionSuccessful();
+        }finally {
+            db.endTransaction();
+            db.close();
+        }
+    }
+
+    private int loadLegacyTrack(SQLiteDatabase db, String session){
+        int count = 0;
+        Cursor c = db.rawQuery(V2_QUERY_TRACK, new String[]{ session });
+
+        try {
+            while (c.moveToNext()) {
+                c.getDouble(0);
+                c.getDouble(1);
+                c.getLong(2);
+                c.getString(3);
+                count++;
+            }
+        }finally {
+            c.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The number of locations iterated, all of which kept the activity of their attributes.
+     */
+    private static int assertMigratedActivities(TrackLocationIterator locations){
+        int count = 0;
+
+        try {
+            while (locations.hasNext()) {
+                TraceLocation location = locations.next();
+                assertEquals(DetectedActivity.WALKING, location.getActivityType());
+                assertEquals(80, location.getActivityConfidence());
+                count++;
+            }
+        }finally {
+            locations.close();
+        }
+
+        return count;
+    }
+
+    private int countLocations(){
+        SQLiteDatabase db = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        Cursor c = db.rawQuery("SELECT COUNT(*) FROM traces", null);
+
+        try {
+            c.moveToFirst();
+            return c.getInt(0);
+        }finally {
+            c.close();
+            db.close();
+        }
+    }
+
+    private static long toMillis(long nanos){
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,84 @@
+package org.trace.tracker.storage;
+
+import android.test.AndroidTestCase;
+
+import org.trace.tracker.storage.data.TraceLocation;
+import org.trace.tracker.storage.data.Track;
+import org.trace.tracker.storage.data.TrackSummary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores a track with a stay point and checks that the loaded track and its stored summary agree
+ * on the track's end and moving time, neither of which counts the stay as movement.
+ */
+public class TrackDwellTimeTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "TraceTracker.db";
+
+    private static final long START = 1460000000000L;
+
+    private PersistentTrackStorage mStorage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PersistentTrackStorage.getInstance(getContext()).close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mStorage = PersistentTrackStorage.getInstance(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStorage.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static TraceLocation createLocation(long time, long dwellTime, float speed){
+        TraceLocation location = new TraceLocation();
+        location.setProvider("fused");
+        location.setLatitude(38.7369 + time * 0.00000001);
+        location.setLongitude(-9.1388);
+        location.setTime(START + time);
+        location.setDwellTime(dwellTime);
+        location.setAccuracy(8);
+        location.setSpeed(speed);
+        return location;
+    }
+
+    public void testStayPointIsNotMovingTime() {
+
+        List<TraceLocation> locations = new ArrayList<>();
+        locations.add(createLocation(0, 0, 1.4f));
+        locations.add(createLocation(10000, 0, 1.4f));
+        //A 5 minute stay, which the next location, while moving, must not count
+        locations.add(createLocation(20000, 300000, 1.4f));
+        locations.add(createLocation(330000, 0, 1.4f));
+        locations.add(createLocation(340000, 0, 1.4f));
+        //The track ends with another, 1 minute, stay
+        locations.add(createLocation(350000, 60000, 0));
+
+        mStorage.storeLocations(locations, "1", false, 0);
+
+        Track track = new Track();
+        for(TraceLocation location : locations)
+            track.addTracedLocation(location);
+
+        assertEquals(410000, track.getElapsedTime());
+        assertEquals(40000, track.getMovingTime());
+
+        //The loaded track agrees with the in-memory one
+        Track stored = mStorage.getTrack("1");
+        assertNotNull(stored);
+        assertEquals(track.getElapsedTime(), stored.getElapsedTime());
+        assertEquals(track.getMovingTime(), stored.getMovingTime());
+
+        //As does the summary, which is computed by the storage
+        TrackSummary summary = mStorage.getTracksSessions().get(0);
+        assertEquals(START, summary.getStartTime());
+        assertEquals(START + track.getElapsedTime(), summary.getEndTime());
+        assertEquals(track.getMovingTime(), summary.getMovingTime());
+    }
+}
@@ -0,0 +1,162 @@
+package org.trace.tracker.storage;
+
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import org.trace.tracker.filter.FilterChainSpec;
+import org.trace.tracker.filter.TrackReprocessor;
+import org.trace.tracker.storage.data.TraceLocation;
+import org.trace.tracker.storage.data.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reprocesses stored tracks into new versions, checking how the versions are numbered and
+ * deleted, and that the reprocessing stops once cancelled or out of time.
+ */
+public class TrackReprocessorTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "TraceTracker.db";
+
+    private static final FilterChainSpec FILTERS = FilterChainSpec.getDefault(40, 55.56f);
+
+    private PersistentTrackStorage mStorage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PersistentTrackStorage.getInstance(getContext()).close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        mStorage = PersistentTrackStorage.getInstance(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStorage.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Stores a walk, at 1.4 m/s with a fix every second, where every tenth fix is inaccurate.
+     */
+    private void storeTrack(String session, int size){
+
+        List<TraceLocation> locations = new ArrayList<>(size);
+
+        for(int i = 0; i < size; i++){
+            TraceLocation location = new TraceLocation();
+            location.setProvider("fused");
+            location.setLatitude(38.7369 + i * 0.0000126);
+            location.setLongitude(-9.1388);
+            location.setTime(1460000000000L + i * 1000L);
+            location.setAccuracy(i % 10 == 5 ? 120 : 8);
+            location.setSpeed(1.4f);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+                location.setElapsedRealtimeNanos(i * 1000000000L);
+
+            locations.add(location);
+        }
+
+        mStorage.storeLocations(locations, session, false, size * 1.4);
+    }
+
+    private List<String> storeTracks(int count, int size){
+        List<String> sessions = new ArrayList<>(count);
+
+        for(int i = 1; i <= count; i++) {
+            storeTrack(String.valueOf(i), size);
+            sessions.add(String.valueOf(i));
+        }
+
+        return sessions;
+    }
+
+    public void testVersionsAreNumberedAndDeletedWithTheirTrack() {
+
+        storeTrack("1", 500);
+        storeTrack("2", 500);
+
+        List<String> sessions = new ArrayList<>();
+        sessions.add("1");
+
+        TrackReprocessor reprocessor = new TrackReprocessor(mStorage, FILTERS, false, 1);
+
+        TrackReprocessor.Result first = reprocessor.reprocess(sessions, 0),
+                second = reprocessor.reprocess(sessions, 0);
+
+        assertTrue(first.isComplete());
+        assertEquals("1" + PersistentTrackStorage.VERSION_SEPARATOR + "1", first.getVersions().get(0));
+        assertEquals("1" + PersistentTrackStorage.VERSION_SEPARATOR + "2", second.getVersions().get(0));
+
+        List<String> versions = mStorage.getTrackVersions("1");
+        assertEquals(2, versions.size());
+        assertEquals(first.getVersions().get(0), versions.get(0));
+        assertEquals(second.getVersions().get(0), versions.get(1));
+
+        //The inaccurate fixes are gone from the version, while the original track is unchanged
+        Track version = mStorage.getTrack(versions.get(0));
+        assertNotNull(version);
+        assertEquals(450, version.getTracedTrack().size());
+        assertEquals(500, mStorage.getTrack("1").getTracedTrack().size());
+
+        //Versions are not listed alongside the original tracks
+        assertEquals(2, mStorage.getTracksCount());
+
+        assertTrue(mStorage.deleteTrackById("1"));
+
+        assertFalse(mStorage.trackExists(versions.get(0)));
+        assertFalse(mStorage.trackExists(versions.get(1)));
+        assertTrue(mStorage.getTrackVersions("1").isEmpty());
+        assertTrue(mStorage.trackExists("2"));
+    }
+
+    public void testCancellationReportsTheRemainingTracks() {
+
+        List<String> sessions = storeTracks(6, 2000);
+
+        final TrackReprocessor reprocessor = new TrackReprocessor(mStorage, FILTERS, false, 1);
+        reprocessor.setProgressListener(new TrackReprocessor.ProgressListener() {
+            @Override
+            public void onProgress(String session, int completed, int total) {
+                reprocessor.cancel();
+            }
+        });
+
+        TrackReprocessor.Result result = reprocessor.reprocess(sessions, 0);
+
+        //A single worker, which is cancelled once the first track is done
+        assertFalse(result.isComplete());
+        assertEquals(1, result.getVersions().size());
+        assertEquals(sessions.size() - 1, result.getRemaining().size());
+        assertTrue(result.getFailed().isEmpty());
+
+        for(String session : result.getRemaining())
+            assertTrue(mStorage.getTrackVersions(session).isEmpty());
+    }
+
+    public void testTimeBudgetStopsTheReprocessing() {
+
+        List<String> sessions = storeTracks(8, 20000);
+
+        TrackReprocessor reprocessor = new TrackReprocessor(mStorage, FILTERS, true, 2);
+        TrackReprocessor.Result result = reprocessor.reprocess(sessions, 1);
+
+        assertFalse(result.isComplete());
+        assertEquals(sessions.size(), result.getVersions().size() + result.getRemaining().size()
+                + result.getFailed().size() + result.getEmptyCount());
+        assertTrue("Took " + result.getElapsedTime() + "ms", result.getElapsedTime() < 5000);
+
+        //The tracks which ran out of time have no partial version
+        for(String session : result.getRemaining())
+            assertTrue(mStorage.getTrackVersions(session).isEmpty());
+
+        //Once resumed, without a budget, every remaining track is reprocessed
+        TrackReprocessor.Result resumed = reprocessor.reprocess(result.getRemaining(), 0);
+
+        assertTrue(resumed.isComplete());
+        assertEquals(result.getRemaining().size(), resumed.getVersions().size());
+    }
+}
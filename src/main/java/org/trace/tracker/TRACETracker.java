@@ -1,26 +1,33 @@
 package org.trace.tracker;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
 import android.location.Location;
 import android.util.Log;
 
 import com.google.android.gms.location.DetectedActivity;
 import com.google.android.gms.location.LocationServices;
 
+import org.trace.tracker.filter.FilterMetrics;
+import org.trace.tracker.filter.StayPointDetectionStage;
+import org.trace.tracker.filter.StayPointDetector;
 import org.trace.tracker.google.GoogleClientManager;
-import org.trace.tracker.modules.activity.ActivityConstants;
+import org.trace.tracker.modules.activity.ActivityInference;
 import org.trace.tracker.modules.activity.ActivityRecognitionModule;
+import org.trace.tracker.modules.activity.ActivitySink;
 import org.trace.tracker.modules.location.FusedLocationModule;
+import org.trace.tracker.pipeline.BroadcastLocationSink;
+import org.trace.tracker.pipeline.LocationPipeline;
+import org.trace.tracker.pipeline.LocationSink;
 import org.trace.tracker.settings.ConfigurationProfile;
 import org.trace.tracker.settings.ConfigurationsManager;
+import org.trace.tracker.storage.BufferedTrackWriter;
 import org.trace.tracker.storage.PersistentTrackStorage;
+import org.trace.tracker.storage.TrackWriterMetrics;
 import org.trace.tracker.storage.data.TraceLocation;
 
-import java.util.ArrayList;
+import java.util.List;
 
-public class TRACETracker extends BroadcastReceiver implements CollectorManager {
+public class TRACETracker implements CollectorManager {
 
     private static final String LOG_TAG = "TRACETracker";
 
@@ -42,6 +49,7 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
 
     //Activity Modules
     private DetectedActivity mCurrentActivity = null;
+    private final ActivityInference mActivityInference = new ActivityInference();
     private ActivityRecognitionModule mActivityRecognitionModule = null;
 
     //Outlier Filters Parameters
@@ -52,6 +60,13 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
 
     //Persistent Storage
     private PersistentTrackStorage mTrackPersistentStorage;
+    private BufferedTrackWriter mTrackWriter = null;
+    private TrackWriterMetrics mLastWriterMetrics = null;
+
+    //Location Pipeline
+    private final LocationPipeline mLocationPipeline = new LocationPipeline();
+    private BroadcastLocationSink mBroadcastSink = null;
+    private StayPointDetectionStage mStayPointStage = null;
 
     private TRACETracker(Context context){
         mContext = context;
@@ -61,8 +76,24 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
 
         //Settings
         mSettingsManager = ConfigurationsManager.getInstance(context);
+        mSettingsManager.addOnTrackingProfileChangedListener(new ConfigurationsManager.OnTrackingProfileChangedListener() {
+            @Override
+            public void onTrackingProfileChanged(ConfigurationProfile profile) {
+                //Settings are only applied once the modules have been initialized
+                if(mFusedLocationModule != null)
+                    updateSettings();
+            }
+        });
 
-        mTrackPersistentStorage = new PersistentTrackStorage(mContext);
+        mTrackPersistentStorage = PersistentTrackStorage.getInstance(mContext);
+
+        //The tracker is the first sink, so that every other sink receives already annotated locations
+        mLocationPipeline.addSink(new LocationSink() {
+            @Override
+            public void onLocation(TraceLocation location) {
+                onHandleLocation(location);
+            }
+        });
     }
 
     protected static TRACETracker getTracker(Context ctx){
@@ -77,11 +108,19 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
 
         mFusedLocationModule = new FusedLocationModule(
                 mContext,
-                mGoogleMan.getApiClient());
+                mGoogleMan.getApiClient(),
+                mLocationPipeline);
 
+        //Activities are handed directly to the tracker, without any intermediate service
         mActivityRecognitionModule = new ActivityRecognitionModule(
                 mContext,
-                mGoogleMan.getApiClient());
+                mGoogleMan.getApiClient(),
+                new ActivitySink() {
+                    @Override
+                    public void onActivities(List<DetectedActivity> activities, long time) {
+                        onHandleDetectedActivity(activities, time);
+                    }
+                });
     }
 
 
@@ -94,10 +133,14 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
         mFusedLocationModule.setInterval(profile.getLocationInterval());
         mFusedLocationModule.setFastInterval(profile.getLocationFastInterval());
         mFusedLocationModule.setMinimumDisplacement(profile.getLocationDisplacementThreshold());
-        mFusedLocationModule.setMinimumAccuracy(profile.getLocationMinimumAccuracy());
         mFusedLocationModule.setPriority(profile.getLocationTrackingPriority());
-        mFusedLocationModule.setMaximumSpeed(profile.getLocationMaximumSpeed());
+        mFusedLocationModule.setOutlierFilters(profile.getLocationOutlierFilters());
         mFusedLocationModule.activateRemoveOutliers(profile.isActiveOutlierRemoval());
+        mFusedLocationModule.activateSmoothing(profile.isSmoothing());
+        mFusedLocationModule.activateAdaptiveSampling(profile.isAdaptiveSampling());
+        mFusedLocationModule.activateStillPowerSaving(
+                profile.isStillPowerSaving(), profile.getStillTimeout(), profile.isStillSuspending());
+        updateStayPointDetection(profile);
 
         if(mActivityRecognitionModule ==null) init();
         mActivityRecognitionModule.setInterval(profile.getActivityInterval());
@@ -119,15 +162,33 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
         if(mFusedLocationModule ==null) init();
 
         travelledDistance = 0;
+
+        StayPointDetectionStage stayPoints = mStayPointStage;
+        if(stayPoints != null) stayPoints.reset();
+
         mFusedLocationModule.startTracking();
     }
 
     public void stopLocationUpdates(){
         mFusedLocationModule.stopTracking();
+
+        //The locations held back by the stay point detection are also part of the track
+        StayPointDetectionStage stayPoints = mStayPointStage;
+        if(stayPoints != null) stayPoints.flush();
+
+        //Make sure every buffered location is stored before the track is inspected
+        if(mTrackWriter != null)
+            mTrackWriter.flush();
     }
 
     public void startActivityUpdates(){
         if(mActivityRecognitionModule ==null) init();
+
+        synchronized (mLock) {
+            mActivityInference.reset();
+            mCurrentActivity = null;
+        }
+
         mActivityRecognitionModule.startTracking();
     }
 
@@ -138,12 +199,7 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
 
     private void onHandleLocation(TraceLocation location){
 
-        String session  = mSessionId;
-        boolean isValid = isValidSession;
-
-        //Store
         location.setActivityMode(mCurrentActivity);
-        mTrackPersistentStorage.storeLocation(location, session, isValid);
 
         //Update the current location
         synchronized (mLocationLock){
@@ -154,18 +210,19 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
             mCurrentLocation = location;
         }
 
-        //Update the travelled distance
-        mTrackPersistentStorage.updateTravelledDistanceAndTime(session, travelledDistance, 0);
+        //Store the location and the travelled distance
+        if(mTrackWriter != null)
+            mTrackWriter.append(location, travelledDistance);
     }
 
-    private void onHandleDetectedActivity(ArrayList<DetectedActivity> detectedActivities){
+    private void onHandleDetectedActivity(List<DetectedActivity> detectedActivities, long time){
 
         if(detectedActivities.isEmpty()) return;
 
         DetectedActivity aux = detectedActivities.get(0);
 
         for(DetectedActivity activity : detectedActivities)
-            if (aux.getConfidence() > activity.getConfidence())
+            if (activity.getConfidence() > aux.getConfidence())
                 aux = activity;
 
         if(aux.getConfidence() < mMinimumActivityConfidence) {
@@ -174,27 +231,28 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
             return;
         }
 
-        synchronized (mLock) {
-            mCurrentActivity = aux;
-        }
-    }
-
-    @Override
-    public void onReceive(Context context, Intent intent) {
-
-        if(intent.hasExtra(org.trace.tracker.TrackingConstants.tracker.LOCATION_EXTRA)) {
+        int[] types = new int[detectedActivities.size()],
+                confidences = new int[detectedActivities.size()];
 
-            TraceLocation location = intent.getParcelableExtra(org.trace.tracker.TrackingConstants.tracker.LOCATION_EXTRA);
-            onHandleLocation(location);
-
-
-        }else if(intent.hasExtra(ActivityConstants.ACTIVITY_EXTRA)) {
+        for(int i = 0; i < types.length; i++){
+            types[i] = detectedActivities.get(i).getType();
+            confidences[i] = detectedActivities.get(i).getConfidence();
+        }
 
-            ArrayList<DetectedActivity> updatedActivities =
-                    intent.getParcelableArrayListExtra(ActivityConstants.ACTIVITY_EXTRA);
+        //The stored locations, the sampling and the power saving all follow the inferred activity
+        int activity;
+        synchronized (mLock) {
+            mActivityInference.onActivities(types, confidences, time);
+            activity = mActivityInference.getActivity();
 
-            onHandleDetectedActivity(updatedActivities);
+            mCurrentActivity = activity == DetectedActivity.UNKNOWN
+                    ? null
+                    : new DetectedActivity(activity, mActivityInference.getConfidence());
         }
+
+        FusedLocationModule locationModule = mFusedLocationModule;
+        if(locationModule != null && activity != DetectedActivity.UNKNOWN)
+            locationModule.onActivityDetected(activity);
     }
 
     private boolean isFreshLocation(Location location){
@@ -255,6 +313,87 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
         */
     }
 
+    /* Location Pipeline
+    /* Location Pipeline
+    /* Location Pipeline
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * @return The pipeline through which every tracked location is delivered.
+     */
+    public LocationPipeline getLocationPipeline(){
+        return mLocationPipeline;
+    }
+
+    /**
+     * Enables or disables the compatibility sink, which re-publishes every tracked location as a
+     * local broadcast.
+     * @param enabled True if the locations should also be broadcast, false otherwise.
+     * @see BroadcastLocationSink
+     */
+    public void setLocationBroadcastsEnabled(boolean enabled){
+        synchronized (mLocationPipeline) {
+            if (enabled && mBroadcastSink == null) {
+                mBroadcastSink = new BroadcastLocationSink(mContext);
+                mLocationPipeline.addSink(mBroadcastSink);
+            } else if (!enabled && mBroadcastSink != null) {
+                mLocationPipeline.removeSink(mBroadcastSink);
+                mBroadcastSink = null;
+            }
+        }
+    }
+
+    /**
+     * Adds, replaces or removes the stay point detection stage, according to the profile. The
+     * locations held back by the previous stage, if any, are emitted first.
+     */
+    private void updateStayPointDetection(ConfigurationProfile profile){
+        synchronized (mLocationPipeline) {
+
+            StayPointDetectionStage current = mStayPointStage;
+
+            if(current != null && profile.isStayPointDetection()
+                    && current.getRadius() == profile.getStayPointRadius()
+                    && current.getMinimumDuration() == profile.getStayPointMinimumDuration())
+                return;
+
+            if(current != null) {
+                current.flush();
+                mLocationPipeline.removeStage(current);
+                mStayPointStage = null;
+            }
+
+            if(profile.isStayPointDetection()) {
+                mStayPointStage = new StayPointDetectionStage(new StayPointDetector(
+                        profile.getStayPointRadius(),
+                        profile.getStayPointMinimumDuration()));
+
+                mLocationPipeline.addStage(mStayPointStage);
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot of the outlier filtering metrics of the current tracking session, or null
+     * if the tracking has never started.
+     */
+    public FilterMetrics getFilterMetrics(){
+        FusedLocationModule module = mFusedLocationModule;
+        return module == null ? null : module.getFilterMetrics();
+    }
+
+    /**
+     * @return A snapshot of the storage metrics of the current, or last, tracking session, or null
+     * if no session has ever started.
+     */
+    public TrackWriterMetrics getTrackWriterMetrics(){
+        BufferedTrackWriter writer = mTrackWriter;
+        return writer == null ? mLastWriterMetrics : writer.getMetrics();
+    }
+
     /* Session Management
     /* Session Management
     /* Session Management
@@ -269,9 +408,22 @@ public class TRACETracker extends BroadcastReceiver implements CollectorManager
         teardownSession();
         mSessionId = session;
         isValidSession = isValid;
+
+        ConfigurationProfile profile = mSettingsManager.getTrackingProfile();
+
+        mTrackWriter = new BufferedTrackWriter(mTrackPersistentStorage, session, isValid,
+                BufferedTrackWriter.DEFAULT_MAX_BATCH_SIZE, BufferedTrackWriter.DEFAULT_MAX_FLUSH_DELAY,
+                profile.getStorageQueueCapacity(), profile.getStorageOverflowPolicy());
     }
 
     private void teardownSession(){
+
+        if(mTrackWriter != null) {
+            mTrackWriter.close();
+            mLastWriterMetrics = mTrackWriter.getMetrics();
+            mTrackWriter = null;
+        }
+
         mSessionId = null;
         isValidSession = false;
     }
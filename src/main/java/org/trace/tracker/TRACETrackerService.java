@@ -3,7 +3,6 @@ package org.trace.tracker;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.location.Location;
 import android.os.Handler;
 import android.os.IBinder;
@@ -16,7 +15,6 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.trace.tracker.modules.activity.ActivityConstants;
 import org.trace.tracker.settings.ConfigurationProfile;
 import org.trace.tracker.settings.ConfigurationsManager;
 import org.trace.tracker.storage.GPXTrackWriter;
@@ -42,7 +40,7 @@ public class TRACETrackerService extends Service {
     public void onCreate() {
         super.onCreate();
         mTracker = TRACETracker.getTracker(this);
-        mTrackStorage = new PersistentTrackStorage(this);
+        mTrackStorage = PersistentTrackStorage.getInstance(this);
     }
 
     /* Service
@@ -58,13 +56,7 @@ public class TRACETrackerService extends Service {
 
         Log.d(LOG_TAG, "onBind");
 
-        IntentFilter listenerFilter = new IntentFilter();
-        listenerFilter.addAction(ActivityConstants.COLLECT_ACTION);
-        listenerFilter.addAction(org.trace.tracker.TrackingConstants.tracker.COLLECT_LOCATIONS_ACTION);
-
-        LocalBroadcastManager.getInstance(this).registerReceiver(mTracker, listenerFilter);
-        registerReceiver(mTracker, new IntentFilter(ActivityConstants.COLLECT_ACTION)); //TODO: confirmar se este é necessário
-
+        //Locations and activities reach the tracker directly, through its location pipeline and activity sink
         return mMessenger.getBinder();
     }
 
@@ -73,9 +65,6 @@ public class TRACETrackerService extends Service {
     public boolean onUnbind(Intent intent) {
         Log.d(LOG_TAG, "onUnbind");
 
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(mTracker);
-        unregisterReceiver(mTracker);
-
         return super.onUnbind(intent);
     }
 
@@ -291,7 +280,7 @@ public class TRACETrackerService extends Service {
          * @see TrackSummary
          */
         public static List<TrackSummary> getAllStoredTracks(Context context){
-            PersistentTrackStorage storage = new PersistentTrackStorage(context);
+            PersistentTrackStorage storage = PersistentTrackStorage.getInstance(context);
             return storage.getTracksSessions();
         }
 
@@ -303,7 +292,7 @@ public class TRACETrackerService extends Service {
          * @see Track
          */
         public static Track getStoredTrack(Context context, String sessionId){
-            PersistentTrackStorage storage = new PersistentTrackStorage(context);
+            PersistentTrackStorage storage = PersistentTrackStorage.getInstance(context);
             return storage.getTrack(sessionId);
         }
 
@@ -313,7 +302,7 @@ public class TRACETrackerService extends Service {
          * @return The number of stored tracks.
          */
         public static int getStoredTracksCount(Context context){
-            PersistentTrackStorage storage = new PersistentTrackStorage(context);
+            PersistentTrackStorage storage = PersistentTrackStorage.getInstance(context);
             return  storage.getTracksCount();
         }
 
@@ -322,7 +311,7 @@ public class TRACETrackerService extends Service {
          * @param sessionId The track's session identifier.
          */
         public static void deleteStoredTrack(Context context, String sessionId){
-            PersistentTrackStorage storage = new PersistentTrackStorage(context);
+            PersistentTrackStorage storage = PersistentTrackStorage.getInstance(context);
             storage.deleteTrackById(sessionId);
         }
 
@@ -340,5 +329,19 @@ public class TRACETrackerService extends Service {
         public static String exportStoredTrackToExternalMemory(Context context, Track track){
             return GPXTrackWriter.exportAsGPX(context, track);
         }
+
+        /**
+         * Exports the stored track identified by its session identifier to external storage, as
+         * a gpx file. The track's locations are streamed from storage, so that the track is never
+         * fully loaded into memory.
+         *
+         * <br><b>Note:</b> It is important to assure in API version above 23, that the READ and
+         * WRITE permissions for external storage have been granted.
+         *
+         * @param sessionId The track's session identifier
+         */
+        public static String exportStoredTrackToExternalMemory(Context context, String sessionId){
+            return GPXTrackWriter.exportAsGPX(context, sessionId);
+        }
     }
 }
\ No newline at end of file
@@ -28,11 +28,18 @@ import android.os.Messenger;
 import android.os.RemoteException;
 import android.support.v4.content.LocalBroadcastManager;
 
+import org.trace.tracker.filter.FilterMetrics;
+import org.trace.tracker.filter.TrackReprocessor;
+import org.trace.tracker.pipeline.LocationPipeline;
+import org.trace.tracker.pipeline.LocationSink;
 import org.trace.tracker.settings.ConfigurationProfile;
 import org.trace.tracker.settings.ConfigurationsManager;
 import org.trace.tracker.storage.PersistentTrackStorage;
 import org.trace.tracker.storage.data.TraceLocation;
 import org.trace.tracker.storage.data.Track;
+import org.trace.tracker.storage.TrackSummaryPage;
+import org.trace.tracker.storage.TrackSummaryQuery;
+import org.trace.tracker.storage.TrackWriterMetrics;
 import org.trace.tracker.storage.data.TrackSummary;
 
 import java.util.List;
@@ -63,12 +70,22 @@ public class Tracker {
         mMessenger  = messenger;
 
         mCurrentLocation= null;
-        mTrackStorage   = new PersistentTrackStorage(mContext);
+        mTrackStorage   = PersistentTrackStorage.getInstance(mContext);
         mSettingsManager= ConfigurationsManager.getInstance(mContext);
 
         mLocationBroadcastReceiver = new LocationBroadcastReceiver();
     }
 
+    /** Keeps the most recent tracked location, which is delivered directly by the location pipeline. */
+    private final LocationSink mCurrentLocationSink = new LocationSink() {
+        @Override
+        public void onLocation(TraceLocation location) {
+            synchronized (locationQueueLock){
+                mCurrentLocation = location;
+            }
+        }
+    };
+
     private static Tracker TRACKER = null;
 
     public static Tracker getInstance(Context context, Messenger messenger){
@@ -105,6 +122,8 @@ public class Tracker {
         Message msg = Message.obtain(null, TRACETrackerService.TRACETrackerOperations.TRACK_ACTION);
         sendRequest(msg);
 
+        getLocationPipeline().addSink(mCurrentLocationSink);
+
         LocalBroadcastManager.getInstance(mContext).registerReceiver(
                 mLocationBroadcastReceiver,
                 mLocationBroadcastReceiver.getLocationBroadcastIntentFilter());
@@ -119,6 +138,7 @@ public class Tracker {
         Message msg = Message.obtain(null, TRACETrackerService.TRACETrackerOperations.UNTRACK_ACTION);
         sendRequest(msg);
 
+        getLocationPipeline().removeSink(mCurrentLocationSink);
         LocalBroadcastManager.getInstance(mContext).unregisterReceiver(mLocationBroadcastReceiver);
 
         String id;
@@ -154,6 +174,66 @@ public class Tracker {
 
     }
 
+    /* Location Listeners
+    /* Location Listeners
+    /* Location Listeners
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    private LocationPipeline getLocationPipeline(){
+        return TRACETracker.getTracker(mContext.getApplicationContext()).getLocationPipeline();
+    }
+
+    /**
+     * Subscribes a listener to every location tracked from now on. The locations are delivered
+     * directly, on the main thread, and thus listeners should never block.
+     * @param listener The location listener.
+     */
+    public void addLocationListener(LocationSink listener){
+        getLocationPipeline().addSink(listener);
+    }
+
+    public void removeLocationListener(LocationSink listener){
+        getLocationPipeline().removeSink(listener);
+    }
+
+    /**
+     * Enables or disables the re-publication of every tracked location as a local broadcast, with
+     * the {@link TrackingConstants.tracker#COLLECT_LOCATIONS_ACTION} action. This is only kept for
+     * compatibility, as location listeners are far more efficient.
+     * @param enabled True if the locations should be broadcast, false otherwise.
+     * @see #addLocationListener(LocationSink)
+     */
+    public void setLocationBroadcastsEnabled(boolean enabled){
+        TRACETracker.getTracker(mContext.getApplicationContext()).setLocationBroadcastsEnabled(enabled);
+    }
+
+    /**
+     * Fetches the outlier filtering metrics of the current, or last, tracking session. These include
+     * how many locations were accepted and rejected, how often each rule rejected a location, and
+     * how long the filtering took, which eases the tuning of the filter chain's thresholds.
+     *
+     * @return A snapshot of the metrics, or null if the tracking has never started.
+     * @see org.trace.tracker.settings.ConfigurationProfile#setLocationOutlierFilters(org.trace.tracker.filter.FilterChainSpec)
+     */
+    public FilterMetrics getOutlierFilterMetrics(){
+        return TRACETracker.getTracker(mContext.getApplicationContext()).getFilterMetrics();
+    }
+
+    /**
+     * Fetches the storage metrics of the current, or last, tracking session. These include how deep
+     * the queue of locations waiting to be stored has been, and how many locations were lost or
+     * delayed because the storage fell behind.
+     *
+     * @return A snapshot of the metrics, or null if the tracking has never started.
+     * @see org.trace.tracker.settings.ConfigurationProfile#setStorageOverflowPolicy(org.trace.tracker.storage.BufferedTrackWriter.OverflowPolicy)
+     */
+    public TrackWriterMetrics getTrackWriterMetrics(){
+        return TRACETracker.getTracker(mContext.getApplicationContext()).getTrackWriterMetrics();
+    }
+
     /* Tracking Configuration Management
     /* Tracking Configuration Management
     /* Tracking Configuration Management
@@ -200,6 +280,19 @@ public class Tracker {
         return mTrackStorage.getTracksSessions();
     }
 
+    /**
+     * Fetches a page of the stored tracks, sorted by their start time and filtered according to
+     * the provided query. The following page is fetched by setting the query's page token to
+     * the one provided by the returned page.
+     * @param query The query that defines the tracks to be listed.
+     * @return The page of TrackSummary
+     * @see TrackSummaryQuery
+     * @see TrackSummaryPage
+     */
+    public TrackSummaryPage getAllTracedTracks(Context context, TrackSummaryQuery query){
+        return mTrackStorage.getTracksSessions(query);
+    }
+
     /**
      * Fetches a track identified by its session identifier as a complete track.
      * @param sessionId The track's identifier
@@ -219,6 +312,20 @@ public class Tracker {
         mTrackStorage.deleteTrackById(sessionId);
     }
 
+    /**
+     * Creates a reprocessor, which reprocesses the stored tracks through the current tracking
+     * profile's outlier filters, storing the cleaned tracks as new versions.
+     * @param isSmoothing True if the cleaned tracks should also be smoothed, false otherwise.
+     * @return The TrackReprocessor
+     * @see TrackReprocessor
+     */
+    public TrackReprocessor createTrackReprocessor(boolean isSmoothing){
+        return new TrackReprocessor(
+                mTrackStorage,
+                mSettingsManager.getTrackingProfile().getLocationOutlierFilters(),
+                isSmoothing);
+    }
+
 
     /* Location Broadcast Listener
     /* Location Broadcast Listener
@@ -234,11 +341,8 @@ public class Tracker {
 
             TraceLocation location = null;
 
-            if (intent.hasExtra(TrackingConstants.tracker.BROADCAST_LOCATION_EXTRA)) {
+            if (intent.hasExtra(TrackingConstants.tracker.BROADCAST_LOCATION_EXTRA))
                 location = intent.getParcelableExtra(TrackingConstants.tracker.BROADCAST_LOCATION_EXTRA);
-            } else if (intent.hasExtra(TrackingConstants.tracker.LOCATION_EXTRA)){
-                location = intent.getParcelableExtra(TrackingConstants.tracker.LOCATION_EXTRA);
-            }
 
             if(location != null)
                 synchronized (locationQueueLock){
@@ -249,7 +353,6 @@ public class Tracker {
         public IntentFilter getLocationBroadcastIntentFilter(){
             IntentFilter filter = new IntentFilter();
             filter.addAction(TrackingConstants.tracker.BROADCAST_LOCATION_ACTION);
-            filter.addAction(TrackingConstants.tracker.COLLECT_LOCATIONS_ACTION);
             return filter;
         }
     }
@@ -0,0 +1,192 @@
+package org.trace.tracker.filter;
+
+/**
+ * Learns the rejection rate of each rule in a chain, where the evaluation stops at the first rule
+ * that rejects a location, and periodically reorders the rules so as to minimize the expected
+ * cost of evaluating the chain.
+ * <br>
+ * For independent rules the expected cost is minimal when the rules are sorted by their cost
+ * divided by their rejection probability, that is, cheap and selective rules first. The cost of
+ * each rule is a static cost class, such as {@link #SCALAR_COST} or {@link #DISTANCE_COST}, and
+ * is never measured, while the rejection rates are learned from the evaluations, with additive
+ * smoothing. Ranks are compared in integer arithmetic, and ties keep the rules' declared order.
+ * <br>
+ * The order is thus a pure function of the rules' outcomes: the same locations, evaluated by the
+ * same chain, always produce the same order, regardless of the device or its load. Rules are only
+ * reordered every {@link #getReorderInterval()} evaluations of the chain, after which the
+ * statistics are halved, so that the order follows changes in the rules' behaviour.
+ * <br>
+ * Only rules whose outcome does not depend on their position may be reordered. The remaining
+ * rules act as barriers, which keep their position and are never crossed by other rules.
+ * <br>
+ * <b>Note:</b> This class is not thread-safe, and does not allocate objects after creation.
+ */
+public class AdaptiveRuleOrder {
+
+    /** Cost class of rules which only compare the location's own attributes with a threshold. */
+    public static final int SCALAR_COST = 1;
+
+    /**
+     * Cost class of rules which compute the distance between locations, an iterative geodesic
+     * computation that costs over an order of magnitude more than a scalar comparison.
+     */
+    public static final int DISTANCE_COST = 16;
+
+    /** Default number of evaluations of the chain between reorderings. */
+    public static final int DEFAULT_REORDER_INTERVAL = 256;
+
+    private final int mReorderInterval;
+    private final boolean[] isReorderable;
+    private final int[] mCosts;
+
+    private final int[] mOrder;
+    private final long[] mEvaluated, mRejected;
+    private int mEvaluationsSinceReorder = 0;
+
+    public AdaptiveRuleOrder(boolean[] reorderable, int[] costs){
+        this(reorderable, costs, DEFAULT_REORDER_INTERVAL);
+    }
+
+    /**
+     * @param reorderable Whether each rule, in its declared order, may be reordered.
+     * @param costs The cost class of each rule, in its declared order, which must be positive.
+     * @param reorderInterval The number of evaluations of the chain between reorderings.
+     */
+    public AdaptiveRuleOrder(boolean[] reorderable, int[] costs, int reorderInterval){
+
+        if(reorderInterval < 1)
+            throw new IllegalArgumentException("The reorder interval must be at least 1.");
+
+        if(costs.length != reorderable.length)
+            throw new IllegalArgumentException("There must be a cost for each rule.");
+
+        for(int cost : costs)
+            if(cost < 1)
+                throw new IllegalArgumentException("The rules' costs must be positive.");
+
+        int size = reorderable.length;
+
+        this.mReorderInterval = reorderInterval;
+        this.isReorderable = reorderable.clone();
+        this.mCosts = costs.clone();
+        this.mOrder = new int[size];
+        this.mEvaluated = new long[size];
+        this.mRejected = new long[size];
+
+        for(int i = 0; i < size; i++)
+            mOrder[i] = i;
+    }
+
+    public int size(){
+        return mOrder.length;
+    }
+
+    /**
+     * @param position The position in the current order.
+     * @return The declared index of the rule evaluated at that position.
+     */
+    public int getRule(int position){
+        return mOrder[position];
+    }
+
+    /**
+     * Records a single evaluation of a rule.
+     *
+     * @param rule The rule's declared index.
+     * @param rejected True if the rule rejected the location, false otherwise.
+     */
+    public void record(int rule, boolean rejected){
+        mEvaluated[rule]++;
+
+        if(rejected) mRejected[rule]++;
+    }
+
+    /**
+     * Signals that the chain has been evaluated for another location, which may reorder the rules.
+     * @return True if the rules were reordered, false otherwise.
+     */
+    public boolean onChainEvaluated(){
+
+        if(++mEvaluationsSinceReorder < mReorderInterval)
+            return false;
+
+        mEvaluationsSinceReorder = 0;
+        reorder();
+        return true;
+    }
+
+    /**
+     * Sorts each run of reorderable rules by rank, using an insertion sort, as chains are short.
+     */
+    private void reorder(){
+
+        int start = 0;
+
+        while (start < mOrder.length){
+
+            if(!isReorderable[mOrder[start]]){
+                start++;
+                continue;
+            }
+
+            int end = start;
+            while (end < mOrder.length && isReorderable[mOrder[end]])
+                end++;
+
+            for(int i = start + 1; i < end; i++){
+                int rule = mOrder[i], j = i - 1;
+
+                while (j >= start && precedes(rule, mOrder[j])){
+                    mOrder[j + 1] = mOrder[j];
+                    j--;
+                }
+
+                mOrder[j + 1] = rule;
+            }
+
+            start = end;
+        }
+
+        for(int i = 0; i < mOrder.length; i++){
+            mEvaluated[i] >>= 1;
+            mRejected[i] >>= 1;
+        }
+    }
+
+    /**
+     * @return True if the first rule has a strictly lower rank, or the same rank and was declared first.
+     */
+    private boolean precedes(int a, int b){
+
+        //rank = cost / probability, where probability = (rejected + 1) / (evaluated + 2), compared
+        //exactly as cost(a) * probability(b) < cost(b) * probability(a)
+        long left = mCosts[a] * (mRejected[b] + 1) * (mEvaluated[a] + 2),
+                right = mCosts[b] * (mRejected[a] + 1) * (mEvaluated[b] + 2);
+
+        return left < right || (left == right && a < b);
+    }
+
+    /**
+     * @param rule The rule's declared index.
+     * @return The cost class of the rule.
+     */
+    public int getCost(int rule){
+        return mCosts[rule];
+    }
+
+    public int getReorderInterval() {
+        return mReorderInterval;
+    }
+
+    /**
+     * Restores the declared order and discards the recorded statistics.
+     */
+    public void reset(){
+        for(int i = 0; i < mOrder.length; i++){
+            mOrder[i] = i;
+            mEvaluated[i] = mRejected[i] = 0;
+        }
+
+        mEvaluationsSinceReorder = 0;
+    }
+}
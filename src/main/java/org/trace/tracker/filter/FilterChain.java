@@ -0,0 +1,45 @@
+package org.trace.tracker.filter;
+
+/**
+ * Compiled, immutable, outlier filter chain, as built from a {@link FilterChainSpec}. Chains are
+ * applied by the {@link OutlierFilteringLocationQueue}, which swaps them atomically.
+ */
+public class FilterChain {
+
+    private final SlidingWindowRule[] mRules;
+    private final String[] mNames;
+    private final int mHistorySize;
+
+    FilterChain(SlidingWindowRule[] rules, String[] names){
+        this.mRules = rules;
+        this.mNames = names;
+
+        int historySize = 0;
+        for(SlidingWindowRule rule : rules)
+            historySize = Math.max(historySize, rule.getHistorySize());
+
+        this.mHistorySize = historySize;
+    }
+
+    public int size(){
+        return mRules.length;
+    }
+
+    public SlidingWindowRule getRule(int index){
+        return mRules[index];
+    }
+
+    /**
+     * @return The name of the rule, as declared in the chain's description.
+     */
+    public String getName(int index){
+        return mNames[index];
+    }
+
+    /**
+     * @return The largest number of previous locations required by any of the rules.
+     */
+    public int getHistorySize() {
+        return mHistorySize;
+    }
+}
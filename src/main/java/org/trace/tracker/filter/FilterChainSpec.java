@@ -0,0 +1,231 @@
+package org.trace.tracker.filter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative description of an outlier filter chain, that is, which rules are applied, with which
+ * parameters, and in which order. The description may be serialized as JSON, as part of the
+ * {@link org.trace.tracker.settings.ConfigurationProfile}, for instance:
+ * <pre>
+ * [
+ *   {"type": "accuracy", "threshold": 40},
+ *   {"type": "speed", "threshold": 55.56},
+ *   {"type": "overlapping"},
+ *   {"type": "passThroughSpeed", "threshold": 50}
+ * ]
+ * </pre>
+ * Descriptions are immutable, and must be compiled into a {@link FilterChain} before being applied.
+ */
+public class FilterChainSpec {
+
+    private static final String TYPE = "type";
+    private static final String THRESHOLD = "threshold";
+
+    /** The default maximum pass-through speed, in m/s. */
+    public static final float DEFAULT_PASS_THROUGH_SPEED = 50;
+
+    /**
+     * The supported rules, along with the number of previous locations each one requires.
+     */
+    public enum RuleType {
+        /** Rejects locations whose accuracy is over the threshold, in meters. */
+        ACCURACY("accuracy", 0),
+        /** Rejects locations whose speed is over the threshold, in m/s. */
+        SPEED("speed", 0),
+        /** Rejects locations pinpointed with fewer satellites than the threshold. */
+        SATELLITES("satellites", 0),
+        /** Rejects locations whose speed, calculated from the previous location, is over the threshold, in m/s. */
+        CALCULATED_SPEED("calculatedSpeed", 1),
+        /** Rejects locations that overlap the previous location and are less accurate. */
+        OVERLAPPING("overlapping", 1),
+        /** Retracts the previous location if passing through it requires a speed over the threshold, in m/s. */
+        PASS_THROUGH_SPEED("passThroughSpeed", 2);
+
+        private final String key;
+        private final int historySize;
+
+        RuleType(String key, int historySize){
+            this.key = key;
+            this.historySize = historySize;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getHistorySize() {
+            return historySize;
+        }
+
+        public static RuleType fromKey(String key){
+            for(RuleType type : values())
+                if(type.key.equals(key))
+                    return type;
+
+            throw new IllegalArgumentException("Unknown outlier filter rule "+key);
+        }
+    }
+
+    /**
+     * A single rule of the chain.
+     */
+    public static class RuleSpec {
+
+        private final RuleType type;
+        private final float threshold;
+
+        public RuleSpec(RuleType type){
+            this(type, 0);
+        }
+
+        public RuleSpec(RuleType type, float threshold){
+            this.type = type;
+            this.threshold = threshold;
+        }
+
+        public RuleType getType() {
+            return type;
+        }
+
+        public float getThreshold() {
+            return threshold;
+        }
+
+        private SlidingWindowRule compile(){
+            switch (type){
+                case ACCURACY:
+                    return new HeuristicWindowRule(new HeuristicBasedFilter.AccuracyBasedHeuristicRule(threshold), 0, 0);
+                case SPEED:
+                    return new HeuristicWindowRule(new HeuristicBasedFilter.SpeedBasedHeuristicRule(threshold), 0, 0);
+                case SATELLITES:
+                    return new HeuristicWindowRule(new HeuristicBasedFilter.SatelliteBasedHeuristicRule((int) threshold), 0, 0);
+                case CALCULATED_SPEED:
+                    return new HeuristicWindowRule(new HeuristicBasedFilter.CalculatedSpeedBasedHeuristicRule(threshold), 1, 0);
+                case OVERLAPPING:
+                    return new HeuristicWindowRule(new HeuristicBasedFilter.OverlappingLocationHeuristicRule(), 1, 0);
+                case PASS_THROUGH_SPEED:
+                default:
+                    return new HeuristicWindowRule(new UnrealisticPassThroughSpeedOutlierFilter(threshold), 2, 1);
+            }
+        }
+
+        private JsonObject toJson(){
+            JsonObject rule = new JsonObject();
+            rule.addProperty(TYPE, type.getKey());
+
+            if(type != RuleType.OVERLAPPING)
+                rule.addProperty(THRESHOLD, threshold);
+
+            return rule;
+        }
+    }
+
+    private final List<RuleSpec> rules;
+
+    public FilterChainSpec(List<RuleSpec> rules){
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    /**
+     * @param minimumAccuracy The maximum acceptable accuracy, in meters.
+     * @param maximumSpeed The maximum acceptable speed, in m/s.
+     * @return The chain applied by default, which mirrors the tracker's original outlier filters.
+     */
+    public static FilterChainSpec getDefault(float minimumAccuracy, float maximumSpeed){
+        List<RuleSpec> rules = new ArrayList<>();
+        rules.add(new RuleSpec(RuleType.ACCURACY, minimumAccuracy));
+        rules.add(new RuleSpec(RuleType.SPEED, maximumSpeed));
+        rules.add(new RuleSpec(RuleType.OVERLAPPING));
+        rules.add(new RuleSpec(RuleType.PASS_THROUGH_SPEED, DEFAULT_PASS_THROUGH_SPEED));
+        return new FilterChainSpec(rules);
+    }
+
+    public List<RuleSpec> getRules() {
+        return rules;
+    }
+
+    /**
+     * @param type The type of the updated rules.
+     * @param threshold The new threshold.
+     * @return A copy of this chain, where every rule of the specified type has the new threshold.
+     */
+    public FilterChainSpec withThreshold(RuleType type, float threshold){
+        List<RuleSpec> updated = new ArrayList<>(rules.size());
+
+        for(RuleSpec rule : rules)
+            updated.add(rule.getType() == type ? new RuleSpec(type, threshold) : rule);
+
+        return new FilterChainSpec(updated);
+    }
+
+    /**
+     * Builds the rules described, which may then be applied without any further allocations.
+     * @return The compiled chain.
+     */
+    public FilterChain compile(){
+        SlidingWindowRule[] compiled = new SlidingWindowRule[rules.size()];
+        String[] names = new String[rules.size()];
+
+        for(int i = 0; i < compiled.length; i++) {
+            compiled[i] = rules.get(i).compile();
+            names[i] = rules.get(i).getType().getKey();
+        }
+
+        return new FilterChain(compiled, names);
+    }
+
+    /* JSON Handling
+    /* JSON Handling
+    /* JSON Handling
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public JsonArray toJson(){
+        JsonArray chain = new JsonArray();
+
+        for(RuleSpec rule : rules)
+            chain.add(rule.toJson());
+
+        return chain;
+    }
+
+    /**
+     * @param chain The chain, as serialized by {@link #toJson()}.
+     * @return The chain's description.
+     * @throws IllegalArgumentException If any of the rules is malformed or unknown.
+     */
+    public static FilterChainSpec fromJson(JsonArray chain){
+        List<RuleSpec> rules = new ArrayList<>(chain.size());
+
+        for(JsonElement element : chain){
+
+            if(!element.isJsonObject() || !element.getAsJsonObject().has(TYPE))
+                throw new IllegalArgumentException("Malformed outlier filter rule "+element);
+
+            JsonObject rule = element.getAsJsonObject();
+            RuleType type = RuleType.fromKey(rule.get(TYPE).getAsString());
+
+            if(type != RuleType.OVERLAPPING && !rule.has(THRESHOLD))
+                throw new IllegalArgumentException("The outlier filter rule "+type.getKey()+" requires a threshold");
+
+            rules.add(rule.has(THRESHOLD)
+                    ? new RuleSpec(type, rule.get(THRESHOLD).getAsFloat())
+                    : new RuleSpec(type));
+        }
+
+        return new FilterChainSpec(rules);
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,102 @@
+package org.trace.tracker.filter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the outlier filtering metrics since the current tracking session started, that is,
+ * how many locations were received, accepted and rejected, how each rule of the filter chain
+ * behaved, and how long each stage took per location.
+ * <br>
+ * Rule metrics start over whenever the filter chain is replaced.
+ *
+ * @see OutlierFilteringLocationQueue#getMetrics()
+ */
+public class FilterMetrics {
+
+    private final long received, accepted, rejected, retracted;
+    private final List<RuleMetrics> rules;
+    private final LatencyHistogram filteringLatency, smoothingLatency;
+
+    FilterMetrics(long received, long accepted, long rejected, long retracted, List<RuleMetrics> rules,
+                  LatencyHistogram filteringLatency, LatencyHistogram smoothingLatency){
+        this.received = received;
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.retracted = retracted;
+        this.rules = Collections.unmodifiableList(rules);
+        this.filteringLatency = filteringLatency;
+        this.smoothingLatency = smoothingLatency;
+    }
+
+    /**
+     * @return The number of locations evaluated by the outlier filters.
+     */
+    public long getReceivedCount() {
+        return received;
+    }
+
+    /**
+     * @return The number of locations accepted as valid, some of which may have been later retracted.
+     */
+    public long getAcceptedCount() {
+        return accepted;
+    }
+
+    /**
+     * @return The number of new locations rejected as outliers.
+     */
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * @return The number of previously accepted locations which were later retracted as outliers.
+     */
+    public long getRetractedCount() {
+        return retracted;
+    }
+
+    /**
+     * @return The fraction of the received locations that were accepted and never retracted.
+     */
+    public double getAcceptRatio(){
+        return received == 0 ? 0 : (accepted - retracted) / (double) received;
+    }
+
+    /**
+     * @return The fraction of the received locations that were either rejected or retracted.
+     */
+    public double getRejectRatio(){
+        return received == 0 ? 0 : (rejected + retracted) / (double) received;
+    }
+
+    /**
+     * @return The metrics of each rule, in the order the rules are evaluated.
+     */
+    public List<RuleMetrics> getRuleMetrics() {
+        return rules;
+    }
+
+    /**
+     * @return The time spent evaluating the outlier filters per location.
+     */
+    public LatencyHistogram getFilteringLatency() {
+        return filteringLatency;
+    }
+
+    /**
+     * @return The time spent smoothing each location, or null if the locations are not smoothed.
+     */
+    public LatencyHistogram getSmoothingLatency() {
+        return smoothingLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterMetrics{received="+received+", accepted="+accepted+", rejected="+rejected
+                +", retracted="+retracted+", filtering="+filteringLatency
+                +(smoothingLatency != null ? ", smoothing="+smoothingLatency : "")
+                +", rules="+rules+"}";
+    }
+}
@@ -1,48 +1,118 @@
 package org.trace.tracker.filter;
 
 import android.os.Bundle;
-import android.util.Log;
 
 import org.trace.tracker.storage.data.TraceLocation;
 import org.trace.tracker.utils.LocationUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 
-public class HeuristicBasedFilter {
-
+/**
+ * Chain of heuristic rules, where a location is an outlier as soon as one of the rules rejects it.
+ * <br>
+ * Rules which compare the location with the previous one, marked as {@link PairwiseRule}s, are
+ * skipped while there is no previous location. Every other rule is always evaluated, and so, as
+ * long as the rules do not throw, the outcome does not depend on their order. The rules are thus,
+ * by default, reordered as the filter learns their rejection rate, so as to minimize the expected
+ * cost per location, where the {@link PairwiseRule}s, which compute distances, are the expensive
+ * ones. The reordering is deterministic, see {@link AdaptiveRuleOrder}.
+ * <br>
+ * As a {@link SlidingWindowRule} the chain only ever rejects the newest location, which is
+ * evaluated against the previous location, if there is one.
+ */
+public class HeuristicBasedFilter implements SlidingWindowRule {
 
     private ArrayList<HeuristicRule> heuristics;
     private HashMap<Class, Integer> heuristicsMap;
 
+    private volatile AdaptiveRuleOrder order;
+    private boolean isAdaptive = true;
+
     public HeuristicBasedFilter(){
         heuristics = new ArrayList<>();
         heuristicsMap = new HashMap<>();
+        order = new AdaptiveRuleOrder(new boolean[0], new int[0]);
     }
 
     public void addNewHeuristic(HeuristicRule rule){
         this.heuristics.add(rule);
         this.heuristicsMap.put(rule.getClass(), heuristics.indexOf(rule));
+
+        boolean[] reorderable = new boolean[heuristics.size()];
+        int[] costs = new int[heuristics.size()];
+
+        Arrays.fill(reorderable, true);
+
+        for(int i = 0; i < costs.length; i++)
+            costs[i] = heuristics.get(i) instanceof PairwiseRule
+                    ? AdaptiveRuleOrder.DISTANCE_COST
+                    : AdaptiveRuleOrder.SCALAR_COST;
+
+        this.order = new AdaptiveRuleOrder(reorderable, costs);
     }
 
     public boolean isValidLocation(TraceLocation location){
+        return isValidLocation(location, null);
+    }
+
+    /**
+     * @param current The evaluated location.
+     * @param previous The previous location, or null if there is none, in which case the single
+     *                 location overload of the rules is evaluated, and the pairwise rules skipped.
+     * @return True if none of the rules rejects the location, false otherwise.
+     */
+    public boolean isValidLocation(TraceLocation current, TraceLocation previous){
 
-        for(HeuristicRule r : heuristics)
-            if(r.isOutlier(location))
-                return false;
+        AdaptiveRuleOrder ruleOrder = this.order;
+        boolean isValid = true;
 
-        return true;
+        for(int i = 0; i < ruleOrder.size() && isValid; i++){
+
+            int index = isAdaptive ? ruleOrder.getRule(i) : i;
+            HeuristicRule rule = heuristics.get(index);
+
+            if(previous == null && rule instanceof PairwiseRule)
+                continue;
+
+            boolean isOutlier = previous == null ? rule.isOutlier(current) : rule.isOutlier(current, previous);
+            ruleOrder.record(index, isOutlier);
+
+            isValid = !isOutlier;
+        }
+
+        ruleOrder.onChainEvaluated();
+
+        return isValid;
     }
 
-    public boolean isValidLocation(TraceLocation current, TraceLocation previous){
+    /**
+     * Enables or disables the adaptive ordering of the rules, in which case these are evaluated
+     * in the order they were added.
+     * @param adaptive True if the rules should be reordered, false otherwise.
+     */
+    public void setAdaptiveOrdering(boolean adaptive){
+        this.isAdaptive = adaptive;
+    }
 
-        for(HeuristicRule r : heuristics)
-            if(r.isOutlier(current, previous))
-                return false;
+    @Override
+    public int getHistorySize() {
+        return 0;
+    }
+
+    @Override
+    public int evaluate(LocationWindow window) {
+
+        TraceLocation previous = window.get(1);
 
-        return true;
+        //Rules which require a previous location are skipped while there is none
+        if(previous != null)
+            return isValidLocation(window.get(0), previous) ? NO_OUTLIER : 0;
+        else
+            return isValidLocation(window.get(0)) ? NO_OUTLIER : 0;
     }
 
     public void updateHeuristic(HeuristicRule rule){
@@ -62,6 +132,12 @@ public class HeuristicBasedFilter {
         boolean isOutlier(TraceLocation current, TraceLocation previous, TraceLocation earlierThan);
     }
 
+    /**
+     * Heuristic rule which can only be applied given the previous location, and whose single
+     * location overload thus throws an UnsupportedOperationException.
+     */
+    public interface PairwiseRule extends HeuristicRule {}
+
 
 
     /**
@@ -80,11 +156,7 @@ public class HeuristicBasedFilter {
         @Override
         public boolean isOutlier(TraceLocation location) {
 
-            boolean isOutlier = location.getAccuracy() > accuracyThreshold;
-
-            if(isOutlier) Log.e(LOG_TAG, "Too inaccurate");
-
-            return  isOutlier;
+            return location.getAccuracy() > accuracyThreshold;
         }
 
         @Override
@@ -114,11 +186,7 @@ public class HeuristicBasedFilter {
         @Override
         public boolean isOutlier(TraceLocation location) {
 
-            boolean isOutlier = location.getSpeed() > speedThreshold;
-
-            if(isOutlier) Log.e(LOG_TAG, "Too fast");
-
-            return isOutlier;
+            return location.getSpeed() > speedThreshold;
         }
 
         @Override
@@ -147,16 +215,11 @@ public class HeuristicBasedFilter {
         @Override
         public boolean isOutlier(TraceLocation location) {
 
-            boolean isOutlier;
             Bundle extras = location.getExtras();
 
             if(extras == null) return false;
 
-            isOutlier = extras.getInt("satellites", minSatellites) < minSatellites;
-
-            if(isOutlier) Log.e(LOG_TAG, "Not enough satellites");
-
-            return isOutlier;
+            return extras.getInt("satellites", minSatellites) < minSatellites;
         }
 
         @Override
@@ -175,7 +238,7 @@ public class HeuristicBasedFilter {
      * given the time it took to get from the current location, to the previously
      * registered one.
      */
-    public static class CalculatedSpeedBasedHeuristicRule implements HeuristicRule {
+    public static class CalculatedSpeedBasedHeuristicRule implements PairwiseRule {
 
         private final float speedThreshold;
 
@@ -191,18 +254,12 @@ public class HeuristicBasedFilter {
 
         @Override
         public boolean isOutlier(TraceLocation location, TraceLocation previous) {
-            boolean isOutlier;
             long timeDeltaNanos = location.getElapsedRealtimeNanos() - previous.getElapsedRealtimeNanos();
             float travelledDistance = previous.distanceTo(location);
 
             float speedMS = travelledDistance / (TimeUnit.SECONDS.convert(timeDeltaNanos, TimeUnit.NANOSECONDS));
 
-            isOutlier = speedMS > speedThreshold;
-
-            if(isOutlier)
-                Log.i(LOG_TAG, "Calculated speed is too high");
-
-            return isOutlier;
+            return speedMS > speedThreshold;
         }
 
         @Override
@@ -216,7 +273,7 @@ public class HeuristicBasedFilter {
      * overlaps the accuracy of the previously registered location, and the first presents
      * a lower accuracy.
      */
-    public static class OverlappingLocationHeuristicRule implements HeuristicRule {
+    public static class OverlappingLocationHeuristicRule implements PairwiseRule {
 
         @Override
         public boolean isOutlier(TraceLocation location) {
@@ -226,30 +283,14 @@ public class HeuristicBasedFilter {
 
         @Override
         public boolean isOutlier(TraceLocation location, TraceLocation previous) {
-            boolean isOutlier =
-                    LocationUtils.areOverlappingLocations(previous, location)
+            return LocationUtils.areOverlappingLocations(previous, location)
                         && location.getAccuracy() > previous.getAccuracy();
-
-
-
-            if(isOutlier)
-                Log.i(LOG_TAG, "Overlapping locations");
-
-            return isOutlier;
         }
 
         @Override
         public boolean isOutlier(TraceLocation current, TraceLocation previous, TraceLocation earlierThan) {
-            boolean isOutlier =
-                    LocationUtils.areOverlappingLocations(previous,current)
+            return LocationUtils.areOverlappingLocations(previous,current)
                             && current.getAccuracy() > previous.getAccuracy();
-
-
-
-            if(isOutlier)
-                Log.i(LOG_TAG, "Overlapping locations");
-
-            return isOutlier;
         }
     }
 }
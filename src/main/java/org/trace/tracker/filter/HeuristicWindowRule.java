@@ -0,0 +1,79 @@
+package org.trace.tracker.filter;
+
+import org.trace.tracker.storage.data.TraceLocation;
+
+/**
+ * Adapts a {@link HeuristicBasedFilter.HeuristicRule} to the sliding window, by evaluating the
+ * rule's overload that matches the declared history, that is:
+ * <ul>
+ *     <li>0 - isOutlier(current)</li>
+ *     <li>1 - isOutlier(current, previous)</li>
+ *     <li>2 - isOutlier(current, previous, earlierThan)</li>
+ * </ul>
+ * Whenever the rule detects an outlier, the location at the specified offset is the one removed.
+ */
+public class HeuristicWindowRule implements SlidingWindowRule {
+
+    private final HeuristicBasedFilter.HeuristicRule mRule;
+    private final int mHistorySize;
+    private final int mOutlierOffset;
+
+    /**
+     * @param rule The adapted rule.
+     * @param historySize The number of previous locations the rule requires, from 0 to 2.
+     * @param outlierOffset The offset of the location removed when the rule detects an outlier,
+     *                      where 0 is the newest location.
+     */
+    public HeuristicWindowRule(HeuristicBasedFilter.HeuristicRule rule, int historySize, int outlierOffset){
+
+        if(historySize < 0 || historySize > 2)
+            throw new IllegalArgumentException("Heuristic rules may only require up to 2 previous locations.");
+
+        if(outlierOffset < 0 || outlierOffset > historySize)
+            throw new IllegalArgumentException("The outlier must be one of the rule's locations.");
+
+        this.mRule = rule;
+        this.mHistorySize = historySize;
+        this.mOutlierOffset = outlierOffset;
+    }
+
+    public HeuristicBasedFilter.HeuristicRule getRule() {
+        return mRule;
+    }
+
+    /**
+     * @return The offset of the location removed when the rule detects an outlier.
+     */
+    public int getOutlierOffset() {
+        return mOutlierOffset;
+    }
+
+    @Override
+    public int getHistorySize() {
+        return mHistorySize;
+    }
+
+    @Override
+    public int evaluate(LocationWindow window) {
+
+        TraceLocation current = window.get(0), previous, earlierThan;
+        boolean isOutlier;
+
+        switch (mHistorySize){
+            case 0:
+                isOutlier = mRule.isOutlier(current);
+                break;
+            case 1:
+                previous = window.get(1);
+                isOutlier = previous != null && mRule.isOutlier(current, previous);
+                break;
+            default:
+                previous = window.get(1);
+                earlierThan = window.get(2);
+                isOutlier = previous != null && earlierThan != null
+                        && mRule.isOutlier(current, previous, earlierThan);
+        }
+
+        return isOutlier ? mOutlierOffset : NO_OUTLIER;
+    }
+}
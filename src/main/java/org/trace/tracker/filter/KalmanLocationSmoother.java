@@ -0,0 +1,234 @@
+package org.trace.tracker.filter;
+
+import com.google.android.gms.location.DetectedActivity;
+
+/**
+ * Constant-velocity Kalman filter, which smooths a sequence of location fixes and estimates the
+ * corresponding velocity.
+ * <br>
+ * The state holds the position, as latitude and longitude, and the velocity, in meters per second,
+ * along the east and north axes. Between fixes the velocity is assumed constant, subject to random
+ * accelerations modelled by the process noise. Each fix is weighted by its accuracy, which is
+ * used as the standard deviation, in meters, of the measured position.
+ * <br>
+ * The process noise should match how abruptly the user changes velocity, which mostly depends
+ * on the activity, see {@link #getProcessNoise(int)}. Too high a noise for a pedestrian, whose
+ * fixes are often tens of meters off while moving just over a meter per second, lets the noise
+ * through and greatly inflates the travelled distance.
+ * <br>
+ * As the same model and noise apply to both axes, these share a single 2x2 covariance matrix,
+ * which means that each update takes a constant and small number of operations, and allocates
+ * no objects.
+ * <br>
+ * <b>Note:</b> This class is not thread-safe.
+ */
+public class KalmanLocationSmoother {
+
+    /** Default process noise, as the variance of the acceleration, in (m/s^2)^2, used while the activity is unknown. */
+    public static final double DEFAULT_PROCESS_NOISE = 1;
+
+    /** Process noise while the user is still or walking, in (m/s^2)^2. */
+    public static final double WALKING_PROCESS_NOISE = 0.002;
+
+    /** Process noise while the user is running, in (m/s^2)^2. */
+    public static final double RUNNING_PROCESS_NOISE = 0.01;
+
+    /** Process noise while the user is cycling, in (m/s^2)^2. */
+    public static final double CYCLING_PROCESS_NOISE = 0.1;
+
+    /** Process noise while the user is in a vehicle, in (m/s^2)^2. */
+    public static final double VEHICLE_PROCESS_NOISE = 1;
+
+    /** Default maximum time, in milliseconds, between two fixes, after which the filter restarts. */
+    public static final long DEFAULT_MAX_TIME_GAP = 60000; //1min
+
+    private static final double EARTH_RADIUS = 6371 * 1000; //meters
+    private static final double MINIMUM_ACCURACY = 1; //meters
+    private static final double INITIAL_VELOCITY_VARIANCE = 100; //(m/s)^2
+
+    private double mProcessNoise;
+    private final long mMaxTimeGap;
+
+    //State
+    private boolean isInitialized = false;
+    private long mTime;
+    private double mLatitude, mLongitude;
+    private double mEastVelocity, mNorthVelocity;
+
+    //Covariance [[mPositionVariance, mCovariance], [mCovariance, mVelocityVariance]], shared by both axes
+    private double mPositionVariance, mCovariance, mVelocityVariance;
+
+    public KalmanLocationSmoother(){
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_MAX_TIME_GAP);
+    }
+
+    /**
+     * @param processNoise The variance of the acceleration, in (m/s^2)^2. Higher values follow the
+     *                     fixes more closely, while lower values produce smoother tracks.
+     * @param maxTimeGap The maximum time, in milliseconds, between two fixes, after which the
+     *                   filter restarts.
+     */
+    public KalmanLocationSmoother(double processNoise, long maxTimeGap){
+
+        setProcessNoise(processNoise);
+        this.mMaxTimeGap = maxTimeGap;
+    }
+
+    /**
+     * @param activityType The user's activity, as defined by the DetectedActivity.
+     * @return The process noise suited to the activity, or the default one if the activity is
+     * unknown.
+     */
+    public static double getProcessNoise(int activityType){
+        switch (activityType){
+            case DetectedActivity.STILL:
+            case DetectedActivity.ON_FOOT:
+            case DetectedActivity.WALKING:
+                return WALKING_PROCESS_NOISE;
+            case DetectedActivity.RUNNING:
+                return RUNNING_PROCESS_NOISE;
+            case DetectedActivity.ON_BICYCLE:
+                return CYCLING_PROCESS_NOISE;
+            case DetectedActivity.IN_VEHICLE:
+                return VEHICLE_PROCESS_NOISE;
+            default:
+                return DEFAULT_PROCESS_NOISE;
+        }
+    }
+
+    /**
+     * Replaces the process noise, <i>e.g.</i> when the user's activity changes, which applies
+     * from the next fix on, without discarding the current estimate.
+     * @param processNoise The variance of the acceleration, in (m/s^2)^2.
+     */
+    public void setProcessNoise(double processNoise){
+
+        if(processNoise <= 0)
+            throw new IllegalArgumentException("The process noise must be positive.");
+
+        this.mProcessNoise = processNoise;
+    }
+
+    /**
+     * Incorporates a new fix into the estimate.
+     *
+     * @param latitude The fix's latitude, in degrees.
+     * @param longitude The fix's longitude, in degrees.
+     * @param accuracy The fix's accuracy, in meters.
+     * @param time The fix's time, in milliseconds.
+     */
+    public void update(double latitude, double longitude, float accuracy, long time){
+
+        double variance = Math.max(accuracy, MINIMUM_ACCURACY);
+        variance *= variance;
+
+        if(!isInitialized || time - mTime > mMaxTimeGap){
+            initialize(latitude, longitude, variance, time);
+            return;
+        }
+
+        //Fixes which arrive out of order only correct the current estimate
+        double dt = Math.max(time - mTime, 0) / 1000d;
+        mTime = Math.max(time, mTime);
+
+        //Step 1 - Predict
+        double metersPerRadianLon = EARTH_RADIUS * Math.cos(Math.toRadians(mLatitude));
+
+        mLatitude += Math.toDegrees(mNorthVelocity * dt / EARTH_RADIUS);
+        mLongitude += Math.toDegrees(mEastVelocity * dt / metersPerRadianLon);
+
+        double dt2 = dt * dt;
+        mPositionVariance += 2 * dt * mCovariance + dt2 * mVelocityVariance + mProcessNoise * dt2 * dt / 3;
+        mCovariance += dt * mVelocityVariance + mProcessNoise * dt2 / 2;
+        mVelocityVariance += mProcessNoise * dt;
+
+        //Step 2 - Correct
+        double northInnovation = Math.toRadians(latitude - mLatitude) * EARTH_RADIUS,
+                eastInnovation = Math.toRadians(longitude - mLongitude) * metersPerRadianLon;
+
+        double innovationVariance = mPositionVariance + variance;
+        double positionGain = mPositionVariance / innovationVariance,
+                velocityGain = mCovariance / innovationVariance;
+
+        mLatitude += Math.toDegrees(positionGain * northInnovation / EARTH_RADIUS);
+        mLongitude += Math.toDegrees(positionGain * eastInnovation / metersPerRadianLon);
+        mNorthVelocity += velocityGain * northInnovation;
+        mEastVelocity += velocityGain * eastInnovation;
+
+        mVelocityVariance -= velocityGain * mCovariance;
+        mPositionVariance *= 1 - positionGain;
+        mCovariance *= 1 - positionGain;
+    }
+
+    private void initialize(double latitude, double longitude, double variance, long time){
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mEastVelocity = mNorthVelocity = 0;
+        mTime = time;
+
+        mPositionVariance = variance;
+        mCovariance = 0;
+        mVelocityVariance = INITIAL_VELOCITY_VARIANCE;
+
+        isInitialized = true;
+    }
+
+    /**
+     * Discards the current estimate, so that the next fix restarts the filter.
+     */
+    public void reset(){
+        isInitialized = false;
+    }
+
+    /* Getters
+    /* Getters
+    /* Getters
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public boolean isInitialized() {
+        return isInitialized;
+    }
+
+    public double getProcessNoise() {
+        return mProcessNoise;
+    }
+
+    /**
+     * @return The estimated latitude, in degrees.
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * @return The estimated longitude, in degrees.
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return The estimated speed, in meters per second.
+     */
+    public float getSpeed(){
+        return (float) Math.sqrt(mEastVelocity * mEastVelocity + mNorthVelocity * mNorthVelocity);
+    }
+
+    /**
+     * @return The estimated bearing, in degrees east of true north, in the range [0, 360).
+     */
+    public float getBearing(){
+        double bearing = Math.toDegrees(Math.atan2(mEastVelocity, mNorthVelocity));
+        return (float) (bearing < 0 ? bearing + 360 : bearing);
+    }
+
+    /**
+     * @return The standard deviation of the estimated position, in meters, along each axis.
+     */
+    public float getAccuracy(){
+        return (float) Math.sqrt(mPositionVariance);
+    }
+}
@@ -0,0 +1,76 @@
+package org.trace.tracker.filter;
+
+import org.trace.tracker.pipeline.LocationStage;
+import org.trace.tracker.storage.data.TraceLocation;
+
+/**
+ * Location stage which replaces the position, speed and bearing of every location by the ones
+ * estimated by a {@link KalmanLocationSmoother}. Locations are corrected in place, and so no
+ * objects are allocated per location.
+ *
+ * @see OutlierFilteringLocationQueue#setSmoothingStage(KalmanSmoothingStage)
+ */
+public class KalmanSmoothingStage extends LocationStage {
+
+    private final KalmanLocationSmoother mSmoother;
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+
+    public KalmanSmoothingStage(){
+        this(new KalmanLocationSmoother());
+    }
+
+    public KalmanSmoothingStage(KalmanLocationSmoother smoother){
+        this.mSmoother = smoother;
+    }
+
+    @Override
+    public void onLocation(TraceLocation location) {
+
+        long start = System.nanoTime();
+
+        synchronized (mSmoother) {
+            mSmoother.update(
+                    location.getLatitude(),
+                    location.getLongitude(),
+                    location.getAccuracy(),
+                    location.getTime());
+
+            location.setLatitude(mSmoother.getLatitude());
+            location.setLongitude(mSmoother.getLongitude());
+            location.setSpeed(mSmoother.getSpeed());
+            location.setBearing(mSmoother.getBearing());
+        }
+
+        mLatency.record(System.nanoTime() - start);
+
+        emit(location);
+    }
+
+    /**
+     * Adapts the smoothing to the user's activity, as a pedestrian changes velocity far less
+     * abruptly than a vehicle.
+     * @param activityType The activity's type, as defined by the DetectedActivity.
+     * @see KalmanLocationSmoother#getProcessNoise(int)
+     */
+    public void setActivity(int activityType){
+        synchronized (mSmoother) {
+            mSmoother.setProcessNoise(KalmanLocationSmoother.getProcessNoise(activityType));
+        }
+    }
+
+    /**
+     * @return The time spent smoothing each location.
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * Discards the current estimate, <i>e.g.</i> when a new track starts.
+     */
+    public void reset(){
+        synchronized (mSmoother) {
+            mSmoother.reset();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.trace.tracker.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free and allocation-free histogram of latencies, in nanoseconds, where each bucket covers
+ * a power of two, that is, the bucket <i>i</i> counts the latencies in [2^(i-1), 2^i).
+ * <br>
+ * Percentiles are therefore estimated by the upper bound of the bucket that contains them, which
+ * is at most twice the actual value.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mCount = new AtomicLong(0);
+    private final AtomicLong mTotal = new AtomicLong(0);
+    private final AtomicLong mMax = new AtomicLong(0);
+
+    public LatencyHistogram(){
+        mBuckets = new AtomicLongArray(BUCKETS);
+    }
+
+    private LatencyHistogram(LatencyHistogram histogram){
+        mBuckets = new AtomicLongArray(BUCKETS);
+
+        for(int i = 0; i < BUCKETS; i++)
+            mBuckets.set(i, histogram.mBuckets.get(i));
+
+        mCount.set(histogram.mCount.get());
+        mTotal.set(histogram.mTotal.get());
+        mMax.set(histogram.mMax.get());
+    }
+
+    /**
+     * @param nanos The measured latency, in nanoseconds.
+     */
+    public void record(long nanos){
+
+        if(nanos < 0) nanos = 0;
+
+        //The bucket is the number of significant bits
+        mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(nanos);
+
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos))
+            max = mMax.get();
+    }
+
+    public long getCount(){
+        return mCount.get();
+    }
+
+    /**
+     * @return The mean latency, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean(){
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotal.get() / (double) count;
+    }
+
+    /**
+     * @return The largest recorded latency, in nanoseconds.
+     */
+    public long getMax(){
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 1.
+     * @return The upper bound, in nanoseconds, of the bucket that holds the percentile, or 0 if
+     * nothing was recorded.
+     */
+    public long getPercentile(double percentile){
+
+        long count = 0, total = mCount.get();
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+
+        if(total == 0) return 0;
+
+        for(int i = 0; i < BUCKETS; i++){
+            count += mBuckets.get(i);
+
+            if(count >= rank)
+                return i == 0 ? 0 : Math.min(i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i, getMax());
+        }
+
+        return getMax();
+    }
+
+    public void reset(){
+        for(int i = 0; i < BUCKETS; i++)
+            mBuckets.set(i, 0);
+
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * @return A copy of the histogram, which is no longer updated.
+     */
+    public LatencyHistogram copy(){
+        return new LatencyHistogram(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{count=%d, mean=%.0fns, p50=%dns, p99=%dns, max=%dns}",
+                getCount(), getMean(), getPercentile(0.5), getPercentile(0.99), getMax());
+    }
+}
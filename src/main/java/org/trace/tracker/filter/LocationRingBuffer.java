@@ -0,0 +1,261 @@
+package org.trace.tracker.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity, lock-free and allocation-free ring buffer, designed to hold the sliding window
+ * of the most recent locations.
+ * <br>
+ * The buffer follows single-producer semantics, that is, only the producer thread may append
+ * elements, retract buffered elements, or inspect the buffered elements. Any other thread,
+ * <i>e.g.</i> a thread that flushes the buffer, may concurrently remove the oldest elements.
+ * <br>
+ * The buffer's head, tail and a version stamp are packed into a single atomic word, which is only
+ * ever updated by compare-and-set. Elements are written before being published by that update,
+ * and are thus safely published to any thread that removes them.
+ * <br>
+ * <b>Note:</b> Removed elements are not cleared from their slots until these are reused, so the
+ * buffer may keep up to its capacity in otherwise unreachable elements.
+ *
+ * @param <E> The type of the buffered elements.
+ */
+public class LocationRingBuffer<E> {
+
+    /** The maximum capacity, which keeps the positions within their 24 bits. */
+    public static final int MAX_CAPACITY = 1 << 20;
+
+    private static final int POSITION_BITS = 24;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+    private static final long STAMP_MASK = (1L << (64 - 2 * POSITION_BITS)) - 1;
+
+    private final Object[] mSlots;
+    private final int mSlotMask;
+    private final int mCapacity;
+
+    /** [stamp:16][head:24][tail:24] */
+    private final AtomicLong mState = new AtomicLong(0);
+
+    public LocationRingBuffer(int capacity){
+
+        if(capacity < 1 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("The capacity must be between 1 and "+MAX_CAPACITY);
+
+        //The number of slots is a power of two, so that positions map onto consecutive slots even as they wrap
+        int slots = Integer.highestOneBit(capacity);
+        if(slots < capacity) slots <<= 1;
+
+        mCapacity = capacity;
+        mSlots = new Object[slots];
+        mSlotMask = slots - 1;
+    }
+
+    /* State Encoding
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    private static long head(long state){
+        return (state >>> POSITION_BITS) & POSITION_MASK;
+    }
+
+    private static long tail(long state){
+        return state & POSITION_MASK;
+    }
+
+    private static long stamp(long state){
+        return (state >>> (2 * POSITION_BITS)) & STAMP_MASK;
+    }
+
+    private static int size(long state){
+        return (int) ((tail(state) - head(state)) & POSITION_MASK);
+    }
+
+    private static long state(long stamp, long head, long tail){
+        return ((stamp & STAMP_MASK) << (2 * POSITION_BITS))
+                | ((head & POSITION_MASK) << POSITION_BITS)
+                | (tail & POSITION_MASK);
+    }
+
+    private int slot(long position){
+        return (int) (position & mSlotMask);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(long position){
+        return (E) mSlots[slot(position)];
+    }
+
+    /* Producer Operations
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * Appends a new element to the end of the buffer. If the buffer is full, the oldest element is
+     * removed to make room for the new one. This method must only be invoked by the producer.
+     *
+     * @param element The new element.
+     * @return The oldest element, if it had to be removed, or null otherwise.
+     */
+    public E offer(E element){
+
+        if(element == null)
+            throw new NullPointerException();
+
+        E evicted = null;
+
+        while (true){
+            long state = mState.get();
+            long head = head(state), tail = tail(state);
+
+            if(size(state) == mCapacity) {
+                //Evict the oldest element, competing with any concurrent consumer
+                E oldest = elementAt(head);
+                if(mState.compareAndSet(state, state(stamp(state), head + 1, tail)))
+                    evicted = oldest;
+                continue;
+            }
+
+            //The slot is not visible to consumers until the tail is published
+            mSlots[slot(tail)] = element;
+
+            if(mState.compareAndSet(state, state(stamp(state), head, tail + 1)))
+                return evicted;
+        }
+    }
+
+    /**
+     * Removes the newest element, but only if it is the expected one, as it may have been removed
+     * concurrently by a consumer. This method must only be invoked by the producer.
+     *
+     * @param expected The element expected to be the newest one.
+     * @return True if the element was removed, false otherwise.
+     */
+    public boolean removeLast(E expected){
+        return removeFromLast(0, expected);
+    }
+
+    /**
+     * Removes the element at the specified distance from the newest element, but only if it is the
+     * expected one, as it may have been removed concurrently by a consumer. The newer elements are
+     * shifted back, and so this takes time proportional to the offset. This method must only be
+     * invoked by the producer.
+     * <br>
+     * <b>Note:</b> While the newer elements are being shifted these are not visible to consumers.
+     * Should the buffer be cleared meanwhile, the shifted elements are kept.
+     *
+     * @param offset The element's position, where 0 is the newest element.
+     * @param expected The element expected at that position.
+     * @return True if the element was removed, false otherwise.
+     */
+    public boolean removeFromLast(int offset, E expected){
+
+        while (true){
+            long state = mState.get();
+            long head = head(state), tail = tail(state);
+
+            if(offset < 0 || offset >= size(state))
+                return false;
+
+            long position = tail - 1 - offset;
+
+            if(elementAt(position) != expected)
+                return false;
+
+            //Step 1 - Truncate the buffer right before the element, which takes it and the newer
+            //          elements away from consumers. The stamp guarantees that consumers which read
+            //          the element before do not also remove it.
+            if(!mState.compareAndSet(state, state(stamp(state) + 1, head, position)))
+                continue;
+
+            //Step 2 - Shift the newer elements back
+            for(long i = position; i < tail - 1; i++)
+                mSlots[slot(i)] = mSlots[slot(i + 1)];
+
+            //Step 3 - Publish the shifted elements, as consumers may have meanwhile moved the head
+            while (true){
+                long truncated = mState.get();
+
+                if(mState.compareAndSet(truncated, state(stamp(truncated), head(truncated), tail - 1)))
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * @return The newest element, or null if the buffer is empty.
+     */
+    public E peekLast(){
+        long state = mState.get();
+        return size(state) == 0 ? null : elementAt(tail(state) - 1);
+    }
+
+    /**
+     * @param index The position of the element, where 0 is the oldest element.
+     * @return The element at the position, or null if there is no such element.
+     */
+    public E get(int index){
+        long state = mState.get();
+        return index < 0 || index >= size(state) ? null : elementAt(head(state) + index);
+    }
+
+    /**
+     * @param offset The position of the element, where 0 is the newest element.
+     * @return The element at the position, or null if there is no such element.
+     */
+    public E getFromLast(int offset){
+        long state = mState.get();
+        return offset < 0 || offset >= size(state) ? null : elementAt(tail(state) - 1 - offset);
+    }
+
+    /* Consumer Operations
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * Removes the oldest element. This method may be invoked by any thread.
+     * @return The oldest element, or null if the buffer is empty.
+     */
+    public E poll(){
+
+        while (true){
+            long state = mState.get();
+
+            if(size(state) == 0)
+                return null;
+
+            E oldest = elementAt(head(state));
+
+            if(mState.compareAndSet(state, state(stamp(state), head(state) + 1, tail(state))))
+                return oldest;
+        }
+    }
+
+    /**
+     * Removes every element. This method may be invoked by any thread.
+     */
+    public void clear(){
+        while (true){
+            long state = mState.get();
+
+            if(mState.compareAndSet(state, state(stamp(state), tail(state), tail(state))))
+                return;
+        }
+    }
+
+    public int size(){
+        return size(mState.get());
+    }
+
+    public boolean isEmpty(){
+        return size() == 0;
+    }
+
+    public int capacity(){
+        return mCapacity;
+    }
+}
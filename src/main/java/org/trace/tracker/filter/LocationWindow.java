@@ -0,0 +1,51 @@
+package org.trace.tracker.filter;
+
+import org.trace.tracker.storage.data.TraceLocation;
+
+/**
+ * Read-only view of the sliding window over which the {@link SlidingWindowRule}s are evaluated. The
+ * window is made of the newest location, which is yet to be accepted, followed by the previously
+ * accepted locations that are still buffered, from the newest to the oldest.
+ */
+public class LocationWindow {
+
+    private final LocationRingBuffer<TraceLocation> mBuffer;
+    private TraceLocation mCandidate;
+
+    LocationWindow(LocationRingBuffer<TraceLocation> buffer){
+        this.mBuffer = buffer;
+    }
+
+    void setCandidate(TraceLocation candidate){
+        this.mCandidate = candidate;
+    }
+
+    /**
+     * @return The number of locations in the window, including the newest one.
+     */
+    public int size(){
+        return 1 + mBuffer.size();
+    }
+
+    /**
+     * @return The number of previous locations in the window.
+     */
+    public int getHistorySize(){
+        return mBuffer.size();
+    }
+
+    /**
+     * @param offset The location's position, where 0 is the newest location, 1 the one before, and so on.
+     * @return The location, or null if there is no such location, <i>e.g.</i> if it has been flushed.
+     */
+    public TraceLocation get(int offset){
+        return offset == 0 ? mCandidate : mBuffer.getFromLast(offset - 1);
+    }
+
+    /**
+     * @return The newest location, which is yet to be accepted.
+     */
+    public TraceLocation getCandidate(){
+        return mCandidate;
+    }
+}
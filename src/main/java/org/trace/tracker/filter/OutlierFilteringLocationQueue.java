@@ -1,166 +1,314 @@
 package org.trace.tracker.filter;
 
-import android.content.Context;
-import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
-import android.util.Log;
-
-import org.trace.tracker.TrackingConstants;
+import org.trace.tracker.pipeline.LocationSink;
+import org.trace.tracker.pipeline.LocationStage;
 import org.trace.tracker.storage.data.TraceLocation;
 
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Specialized queue designed to hold TraceLocation objects and ease the application of certain
  * heuristic-based outlier detection filters. Additionally, this queue is also designed to account
- * for the possibility of asynchronous accesses to said queue.
+ * for the possibility of asynchronous accesses to said queue, as the locations are held in a
+ * lock-free {@link LocationRingBuffer}. Locations must be added by a single thread, but the queue
+ * may be flushed from any thread.
  *
  * Finally, this queue also holds some additional metadata information regarding the traced track,
  * namely the elapsed time and travelled distance.
+ * <br>
+ * The queue operates as a stage of a location pipeline, where the locations accepted as valid are
+ * emitted to the pipeline's following step.
  *
  * @see TraceLocation
+ * @see org.trace.tracker.pipeline.LocationPipeline
  *
  * @author Rodrigo Lourenço
  * @version 1.0
  */
-public class OutlierFilteringLocationQueue {
+public class OutlierFilteringLocationQueue extends LocationStage {
 
+    /** The default number of locations held back before being emitted. */
     public static final int QUEUE_MAX_SIZE = 2;
-    private static final String LOG_TAG = "Outlier";
 
-    private final Object mLock = new Object();
-    private LinkedList<TraceLocation> mLocationQueue;
+    private final LocationRingBuffer<TraceLocation> mLocationQueue;
 
-    private final Context mContext;
+    private final LocationWindow mWindow;
 
     private HeuristicBasedFilter mOutlierFilter;
-    private UnrealisticPassThroughSpeedOutlierFilter mUnrealisticPassThroughSpeedOutlierFilter;
+    private volatile RuleSet mRules;
 
-    private boolean isEnabled = true;
+    //Metrics
+    private final AtomicLong mReceivedCount = new AtomicLong(0), mAcceptedCount = new AtomicLong(0),
+            mRejectedCount = new AtomicLong(0), mRetractedCount = new AtomicLong(0);
+    private final LatencyHistogram mFilteringLatency = new LatencyHistogram();
 
-    public OutlierFilteringLocationQueue(Context context){
-        this.mLocationQueue = new LinkedList<>();
+    private volatile boolean isEnabled = true;
+    private volatile boolean isAdaptiveOrdering = true;
 
-        this.mContext = context;
+    private LocationSink mOutput = null;
+    private KalmanSmoothingStage mSmoothingStage = null;
 
-        this.mOutlierFilter = new HeuristicBasedFilter();
-        this.mUnrealisticPassThroughSpeedOutlierFilter = new UnrealisticPassThroughSpeedOutlierFilter();
+    public OutlierFilteringLocationQueue(){
+        this(true, QUEUE_MAX_SIZE);
     }
 
-    public OutlierFilteringLocationQueue(Context context, boolean isEnabled){
-        this.mLocationQueue = new LinkedList<>();
+    public OutlierFilteringLocationQueue(boolean isEnabled){
+        this(isEnabled, QUEUE_MAX_SIZE);
+    }
 
-        this.mContext = context;
+    /**
+     * @param isEnabled True if the outliers should be removed, false otherwise.
+     * @param windowSize The number of locations held back before being emitted, which is also the
+     *                   number of previous locations that may still be retracted as outliers.
+     */
+    public OutlierFilteringLocationQueue(boolean isEnabled, int windowSize){
+        this.mLocationQueue = new LocationRingBuffer<>(windowSize);
+        this.mWindow = new LocationWindow(mLocationQueue);
 
+        //The simple outlier filters are followed by the complex filters (i.e. the TripZoom filters),
+        //which do not necessarily imply the current location is the outlier.
         this.mOutlierFilter = new HeuristicBasedFilter();
-        this.mUnrealisticPassThroughSpeedOutlierFilter = new UnrealisticPassThroughSpeedOutlierFilter();
+        this.mRules = new RuleSet(new SlidingWindowRule[]{ mOutlierFilter });
+
+        if(windowSize >= 2)
+            addWindowRule(new HeuristicWindowRule(new UnrealisticPassThroughSpeedOutlierFilter(), 2, 1));
 
         this.isEnabled = isEnabled;
     }
 
+    /**
+     * @return The number of locations held back before being emitted.
+     */
+    public int getWindowSize(){
+        return mLocationQueue.capacity();
+    }
+
+
+
+    public synchronized void addHeuristicRule(HeuristicBasedFilter.HeuristicRule rule){
 
+        //The heuristic rules are evaluated before any other rules
+        if(mOutlierFilter == null){
+            mOutlierFilter = new HeuristicBasedFilter();
+            mOutlierFilter.setAdaptiveOrdering(isAdaptiveOrdering);
+
+            SlidingWindowRule[] current = mRules.rules;
+            SlidingWindowRule[] rules = new SlidingWindowRule[current.length + 1];
+            rules[0] = mOutlierFilter;
+            System.arraycopy(current, 0, rules, 1, current.length);
+            mRules = new RuleSet(rules);
+        }
 
-    public void addHeuristicRule(HeuristicBasedFilter.HeuristicRule rule){
         this.mOutlierFilter.addNewHeuristic(rule);
     }
 
-    public void clearHeuristicRules(){
-        this.mOutlierFilter = new HeuristicBasedFilter();
+    public synchronized void clearHeuristicRules(){
+
+        if(mOutlierFilter == null) return;
+
+        HeuristicBasedFilter filter = new HeuristicBasedFilter();
+        filter.setAdaptiveOrdering(isAdaptiveOrdering);
+        SlidingWindowRule[] rules = mRules.rules.clone();
+
+        for(int i = 0; i < rules.length; i++)
+            if(rules[i] == mOutlierFilter)
+                rules[i] = filter;
+
+        mOutlierFilter = filter;
+        mRules = new RuleSet(rules);
     }
 
-    public void updateHeuristicRule(HeuristicBasedFilter.HeuristicRule rule){
-        mOutlierFilter.updateHeuristic(rule);
+    public synchronized void updateHeuristicRule(HeuristicBasedFilter.HeuristicRule rule){
+        if(mOutlierFilter != null)
+            mOutlierFilter.updateHeuristic(rule);
     }
 
-    public void addSpecialHeuristicRule(){
-        //TODO:
+    /**
+     * Replaces every rule, including the heuristic rules, by the rules of the compiled chain. The
+     * chain is swapped atomically, which means that each location is evaluated either by the
+     * previous rules or by the new ones, and so the chain may be replaced while tracking.
+     *
+     * @param chain The new chain.
+     * @throws IllegalArgumentException If the chain requires more previous locations than the window holds.
+     */
+    public synchronized void setFilterChain(FilterChain chain){
+
+        if(chain.getHistorySize() > getWindowSize())
+            throw new IllegalArgumentException("The chain requires "+chain.getHistorySize()
+                    +" previous locations, but the window only holds "+getWindowSize());
+
+        SlidingWindowRule[] rules = new SlidingWindowRule[chain.size()];
+        String[] names = new String[chain.size()];
+
+        for(int i = 0; i < rules.length; i++){
+            rules[i] = chain.getRule(i);
+            names[i] = chain.getName(i);
+        }
+
+        mOutlierFilter = null;
+        mRules = new RuleSet(rules, names);
+    }
+
+    /**
+     * Appends a new rule to the ones evaluated over the sliding window.
+     *
+     * @param rule The new rule.
+     * @throws IllegalArgumentException If the rule requires more previous locations than the window holds.
+     */
+    public synchronized void addWindowRule(SlidingWindowRule rule){
+
+        if(rule.getHistorySize() > getWindowSize())
+            throw new IllegalArgumentException("The rule requires "+rule.getHistorySize()
+                    +" previous locations, but the window only holds "+getWindowSize());
+
+        SlidingWindowRule[] current = mRules.rules;
+        SlidingWindowRule[] rules = new SlidingWindowRule[current.length + 1];
+        System.arraycopy(current, 0, rules, 0, current.length);
+        rules[current.length] = rule;
+
+        mRules = new RuleSet(rules);
+    }
+
+    public synchronized void removeWindowRule(SlidingWindowRule rule){
+
+        SlidingWindowRule[] rules = mRules.rules;
+
+        for(int i = 0; i < rules.length; i++){
+            if(rules[i] == rule){
+                SlidingWindowRule[] updated = new SlidingWindowRule[rules.length - 1];
+                System.arraycopy(rules, 0, updated, 0, i);
+                System.arraycopy(rules, i + 1, updated, i, rules.length - i - 1);
+                mRules = new RuleSet(updated);
+                return;
+            }
+        }
     }
 
 
     /**
      * Adds a new location to the location queue. This location will also be subject
      * to the specified, upon creation, outlier detection filters.
+     * <br>
+     * Each rule is evaluated over the sliding window, in order, and may either reject the new
+     * location, in which case the remaining rules are skipped, or retract one of the previous
+     * locations, in which case the remaining rules are evaluated over the updated window. Rules
+     * are skipped while the window does not hold enough previous locations. The rules that may
+     * only reject the new location are reordered, by their static cost and learned rejection rate,
+     * see {@link #setAdaptiveOrdering(boolean)}.
      *
      * @param location The new TraceLocation
      */
     public void addLocation(TraceLocation location){
 
-        //If the outlier remove is not activated then broadcast all locations.
+        //If the outlier remove is not activated then emit all locations.
         if(!isEnabled){
-            broadcastLocation(location);
+            emit(location);
             return;
         }
 
-        TraceLocation previous;
-
         //Step 1 - Validate the location
-        //Step 1a - Run the simple outlier filters
-        try {
-            previous = mLocationQueue.getLast();
+        long start = System.nanoTime();
+        RuleSet rules = mRules;
+        boolean isOutlier = false;
 
-            if(!mOutlierFilter.isValidLocation(location,previous))
-                return;
+        mReceivedCount.incrementAndGet();
+        mWindow.setCandidate(location);
 
-        }catch (NoSuchElementException e){
-            try {
-                if (!mOutlierFilter.isValidLocation(location))
-                    return;
-            }catch (UnsupportedOperationException e1){
-                Log.i(LOG_TAG, e1.getMessage());
-            }
-        }
+        boolean isAdaptive = isAdaptiveOrdering;
+
+        for(int p = 0; p < rules.rules.length && !isOutlier; p++){
 
-        //Step 1b - Run the complex filters (i.e. the TripZoom filters)
-        //These have to be directly handled in the code, as they do not necessarily imply the the
-        //current location is the outlier, but previous location may be as well.
-        synchronized (mLock){
-            if(mLocationQueue.size() >= QUEUE_MAX_SIZE){
+            int i = isAdaptive ? rules.order.getRule(p) : p;
+            SlidingWindowRule rule = rules.rules[i];
+            RuleMetrics metrics = rules.metrics[i];
 
-                int index = mLocationQueue.size() - 1;
+            if(mWindow.getHistorySize() < rule.getHistorySize())
+                continue;
 
-                if(mUnrealisticPassThroughSpeedOutlierFilter.isOutlier(
-                        location,
-                        mLocationQueue.get(index),
-                        mLocationQueue.get(index-1))){
+            long ruleStart = System.nanoTime();
+            int outlier;
 
-                    mLocationQueue.remove(index);
-                }
+            try {
+                outlier = rule.evaluate(mWindow);
+            }catch (RuntimeException e){
+                metrics.onException();
+                outlier = SlidingWindowRule.NO_OUTLIER;
             }
+
+            long ruleNanos = System.nanoTime() - ruleStart;
+            metrics.onEvaluated(ruleNanos, outlier != SlidingWindowRule.NO_OUTLIER);
+            rules.order.record(i, outlier == 0);
+
+            if(outlier == 0)
+                isOutlier = true;
+            else if(outlier != SlidingWindowRule.NO_OUTLIER
+                    && mLocationQueue.removeFromLast(outlier - 1, mWindow.get(outlier)))
+                mRetractedCount.incrementAndGet();
+            //The previous location may have been concurrently flushed, in which case it is kept
         }
 
-        Log.i(LOG_TAG, "Location was accepted as valid... "+location.toString());
+        rules.order.onChainEvaluated();
+        mWindow.setCandidate(null);
+        mFilteringLatency.record(System.nanoTime() - start);
 
+        if(isOutlier){
+            mRejectedCount.incrementAndGet();
+            return;
+        }
+
+        mAcceptedCount.incrementAndGet();
 
         //Step 2 -  Add the location to the queue
         //          If the queue's size has reached the maximum size, store the first
-        TraceLocation validLocation = null;
-        synchronized (mLock){
+        TraceLocation validLocation = mLocationQueue.offer(location);
 
-            if(mLocationQueue.size() >= QUEUE_MAX_SIZE)
-                validLocation = mLocationQueue.removeFirst();
+        if(validLocation!=null)
+            emit(validLocation);
+    }
 
-            mLocationQueue.addLast(location);
-        }
 
-        if(validLocation!=null)
-            broadcastLocation(validLocation);
+    @Override
+    public void onLocation(TraceLocation location) {
+        addLocation(location);
     }
 
+    @Override
+    public synchronized void setNext(LocationSink next) {
+        mOutput = next;
+
+        if(mSmoothingStage != null) {
+            mSmoothingStage.setNext(next);
+            super.setNext(mSmoothingStage);
+        }else
+            super.setNext(next);
+    }
+
+    /**
+     * Smooths the locations accepted as valid before these are emitted. As the smoothing only
+     * takes place after the outliers have been removed, these do not affect the estimates.
+     *
+     * @param stage The smoothing stage, or null to emit the locations unchanged.
+     */
+    public synchronized void setSmoothingStage(KalmanSmoothingStage stage){
+
+        if(mSmoothingStage != null)
+            mSmoothingStage.setNext(null);
+
+        mSmoothingStage = stage;
+        setNext(mOutput);
+    }
 
-    private void broadcastLocation(TraceLocation location){
-        Intent localIntent = new Intent(TrackingConstants.tracker.COLLECT_LOCATIONS_ACTION);
-        localIntent.putExtra(TrackingConstants.tracker.LOCATION_EXTRA, location);
-        LocalBroadcastManager.getInstance(mContext).sendBroadcast(localIntent);
+    public synchronized KalmanSmoothingStage getSmoothingStage(){
+        return mSmoothingStage;
     }
 
     /**
      * Removes any location still stored in the queue.
      */
     public void clearQueue(){
-        synchronized (mLock){
-            mLocationQueue.clear();
-        }
+        mLocationQueue.clear();
     }
 
     /**
@@ -172,21 +320,136 @@ public class OutlierFilteringLocationQueue {
      * associated with this specific tracking session.
      */
     public void clearAndStoreQueue(){
-        synchronized (mLock) {
+        TraceLocation location;
 
-            if(mLocationQueue.isEmpty())
-                return;
+        while ((location = mLocationQueue.poll()) != null)
+            emit(location);
+    }
 
-            do {
+    public void setIsEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    /**
+     * Enables or disables the adaptive ordering of the rules, both of the window rules and of the
+     * heuristic rules, in which case these are evaluated in their declared order.
+     * <br>
+     * Only the rules that may reject the newest location are reordered, while the rules that
+     * retract previous locations keep their position.
+     *
+     * @param adaptive True if the rules should be reordered, false otherwise.
+     * @see AdaptiveRuleOrder
+     */
+    public synchronized void setAdaptiveOrdering(boolean adaptive){
+        this.isAdaptiveOrdering = adaptive;
 
-                broadcastLocation(mLocationQueue.removeFirst());
+        if(mOutlierFilter != null)
+            mOutlierFilter.setAdaptiveOrdering(adaptive);
+    }
 
+    /* Metrics
+    /* Metrics
+    /* Metrics
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
 
-            }while (!mLocationQueue.isEmpty());
-        }
+    /**
+     * @return A snapshot of the filtering metrics since these were last reset.
+     */
+    public FilterMetrics getMetrics(){
+
+        RuleSet rules = mRules;
+        List<RuleMetrics> ruleMetrics = new ArrayList<>(rules.metrics.length);
+
+        for(RuleMetrics metrics : rules.metrics)
+            ruleMetrics.add(metrics.copy());
+
+        KalmanSmoothingStage smoothing = getSmoothingStage();
+
+        return new FilterMetrics(
+                mReceivedCount.get(), mAcceptedCount.get(), mRejectedCount.get(), mRetractedCount.get(),
+                ruleMetrics,
+                mFilteringLatency.copy(),
+                smoothing == null ? null : smoothing.getLatency().copy());
     }
 
-    public void setIsEnabled(boolean isEnabled) {
-        this.isEnabled = isEnabled;
+    /**
+     * Resets every metric, <i>e.g.</i> when a new tracking session starts.
+     */
+    public void resetMetrics(){
+        mReceivedCount.set(0);
+        mAcceptedCount.set(0);
+        mRejectedCount.set(0);
+        mRetractedCount.set(0);
+        mFilteringLatency.reset();
+
+        for(RuleMetrics metrics : mRules.metrics)
+            metrics.reset();
+
+        KalmanSmoothingStage smoothing = getSmoothingStage();
+        if(smoothing != null) smoothing.getLatency().reset();
+    }
+
+    /**
+     * The rules evaluated over the window, along with their metrics and their evaluation order,
+     * which are swapped as a whole. The metrics are always kept in the rules' declared order.
+     */
+    private static class RuleSet {
+
+        final SlidingWindowRule[] rules;
+        final RuleMetrics[] metrics;
+        final AdaptiveRuleOrder order;
+
+        RuleSet(SlidingWindowRule[] rules){
+            this(rules, namesOf(rules));
+        }
+
+        RuleSet(SlidingWindowRule[] rules, String[] names){
+            this.rules = rules;
+            this.metrics = new RuleMetrics[rules.length];
+
+            boolean[] reorderable = new boolean[rules.length];
+            int[] costs = new int[rules.length];
+
+            for(int i = 0; i < rules.length; i++) {
+                metrics[i] = new RuleMetrics(names[i]);
+                reorderable[i] = isCandidateOnly(rules[i]);
+                costs[i] = costOf(rules[i]);
+            }
+
+            this.order = new AdaptiveRuleOrder(reorderable, costs);
+        }
+
+        /**
+         * @return The rule's cost class, where the rules that compare the location with the
+         * previous ones, which may contain pairwise rules, compute distances.
+         */
+        private static int costOf(SlidingWindowRule rule){
+            return rule instanceof HeuristicBasedFilter || rule.getHistorySize() > 0
+                    ? AdaptiveRuleOrder.DISTANCE_COST
+                    : AdaptiveRuleOrder.SCALAR_COST;
+        }
+
+        /**
+         * @return True if the rule may only reject the newest location, in which case its outcome
+         * does not depend on its position.
+         */
+        private static boolean isCandidateOnly(SlidingWindowRule rule){
+            return rule instanceof HeuristicBasedFilter
+                    || (rule instanceof HeuristicWindowRule && ((HeuristicWindowRule) rule).getOutlierOffset() == 0);
+        }
+
+        private static String[] namesOf(SlidingWindowRule[] rules){
+            String[] names = new String[rules.length];
+
+            for(int i = 0; i < rules.length; i++)
+                names[i] = rules[i] instanceof HeuristicWindowRule
+                        ? ((HeuristicWindowRule) rules[i]).getRule().getClass().getSimpleName()
+                        : rules[i].getClass().getSimpleName();
+
+            return names;
+        }
     }
 }
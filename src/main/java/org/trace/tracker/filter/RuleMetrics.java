@@ -0,0 +1,100 @@
+package org.trace.tracker.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and evaluation latencies of a single outlier filter rule.
+ */
+public class RuleMetrics {
+
+    private final String mName;
+    private final AtomicLong mEvaluated, mRejected, mExceptions;
+    private final LatencyHistogram mLatency;
+
+    RuleMetrics(String name){
+        this.mName = name;
+        this.mEvaluated = new AtomicLong(0);
+        this.mRejected = new AtomicLong(0);
+        this.mExceptions = new AtomicLong(0);
+        this.mLatency = new LatencyHistogram();
+    }
+
+    private RuleMetrics(RuleMetrics metrics){
+        this.mName = metrics.mName;
+        this.mEvaluated = new AtomicLong(metrics.mEvaluated.get());
+        this.mRejected = new AtomicLong(metrics.mRejected.get());
+        this.mExceptions = new AtomicLong(metrics.mExceptions.get());
+        this.mLatency = metrics.mLatency.copy();
+    }
+
+    void onEvaluated(long nanos, boolean isOutlier){
+        mEvaluated.incrementAndGet();
+        mLatency.record(nanos);
+
+        if(isOutlier)
+            mRejected.incrementAndGet();
+    }
+
+    void onException(){
+        mExceptions.incrementAndGet();
+    }
+
+    void reset(){
+        mEvaluated.set(0);
+        mRejected.set(0);
+        mExceptions.set(0);
+        mLatency.reset();
+    }
+
+    RuleMetrics copy(){
+        return new RuleMetrics(this);
+    }
+
+    /**
+     * @return The rule's name, as declared in the filter chain.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The number of times the rule was evaluated, including the evaluations that failed.
+     */
+    public long getEvaluatedCount(){
+        return mEvaluated.get();
+    }
+
+    /**
+     * @return The number of outliers the rule identified, either new locations that were rejected
+     * or previous locations that were retracted.
+     */
+    public long getRejectedCount(){
+        return mRejected.get();
+    }
+
+    /**
+     * @return The number of evaluations that failed with an exception, in which case the location
+     * was not considered an outlier.
+     */
+    public long getExceptionCount(){
+        return mExceptions.get();
+    }
+
+    /**
+     * @return The fraction of the evaluations that identified an outlier.
+     */
+    public double getRejectionRatio(){
+        long evaluated = getEvaluatedCount();
+        return evaluated == 0 ? 0 : getRejectedCount() / (double) evaluated;
+    }
+
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    @Override
+    public String toString() {
+        return mName+"{evaluated="+getEvaluatedCount()+", rejected="+getRejectedCount()
+                +", exceptions="+getExceptionCount()+", latency="+mLatency+"}";
+    }
+}
@@ -0,0 +1,31 @@
+package org.trace.tracker.filter;
+
+/**
+ * Outlier detection rule which is evaluated over a sliding window of the most recent locations,
+ * as held by the {@link OutlierFilteringLocationQueue}.
+ * <br>
+ * Each rule declares how many previous locations it requires, and is only evaluated once the
+ * window holds at least that many. Unlike the {@link HeuristicBasedFilter.HeuristicRule}s, which
+ * may only reject the newest location, a window rule may also identify any of the previous
+ * locations as the outlier, in which case that location is retracted from the window.
+ */
+public interface SlidingWindowRule {
+
+    /** Returned by {@link #evaluate(LocationWindow)} when no outlier was found. */
+    int NO_OUTLIER = -1;
+
+    /**
+     * @return The number of previous locations, besides the newest one, this rule requires.
+     */
+    int getHistorySize();
+
+    /**
+     * Looks for an outlier in the window. This method is invoked for every new location, and
+     * should therefore run in constant time and not allocate objects.
+     *
+     * @param window The window, which holds at least {@link #getHistorySize()} previous locations.
+     * @return The offset, in the window, of the outlier, where 0 is the newest location, or
+     * {@link #NO_OUTLIER} if there is none.
+     */
+    int evaluate(LocationWindow window);
+}
@@ -0,0 +1,207 @@
+package org.trace.tracker.filter;
+
+import android.os.Build;
+
+import org.trace.tracker.pipeline.LocationStage;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Location stage which collapses stay points, <i>i.e.</i> periods during which the user remains
+ * stationary and the fixes only wander within the accuracy radius, into a single representative
+ * location. The representative location lies at the stay's weighted centroid, at the stay's start
+ * time, and its dwell time spans until the stay's last fix.
+ * <br>
+ * The fixes of each cluster are held back until either the cluster becomes a stay point, in
+ * which case these are discarded, or a fix leaves the cluster's radius, in which case these are
+ * emitted unchanged. Hence, while moving, locations are delayed by at most the time taken to
+ * leave the radius. The stay point itself is only emitted once the stay ends, or the stage is
+ * flushed.
+ *
+ * @see StayPointDetector
+ * @see TraceLocation#getDwellTime()
+ */
+public class StayPointDetectionStage extends LocationStage {
+
+    /**
+     * Notified whenever a stay point starts and ends, <i>e.g.</i> so that the location sampling
+     * may be reduced while stationary.
+     * <br>
+     * <b>Note:</b> The listener is invoked on the thread that produced the location, and therefore
+     * it should never block.
+     */
+    public interface OnStayListener {
+
+        /**
+         * @param latitude The latitude of the stay's centroid so far, in degrees.
+         * @param longitude The longitude of the stay's centroid so far, in degrees.
+         * @param startTime The stay's start time, in milliseconds.
+         */
+        void onStayStarted(double latitude, double longitude, long startTime);
+
+        /**
+         * @param stayPoint The location that represents the whole stay.
+         */
+        void onStayEnded(TraceLocation stayPoint);
+    }
+
+    private final StayPointDetector mDetector;
+
+    private final ArrayList<TraceLocation> mPending = new ArrayList<>();
+    private TraceLocation mMostAccurate = null;
+
+    private volatile OnStayListener mListener = null;
+
+    //Metrics
+    private final AtomicLong mReceivedCount = new AtomicLong(0), mEmittedCount = new AtomicLong(0),
+            mStayCount = new AtomicLong(0);
+
+    public StayPointDetectionStage(){
+        this(new StayPointDetector());
+    }
+
+    public StayPointDetectionStage(StayPointDetector detector){
+        this.mDetector = detector;
+    }
+
+    /**
+     * @return The radius, in meters, within which the fixes of a stay point must lie.
+     */
+    public float getRadius(){
+        return mDetector.getRadius();
+    }
+
+    /**
+     * @return The minimum duration, in milliseconds, of a stay point.
+     */
+    public long getMinimumDuration(){
+        return mDetector.getMinimumDuration();
+    }
+
+    public void setOnStayListener(OnStayListener listener){
+        this.mListener = listener;
+    }
+
+    @Override
+    public synchronized void onLocation(TraceLocation location) {
+
+        mReceivedCount.incrementAndGet();
+
+        if(!mDetector.isEmpty() && !mDetector.isWithin(location.getLatitude(), location.getLongitude()))
+            closeCluster();
+
+        boolean wasStay = mDetector.isStay();
+        mDetector.add(location.getLatitude(), location.getLongitude(), location.getAccuracy(), location.getTime());
+
+        if(mMostAccurate == null || location.getAccuracy() < mMostAccurate.getAccuracy())
+            mMostAccurate = location;
+
+        if(!mDetector.isStay()) {
+            mPending.add(location);
+            return;
+        }
+
+        if(!wasStay){
+            mPending.clear();
+
+            OnStayListener listener = mListener;
+            if(listener != null)
+                listener.onStayStarted(mDetector.getLatitude(), mDetector.getLongitude(), mDetector.getStartTime());
+        }
+    }
+
+    /**
+     * Emits the locations still held back, or the current stay point, <i>e.g.</i> when the
+     * tracking stops.
+     */
+    public synchronized void flush(){
+        if(!mDetector.isEmpty())
+            closeCluster();
+    }
+
+    /**
+     * Discards the locations still held back, <i>e.g.</i> when a new track starts.
+     */
+    public synchronized void reset(){
+        mDetector.reset();
+        mPending.clear();
+        mMostAccurate = null;
+    }
+
+    private void closeCluster(){
+
+        if(mDetector.isStay()){
+            TraceLocation stayPoint = createStayPoint();
+
+            mStayCount.incrementAndGet();
+            mEmittedCount.incrementAndGet();
+            emit(stayPoint);
+
+            OnStayListener listener = mListener;
+            if(listener != null)
+                listener.onStayEnded(stayPoint);
+
+        }else {
+            mEmittedCount.addAndGet(mPending.size());
+
+            for(int i = 0; i < mPending.size(); i++)
+                emit(mPending.get(i));
+        }
+
+        reset();
+    }
+
+    /**
+     * Builds the stay's representative location from its most accurate fix, which provides the
+     * remaining attributes, such as the provider, altitude and activity.
+     */
+    private TraceLocation createStayPoint(){
+
+        TraceLocation stayPoint = new TraceLocation(mMostAccurate);
+        stayPoint.setActivity(mMostAccurate.getActivityType(), mMostAccurate.getActivityConfidence());
+
+        stayPoint.setLatitude(mDetector.getLatitude());
+        stayPoint.setLongitude(mDetector.getLongitude());
+        stayPoint.setAccuracy(mDetector.getAccuracy());
+        stayPoint.setSpeed(0);
+        stayPoint.setTime(mDetector.getStartTime());
+        stayPoint.setDwellTime(mDetector.getEndTime() - mDetector.getStartTime());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            stayPoint.setElapsedRealtimeNanos(mMostAccurate.getElapsedRealtimeNanos()
+                    - (mMostAccurate.getTime() - mDetector.getStartTime()) * 1000000);
+
+        return stayPoint;
+    }
+
+    /* Metrics
+    /* Metrics
+    /* Metrics
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * @return The number of locations received by the stage.
+     */
+    public long getReceivedCount() {
+        return mReceivedCount.get();
+    }
+
+    /**
+     * @return The number of locations emitted by the stage, including the stay points.
+     */
+    public long getEmittedCount() {
+        return mEmittedCount.get();
+    }
+
+    /**
+     * @return The number of stay points emitted by the stage.
+     */
+    public long getStayCount() {
+        return mStayCount.get();
+    }
+}
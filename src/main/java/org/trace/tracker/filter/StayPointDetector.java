@@ -0,0 +1,172 @@
+package org.trace.tracker.filter;
+
+/**
+ * Detects stay points, that is, periods during which the user remains within a small radius of
+ * the same place for at least a minimum duration, from a sequence of location fixes.
+ * <br>
+ * Consecutive fixes are grouped into clusters, where every fix lies within the radius of the
+ * cluster's first fix, its anchor. Once a cluster spans the minimum duration it becomes a stay
+ * point, which is represented by the centroid of its fixes, weighted by their accuracy.
+ * <br>
+ * <b>Note:</b> This class is not thread-safe, and does not allocate objects.
+ */
+public class StayPointDetector {
+
+    /** Default radius, in meters, within which the fixes of a stay point must lie. */
+    public static final float DEFAULT_RADIUS = 50;
+
+    /** Default minimum duration, in milliseconds, of a stay point. */
+    public static final long DEFAULT_MINIMUM_DURATION = 180000; //3min
+
+    private static final double EARTH_RADIUS = 6371 * 1000; //meters
+    private static final double MINIMUM_ACCURACY = 1; //meters
+
+    private final float mRadius;
+    private final long mMinimumDuration;
+
+    //Current cluster
+    private int mCount = 0;
+    private double mAnchorLatitude, mAnchorLongitude, mMetersPerDegreeLon;
+    private long mStartTime, mEndTime;
+    private double mWeightSum, mLatitudeSum, mLongitudeSum;
+
+    public StayPointDetector(){
+        this(DEFAULT_RADIUS, DEFAULT_MINIMUM_DURATION);
+    }
+
+    /**
+     * @param radius The radius, in meters, within which the fixes of a stay point must lie.
+     * @param minimumDuration The minimum duration, in milliseconds, of a stay point.
+     */
+    public StayPointDetector(float radius, long minimumDuration){
+
+        if(radius <= 0)
+            throw new IllegalArgumentException("The radius must be positive.");
+
+        this.mRadius = radius;
+        this.mMinimumDuration = minimumDuration;
+    }
+
+    /**
+     * @param latitude The fix's latitude, in degrees.
+     * @param longitude The fix's longitude, in degrees.
+     * @return True if the fix lies within the radius of the current cluster's anchor, false
+     * otherwise or if there is no cluster.
+     */
+    public boolean isWithin(double latitude, double longitude){
+
+        if(mCount == 0) return false;
+
+        double north = Math.toRadians(latitude - mAnchorLatitude) * EARTH_RADIUS,
+                east = (longitude - mAnchorLongitude) * mMetersPerDegreeLon;
+
+        return north * north + east * east <= (double) mRadius * mRadius;
+    }
+
+    /**
+     * Adds a fix to the current cluster, or starts a new cluster if there is none. Fixes that do
+     * not lie within the cluster's radius should instead start a new cluster, after a
+     * {@link #reset()}.
+     *
+     * @param latitude The fix's latitude, in degrees.
+     * @param longitude The fix's longitude, in degrees.
+     * @param accuracy The fix's accuracy, in meters.
+     * @param time The fix's time, in milliseconds.
+     */
+    public void add(double latitude, double longitude, float accuracy, long time){
+
+        if(mCount == 0){
+            mAnchorLatitude = latitude;
+            mAnchorLongitude = longitude;
+            mMetersPerDegreeLon = Math.toRadians(1) * EARTH_RADIUS * Math.cos(Math.toRadians(latitude));
+            mStartTime = mEndTime = time;
+            mWeightSum = mLatitudeSum = mLongitudeSum = 0;
+        }
+
+        double deviation = Math.max(accuracy, MINIMUM_ACCURACY);
+        double weight = 1 / (deviation * deviation);
+
+        mWeightSum += weight;
+        mLatitudeSum += weight * latitude;
+        mLongitudeSum += weight * longitude;
+        mStartTime = Math.min(mStartTime, time);
+        mEndTime = Math.max(mEndTime, time);
+        mCount++;
+    }
+
+    /**
+     * @return True if the current cluster spans at least the minimum duration.
+     */
+    public boolean isStay(){
+        return mCount > 0 && mEndTime - mStartTime >= mMinimumDuration;
+    }
+
+    public boolean isEmpty(){
+        return mCount == 0;
+    }
+
+    /**
+     * Discards the current cluster.
+     */
+    public void reset(){
+        mCount = 0;
+    }
+
+    /* Getters
+    /* Getters
+    /* Getters
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public float getRadius() {
+        return mRadius;
+    }
+
+    public long getMinimumDuration() {
+        return mMinimumDuration;
+    }
+
+    /**
+     * @return The number of fixes in the current cluster.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The latitude of the cluster's weighted centroid, in degrees.
+     */
+    public double getLatitude(){
+        return mLatitudeSum / mWeightSum;
+    }
+
+    /**
+     * @return The longitude of the cluster's weighted centroid, in degrees.
+     */
+    public double getLongitude(){
+        return mLongitudeSum / mWeightSum;
+    }
+
+    /**
+     * @return The standard deviation, in meters, of the cluster's weighted centroid.
+     */
+    public float getAccuracy(){
+        return (float) Math.sqrt(1 / mWeightSum);
+    }
+
+    /**
+     * @return The time of the cluster's earliest fix, in milliseconds.
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return The time of the cluster's latest fix, in milliseconds.
+     */
+    public long getEndTime() {
+        return mEndTime;
+    }
+}
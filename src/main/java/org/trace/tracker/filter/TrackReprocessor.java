@@ -0,0 +1,336 @@
+package org.trace.tracker.filter;
+
+import android.os.Process;
+
+import org.trace.tracker.pipeline.LocationSink;
+import org.trace.tracker.storage.PersistentTrackStorage;
+import org.trace.tracker.storage.TrackLocationIterator;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch engine which reprocesses stored tracks through an outlier filter chain and, optionally,
+ * the Kalman smoothing stage, <i>e.g.</i> after the filters' thresholds have changed. Each track
+ * is streamed from the {@link PersistentTrackStorage}, through its own
+ * {@link OutlierFilteringLocationQueue}, and the cleaned locations are stored as a new version of
+ * the track, along with recomputed aggregates. The original tracks are never changed.
+ * <br>
+ * Tracks are reprocessed in parallel, one task per track, by a pool of background threads, one
+ * per core by default. The reprocessing may be cancelled at any time, or bounded by a time
+ * budget, <i>e.g.</i> that of a background job, in which case the tracks that were not
+ * reprocessed are reported, so that these may be resumed later on.
+ * <pre>
+ *     {@code
+ *     TrackReprocessor reprocessor = new TrackReprocessor(storage, profile.getLocationOutlierFilters(), true);
+ *     TrackReprocessor.Result result = reprocessor.reprocess(sessions, 9 * 60 * 1000);
+ *
+ *     if(!result.isComplete())
+ *         //Schedule another job for result.getRemaining()
+ *     }
+ * </pre>
+ *
+ * @see PersistentTrackStorage#storeTrackVersion(String, List, double)
+ */
+public class TrackReprocessor {
+
+    /** How many locations are filtered between checks for cancellation, minus one. */
+    private static final int CANCELLATION_CHECK_MASK = 0xFF;
+
+    /**
+     * Receives the progress of the reprocessing.
+     * <br>
+     * <b>Note:</b> The listener is invoked from the worker threads, and therefore it should never
+     * block.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param session The track that has just been reprocessed, either successfully or not.
+         * @param completed The number of tracks reprocessed so far.
+         * @param total The number of tracks to reprocess.
+         */
+        void onProgress(String session, int completed, int total);
+    }
+
+    /**
+     * The outcome of a reprocessing.
+     */
+    public static class Result {
+
+        private final List<String> mVersions = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> mFailed = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> mRemaining = Collections.synchronizedList(new ArrayList<String>());
+        private int mEmptyCount = 0;
+        private long mElapsedTime = 0;
+
+        /**
+         * @return The session identifiers of the new versions.
+         */
+        public List<String> getVersions() {
+            return mVersions;
+        }
+
+        /**
+         * @return The tracks which could not be reprocessed, <i>e.g.</i> due to a storage error.
+         */
+        public List<String> getFailed() {
+            return mFailed;
+        }
+
+        /**
+         * @return The tracks which were not reprocessed, because the reprocessing was either
+         * cancelled or ran out of time.
+         */
+        public List<String> getRemaining() {
+            return mRemaining;
+        }
+
+        /**
+         * @return The number of tracks where every location was rejected, and so no version was stored.
+         */
+        public synchronized int getEmptyCount() {
+            return mEmptyCount;
+        }
+
+        /**
+         * @return The time taken by the reprocessing, in milliseconds.
+         */
+        public long getElapsedTime() {
+            return mElapsedTime;
+        }
+
+        /**
+         * @return True if every track was reprocessed, either successfully or not.
+         */
+        public boolean isComplete(){
+            return mRemaining.isEmpty();
+        }
+
+        private synchronized void onEmpty(){
+            mEmptyCount++;
+        }
+    }
+
+    private final PersistentTrackStorage mStorage;
+    private final FilterChainSpec mFilters;
+    private final boolean isSmoothing;
+    private final int mThreadCount;
+
+    private volatile ProgressListener mListener = null;
+    private volatile boolean isCancelled = false;
+
+    public TrackReprocessor(PersistentTrackStorage storage, FilterChainSpec filters, boolean isSmoothing){
+        this(storage, filters, isSmoothing, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param storage The storage where the tracks are read from, and the versions written to.
+     * @param filters The outlier filters applied to every track.
+     * @param isSmoothing True if the locations should be smoothed once the outliers are removed.
+     * @param threadCount The number of tracks reprocessed in parallel.
+     */
+    public TrackReprocessor(PersistentTrackStorage storage, FilterChainSpec filters, boolean isSmoothing, int threadCount){
+
+        if(threadCount < 1)
+            throw new IllegalArgumentException("At least one thread is required.");
+
+        //Validates the chain upfront, instead of once per track
+        filters.compile();
+
+        this.mStorage = storage;
+        this.mFilters = filters;
+        this.isSmoothing = isSmoothing;
+        this.mThreadCount = threadCount;
+    }
+
+    public void setProgressListener(ProgressListener listener){
+        this.mListener = listener;
+    }
+
+    /**
+     * Cancels the ongoing reprocessing. The tracks being reprocessed are discarded, without
+     * storing any version, and the remaining tracks are reported as such.
+     */
+    public void cancel(){
+        this.isCancelled = true;
+    }
+
+    /**
+     * Reprocesses the provided tracks, storing a new version of each one. This method blocks
+     * until every track has been reprocessed, the reprocessing is cancelled, or the time budget
+     * runs out, and so it should never be invoked from the main thread.
+     *
+     * @param sessions The session identifiers of the tracks to reprocess.
+     * @param timeBudget The maximum time, in milliseconds, the reprocessing may take, or 0 if unbounded.
+     * @return The outcome of the reprocessing.
+     */
+    public Result reprocess(List<String> sessions, long timeBudget){
+
+        final long start = System.currentTimeMillis();
+        final long deadline = timeBudget > 0 ? start + timeBudget : Long.MAX_VALUE;
+        final Result result = new Result();
+        final AtomicInteger completed = new AtomicInteger(0);
+        final int total = sessions.size();
+
+        isCancelled = false;
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                mThreadCount, mThreadCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory());
+
+        for(final String session : sessions)
+            executor.execute(new TrackTask(session) {
+                @Override
+                public void run() {
+
+                    if(shouldStop(deadline)) {
+                        result.mRemaining.add(session);
+                        return;
+                    }
+
+                    try {
+                        List<TraceLocation> cleaned = reprocessTrack(session, deadline);
+
+                        if(cleaned == null) {
+                            result.mRemaining.add(session);
+                            return;
+                        }
+
+                        if(cleaned.isEmpty())
+                            result.onEmpty();
+                        else {
+                            String version = mStorage.storeTrackVersion(session, cleaned, getDistance(cleaned));
+
+                            if(version != null)
+                                result.mVersions.add(version);
+                            else
+                                result.mFailed.add(session);
+                        }
+
+                    }catch (RuntimeException e){
+                        result.mFailed.add(session);
+                    }
+
+                    ProgressListener listener = mListener;
+                    if(listener != null)
+                        listener.onProgress(session, completed.incrementAndGet(), total);
+                }
+            });
+
+        executor.shutdown();
+
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+                if(shouldStop(deadline))
+                    for(Runnable pending : executor.shutdownNow())
+                        result.mRemaining.add(((TrackTask) pending).session);
+
+        } catch (InterruptedException e) {
+            cancel();
+
+            for(Runnable pending : executor.shutdownNow())
+                result.mRemaining.add(((TrackTask) pending).session);
+
+            Thread.currentThread().interrupt();
+        }
+
+        result.mElapsedTime = System.currentTimeMillis() - start;
+
+        return result;
+    }
+
+    private boolean shouldStop(long deadline){
+        return isCancelled || System.currentTimeMillis() > deadline;
+    }
+
+    /**
+     * Streams the track's locations through a new outlier filtering queue, and smoothing stage.
+     * @return The cleaned locations, or null if the reprocessing should stop.
+     */
+    private List<TraceLocation> reprocessTrack(String session, long deadline){
+
+        FilterChain chain = mFilters.compile();
+        OutlierFilteringLocationQueue queue = new OutlierFilteringLocationQueue(
+                true, Math.max(OutlierFilteringLocationQueue.QUEUE_MAX_SIZE, chain.getHistorySize()));
+        queue.setFilterChain(chain);
+
+        if(isSmoothing)
+            queue.setSmoothingStage(new KalmanSmoothingStage());
+
+        final List<TraceLocation> cleaned = new ArrayList<>();
+        queue.setNext(new LocationSink() {
+            @Override
+            public void onLocation(TraceLocation location) {
+                cleaned.add(location);
+            }
+        });
+
+        TrackLocationIterator locations = mStorage.iterateTrack(session);
+
+        try {
+            for(int i = 0; locations.hasNext(); i++) {
+
+                if((i & CANCELLATION_CHECK_MASK) == CANCELLATION_CHECK_MASK && shouldStop(deadline))
+                    return null;
+
+                queue.addLocation(locations.next());
+            }
+        }finally {
+            locations.close();
+        }
+
+        queue.clearAndStoreQueue();
+
+        return cleaned;
+    }
+
+    private static double getDistance(List<TraceLocation> locations){
+        double distance = 0;
+
+        for(int i = 1; i < locations.size(); i++)
+            distance += locations.get(i - 1).distanceTo(locations.get(i));
+
+        return distance;
+    }
+
+    /**
+     * A task that reprocesses a single track, which is identified so that the tasks that never
+     * ran may be reported.
+     */
+    private static abstract class TrackTask implements Runnable {
+
+        final String session;
+
+        TrackTask(String session){
+            this.session = session;
+        }
+    }
+
+    /**
+     * Creates the worker threads with background priority, so that these never compete with the UI.
+     */
+    private static class BackgroundThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "TrackReprocessor-"+mCount.incrementAndGet());
+        }
+    }
+}
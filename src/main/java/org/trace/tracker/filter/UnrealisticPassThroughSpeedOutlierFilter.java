@@ -1,7 +1,5 @@
 package org.trace.tracker.filter;
 
-import android.util.Log;
-
 import org.trace.tracker.storage.data.TraceLocation;
 
 
@@ -27,7 +25,6 @@ public class UnrealisticPassThroughSpeedOutlierFilter implements HeuristicBasedF
 
     @Override
     public boolean isOutlier(TraceLocation current, TraceLocation previous, TraceLocation earlierThan) {
-        boolean isOutlier;
         double travelledDistance, elapsedTime;
 
         travelledDistance = earlierThan.distanceTo(previous) + previous.distanceTo(current);
@@ -35,11 +32,6 @@ public class UnrealisticPassThroughSpeedOutlierFilter implements HeuristicBasedF
         elapsedTime = current.getElapsedRealtimeNanos() - earlierThan.getElapsedRealtimeNanos();
         elapsedTime = elapsedTime / 1000000000.0;
 
-        isOutlier = (travelledDistance / elapsedTime) > threshold;
-
-        if(isOutlier)
-            Log.e(LOG_TAG, "Unrealistic pass through speed.");
-
-        return isOutlier;
+        return (travelledDistance / elapsedTime) > threshold;
     }
 }
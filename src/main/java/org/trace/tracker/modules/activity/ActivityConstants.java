@@ -6,6 +6,8 @@ package org.trace.tracker.modules.activity;
 
 import com.google.android.gms.location.DetectedActivity;
 
+import org.trace.tracker.tracker.TrackingConstants;
+
 /**
  * Returns a human readable String corresponding to a detected activity type.
  */
@@ -34,6 +36,34 @@ public class ActivityConstants {
         }
     }
 
+    /**
+     * Returns the detected activity type corresponding to a human readable String.
+     * @see #getActivityString(int)
+     */
+    public static int getActivityType(String activityString) {
+
+        if(activityString == null) return DetectedActivity.UNKNOWN;
+
+        switch (activityString) {
+            case "Vehicle":
+                return DetectedActivity.IN_VEHICLE;
+            case "Cycling":
+                return DetectedActivity.ON_BICYCLE;
+            case "On Foot":
+                return DetectedActivity.ON_FOOT;
+            case "Running":
+                return DetectedActivity.RUNNING;
+            case "Still":
+                return DetectedActivity.STILL;
+            case "Tilting":
+                return DetectedActivity.TILTING;
+            case "Walking":
+                return DetectedActivity.WALKING;
+            default:
+                return DetectedActivity.UNKNOWN;
+        }
+    }
+
 
     public static final String PACKAGE_NAME = "com.google.android.gms.location.activityrecognition";
 
@@ -70,5 +100,6 @@ public class ActivityConstants {
             DetectedActivity.UNKNOWN
     };
 
-    public final static String COLLECT_ACTION = "";
+    /** The action of the broadcasts through which the activity recognition results are delivered. */
+    public final static String COLLECT_ACTION = TrackingConstants.ActivityRecognition.COLLECT_ACTION;
 }
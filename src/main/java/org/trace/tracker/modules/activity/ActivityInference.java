@@ -0,0 +1,216 @@
+package org.trace.tracker.modules.activity;
+
+import com.google.android.gms.location.DetectedActivity;
+
+/**
+ * Infers a stable activity from the noisy updates of the activity recognition, using a small
+ * hidden Markov model, whose states are the activities IN_VEHICLE, ON_BICYCLE, WALKING, RUNNING
+ * and STILL. Each update's confidences are the evidence of each state, and the activity switches
+ * with a probability that grows with the time between updates, according to the mean dwell time.
+ * This switching penalty means a single misclassified update barely changes the belief, while a
+ * consistent run of updates quickly does.
+ * <br>
+ * The inferred activity only changes once another activity becomes the most likely one, with
+ * at least the minimum posterior probability. Until then, and before the first such activity,
+ * the previous activity, or UNKNOWN, is kept.
+ * <br>
+ * Both UNKNOWN and TILTING carry no evidence. ON_FOOT is only taken as WALKING when neither
+ * WALKING nor RUNNING were reported.
+ * <br>
+ * <b>Note:</b> This class is not thread-safe, and does not allocate objects after creation.
+ */
+public class ActivityInference {
+
+    /** Default mean time, in milliseconds, the user keeps the same activity. */
+    public static final long DEFAULT_MEAN_DWELL_TIME = 120000; //2min
+
+    /** Default probability the most likely activity must have before it is adopted. */
+    public static final float DEFAULT_MINIMUM_POSTERIOR = 0.75f;
+
+    /** The likelihood of any state, even when the update does not report it. */
+    private static final double MINIMUM_LIKELIHOOD = 0.05;
+
+    /** The shortest time, in milliseconds, considered between updates. */
+    private static final long MINIMUM_UPDATE_INTERVAL = 1000;
+
+    private static final int[] STATES = {
+            DetectedActivity.IN_VEHICLE,
+            DetectedActivity.ON_BICYCLE,
+            DetectedActivity.WALKING,
+            DetectedActivity.RUNNING,
+            DetectedActivity.STILL
+    };
+
+    private static final int WALKING = 2, RUNNING = 3;
+
+    private final long mMeanDwellTime;
+    private final float mMinimumPosterior;
+
+    private final double[] mPosterior = new double[STATES.length];
+    private final double[] mLikelihood = new double[STATES.length];
+    private boolean hasPosterior = false;
+    private long mTime = 0;
+
+    private int mState = -1;
+    private int mSwitchCount = 0;
+
+    public ActivityInference(){
+        this(DEFAULT_MEAN_DWELL_TIME, DEFAULT_MINIMUM_POSTERIOR);
+    }
+
+    /**
+     * @param meanDwellTime The mean time, in milliseconds, the user keeps the same activity.
+     * @param minimumPosterior The probability the most likely activity must have before it is adopted.
+     */
+    public ActivityInference(long meanDwellTime, float minimumPosterior){
+
+        if(meanDwellTime <= 0)
+            throw new IllegalArgumentException("The mean dwell time must be positive.");
+
+        if(minimumPosterior <= 0.5f || minimumPosterior > 1)
+            throw new IllegalArgumentException("The minimum posterior must be over 0.5, and at most 1.");
+
+        this.mMeanDwellTime = meanDwellTime;
+        this.mMinimumPosterior = minimumPosterior;
+    }
+
+    /**
+     * Updates the belief with the activities reported by a single activity recognition update.
+     *
+     * @param types The reported activities' types, as defined by the DetectedActivity.
+     * @param confidences The reported activities' confidences, from 0 to 100.
+     * @param time The update's time, in milliseconds.
+     * @return True if the inferred activity changed.
+     */
+    public boolean onActivities(int[] types, int[] confidences, long time){
+
+        if(!setLikelihoods(types, confidences))
+            return false;
+
+        if(!hasPosterior){
+            for(int i = 0; i < STATES.length; i++)
+                mPosterior[i] = mLikelihood[i];
+
+            hasPosterior = true;
+        }else {
+            long interval = Math.max(time - mTime, MINIMUM_UPDATE_INTERVAL);
+            double switching = 1 - Math.exp(-interval / (double) mMeanDwellTime);
+
+            for(int i = 0; i < STATES.length; i++) {
+                double prior = mPosterior[i] * (1 - switching)
+                        + (1 - mPosterior[i]) * switching / (STATES.length - 1);
+
+                mPosterior[i] = prior * mLikelihood[i];
+            }
+        }
+
+        mTime = Math.max(time, mTime);
+
+        return normalizeAndDecide();
+    }
+
+    /**
+     * @return False if the update carries no evidence.
+     */
+    private boolean setLikelihoods(int[] types, int[] confidences){
+
+        int onFoot = -1;
+        boolean hasEvidence = false, hasGait = false;
+
+        for(int i = 0; i < STATES.length; i++)
+            mLikelihood[i] = MINIMUM_LIKELIHOOD;
+
+        for(int i = 0; i < types.length; i++){
+
+            if(types[i] == DetectedActivity.ON_FOOT){
+                onFoot = confidences[i];
+                continue;
+            }
+
+            int state = getState(types[i]);
+
+            if(state < 0) continue;
+
+            mLikelihood[state] = Math.max(mLikelihood[state], confidences[i] / 100d);
+            hasEvidence = true;
+            hasGait |= state == WALKING || state == RUNNING;
+        }
+
+        if(onFoot >= 0 && !hasGait) {
+            mLikelihood[WALKING] = Math.max(mLikelihood[WALKING], onFoot / 100d);
+            hasEvidence = true;
+        }
+
+        return hasEvidence;
+    }
+
+    private boolean normalizeAndDecide(){
+
+        double total = 0;
+        for(double probability : mPosterior)
+            total += probability;
+
+        int best = 0;
+        for(int i = 0; i < STATES.length; i++) {
+            mPosterior[i] /= total;
+
+            if(mPosterior[i] > mPosterior[best])
+                best = i;
+        }
+
+        if(best == mState || mPosterior[best] < mMinimumPosterior)
+            return false;
+
+        mState = best;
+        mSwitchCount++;
+        return true;
+    }
+
+    private static int getState(int activityType){
+        for(int i = 0; i < STATES.length; i++)
+            if(STATES[i] == activityType)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Discards the current belief, <i>e.g.</i> when the activity recognition restarts.
+     */
+    public void reset(){
+        hasPosterior = false;
+        mState = -1;
+        mSwitchCount = 0;
+    }
+
+    /* Getters
+    /* Getters
+    /* Getters
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * @return The inferred activity's type, as defined by the DetectedActivity, or UNKNOWN if no
+     * activity was inferred yet.
+     */
+    public int getActivity(){
+        return mState < 0 ? DetectedActivity.UNKNOWN : STATES[mState];
+    }
+
+    /**
+     * @return The probability, from 0 to 100, of the inferred activity, or 0 if no activity was
+     * inferred yet.
+     */
+    public int getConfidence(){
+        return mState < 0 ? 0 : (int) Math.round(mPosterior[mState] * 100);
+    }
+
+    /**
+     * @return The number of times the inferred activity changed since the last reset.
+     */
+    public int getSwitchCount() {
+        return mSwitchCount;
+    }
+}
@@ -1,9 +1,7 @@
 package org.trace.tracker.modules.activity;
 
 import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -14,6 +12,7 @@ import com.google.android.gms.location.ActivityRecognition;
 import com.google.android.gms.location.DetectedActivity;
 
 import org.trace.tracker.exceptions.GoogleApiClientDisconnectedException;
+import org.trace.tracker.filter.LatencyHistogram;
 import org.trace.tracker.modules.ModuleInterface;
 
 import java.util.LinkedList;
@@ -25,7 +24,7 @@ public class ActivityRecognitionModule implements ModuleInterface, ResultCallbac
 
     private Context mContext;
     private GoogleApiClient mGoogleApiClient;
-    private BroadcastReceiver mActivityReceiver;
+    private ActivityRecognitionReceiver mActivityReceiver;
     private PendingIntent mActivityRecogIntent = null;
 
     private boolean isTracking = false;
@@ -36,13 +35,19 @@ public class ActivityRecognitionModule implements ModuleInterface, ResultCallbac
 
     private Queue<SimpleDetectedActivity> activities;
 
-    public ActivityRecognitionModule(Context ctx, GoogleApiClient googleApiClient){
+    /**
+     * @param ctx The context.
+     * @param googleApiClient The GoogleApiClient used to request activity updates.
+     * @param output The sink that receives the detected activities.
+     */
+    public ActivityRecognitionModule(Context ctx, GoogleApiClient googleApiClient, ActivitySink output){
 
         if(!googleApiClient.isConnected())
             throw new GoogleApiClientDisconnectedException();
 
-        this.mContext = ctx;
+        this.mContext = ctx.getApplicationContext();
         this.mGoogleApiClient = googleApiClient;
+        this.mActivityReceiver = new ActivityRecognitionReceiver(output);
 
         this.activities = new LinkedList<>();
     }
@@ -55,8 +60,11 @@ public class ActivityRecognitionModule implements ModuleInterface, ResultCallbac
             return;
         }
 
-        Intent i = new Intent(mContext, ActivityRecognitionHandler.class);
-        mActivityRecogIntent = PendingIntent.getService(mContext, 0, i, PendingIntent.FLAG_UPDATE_CURRENT);
+        if(isTracking) return;
+
+        //The results are received in process, and handed straight to the sink, but only from this application
+        mContext.registerReceiver(mActivityReceiver, ActivityRecognitionReceiver.getIntentFilter(),
+                ActivityRecognitionReceiver.getPermission(mContext), null);
 
         ActivityRecognition.ActivityRecognitionApi
                 .requestActivityUpdates(
@@ -79,16 +87,26 @@ public class ActivityRecognitionModule implements ModuleInterface, ResultCallbac
                         getActivityDetectionPendingIntent())
                 .setResultCallback(this);
 
+        mContext.unregisterReceiver(mActivityReceiver);
+
         isTracking = false;
 
     }
 
     private PendingIntent getActivityDetectionPendingIntent() {
-        Intent intent = new Intent(mContext, ActivityRecognitionHandler.class);
 
-        // We use FLAG_UPDATE_CURRENT so that we get the same pending intent back when calling
-        // requestActivityUpdates() and removeActivityUpdates().
-        return PendingIntent.getService(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        // The same pending intent is used when calling requestActivityUpdates() and removeActivityUpdates().
+        if(mActivityRecogIntent == null)
+            mActivityRecogIntent = ActivityRecognitionReceiver.getPendingIntent(mContext);
+
+        return mActivityRecogIntent;
+    }
+
+    /**
+     * @return A snapshot of the latencies, in nanoseconds, from each detection until its delivery to the sink.
+     */
+    public LatencyHistogram getDeliveryLatency() {
+        return mActivityReceiver.getDeliveryLatency();
     }
 
 
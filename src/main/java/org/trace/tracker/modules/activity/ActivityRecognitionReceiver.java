@@ -0,0 +1,93 @@
+package org.trace.tracker.modules.activity;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+
+import com.google.android.gms.location.ActivityRecognitionResult;
+
+import org.trace.tracker.filter.LatencyHistogram;
+
+/**
+ * Hands the activity recognition results straight to an {@link ActivitySink}, in process. The
+ * results are delivered by the activity recognition as a broadcast, through the PendingIntent
+ * returned by {@link #getPendingIntent(Context)}, to this receiver, which must be registered
+ * while the updates are requested. This way, no service is started, and no intent is copied
+ * or rebroadcast, for each update.
+ * <br>
+ * The receiver must be registered with the permission returned by {@link #getPermission(Context)},
+ * a signature permission, so that other applications cannot forge activity results.
+ * <br>
+ * The receiver also measures the delivery latency, that is, the time from the detection until
+ * the sink is invoked.
+ */
+public class ActivityRecognitionReceiver extends BroadcastReceiver {
+
+    /**
+     * The suffix of the permission the broadcaster of the results must hold, which is declared
+     * in the manifest under the package of the application that embeds the tracker.
+     */
+    public static final String PERMISSION_SUFFIX = ".permission.ACTIVITY_RESULTS";
+
+    private final ActivitySink mSink;
+    private final LatencyHistogram mDeliveryLatency = new LatencyHistogram();
+
+    /**
+     * @param sink The sink that receives the detected activities.
+     */
+    public ActivityRecognitionReceiver(ActivitySink sink){
+        this.mSink = sink;
+    }
+
+    /**
+     * @param context The context.
+     * @return The PendingIntent through which the activity recognition updates are requested,
+     * which is always the same, so that the updates may also be removed through it.
+     */
+    public static PendingIntent getPendingIntent(Context context){
+        Intent intent = new Intent(ActivityConstants.COLLECT_ACTION);
+        intent.setPackage(context.getPackageName());
+
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * @param context The context.
+     * @return The permission with which the receiver should be registered, which is unique to
+     * the application, so that several applications embedding the tracker may be installed.
+     */
+    public static String getPermission(Context context){
+        return context.getPackageName() + PERMISSION_SUFFIX;
+    }
+
+    /**
+     * @return The filter with which the receiver should be registered, along with the permission.
+     * @see #getPermission(Context)
+     */
+    public static IntentFilter getIntentFilter(){
+        return new IntentFilter(ActivityConstants.COLLECT_ACTION);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+
+        if(!ActivityRecognitionResult.hasResult(intent))
+            return;
+
+        ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
+
+        mSink.onActivities(result.getProbableActivities(), result.getTime());
+
+        mDeliveryLatency.record((SystemClock.elapsedRealtime() - result.getElapsedRealtimeMillis()) * 1000000);
+    }
+
+    /**
+     * @return A snapshot of the delivery latencies, in nanoseconds, with millisecond resolution.
+     */
+    public LatencyHistogram getDeliveryLatency() {
+        return mDeliveryLatency.copy();
+    }
+}
@@ -0,0 +1,20 @@
+package org.trace.tracker.modules.activity;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import java.util.List;
+
+/**
+ * Receives the activities detected by the {@link ActivityRecognitionModule}.
+ * <br>
+ * <b>Note:</b> Activities are delivered on the main thread, and therefore sinks should never block.
+ */
+public interface ActivitySink {
+
+    /**
+     * Handles a new activity recognition update.
+     * @param activities The probable activities, each one with its confidence.
+     * @param time The detection's time, in milliseconds.
+     */
+    void onActivities(List<DetectedActivity> activities, long time);
+}
@@ -0,0 +1,340 @@
+package org.trace.tracker.modules.location;
+
+import com.google.android.gms.location.DetectedActivity;
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * Adapts the location sampling to how the user is moving, based on the recent speed of the
+ * tracked locations and on the currently detected activity. Each {@link SamplingMode} has its
+ * own sampling parameters, where faster modes sample more often and more accurately.
+ * <br>
+ * In order to avoid thrashing, the controller switches modes with hysteresis:
+ * <ul>
+ *     <li>The speed must cross each threshold by a margin, which depends on the direction;</li>
+ *     <li>A new mode must be consistently observed for a minimum delay before it is adopted,
+ *     where switching to a faster mode takes a shorter delay than switching to a slower one.</li>
+ * </ul>
+ * <br>
+ * <b>Note:</b> This class is not thread-safe.
+ *
+ * @see FusedLocationModule#activateAdaptiveSampling(boolean)
+ */
+public class AdaptiveSamplingController {
+
+    /**
+     * The supported sampling modes, from the slowest to the fastest.
+     */
+    public enum SamplingMode {
+        STILL,
+        WALKING,
+        CYCLING,
+        DRIVING
+    }
+
+    /**
+     * The parameters of the location requests issued in a given mode.
+     */
+    public static class SamplingParameters {
+
+        private final long interval, fastInterval;
+        private final int priority;
+        private final float displacement;
+
+        /**
+         * @param interval The sampling interval, in milliseconds.
+         * @param fastInterval The fastest acceptable interval, in milliseconds.
+         * @param priority The request's priority, as defined by the LocationRequest.
+         * @param displacement The smallest displacement, in meters, between locations.
+         */
+        public SamplingParameters(long interval, long fastInterval, int priority, float displacement){
+            this.interval = interval;
+            this.fastInterval = fastInterval;
+            this.priority = priority;
+            this.displacement = displacement;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public long getFastInterval() {
+            return fastInterval;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public float getDisplacement() {
+            return displacement;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SamplingParameters)) return false;
+
+            SamplingParameters that = (SamplingParameters) o;
+
+            return interval == that.interval && fastInterval == that.fastInterval
+                    && priority == that.priority && Float.compare(that.displacement, displacement) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (interval ^ (interval >>> 32));
+            result = 31 * result + (int) (fastInterval ^ (fastInterval >>> 32));
+            result = 31 * result + priority;
+            result = 31 * result + Float.floatToIntBits(displacement);
+            return result;
+        }
+    }
+
+    /** Minimum speed, in m/s, of each mode, from WALKING onwards. */
+    private static final float[] SPEED_THRESHOLDS = { 0.6f, 3f, 7f };
+
+    /** Fraction of a threshold the speed must drop below, in order to leave the faster mode. */
+    private static final float HYSTERESIS_MARGIN = 0.7f;
+
+    /** Default time, in milliseconds, a faster mode must be observed before it is adopted. */
+    public static final long DEFAULT_UPGRADE_DELAY = 10000; //10s
+
+    /** Default time, in milliseconds, a slower mode must be observed before it is adopted. */
+    public static final long DEFAULT_DOWNGRADE_DELAY = 60000; //1min
+
+    /** Time constant, in milliseconds, of the speed's exponential moving average. */
+    private static final long SPEED_TIME_CONSTANT = 15000;
+
+    /** Time, in milliseconds, after which the detected activity is no longer considered. */
+    private static final long ACTIVITY_TIMEOUT = 120000;
+
+    private final SamplingParameters[] mParameters;
+    private final long mUpgradeDelay, mDowngradeDelay;
+
+    private SamplingMode mMode = SamplingMode.DRIVING;
+    private SamplingMode mCandidate = null;
+    private long mCandidateSince = 0;
+    private int mSwitchCount = 0;
+
+    private boolean hasSpeed = false;
+    private float mSpeed = 0;
+    private long mSpeedTime = 0;
+
+    private boolean hasActivity = false;
+    private int mActivity = DetectedActivity.UNKNOWN;
+    private long mActivityTime = 0;
+
+    /**
+     * Creates a controller whose parameters are derived from the fastest mode's parameters,
+     * <i>i.e.</i> those of the tracking profile.
+     * @param baseline The parameters used while DRIVING.
+     */
+    public AdaptiveSamplingController(SamplingParameters baseline){
+        this(getDefaultParameters(baseline), DEFAULT_UPGRADE_DELAY, DEFAULT_DOWNGRADE_DELAY);
+    }
+
+    /**
+     * @param parameters The parameters of each mode, indexed by the mode's ordinal.
+     * @param upgradeDelay The time, in milliseconds, a faster mode must be observed before it is adopted.
+     * @param downgradeDelay The time, in milliseconds, a slower mode must be observed before it is adopted.
+     */
+    public AdaptiveSamplingController(SamplingParameters[] parameters, long upgradeDelay, long downgradeDelay){
+
+        if(parameters.length != SamplingMode.values().length)
+            throw new IllegalArgumentException("There must be exactly one set of parameters per mode.");
+
+        this.mParameters = parameters.clone();
+        this.mUpgradeDelay = upgradeDelay;
+        this.mDowngradeDelay = downgradeDelay;
+    }
+
+    /**
+     * @param baseline The parameters used while DRIVING.
+     * @return The parameters of each mode, where slower modes sample less often, and STILL also
+     * trades accuracy for power.
+     */
+    public static SamplingParameters[] getDefaultParameters(SamplingParameters baseline){
+
+        long interval = baseline.getInterval(), fastInterval = baseline.getFastInterval();
+        float displacement = baseline.getDisplacement();
+
+        SamplingParameters[] parameters = new SamplingParameters[SamplingMode.values().length];
+
+        parameters[SamplingMode.STILL.ordinal()] = new SamplingParameters(
+                Math.max(interval * 10, 60000), Math.max(fastInterval * 10, 30000),
+                LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, Math.max(displacement, 25));
+
+        parameters[SamplingMode.WALKING.ordinal()] = new SamplingParameters(
+                interval * 3, fastInterval * 3, baseline.getPriority(), Math.max(displacement, 5));
+
+        parameters[SamplingMode.CYCLING.ordinal()] = new SamplingParameters(
+                interval * 2, fastInterval * 2, baseline.getPriority(), Math.max(displacement, 10));
+
+        parameters[SamplingMode.DRIVING.ordinal()] = baseline;
+
+        return parameters;
+    }
+
+    /**
+     * Updates the recent speed with a newly tracked location.
+     *
+     * @param speed The location's speed, in m/s.
+     * @param time The location's time, in milliseconds.
+     * @return True if the sampling mode changed, in which case the location request should be reissued.
+     */
+    public boolean onLocation(float speed, long time){
+
+        if(!hasSpeed) {
+            mSpeed = speed;
+            mSpeedTime = time;
+            hasSpeed = true;
+        }else if(time > mSpeedTime) {
+            //Locations which arrive out of order are ignored
+            double alpha = 1 - Math.exp(-(time - mSpeedTime) / (double) SPEED_TIME_CONSTANT);
+            mSpeed += alpha * (speed - mSpeed);
+            mSpeedTime = time;
+        }
+
+        return evaluate(time);
+    }
+
+    /**
+     * Updates the currently detected activity.
+     *
+     * @param activityType The activity's type, as defined by the DetectedActivity.
+     * @param time The detection's time, in milliseconds.
+     * @return True if the sampling mode changed, in which case the location request should be reissued.
+     */
+    public boolean onActivity(int activityType, long time){
+        mActivity = activityType;
+        mActivityTime = time;
+        hasActivity = true;
+
+        return evaluate(time);
+    }
+
+    private boolean evaluate(long time){
+
+        SamplingMode target = classify(time);
+
+        if(target == mMode){
+            mCandidate = null;
+            return false;
+        }
+
+        if(target != mCandidate){
+            mCandidate = target;
+            mCandidateSince = time;
+        }
+
+        long delay = target.ordinal() > mMode.ordinal() ? mUpgradeDelay : mDowngradeDelay;
+
+        if(time - mCandidateSince < delay)
+            return false;
+
+        mMode = target;
+        mCandidate = null;
+        mSwitchCount++;
+
+        return true;
+    }
+
+    /**
+     * @return The fastest of the modes suggested by the activity and by the speed, as
+     * under-sampling is costlier than over-sampling, or the current mode if neither is known.
+     */
+    private SamplingMode classify(long time){
+
+        SamplingMode byActivity = hasActivity && time - mActivityTime <= ACTIVITY_TIMEOUT ? getActivityMode(mActivity) : null;
+        SamplingMode bySpeed = hasSpeed ? getSpeedMode(mSpeed) : null;
+
+        if(byActivity == null && bySpeed == null)
+            return mMode;
+        else if(byActivity == null)
+            return bySpeed;
+        else if(bySpeed == null)
+            return byActivity;
+        else
+            return byActivity.ordinal() > bySpeed.ordinal() ? byActivity : bySpeed;
+    }
+
+    private static SamplingMode getActivityMode(int activityType){
+        switch (activityType){
+            case DetectedActivity.IN_VEHICLE:
+                return SamplingMode.DRIVING;
+            case DetectedActivity.ON_BICYCLE:
+                return SamplingMode.CYCLING;
+            case DetectedActivity.ON_FOOT:
+            case DetectedActivity.WALKING:
+            case DetectedActivity.RUNNING:
+                return SamplingMode.WALKING;
+            case DetectedActivity.STILL:
+                return SamplingMode.STILL;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Each threshold is raised by the hysteresis margin while the current mode is below it, and
+     * lowered while the current mode is above it.
+     */
+    private SamplingMode getSpeedMode(float speed){
+
+        SamplingMode[] modes = SamplingMode.values();
+        SamplingMode mode = SamplingMode.STILL;
+
+        for(int i = 0; i < SPEED_THRESHOLDS.length; i++){
+
+            float threshold = mMode.ordinal() > i
+                    ? SPEED_THRESHOLDS[i] * HYSTERESIS_MARGIN
+                    : SPEED_THRESHOLDS[i] / HYSTERESIS_MARGIN;
+
+            if(speed >= threshold)
+                mode = modes[i + 1];
+        }
+
+        return mode;
+    }
+
+    /**
+     * Restores the fastest mode and discards the recent speed and activity, <i>e.g.</i> when a
+     * new track starts.
+     */
+    public void reset(){
+        mMode = SamplingMode.DRIVING;
+        mCandidate = null;
+        hasSpeed = false;
+        hasActivity = false;
+    }
+
+    /* Getters
+    /* Getters
+    /* Getters
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public SamplingMode getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return The parameters of the current mode.
+     */
+    public SamplingParameters getParameters(){
+        return mParameters[mMode.ordinal()];
+    }
+
+    public SamplingParameters getParameters(SamplingMode mode){
+        return mParameters[mode.ordinal()];
+    }
+
+    /**
+     * @return The number of times the mode changed since the controller was created.
+     */
+    public int getSwitchCount() {
+        return mSwitchCount;
+    }
+}
@@ -8,9 +8,12 @@ import com.google.android.gms.location.LocationListener;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationServices;
 
-import org.trace.tracker.filter.HeuristicBasedFilter;
+import org.trace.tracker.filter.FilterChainSpec;
+import org.trace.tracker.filter.FilterMetrics;
+import org.trace.tracker.filter.KalmanSmoothingStage;
 import org.trace.tracker.filter.OutlierFilteringLocationQueue;
 import org.trace.tracker.modules.ModuleInterface;
+import org.trace.tracker.pipeline.LocationSink;
 import org.trace.tracker.storage.data.TraceLocation;
 
 
@@ -36,23 +39,37 @@ public class FusedLocationModule implements LocationListener, ModuleInterface {
     // Outlier Detection Filters && Parameters
     private OutlierFilteringLocationQueue mLocationQueue;
 
-    private HeuristicBasedFilter mOutlierDetector;
     private float mMinimumAccuracy  = 40f;
     private float mMaximumSpeed     = 55.56f;
     private float mMinimumSatellites= 4;
+    private FilterChainSpec mOutlierFilters = FilterChainSpec.getDefault(mMinimumAccuracy, mMaximumSpeed);
 
-    public FusedLocationModule(Context ctx, GoogleApiClient client) {
+    // Adaptive Sampling
+    private AdaptiveSamplingController mSamplingController = null;
+
+    // Power Saving
+    private StillnessPowerManager mPowerManager = null;
+
+    /**
+     * @param ctx The context.
+     * @param client The GoogleApiClient used to request location updates.
+     * @param output The sink that receives the locations which pass the outlier filters.
+     */
+    public FusedLocationModule(Context ctx, GoogleApiClient client, final LocationSink output) {
         this.mContext = ctx;
         this.mGoogleApiClient = client;
 
-        this.mLocationQueue = new OutlierFilteringLocationQueue(mContext);
-        this.mLocationQueue.addHeuristicRule(new HeuristicBasedFilter.AccuracyBasedHeuristicRule(mMinimumAccuracy));
-        this.mLocationQueue.addHeuristicRule(new HeuristicBasedFilter.SpeedBasedHeuristicRule(mMaximumSpeed));
-        this.mLocationQueue.addHeuristicRule(new HeuristicBasedFilter.OverlappingLocationHeuristicRule());
-        //mOutlierDetector = new HeuristicBasedFilter();
-        //mOutlierDetector.addNewHeuristic(new HeuristicBasedFilter.AccuracyBasedHeuristicRule(mMinimumAccuracy));
-        //mOutlierDetector.addNewHeuristic(new HeuristicBasedFilter.SatelliteBasedHeuristicRule(4));
-        //mOutlierDetector.addNewHeuristic(new HeuristicBasedFilter.SpeedBasedHeuristicRule(mMaximumSpeed));
+        this.mLocationQueue = new OutlierFilteringLocationQueue();
+        this.mLocationQueue.setFilterChain(mOutlierFilters.compile());
+
+        //The sampling adapts to the speed of the locations which pass the outlier filters
+        this.mLocationQueue.setNext(new LocationSink() {
+            @Override
+            public void onLocation(TraceLocation location) {
+                onTrackedLocation(location);
+                output.onLocation(location);
+            }
+        });
     }
 
     public long getInterval() {
@@ -87,16 +104,28 @@ public class FusedLocationModule implements LocationListener, ModuleInterface {
         this.mMinimumDisplacement = mMinimumDisplacement;
     }
 
-    public void setMinimumAccuracy(float mMinimumAccuracy) {
+    public synchronized void setMinimumAccuracy(float mMinimumAccuracy) {
         this.mMinimumAccuracy = mMinimumAccuracy;
-        //TODO: handle this
-        //mOutlierDetector.updateHeuristic(new HeuristicBasedFilter.AccuracyBasedHeuristicRule(mMinimumAccuracy));
+        setOutlierFilters(mOutlierFilters.withThreshold(FilterChainSpec.RuleType.ACCURACY, mMinimumAccuracy));
     }
 
-    public void setMaximumSpeed(float mMaximumSpeed) {
+    public synchronized void setMaximumSpeed(float mMaximumSpeed) {
         this.mMaximumSpeed = mMaximumSpeed;
-        //TODO: handle this
-        //mOutlierDetector.updateHeuristic(new HeuristicBasedFilter.SpeedBasedHeuristicRule(mMaximumSpeed));
+        setOutlierFilters(mOutlierFilters.withThreshold(FilterChainSpec.RuleType.SPEED, mMaximumSpeed));
+    }
+
+    /**
+     * Compiles the outlier filter chain and swaps it for the current one, which takes effect
+     * immediately, even while tracking.
+     * @param outlierFilters The chain's description.
+     */
+    public synchronized void setOutlierFilters(FilterChainSpec outlierFilters) {
+        mLocationQueue.setFilterChain(outlierFilters.compile());
+        this.mOutlierFilters = outlierFilters;
+    }
+
+    public synchronized FilterChainSpec getOutlierFilters() {
+        return mOutlierFilters;
     }
 
     public void setMinimumSatellites(float mMinimumSatellites) {
@@ -107,16 +136,166 @@ public class FusedLocationModule implements LocationListener, ModuleInterface {
         mLocationQueue.setIsEnabled(activate);
     }
 
+    /**
+     * Enables or disables the Kalman smoothing of the locations which pass the outlier filters.
+     * @param activate True if the locations should be smoothed, false otherwise.
+     */
+    public void activateSmoothing(boolean activate) {
+        if(activate && mLocationQueue.getSmoothingStage() == null)
+            mLocationQueue.setSmoothingStage(new KalmanSmoothingStage());
+        else if(!activate)
+            mLocationQueue.setSmoothingStage(null);
+    }
+
+    /**
+     * @return A snapshot of the outlier filtering metrics of the current tracking session.
+     */
+    public FilterMetrics getFilterMetrics() {
+        return mLocationQueue.getMetrics();
+    }
+
     public boolean isTracking() {
         return isTracking;
     }
 
-    private LocationRequest createLocationRequest() {
+    /**
+     * Enables or disables the adaptive sampling, which adapts the interval, priority and
+     * displacement of the location requests to the user's speed and activity. The current
+     * tracking parameters are the ones used at the fastest mode. These parameters should thus be
+     * set before the adaptive sampling is activated.
+     *
+     * @param activate True if the sampling should be adapted, false otherwise.
+     * @see AdaptiveSamplingController
+     */
+    public synchronized void activateAdaptiveSampling(boolean activate) {
+
+        AdaptiveSamplingController.SamplingParameters baseline =
+                new AdaptiveSamplingController.SamplingParameters(mInterval, mFastInterval, mPriority, mMinimumDisplacement);
+
+        //Unchanged settings keep the current mode, and the location request, as they are
+        if(activate && mSamplingController != null
+                && baseline.equals(mSamplingController.getParameters(AdaptiveSamplingController.SamplingMode.DRIVING)))
+            return;
+
+        if(!activate && mSamplingController == null)
+            return;
+
+        mSamplingController = activate ? new AdaptiveSamplingController(baseline) : null;
+
+        updateLocationRequest();
+    }
+
+    /**
+     * @return The current sampling mode, or null if the adaptive sampling is not active.
+     */
+    public synchronized AdaptiveSamplingController.SamplingMode getSamplingMode() {
+        return mSamplingController == null ? null : mSamplingController.getMode();
+    }
+
+    /**
+     * Enables or disables the power saving while the user is still. Once the user has been STILL
+     * for the still timeout, the location updates are either suspended or downgraded to a
+     * passive priority, until any movement is detected. The tracking is never stopped, and so
+     * the locations that follow the gap belong to the same track.
+     *
+     * @param activate True if power should be saved while still, false otherwise.
+     * @param stillTimeout The time, in milliseconds, the user must be still before saving power.
+     * @param suspend True if the location updates should be suspended, false if these should be downgraded.
+     * @see StillnessPowerManager
+     */
+    public synchronized void activateStillPowerSaving(boolean activate, long stillTimeout, boolean suspend) {
+
+        //Unchanged settings keep the time the user has been still, and the location request, as they are
+        if(activate && mPowerManager != null
+                && mPowerManager.getStillTimeout() == stillTimeout && mPowerManager.isSuspending() == suspend)
+            return;
+
+        if(!activate && mPowerManager == null)
+            return;
+
+        mPowerManager = activate ? new StillnessPowerManager(stillTimeout, suspend) : null;
+
+        updateLocationRequest();
+    }
+
+    /**
+     * @return True if the location updates are currently suspended or downgraded, because the user is still.
+     */
+    public synchronized boolean isPowerSaving() {
+        return mPowerManager != null && mPowerManager.isPowerSaving();
+    }
+
+    /**
+     * @return The time, in milliseconds, the location updates were suspended or downgraded during
+     * the current tracking session.
+     */
+    public synchronized long getPowerSavingTime() {
+        return mPowerManager == null ? 0 : mPowerManager.getPowerSavingTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Informs the adaptive sampling, the power saving and the smoothing of the user's current activity.
+     * @param activityType The activity's type, as defined by the DetectedActivity.
+     */
+    public synchronized void onActivityDetected(int activityType) {
+        long now = System.currentTimeMillis();
+        boolean isUpdated = false;
+
+        KalmanSmoothingStage smoothing = mLocationQueue.getSmoothingStage();
+        if(smoothing != null) smoothing.setActivity(activityType);
+
+        if(mPowerManager != null && mPowerManager.onActivity(activityType, now))
+            isUpdated = true;
+
+        if(mSamplingController != null && mSamplingController.onActivity(activityType, now))
+            isUpdated = true;
+
+        if(isUpdated)
+            updateLocationRequest();
+    }
+
+    private synchronized void onTrackedLocation(TraceLocation location) {
+        if(mSamplingController != null && location.hasSpeed()
+                && mSamplingController.onLocation(location.getSpeed(), location.getTime()))
+            updateLocationRequest();
+    }
+
+    /**
+     * Reissues the location request, if tracking, which replaces the previous request, or
+     * removes it while the location updates are suspended.
+     */
+    private synchronized void updateLocationRequest() {
+        if(!isTracking)
+            return;
+
+        if(mPowerManager != null && mPowerManager.isPowerSaving() && mPowerManager.isSuspending())
+            LocationServices.FusedLocationApi.removeLocationUpdates(this.mGoogleApiClient, this);
+        else
+            LocationServices.FusedLocationApi.requestLocationUpdates(
+                    this.mGoogleApiClient,
+                    createLocationRequest(),
+                    this);
+    }
+
+    private synchronized LocationRequest createLocationRequest() {
         LocationRequest mLocationRequest = new LocationRequest();
-        mLocationRequest.setInterval(mInterval);
-        mLocationRequest.setFastestInterval(mFastInterval);
-        mLocationRequest.setPriority(mPriority);
-        mLocationRequest.setSmallestDisplacement(mMinimumDisplacement);
+
+        if(mSamplingController != null){
+            AdaptiveSamplingController.SamplingParameters parameters = mSamplingController.getParameters();
+            mLocationRequest.setInterval(parameters.getInterval());
+            mLocationRequest.setFastestInterval(parameters.getFastInterval());
+            mLocationRequest.setPriority(parameters.getPriority());
+            mLocationRequest.setSmallestDisplacement(parameters.getDisplacement());
+        }else {
+            mLocationRequest.setInterval(mInterval);
+            mLocationRequest.setFastestInterval(mFastInterval);
+            mLocationRequest.setPriority(mPriority);
+            mLocationRequest.setSmallestDisplacement(mMinimumDisplacement);
+        }
+
+        //While downgraded, only the locations requested by other applications are received
+        if(mPowerManager != null && mPowerManager.isPowerSaving())
+            mLocationRequest.setPriority(LocationRequest.PRIORITY_NO_POWER);
 
         return mLocationRequest;
     }
@@ -141,6 +320,15 @@ public class FusedLocationModule implements LocationListener, ModuleInterface {
         if (!isTracking) {
 
             mLocationQueue.clearQueue();
+            mLocationQueue.resetMetrics();
+
+            KalmanSmoothingStage smoothing = mLocationQueue.getSmoothingStage();
+            if(smoothing != null) smoothing.reset();
+
+            synchronized (this) {
+                if (mSamplingController != null) mSamplingController.reset();
+                if (mPowerManager != null) mPowerManager.reset();
+            }
 
             LocationServices.FusedLocationApi.requestLocationUpdates(
                     this.mGoogleApiClient,
@@ -0,0 +1,151 @@
+package org.trace.tracker.modules.location;
+
+import com.google.android.gms.location.DetectedActivity;
+
+/**
+ * Saves power while the device is not moving, based on the activities reported by the activity
+ * recognition. Once the user has been consistently STILL for the still timeout, the location
+ * updates should be either suspended or downgraded to a passive priority, and once any movement
+ * is reported these should be resumed immediately.
+ * <br>
+ * Only movement interrupts a still period. Reports which are neither STILL nor movement,
+ * <i>e.g.</i> TILTING or UNKNOWN, neither interrupt nor extend it.
+ * <br>
+ * <b>Note:</b> This class is not thread-safe.
+ *
+ * @see FusedLocationModule#activateStillPowerSaving(boolean, long, boolean)
+ */
+public class StillnessPowerManager {
+
+    /** Default time, in milliseconds, the user must be still before saving power. */
+    public static final long DEFAULT_STILL_TIMEOUT = 180000; //3min
+
+    private final long mStillTimeout;
+    private final boolean isSuspending;
+
+    private boolean isStill = false;
+    private long mStillSince = 0;
+
+    private boolean isPowerSaving = false;
+    private long mPowerSavingSince = 0;
+    private long mPowerSavingTime = 0;
+    private int mPowerSavingCount = 0;
+
+    /**
+     * @param stillTimeout The time, in milliseconds, the user must be still before saving power.
+     * @param suspend True if the location updates should be suspended, false if these should be
+     *                downgraded to a passive priority.
+     */
+    public StillnessPowerManager(long stillTimeout, boolean suspend){
+
+        if(stillTimeout < 0)
+            throw new IllegalArgumentException("The still timeout must not be negative.");
+
+        this.mStillTimeout = stillTimeout;
+        this.isSuspending = suspend;
+    }
+
+    /**
+     * Updates the state with a newly detected activity.
+     *
+     * @param activityType The activity's type, as defined by the DetectedActivity.
+     * @param time The detection's time, in milliseconds.
+     * @return True if the power saving started or ended, in which case the location requests
+     * should be updated.
+     */
+    public boolean onActivity(int activityType, long time){
+
+        if(isMovement(activityType)){
+            isStill = false;
+
+            if(!isPowerSaving)
+                return false;
+
+            isPowerSaving = false;
+            mPowerSavingTime += Math.max(time - mPowerSavingSince, 0);
+            return true;
+        }
+
+        if(activityType != DetectedActivity.STILL || isPowerSaving)
+            return false;
+
+        if(!isStill){
+            isStill = true;
+            mStillSince = time;
+        }
+
+        if(time - mStillSince < mStillTimeout)
+            return false;
+
+        isPowerSaving = true;
+        mPowerSavingSince = time;
+        mPowerSavingCount++;
+        return true;
+    }
+
+    private static boolean isMovement(int activityType){
+        switch (activityType){
+            case DetectedActivity.IN_VEHICLE:
+            case DetectedActivity.ON_BICYCLE:
+            case DetectedActivity.ON_FOOT:
+            case DetectedActivity.WALKING:
+            case DetectedActivity.RUNNING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Ends the power saving, if any, and discards the current still period, <i>e.g.</i> when a
+     * new track starts.
+     */
+    public void reset(){
+        isStill = false;
+        isPowerSaving = false;
+        mPowerSavingTime = 0;
+        mPowerSavingCount = 0;
+    }
+
+    /* Getters
+    /* Getters
+    /* Getters
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public long getStillTimeout() {
+        return mStillTimeout;
+    }
+
+    /**
+     * @return True if the location updates should be suspended, false if these should be
+     * downgraded to a passive priority, while saving power.
+     */
+    public boolean isSuspending() {
+        return isSuspending;
+    }
+
+    public boolean isPowerSaving() {
+        return isPowerSaving;
+    }
+
+    /**
+     * @param time The current time, in milliseconds.
+     * @return The time, in milliseconds, spent saving power since the last reset, including the
+     * ongoing period, if any.
+     */
+    public long getPowerSavingTime(long time) {
+        return isPowerSaving
+                ? mPowerSavingTime + Math.max(time - mPowerSavingSince, 0)
+                : mPowerSavingTime;
+    }
+
+    /**
+     * @return The number of times the power saving started since the last reset.
+     */
+    public int getPowerSavingCount() {
+        return mPowerSavingCount;
+    }
+}
@@ -0,0 +1,33 @@
+package org.trace.tracker.pipeline;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+
+import org.trace.tracker.TrackingConstants;
+import org.trace.tracker.storage.data.TraceLocation;
+
+/**
+ * Compatibility sink, which re-publishes every location as a local broadcast, with the
+ * {@link TrackingConstants.tracker#COLLECT_LOCATIONS_ACTION} action and the location as the
+ * {@link TrackingConstants.tracker#LOCATION_EXTRA} extra, as was the case before the
+ * {@link LocationPipeline} was introduced.
+ * <br>
+ * <b>Note:</b> Each broadcast allocates an Intent and a Bundle and is posted to the main looper,
+ * so new code should subscribe a {@link LocationSink} directly instead.
+ */
+public class BroadcastLocationSink implements LocationSink {
+
+    private final LocalBroadcastManager mBroadcastManager;
+
+    public BroadcastLocationSink(Context context){
+        mBroadcastManager = LocalBroadcastManager.getInstance(context);
+    }
+
+    @Override
+    public void onLocation(TraceLocation location) {
+        Intent localIntent = new Intent(TrackingConstants.tracker.COLLECT_LOCATIONS_ACTION);
+        localIntent.putExtra(TrackingConstants.tracker.LOCATION_EXTRA, location);
+        mBroadcastManager.sendBroadcast(localIntent);
+    }
+}
@@ -0,0 +1,114 @@
+package org.trace.tracker.pipeline;
+
+import android.util.Log;
+
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The LocationPipeline delivers the locations produced by a source, <i>e.g.</i> the
+ * FusedLocationModule, through a chain of {@link LocationStage}s and then to every subscribed
+ * {@link LocationSink}. Locations are delivered by direct method calls, on the producer's thread,
+ * and thus without any intermediate Intent, Bundle or message.
+ * <pre>
+ *     source --&gt; stage 1 --&gt; ... --&gt; stage n --&gt; sink 1, ..., sink m
+ * </pre>
+ * Sinks are notified in the order they were subscribed, and may subscribe or unsubscribe at any
+ * time. A sink that fails does not prevent the remaining sinks from being notified.
+ */
+public class LocationPipeline implements LocationSink {
+
+    private static final String LOG_TAG = "LocationPipeline";
+
+    private final List<LocationStage> mStages = new CopyOnWriteArrayList<>();
+    private final List<LocationSink> mSinks = new CopyOnWriteArrayList<>();
+
+    private final LocationSink mDispatcher = new LocationSink() {
+        @Override
+        public void onLocation(TraceLocation location) {
+            dispatch(location);
+        }
+    };
+
+    /**
+     * Appends a new stage to the end of the pipeline, right before the sinks.
+     * @param stage The new stage.
+     */
+    public void addStage(LocationStage stage){
+        synchronized (mStages) {
+
+            if(!mStages.isEmpty())
+                mStages.get(mStages.size() - 1).setNext(stage);
+
+            stage.setNext(mDispatcher);
+            mStages.add(stage);
+        }
+    }
+
+    /**
+     * Removes a stage, whose previous step is then linked to its following one.
+     * @param stage The removed stage.
+     */
+    public void removeStage(LocationStage stage){
+        synchronized (mStages) {
+
+            int index = mStages.indexOf(stage);
+
+            if(index == -1) return;
+
+            if(index > 0)
+                mStages.get(index - 1).setNext(index + 1 < mStages.size() ? mStages.get(index + 1) : mDispatcher);
+
+            stage.setNext(null);
+            mStages.remove(index);
+        }
+    }
+
+    /**
+     * Removes every stage, after which locations are delivered directly to the sinks.
+     */
+    public void clearStages(){
+        synchronized (mStages) {
+            for(LocationStage stage : mStages)
+                stage.setNext(null);
+
+            mStages.clear();
+        }
+    }
+
+    public void addSink(LocationSink sink){
+        if(!mSinks.contains(sink))
+            mSinks.add(sink);
+    }
+
+    public void removeSink(LocationSink sink){
+        mSinks.remove(sink);
+    }
+
+    /**
+     * Feeds a new location, produced by the source, into the pipeline.
+     * @param location The new location.
+     */
+    @Override
+    public void onLocation(TraceLocation location) {
+
+        LocationStage first = mStages.isEmpty() ? null : mStages.get(0);
+
+        if(first != null)
+            first.onLocation(location);
+        else
+            dispatch(location);
+    }
+
+    private void dispatch(TraceLocation location){
+        for(LocationSink sink : mSinks) {
+            try {
+                sink.onLocation(location);
+            }catch (RuntimeException e){
+                Log.e(LOG_TAG, "Sink "+sink+" failed to handle the location", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.trace.tracker.pipeline;
+
+import org.trace.tracker.storage.data.TraceLocation;
+
+/**
+ * Receives the locations that flow through a {@link LocationPipeline}.
+ * <br>
+ * <b>Note:</b> Locations are delivered on the thread that produced them, which is usually the
+ * main thread, and therefore sinks should never block.
+ */
+public interface LocationSink {
+
+    /**
+     * Handles a new location.
+     * @param location The location.
+     */
+    void onLocation(TraceLocation location);
+}
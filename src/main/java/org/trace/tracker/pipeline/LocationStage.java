@@ -0,0 +1,31 @@
+package org.trace.tracker.pipeline;
+
+import org.trace.tracker.storage.data.TraceLocation;
+
+/**
+ * A LocationStage is an intermediate step of a {@link LocationPipeline}, <i>e.g.</i> an outlier
+ * filter, which receives locations and emits, possibly later or not at all, locations to the
+ * following step.
+ */
+public abstract class LocationStage implements LocationSink {
+
+    private volatile LocationSink mNext = null;
+
+    /**
+     * @param next The step that receives the locations emitted by this stage.
+     */
+    public void setNext(LocationSink next){
+        mNext = next;
+    }
+
+    /**
+     * Passes a location on to the following step.
+     * @param location The emitted location.
+     */
+    protected void emit(TraceLocation location){
+        LocationSink next = mNext;
+
+        if(next != null)
+            next.onLocation(location);
+    }
+}
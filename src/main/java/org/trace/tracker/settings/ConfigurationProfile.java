@@ -1,9 +1,13 @@
 package org.trace.tracker.settings;
 
 import com.google.android.gms.location.LocationRequest;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
-import org.trace.tracker.filter.HeuristicBasedFilter;
+import org.trace.tracker.filter.FilterChainSpec;
+import org.trace.tracker.filter.StayPointDetector;
+import org.trace.tracker.modules.location.StillnessPowerManager;
+import org.trace.tracker.storage.BufferedTrackWriter;
 
 /**
  * @author Rodrigo Lourenço
@@ -46,7 +50,39 @@ public class ConfigurationProfile {
     /** Maximum acceptable speed for a location. Default is 200Km/h */
     private float locationMaximumSpeed          = 55.56f;
 
-    private HeuristicBasedFilter[] locationEnabledOutlierFilters = new HeuristicBasedFilter[]{};
+    /** The outlier filter chain. By default, it is derived from the minimum accuracy and maximum speed. */
+    private FilterChainSpec locationOutlierFilters = null;
+
+    /** If the locations which pass the outlier filters should be smoothed. Default is false */
+    private boolean isSmoothing = false;
+
+    /** If the sampling should adapt to the user's speed and activity. Default is false */
+    private boolean isAdaptiveSampling = false;
+
+    /** If stationary periods should be collapsed into a single stay point. Default is false */
+    private boolean isStayPointDetection = false;
+
+    /** The radius within which the locations of a stay point must lie. Default is 50m */
+    private float stayPointRadius = StayPointDetector.DEFAULT_RADIUS;
+
+    /** The minimum duration of a stay point. Default is 3min */
+    private long stayPointMinimumDuration = StayPointDetector.DEFAULT_MINIMUM_DURATION;
+
+    /** If the location updates should be paused while the user is still. Default is false */
+    private boolean isStillPowerSaving = false;
+
+    /** How long the user must be still before the location updates are paused. Default is 3min */
+    private long stillTimeout = StillnessPowerManager.DEFAULT_STILL_TIMEOUT;
+
+    /** If the location updates are suspended, instead of downgraded, while still. Default is true */
+    private boolean isStillSuspending = true;
+
+    //Storage
+    /** Maximum number of locations waiting to be stored. Default is 1000 */
+    private int storageQueueCapacity = BufferedTrackWriter.DEFAULT_CAPACITY;
+
+    /** How new locations are handled when the storage queue is full. Default is COALESCE */
+    private BufferedTrackWriter.OverflowPolicy storageOverflowPolicy = BufferedTrackWriter.DEFAULT_OVERFLOW_POLICY;
 
     //Activity Recognition
     /** The sampling rate employed in activity mode tracking. Default is 3s*/
@@ -144,6 +180,9 @@ public class ConfigurationProfile {
      */
     public void setLocationMinimumAccuracy(float locationMinimumAccuracy) {
         this.locationMinimumAccuracy = locationMinimumAccuracy;
+
+        if(locationOutlierFilters != null)
+            locationOutlierFilters = locationOutlierFilters.withThreshold(FilterChainSpec.RuleType.ACCURACY, locationMinimumAccuracy);
     }
 
     /**
@@ -152,6 +191,9 @@ public class ConfigurationProfile {
      */
     public void setLocationMaximumSpeed(float locationMaximumSpeed) {
         this.locationMaximumSpeed = locationMaximumSpeed;
+
+        if(locationOutlierFilters != null)
+            locationOutlierFilters = locationOutlierFilters.withThreshold(FilterChainSpec.RuleType.SPEED, locationMaximumSpeed);
     }
 
 
@@ -164,6 +206,172 @@ public class ConfigurationProfile {
     }
 
 
+    /**
+     * @return The outlier filter chain, which if not explicitly set, is derived from the minimum
+     * accuracy and maximum speed.
+     */
+    public FilterChainSpec getLocationOutlierFilters() {
+        return locationOutlierFilters != null
+                ? locationOutlierFilters
+                : FilterChainSpec.getDefault(locationMinimumAccuracy, locationMaximumSpeed);
+    }
+
+    /**
+     * Sets the outlier filter chain, that is, which rules are applied, with which parameters and in
+     * which order.
+     * @param locationOutlierFilters The chain, or null to derive it from the minimum accuracy and maximum speed.
+     */
+    public void setLocationOutlierFilters(FilterChainSpec locationOutlierFilters) {
+        this.locationOutlierFilters = locationOutlierFilters;
+    }
+
+    public boolean isSmoothing() {
+        return isSmoothing;
+    }
+
+    /**
+     * Enables or disables the Kalman smoothing of the locations which pass the outlier filters,
+     * which adapts to the user's activity.
+     * @param active
+     */
+    public void activateSmoothing(boolean active) {
+        this.isSmoothing = active;
+    }
+
+    public boolean isAdaptiveSampling() {
+        return isAdaptiveSampling;
+    }
+
+    /**
+     * Enables or disables the adaptive sampling, which samples less often, and less accurately,
+     * while the user is still or moving slowly. The location interval, fastest interval,
+     * priority and displacement threshold are the ones employed at the fastest mode.
+     * @param active
+     */
+    public void activateAdaptiveSampling(boolean active) {
+        this.isAdaptiveSampling = active;
+    }
+
+    public boolean isStayPointDetection() {
+        return isStayPointDetection;
+    }
+
+    /**
+     * Enables or disables the stay point detection, which collapses every period during which the
+     * user remains within the stay point radius, for at least the minimum duration, into a single
+     * location.
+     * @param active
+     */
+    public void activateStayPointDetection(boolean active) {
+        this.isStayPointDetection = active;
+    }
+
+    /**
+     * @return The radius, in meters, within which the locations of a stay point must lie.
+     */
+    public float getStayPointRadius() {
+        return stayPointRadius;
+    }
+
+    /**
+     * Sets the radius within which the locations of a stay point must lie.
+     * @param stayPointRadius
+     */
+    public void setStayPointRadius(float stayPointRadius) {
+        this.stayPointRadius = stayPointRadius;
+    }
+
+    /**
+     * @return The minimum duration, in milliseconds, of a stay point.
+     */
+    public long getStayPointMinimumDuration() {
+        return stayPointMinimumDuration;
+    }
+
+    /**
+     * Sets the minimum duration of a stay point.
+     * @param stayPointMinimumDuration
+     */
+    public void setStayPointMinimumDuration(long stayPointMinimumDuration) {
+        this.stayPointMinimumDuration = stayPointMinimumDuration;
+    }
+
+    public boolean isStillPowerSaving() {
+        return isStillPowerSaving;
+    }
+
+    /**
+     * Enables or disables the power saving, which pauses the location updates once the user has
+     * been still for the still timeout, and resumes them as soon as any movement is detected.
+     * @param active
+     */
+    public void activateStillPowerSaving(boolean active) {
+        this.isStillPowerSaving = active;
+    }
+
+    /**
+     * @return The time, in milliseconds, the user must be still before the location updates are paused.
+     */
+    public long getStillTimeout() {
+        return stillTimeout;
+    }
+
+    /**
+     * Sets how long the user must be still before the location updates are paused.
+     * @param stillTimeout
+     */
+    public void setStillTimeout(long stillTimeout) {
+        this.stillTimeout = stillTimeout;
+    }
+
+    /**
+     * @return True if the location updates are suspended while still, false if these are
+     * downgraded to a passive priority instead.
+     */
+    public boolean isStillSuspending() {
+        return isStillSuspending;
+    }
+
+    public void setStillSuspending(boolean suspend) {
+        this.isStillSuspending = suspend;
+    }
+
+    /**
+     * @return The maximum number of locations waiting to be stored.
+     */
+    public int getStorageQueueCapacity() {
+        return storageQueueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of locations waiting to be stored, which is raised to the storage
+     * batch size if smaller. Only applied to tracking sessions started afterwards.
+     * @param storageQueueCapacity
+     * @see BufferedTrackWriter#DEFAULT_MAX_BATCH_SIZE
+     */
+    public void setStorageQueueCapacity(int storageQueueCapacity) {
+        this.storageQueueCapacity = Math.max(storageQueueCapacity, BufferedTrackWriter.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @return How new locations are handled when the storage queue is full.
+     */
+    public BufferedTrackWriter.OverflowPolicy getStorageOverflowPolicy() {
+        return storageOverflowPolicy;
+    }
+
+    /**
+     * Sets how new locations are handled when the storage queue is full. Only applied to
+     * tracking sessions started afterwards.
+     * @param storageOverflowPolicy The policy, or null for the default one.
+     * @see BufferedTrackWriter.OverflowPolicy
+     */
+    public void setStorageOverflowPolicy(BufferedTrackWriter.OverflowPolicy storageOverflowPolicy) {
+        this.storageOverflowPolicy = storageOverflowPolicy == null
+                ? BufferedTrackWriter.DEFAULT_OVERFLOW_POLICY
+                : storageOverflowPolicy;
+    }
+
     public boolean isActiveOutlierRemoval() {
         return isActiveOutlierRemoval;
     }
@@ -227,6 +435,45 @@ public class ConfigurationProfile {
         locationMaximumSpeed    = locationProfile.get(Constants.LOCATION_SPEED).getAsFloat();
         locationDisplacementThreshold = locationProfile.get(Constants.LOCATION_DISPLACEMENT_THRESHOLD).getAsInt();
         isActiveOutlierRemoval = locationProfile.get(Constants.OUTLIER_REMOVAL).getAsBoolean();
+
+        //Profiles stored before the filter chain was configurable keep the default chain
+        if(locationProfile.has(Constants.LOCATION_OUTLIER_FILTERS))
+            locationOutlierFilters = FilterChainSpec.fromJson((JsonArray) locationProfile.get(Constants.LOCATION_OUTLIER_FILTERS));
+
+        if(locationProfile.has(Constants.SMOOTHING))
+            isSmoothing = locationProfile.get(Constants.SMOOTHING).getAsBoolean();
+
+        if(locationProfile.has(Constants.ADAPTIVE_SAMPLING))
+            isAdaptiveSampling = locationProfile.get(Constants.ADAPTIVE_SAMPLING).getAsBoolean();
+
+        if(locationProfile.has(Constants.STAY_POINTS)) {
+            isStayPointDetection = locationProfile.get(Constants.STAY_POINTS).getAsBoolean();
+            stayPointRadius = locationProfile.get(Constants.STAY_POINT_RADIUS).getAsFloat();
+            stayPointMinimumDuration = locationProfile.get(Constants.STAY_POINT_DURATION).getAsLong();
+        }
+
+        if(locationProfile.has(Constants.STILL_POWER_SAVING)) {
+            isStillPowerSaving = locationProfile.get(Constants.STILL_POWER_SAVING).getAsBoolean();
+            stillTimeout = locationProfile.get(Constants.STILL_TIMEOUT).getAsLong();
+            isStillSuspending = locationProfile.get(Constants.STILL_SUSPEND).getAsBoolean();
+        }
+
+        if(locationProfile.has(Constants.STORAGE_QUEUE_CAPACITY))
+            setStorageQueueCapacity(locationProfile.get(Constants.STORAGE_QUEUE_CAPACITY).getAsInt());
+
+        if(locationProfile.has(Constants.STORAGE_OVERFLOW_POLICY))
+            setStorageOverflowPolicy(parseOverflowPolicy(locationProfile.get(Constants.STORAGE_OVERFLOW_POLICY).getAsString()));
+    }
+
+    /**
+     * @return The named overflow policy, or null if there is no such policy.
+     */
+    private static BufferedTrackWriter.OverflowPolicy parseOverflowPolicy(String policy){
+        try {
+            return BufferedTrackWriter.OverflowPolicy.valueOf(policy);
+        }catch (IllegalArgumentException | NullPointerException e){
+            return null;
+        }
     }
 
     private void loadActivityRecognitionProfileFromJson(JsonObject profile){
@@ -245,6 +492,17 @@ public class ConfigurationProfile {
         locationTrackingProfile.addProperty(Constants.LOCATION_SPEED, locationMaximumSpeed);
         locationTrackingProfile.addProperty(Constants.LOCATION_DISPLACEMENT_THRESHOLD, locationDisplacementThreshold);
         locationTrackingProfile.addProperty(Constants.OUTLIER_REMOVAL, isActiveOutlierRemoval);
+        locationTrackingProfile.add(Constants.LOCATION_OUTLIER_FILTERS, getLocationOutlierFilters().toJson());
+        locationTrackingProfile.addProperty(Constants.SMOOTHING, isSmoothing);
+        locationTrackingProfile.addProperty(Constants.ADAPTIVE_SAMPLING, isAdaptiveSampling);
+        locationTrackingProfile.addProperty(Constants.STAY_POINTS, isStayPointDetection);
+        locationTrackingProfile.addProperty(Constants.STAY_POINT_RADIUS, stayPointRadius);
+        locationTrackingProfile.addProperty(Constants.STAY_POINT_DURATION, stayPointMinimumDuration);
+        locationTrackingProfile.addProperty(Constants.STILL_POWER_SAVING, isStillPowerSaving);
+        locationTrackingProfile.addProperty(Constants.STILL_TIMEOUT, stillTimeout);
+        locationTrackingProfile.addProperty(Constants.STILL_SUSPEND, isStillSuspending);
+        locationTrackingProfile.addProperty(Constants.STORAGE_QUEUE_CAPACITY, storageQueueCapacity);
+        locationTrackingProfile.addProperty(Constants.STORAGE_OVERFLOW_POLICY, storageOverflowPolicy.name());
 
         return locationTrackingProfile;
     }
@@ -295,6 +553,21 @@ public class ConfigurationProfile {
         String LOCATION_DISPLACEMENT_THRESHOLD = "displacementThreshold";
         String LOCATION_OUTLIER_FILTERS = "outlierFilters";
 
+        String SMOOTHING            = "smoothing";
+
+        String ADAPTIVE_SAMPLING    = "adaptiveSampling";
+
+        String STAY_POINTS          = "stayPoints";
+        String STAY_POINT_RADIUS    = "stayPointRadius";
+        String STAY_POINT_DURATION  = "stayPointDuration";
+
+        String STILL_POWER_SAVING   = "stillPowerSaving";
+        String STILL_TIMEOUT        = "stillTimeout";
+        String STILL_SUSPEND        = "stillSuspend";
+
+        String STORAGE_QUEUE_CAPACITY   = "storageQueueCapacity";
+        String STORAGE_OVERFLOW_POLICY  = "storageOverflowPolicy";
+
         String ACTIVITY_RECOGNITION = "activity";
         String ACTIVITY_RECOGNITION_INTERVAL = "interval";
         String ACTIVITY_RECOGNITION_CONFIDENCE = "confidence";
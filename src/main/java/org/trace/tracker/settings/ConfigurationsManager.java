@@ -6,6 +6,9 @@ import android.content.SharedPreferences;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * @author Rodrigo Lourenço
  * @version 0.0
@@ -23,6 +26,7 @@ public class ConfigurationsManager {
     private Context mContext;
     private ConfigurationProfile mTrackingProfile;
     private Object mLock = new Object();
+    private final List<OnTrackingProfileChangedListener> mListeners = new CopyOnWriteArrayList<>();
 
     private static ConfigurationsManager MANAGER = null;
 
@@ -83,6 +87,29 @@ public class ConfigurationsManager {
             mTrackingProfile = profile;
         }
 
+        for(OnTrackingProfileChangedListener listener : mListeners)
+            listener.onTrackingProfileChanged(profile);
+    }
+
+    /**
+     * Registers a listener, which is notified whenever a new tracking profile is saved.
+     * @param listener The listener.
+     */
+    public void addOnTrackingProfileChangedListener(OnTrackingProfileChangedListener listener){
+        if(!mListeners.contains(listener))
+            mListeners.add(listener);
+    }
+
+    public void removeOnTrackingProfileChangedListener(OnTrackingProfileChangedListener listener){
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Listener notified whenever a new tracking profile is saved, so that the new settings may be
+     * applied without restarting the tracking.
+     */
+    public interface OnTrackingProfileChangedListener {
+        void onTrackingProfileChanged(ConfigurationProfile profile);
     }
 
     private interface Constants {
@@ -0,0 +1,399 @@
+package org.trace.tracker.storage;
+
+import android.util.Log;
+
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The BufferedTrackWriter collects the locations of a single tracking session in a bounded queue,
+ * which is drained by a dedicated writer thread into the PersistentTrackStorage in batches, where
+ * each batch is stored inside a single transaction. This way, the thread that appends the
+ * locations, usually the main thread, never waits for the disk.
+ * <br>
+ * A batch is written whenever:
+ * <ul>
+ *     <li>The number of queued locations reaches the maximum batch size;</li>
+ *     <li>The oldest queued location has been waiting for longer than the maximum flush delay;</li>
+ *     <li>The writer is explicitly flushed or closed, <i>e.g.</i> when the tracking stops.</li>
+ * </ul>
+ * <br>
+ * If the storage falls behind and the queue reaches its capacity, new locations are handled
+ * according to the writer's {@link OverflowPolicy}.
+ * <br>
+ * <b>Note:</b> In the event of a crash only the locations that are still queued are lost, which
+ * means that, unless the storage is falling behind, at most the last flush window, <i>i.e.</i> at
+ * most {@link #getMaxBatchSize()} locations or {@link #getMaxFlushDelay()} milliseconds worth of
+ * locations, may be lost.
+ *
+ * @see PersistentTrackStorage#storeLocations(java.util.List, String, boolean, double)
+ */
+public class BufferedTrackWriter {
+
+    private static final String LOG_TAG = "BufferedTrackWriter";
+
+    /** Default maximum number of locations written in a single batch. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 20;
+
+    /** Default maximum time, in milliseconds, a location may be held in memory before a flush. */
+    public static final long DEFAULT_MAX_FLUSH_DELAY = 30000; //30s
+
+    /** Default maximum number of locations waiting to be written. */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /** Default overflow policy, which never makes the appending thread wait. */
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.COALESCE;
+
+    /**
+     * Defines how a new location is handled when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** The appending thread waits until there is room in the queue. No location is lost. */
+        BLOCK,
+        /** The newest queued location is replaced by the new one. */
+        COALESCE,
+        /** The oldest queued location is discarded. */
+        DROP_OLDEST
+    }
+
+    /**
+     * The destination of the written batches, which is only replaced by tests.
+     */
+    interface BatchStorage {
+        void storeLocations(List<TraceLocation> locations, String session, boolean isRemote, double travelledDistance);
+    }
+
+    /**
+     * A queued location, along with the time it was queued at, in nanoseconds.
+     */
+    private static final class QueuedLocation {
+        TraceLocation location;
+        final long queuedAt;
+
+        QueuedLocation(TraceLocation location, long queuedAt){
+            this.location = location;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final BatchStorage mStorage;
+    private final String mSession;
+    private final boolean isValid;
+
+    private final int mMaxBatchSize;
+    private final long mMaxFlushDelay;
+    private final int mCapacity;
+    private final OverflowPolicy mOverflowPolicy;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<QueuedLocation> mQueue;
+    private double mTravelledDistance = 0;
+    private int mFlushRequests = 0;
+    private boolean isWriting = false;
+    private boolean isClosed = false;
+
+    //Metrics
+    private int mMaxQueueDepth = 0;
+    private long mStoredCount = 0, mDroppedCount = 0, mCoalescedCount = 0, mBlockedCount = 0;
+
+    private final Thread mWriterThread;
+
+    public BufferedTrackWriter(PersistentTrackStorage storage, String session, boolean isValid){
+        this(storage, session, isValid, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_FLUSH_DELAY,
+                DEFAULT_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    public BufferedTrackWriter(PersistentTrackStorage storage, String session, boolean isValid,
+                               int maxBatchSize, long maxFlushDelay){
+        this(storage, session, isValid, maxBatchSize, maxFlushDelay, DEFAULT_CAPACITY, DEFAULT_OVERFLOW_POLICY);
+    }
+
+    public BufferedTrackWriter(PersistentTrackStorage storage, String session, boolean isValid,
+                               int maxBatchSize, long maxFlushDelay,
+                               int capacity, OverflowPolicy overflowPolicy){
+        this((BatchStorage) storage, session, isValid, maxBatchSize, maxFlushDelay, capacity, overflowPolicy);
+    }
+
+    BufferedTrackWriter(BatchStorage storage, String session, boolean isValid,
+                        int maxBatchSize, long maxFlushDelay,
+                        int capacity, OverflowPolicy overflowPolicy){
+
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be at least 1.");
+
+        if(capacity < maxBatchSize)
+            throw new IllegalArgumentException("The capacity must be at least the maximum batch size.");
+
+        this.mStorage = storage;
+        this.mSession = session;
+        this.isValid = isValid;
+        this.mMaxBatchSize = maxBatchSize;
+        this.mMaxFlushDelay = maxFlushDelay;
+        this.mCapacity = capacity;
+        this.mOverflowPolicy = overflowPolicy;
+
+        this.mQueue = new ArrayDeque<>(capacity);
+
+        this.mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "TrackWriter-"+session);
+
+        this.mWriterThread.start();
+    }
+
+    /**
+     * Queues a new location, which is later written by the writer thread. If the queue is full the
+     * location is handled according to the writer's overflow policy.
+     *
+     * @param location The new location.
+     * @param travelledDistance The distance travelled so far in this session, in meters.
+     */
+    public void append(TraceLocation location, double travelledDistance){
+
+        synchronized (mLock){
+
+            if(isClosed)
+                throw new IllegalStateException("The writer for session "+mSession+" has already been closed.");
+
+            if(mQueue.size() >= mCapacity){
+                switch (mOverflowPolicy){
+                    case BLOCK:
+                        mBlockedCount++;
+                        while (mQueue.size() >= mCapacity && !isClosed)
+                            awaitUninterruptibly(0);
+
+                        if(isClosed)
+                            throw new IllegalStateException("The writer for session "+mSession+" has already been closed.");
+                        break;
+                    case COALESCE:
+                        //The replaced location keeps its place, and thus its flush deadline
+                        mQueue.peekLast().location = location;
+                        mTravelledDistance = travelledDistance;
+                        mCoalescedCount++;
+                        return;
+                    case DROP_OLDEST:
+                        mQueue.pollFirst();
+                        mDroppedCount++;
+                        break;
+                }
+            }
+
+            mQueue.addLast(new QueuedLocation(location, System.nanoTime()));
+            mTravelledDistance = travelledDistance;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+
+            if(mQueue.size() == 1 || mQueue.size() >= mMaxBatchSize)
+                mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until all the queued locations have been written into persistent storage.
+     */
+    public void flush(){
+        synchronized (mLock){
+
+            if(isClosed) return;
+
+            mFlushRequests++;
+            mLock.notifyAll();
+
+            while ((!mQueue.isEmpty() || isWriting) && mWriterThread.isAlive())
+                awaitUninterruptibly(0);
+
+            mFlushRequests--;
+        }
+    }
+
+    /**
+     * Writes any remaining locations and stops the writer thread. Once closed, no more locations
+     * may be appended.
+     */
+    public void close(){
+
+        synchronized (mLock){
+            if(isClosed) return;
+            isClosed = true;
+            mLock.notifyAll();
+        }
+
+        boolean interrupted = false;
+
+        while (mWriterThread.isAlive()) {
+            try {
+                mWriterThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void writeLoop(){
+
+        ArrayList<TraceLocation> batch = new ArrayList<>(mMaxBatchSize);
+        double travelledDistance;
+
+        while (true){
+
+            synchronized (mLock){
+
+                isWriting = false;
+                mLock.notifyAll();
+
+                while (!isClosed && mQueue.isEmpty())
+                    awaitUninterruptibly(0);
+
+                //Wait for a full batch, unless the oldest queued location is due
+                long waited;
+                while (!isClosed && mFlushRequests == 0 && mQueue.size() < mMaxBatchSize
+                        && (waited = (System.nanoTime() - mQueue.peekFirst().queuedAt) / 1000000) < mMaxFlushDelay)
+                    awaitUninterruptibly(mMaxFlushDelay - waited);
+
+                if(mQueue.isEmpty())
+                    return; //Closed
+
+                while (!mQueue.isEmpty() && batch.size() < mMaxBatchSize)
+                    batch.add(mQueue.pollFirst().location);
+
+                travelledDistance = mTravelledDistance;
+                isWriting = true;
+
+                //Room has been made for blocked producers
+                mLock.notifyAll();
+            }
+
+            try {
+                mStorage.storeLocations(batch, mSession, isValid, travelledDistance);
+
+                synchronized (mLock) {
+                    mStoredCount += batch.size();
+                }
+            }catch (RuntimeException e){
+                Log.e(LOG_TAG, "Unable to store "+batch.size()+" locations of session "+mSession, e);
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits on the lock, ignoring interruptions, as the queue must always be drained. This method
+     * must only be invoked while holding the lock.
+     *
+     * @param timeout The maximum time to wait, in milliseconds, or 0 to wait until notified.
+     */
+    private void awaitUninterruptibly(long timeout){
+        try {
+            mLock.wait(timeout);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while waiting on the queue of session "+mSession);
+        }
+    }
+
+    public String getSession() {
+        return mSession;
+    }
+
+    /**
+     * @return The maximum number of locations written in a single batch.
+     */
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /**
+     * @return The maximum time, in milliseconds, worth of locations that may be lost in the event of a crash.
+     */
+    public long getMaxFlushDelay() {
+        return mMaxFlushDelay;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /* Metrics
+    /* Metrics
+    /* Metrics
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * @return A consistent snapshot of every metric of this writer.
+     */
+    public TrackWriterMetrics getMetrics(){
+        synchronized (mLock) {
+            return new TrackWriterMetrics(mCapacity, mOverflowPolicy, mQueue.size(), mMaxQueueDepth,
+                    mStoredCount, mDroppedCount, mCoalescedCount, mBlockedCount);
+        }
+    }
+
+    /**
+     * @return The number of locations currently waiting to be written.
+     */
+    public int getQueueDepth(){
+        synchronized (mLock) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * @return The largest number of locations that have been waiting to be written at once.
+     */
+    public int getMaxQueueDepth(){
+        synchronized (mLock) {
+            return mMaxQueueDepth;
+        }
+    }
+
+    /**
+     * @return The number of locations successfully written into persistent storage.
+     */
+    public long getStoredCount(){
+        synchronized (mLock) {
+            return mStoredCount;
+        }
+    }
+
+    /**
+     * @return The number of locations discarded by the {@link OverflowPolicy#DROP_OLDEST} policy.
+     */
+    public long getDroppedCount(){
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * @return The number of locations replaced by the {@link OverflowPolicy#COALESCE} policy.
+     */
+    public long getCoalescedCount(){
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * @return The number of times a location had to wait, under the {@link OverflowPolicy#BLOCK} policy.
+     */
+    public long getBlockedCount(){
+        synchronized (mLock) {
+            return mBlockedCount;
+        }
+    }
+}
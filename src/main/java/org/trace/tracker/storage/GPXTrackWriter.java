@@ -11,14 +11,17 @@ import org.trace.tracker.storage.data.TraceLocation;
 import org.trace.tracker.storage.data.Track;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 
 public class GPXTrackWriter {
 
@@ -78,25 +81,28 @@ public class GPXTrackWriter {
         return isEmpty;
     }
 
-    private static String trackToGPXFile(Track t, File file){
+    private static void writeGPX(String session, Iterator<TraceLocation> locations, Writer writer) throws IOException {
 
-        boolean error = false;
-        String response = "";
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        writer.write("<gpx>\n\t<trk><name>"+session+"</name>\t\t<trkseg>\n");
+
+        while (locations.hasNext())
+            writer.write(locationToGpx(locations.next())+"\n");
 
-        String gpx = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
-        gpx += "<gpx>\n\t<trk><name>"+t.getSessionId()+"</name>\t\t<trkseg>\n";
+        writer.write("\t\t</trkseg>\t</trk>\n</gpx>");
+    }
 
-        for(TraceLocation location : t.getTracedTrack())
-            gpx += locationToGpx(location)+"\n";
+    private static String trackToGPXFile(String session, Iterator<TraceLocation> locations, File file){
 
-        gpx+="\t\t</trkseg>\t</trk>\n</gpx>";
+        boolean error = false;
+        String response = "";
 
-        FileWriter fw = null;
+        Writer fw = null;
 
         try {
-            fw = new FileWriter(file);
-            fw.write(gpx);
-            response = t.getSessionId() + " exported to 'Documents'";
+            fw = new BufferedWriter(new FileWriter(file));
+            writeGPX(session, locations, fw);
+            response = session + " exported to 'Documents'";
         } catch (IOException e) {
             e.printStackTrace();
             error = true;
@@ -112,7 +118,7 @@ public class GPXTrackWriter {
             boolean deleted = false;
             if(error) {
                 response = "Unable to export the file";
-                Log.e("GPX", "Unable to export "+t.getSessionId()+", deleting the file");
+                Log.e("GPX", "Unable to export "+session+", deleting the file");
 
                 while (!deleted)
                     deleted = file.delete();
@@ -122,13 +128,16 @@ public class GPXTrackWriter {
         return response;
     }
 
+    private static File getGPXFile(String session){
+        return new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOCUMENTS),
+                "gpx_"+session+".gpx");
+    }
+
     public static String exportAsGPX(Context context, final Track track) {
 
         String response;
-        final File gpxTrack =
-                new File(Environment.getExternalStoragePublicDirectory(
-                        Environment.DIRECTORY_DOCUMENTS),
-                        "gpx_"+track.getSessionId()+".gpx");
+        final File gpxTrack = getGPXFile(track.getSessionId());
 
         if(gpxTrack.exists() && !isEmptyFile(gpxTrack)) {
             response = "Already exported, skipping its creation";
@@ -137,7 +146,7 @@ public class GPXTrackWriter {
             new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    trackToGPXFile(track, gpxTrack);
+                    trackToGPXFile(track.getSessionId(), track.getTracedTrack().iterator(), gpxTrack);
                 }
             }).start();
 
@@ -149,4 +158,42 @@ public class GPXTrackWriter {
 
         return response;
     }
+
+    /**
+     * Exports the stored track identified by the session identifier as a gpx file. Unlike
+     * {@link #exportAsGPX(Context, Track)}, the locations are streamed directly from storage into
+     * the file, and therefore the track is never fully loaded into memory.
+     *
+     * @param context The context
+     * @param session The track's session identifier
+     * @return Message describing the outcome of the export.
+     */
+    public static String exportAsGPX(Context context, final String session) {
+
+        final File gpxTrack = getGPXFile(session);
+        final PersistentTrackStorage storage = PersistentTrackStorage.getInstance(context);
+
+        if(!storage.trackExists(session))
+            return "Unable to export the file";
+
+        if(gpxTrack.exists() && !isEmptyFile(gpxTrack)) {
+            Log.e("STORAGE", "Already exported, skipping its creation");
+            return "Already exported, skipping its creation";
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TrackLocationIterator locations = storage.iterateTrack(session);
+
+                try {
+                    trackToGPXFile(session, locations, gpxTrack);
+                }finally {
+                    locations.close();
+                }
+            }
+        }).start();
+
+        return "Track successfully exported to your documents folder.";
+    }
 }
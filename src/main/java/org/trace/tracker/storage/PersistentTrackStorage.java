@@ -6,33 +6,116 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 import android.util.Log;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-
 import org.trace.tracker.storage.data.TrackSummary;
+import org.trace.tracker.storage.data.ColumnarTrack;
 import org.trace.tracker.storage.data.TraceLocation;
 import org.trace.tracker.storage.data.Track;
+import org.trace.tracker.storage.data.TrackStatistics;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-
-//TODO: integrar elapsedTime e elapsedDistance nas queries
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The PersistentTrackStorage manages the stored tracks. The storage is performed using the device's
  * native SQLite support.
+ * <br>
+ * There is a single PersistentTrackStorage per process, which keeps a long-lived database
+ * connection in write-ahead logging mode. This way, the track list may be read while the
+ * tracking locations are being written, and the database is not reopened on every operation.
  */
-public class PersistentTrackStorage {
+public class PersistentTrackStorage implements BufferedTrackWriter.BatchStorage {
+
+    private static PersistentTrackStorage STORAGE = null;
 
     private TrackStorageDBHelper mDBHelper;
 
-    public PersistentTrackStorage(Context context){
+    //Precompiled statements, which are reused while the database remains open
+    private final Object mWriteLock = new Object();
+    private SQLiteStatement mInsertTraceStatement = null;
+    private SQLiteStatement mUpdateDistanceStatement = null;
+    private SQLiteStatement mUpdateAggregatesStatement = null;
+    private SQLiteStatement mInsertActivityStatement = null;
+    private SQLiteStatement mQueryLastActivityStatement = null;
+
+    /**
+     * Maps session identifiers onto their track identifiers. The cache is kept up to date by
+     * the operations that create, rename or delete tracks.
+     */
+    private final Map<String, Integer> mSessionCache = new ConcurrentHashMap<>();
+
+    /** Separates the session identifier of a track from the number of each of its versions. */
+    public static final String VERSION_SEPARATOR = "#v";
+
+    private PersistentTrackStorage(Context context){
         mDBHelper = new TrackStorageDBHelper(context);
     }
 
+    /**
+     * Fetches the PersistentTrackStorage singleton.
+     * @param context The context.
+     * @return The PersistentTrackStorage singleton.
+     */
+    public static PersistentTrackStorage getInstance(Context context){
+        synchronized (PersistentTrackStorage.class){
+            if(STORAGE == null)
+                STORAGE = new PersistentTrackStorage(context.getApplicationContext());
+        }
+
+        return STORAGE;
+    }
+
+    /**
+     * Returns the long-lived database connection, opening it if necessary.
+     */
+    private SQLiteDatabase getDatabase(){
+        return mDBHelper.getWritableDatabase();
+    }
+
+    /**
+     * Closes the database connection. This method should only be invoked when the storage is no
+     * longer required, <i>e.g.</i> before the process terminates. Any later operation will
+     * transparently reopen the connection.
+     */
+    public void close(){
+        synchronized (mWriteLock) {
+
+            if(mInsertTraceStatement != null) {
+                mInsertTraceStatement.close();
+                mInsertTraceStatement = null;
+            }
+
+            if(mUpdateDistanceStatement != null){
+                mUpdateDistanceStatement.close();
+                mUpdateDistanceStatement = null;
+            }
+
+            if(mUpdateAggregatesStatement != null){
+                mUpdateAggregatesStatement.close();
+                mUpdateAggregatesStatement = null;
+            }
+
+            if(mInsertActivityStatement != null){
+                mInsertActivityStatement.close();
+                mInsertActivityStatement = null;
+            }
+
+            if(mQueryLastActivityStatement != null){
+                mQueryLastActivityStatement.close();
+                mQueryLastActivityStatement = null;
+            }
+
+            mDBHelper.close();
+            mSessionCache.clear();
+        }
+    }
+
     /* Constructors
     /* Constructors
     /* Constructors
@@ -50,7 +133,7 @@ public class PersistentTrackStorage {
      */
     public long createTrack(String session, boolean isValid){
 
-        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        SQLiteDatabase db = getDatabase();
 
         ContentValues values = new ContentValues();
         values.put(TraceEntry.COLUMN_NAME_SESSION, session);
@@ -59,12 +142,16 @@ public class PersistentTrackStorage {
         values.put(TraceEntry.COLUMN_NAME_ELAPSED_TIME, 0);
         values.put(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE, 0);
 
-        return db.insert(TraceEntry.TABLE_NAME_TRACKS,null,values);
+        long trackId = db.insert(TraceEntry.TABLE_NAME_TRACKS,null,values);
+
+        if(trackId != -1)
+            mSessionCache.put(session, (int) trackId);
+
+        return trackId;
     }
 
-    // TODO: sempre que uma nova localização é adicionada é actualizado o elapsed time e distance.
     /**
-     * Stores a new location, which is associated with a track.
+     * Stores a new location, which is associated with a track, and updates the track's aggregates.
      *
      * @param location The new location.
      * @param session The session identifier that identifies the track.
@@ -77,16 +164,253 @@ public class PersistentTrackStorage {
         if((trackId = getTrackId(session)) == -1)
             trackId = createTrack(session, isRemote);
 
-        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        synchronized (mWriteLock) {
 
-        ContentValues values = new ContentValues();
-        values.put(TraceEntry.COLUMN_NAME_LATITUDE, location.getLatitude());
-        values.put(TraceEntry.COLUMN_NAME_LONGITUDE, location.getLongitude());
-        values.put(TraceEntry.COLUMN_NAME_ATTRIBUTES, location.getSecondaryAttributesAsJson().toString());
-        values.put(TraceEntry.COLUMN_NAME_TIMESTAMP, location.getTime());
-        values.put(TraceEntry.COLUMN_NAME_TRACK_ID, trackId);
+            SQLiteDatabase db = getDatabase();
+            prepareStatements();
+
+            db.beginTransactionNonExclusive();
+            try {
+                List<TraceLocation> locations = Collections.singletonList(location);
+
+                insertLocation(mInsertTraceStatement, location, trackId);
+                insertActivityTransitions(locations, trackId);
+                updateAggregates(mUpdateAggregatesStatement, locations, trackId);
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Stores a batch of locations, which are associated with the same track, along with the
+     * track's travelled distance. All the locations are stored in a single transaction, and thus
+     * either all or none of them are stored. The track's aggregates are updated in that same
+     * transaction.
+     *
+     * @param locations The batch of new locations.
+     * @param session The session identifier that identifies the track.
+     * @param isRemote True if the session identifier is valid, false otherwise. I.e, if the session is not local.
+     * @param travelledDistance The distance travelled so far, in meters.
+     *
+     * @see BufferedTrackWriter
+     */
+    @Override
+    public void storeLocations(List<TraceLocation> locations, String session, boolean isRemote, double travelledDistance){
+
+        long trackId;
+
+        if(locations.isEmpty()) return;
+
+        if((trackId = getTrackId(session)) == -1)
+            trackId = createTrack(session, isRemote);
+
+        synchronized (mWriteLock) {
+
+            SQLiteDatabase db = getDatabase();
+            prepareStatements();
+
+            SQLiteStatement insert = mInsertTraceStatement;
+            SQLiteStatement update = mUpdateDistanceStatement;
+
+            db.beginTransactionNonExclusive();
+            try {
+
+                for (TraceLocation location : locations)
+                    insertLocation(insert, location, trackId);
+
+                insertActivityTransitions(locations, trackId);
+                updateAggregates(mUpdateAggregatesStatement, locations, trackId);
+
+                update.clearBindings();
+                update.bindDouble(1, travelledDistance);
+                update.bindLong(2, trackId);
+                update.executeUpdateDelete();
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Stores a cleaned version of a track, <i>e.g.</i> after the track has been reprocessed through
+     * new outlier filters, as a new track, which is derived from the original one. The original
+     * track and its locations are kept unchanged. The version, its locations and its aggregates
+     * are all stored in a single transaction.
+     * <br>
+     * Versions are not listed alongside the original tracks, and are deleted along with their
+     * original track.
+     *
+     * @param session The session identifier of the original track.
+     * @param locations The version's locations, in chronological order.
+     * @param travelledDistance The distance travelled along the version's locations, in meters.
+     * @return The session identifier of the new version, or null if either the original track
+     * does not exist or there are no locations.
+     *
+     * @see #getTrackVersions(String)
+     */
+    public String storeTrackVersion(String session, List<TraceLocation> locations, double travelledDistance){
+
+        int sourceId = getTrackId(session);
+
+        if(sourceId == -1 || locations.isEmpty()) return null;
+
+        String versionSession;
+        long trackId;
+
+        synchronized (mWriteLock) {
+
+            SQLiteDatabase db = getDatabase();
+            prepareStatements();
+
+            db.beginTransactionNonExclusive();
+            try {
+
+                long version = DatabaseUtils.longForQuery(
+                        db, ContractHelper.SQL_QUERY_LATEST_VERSION, new String[]{ String.valueOf(sourceId) }) + 1;
+
+                versionSession = session + VERSION_SEPARATOR + version;
+
+                ContentValues values = new ContentValues();
+                values.put(TraceEntry.COLUMN_NAME_SESSION, versionSession);
+                values.put(TraceEntry.COLUMN_NAME_IS_CLOSED, 0);
+                values.put(TraceEntry.COLUMN_NAME_IS_VALID, 0);
+                values.put(TraceEntry.COLUMN_NAME_ELAPSED_TIME, 0);
+                values.put(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE, travelledDistance);
+                values.put(TraceEntry.COLUMN_NAME_SOURCE_TRACK, sourceId);
+                values.put(TraceEntry.COLUMN_NAME_VERSION, version);
+
+                trackId = db.insertOrThrow(TraceEntry.TABLE_NAME_TRACKS, null, values);
+
+                for (TraceLocation location : locations)
+                    insertLocation(mInsertTraceStatement, location, trackId);
+
+                insertActivityTransitions(locations, trackId);
+                updateAggregates(mUpdateAggregatesStatement, locations, trackId);
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        mSessionCache.put(versionSession, (int) trackId);
+
+        return versionSession;
+    }
+
+    /**
+     * Compiles the write statements, if these are not already compiled. This method should only
+     * be invoked while holding the write lock.
+     */
+    private void prepareStatements(){
+
+        if(mInsertTraceStatement != null) return;
 
-        db.insert(TraceEntry.TABLE_NAME_TRACES, null, values);
+        SQLiteDatabase db = getDatabase();
+        mInsertTraceStatement = db.compileStatement(ContractHelper.SQL_INSERT_TRACE);
+        mUpdateDistanceStatement = db.compileStatement(ContractHelper.SQL_UPDATE_TRACK_DISTANCE);
+        mUpdateAggregatesStatement = db.compileStatement(ContractHelper.SQL_UPDATE_TRACK_AGGREGATES);
+        mInsertActivityStatement = db.compileStatement(ContractHelper.SQL_INSERT_ACTIVITY_TRANSITION);
+        mQueryLastActivityStatement = db.compileStatement(ContractHelper.SQL_QUERY_LAST_ACTIVITY);
+    }
+
+    private static void insertLocation(SQLiteStatement insert, TraceLocation location, long trackId){
+        insert.clearBindings();
+        insert.bindDouble(1, location.getLatitude());
+        insert.bindDouble(2, location.getLongitude());
+        insert.bindLong(3, location.getTime());
+        insert.bindLong(4, trackId);
+        insert.bindDouble(5, location.getAccuracy());
+        insert.bindDouble(6, location.getSpeed());
+        insert.bindDouble(7, location.getBearing());
+        insert.bindDouble(8, location.getAltitude());
+        insert.bindLong(9, location.getElapsedRealtimeNanos());
+        insert.bindLong(10, ProviderDictionary.encode(location.getProvider()));
+        insert.bindLong(11, location.getDwellTime());
+        insert.executeInsert();
+    }
+
+    /**
+     * Stores the activity transitions within a chronologically ordered batch of locations, that
+     * is, a transition for each location whose activity differs from the track's last stored
+     * activity. The activity is thus stored once per run of locations, instead of once per
+     * location. This method should only be invoked while holding the write lock.
+     */
+    private void insertActivityTransitions(List<TraceLocation> locations, long trackId){
+
+        mQueryLastActivityStatement.clearBindings();
+        mQueryLastActivityStatement.bindLong(1, trackId);
+        long lastActivity = mQueryLastActivityStatement.simpleQueryForLong();
+
+        for(TraceLocation location : locations){
+
+            if(location.getActivityType() == lastActivity)
+                continue;
+
+            lastActivity = location.getActivityType();
+
+            mInsertActivityStatement.clearBindings();
+            mInsertActivityStatement.bindLong(1, trackId);
+            mInsertActivityStatement.bindLong(2, location.getTime());
+            mInsertActivityStatement.bindLong(3, location.getActivityType());
+            mInsertActivityStatement.bindLong(4, location.getActivityConfidence());
+            mInsertActivityStatement.executeInsert();
+        }
+    }
+
+    /**
+     * Merges the aggregates of a chronologically ordered batch of locations into the aggregates
+     * of the track, so that these never have to be computed from the stored locations.
+     */
+    private static void updateAggregates(SQLiteStatement update, List<TraceLocation> locations, long trackId){
+
+        TraceLocation first = locations.get(0), previous = null;
+
+        long movingTime = 0;
+        double speedSum = 0;
+        float topSpeed = first.getSpeed();
+        double minLatitude = first.getLatitude(), maxLatitude = first.getLatitude();
+        double minLongitude = first.getLongitude(), maxLongitude = first.getLongitude();
+
+        for(TraceLocation location : locations){
+
+            float speed = location.getSpeed();
+
+            //The time spent at a stay point is never moving time
+            long previousEnd = previous == null ? 0 : previous.getTime() + previous.getDwellTime();
+
+            if(previous != null && speed > TrackStatistics.MOVING_SPEED_THRESHOLD && location.getTime() > previousEnd)
+                movingTime += location.getTime() - previousEnd;
+
+            speedSum += speed;
+            topSpeed = Math.max(topSpeed, speed);
+            minLatitude = Math.min(minLatitude, location.getLatitude());
+            maxLatitude = Math.max(maxLatitude, location.getLatitude());
+            minLongitude = Math.min(minLongitude, location.getLongitude());
+            maxLongitude = Math.max(maxLongitude, location.getLongitude());
+
+            previous = location;
+        }
+
+        update.clearBindings();
+        update.bindLong(1, first.getTime());
+        update.bindLong(2, previous.getTime() + previous.getDwellTime());
+        update.bindLong(3, locations.size());
+        update.bindDouble(4, speedSum);
+        update.bindDouble(5, topSpeed);
+        update.bindLong(6, movingTime);
+        update.bindDouble(7, first.getSpeed());
+        update.bindDouble(8, minLatitude);
+        update.bindDouble(9, maxLatitude);
+        update.bindDouble(10, minLongitude);
+        update.bindDouble(11, maxLongitude);
+        update.bindLong(12, trackId);
+        update.executeUpdateDelete();
     }
 
     /* Getters
@@ -98,13 +422,20 @@ public class PersistentTrackStorage {
      */
 
     /**
-     * Returns the track identifier, given the provided session identifier.
+     * Returns the track identifier, given the provided session identifier. Known sessions are
+     * resolved from memory, without querying the database.
      * @param session The track's identifier, or -1 if the track was not found.
      * @return The track's sqlite identifier.
      */
     public int getTrackId(String session){
+
+        Integer cachedId = mSessionCache.get(session);
+
+        if(cachedId != null)
+            return cachedId;
+
         int trackId;
-        SQLiteDatabase db = mDBHelper.getReadableDatabase();
+        SQLiteDatabase db = getDatabase();
 
         String[] projection = { TraceEntry._ID };
         String selection = TraceEntry.COLUMN_NAME_SESSION+" = ?";
@@ -112,109 +443,334 @@ public class PersistentTrackStorage {
 
         Cursor c = db.query(true, TraceEntry.TABLE_NAME_TRACKS, projection, selection, selectionArgs, "", "", "", "");
 
-        if(!c.moveToFirst()){
-            db.close();
-            return -1;
-        }
+        try {
+            if (!c.moveToFirst())
+                return -1;
 
-        trackId = c.getInt(c.getColumnIndex(TraceEntry._ID));
+            trackId = c.getInt(c.getColumnIndex(TraceEntry._ID));
+        }finally {
+            c.close();
+        }
 
-        db.close();
+        mSessionCache.put(session, trackId);
 
         return trackId;
     }
 
     /**
      * Fetches a track as a Track object, given the provided session identifier.
+     * <br>
+     * <b>Note:</b> All the track's locations are loaded into memory. Long tracks should instead be
+     * processed through {@link #iterateTrack(String)}.
+     *
      * @param session The session identifier
-     * @return The Track
+     * @return The Track, or null if the track does not exist or has no locations.
      * @see Track
      */
     public Track getTrack(String session){
 
-        SQLiteDatabase db = mDBHelper.getReadableDatabase();
+        SQLiteDatabase db = getDatabase();
 
+        String[] projection = {
+                TraceEntry.COLUMN_NAME_SESSION,
+                TraceEntry.COLUMN_NAME_IS_CLOSED,
+                TraceEntry.COLUMN_NAME_IS_VALID,
+                TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE
+        };
+
+        String selection = TraceEntry.COLUMN_NAME_SESSION+" = ?";
         String[] selectionArgs = { session };
 
-        Cursor c = db.rawQuery(ContractHelper.SQL_RAW_QUERY_COMPLETE_TRACKS, selectionArgs);
+        Track track;
+        double storedDistance;
+        Cursor c = db.query(TraceEntry.TABLE_NAME_TRACKS, projection, selection, selectionArgs, null, null, null);
+
+        try {
+            if (!c.moveToFirst()) return null;
+
+            track = new Track();
+            track.setSessionId(c.getString(c.getColumnIndex(TraceEntry.COLUMN_NAME_SESSION)));
+            if (c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_CLOSED)) != 0) track.upload();
+            track.setIsValid(c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_VALID)) != 0);
+            storedDistance = c.getDouble(c.getColumnIndex(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE));
+        }finally {
+            c.close();
+        }
+
+        TrackLocationIterator locations = iterateTrack(session);
+
+        try {
+            if(!locations.hasNext()) return null;
+
+            while (locations.hasNext())
+                track.addTracedLocation(locations.next());
 
-        if(!c.moveToFirst()) return null;
+        }finally {
+            locations.close();
+        }
+
+        //The stored distance, measured while tracking, prevails over the one between the stored locations
+        track.setTravelledDistance(storedDistance);
+
+        return track;
+    }
+
+    /**
+     * Fetches a track, given the provided session identifier, in its compact, column-oriented
+     * representation. This is the preferred way of loading long tracks into memory.
+     *
+     * @param session The session identifier
+     * @return The ColumnarTrack, or null if the track does not exist or has no locations.
+     * @see ColumnarTrack
+     */
+    public ColumnarTrack getColumnarTrack(String session){
 
-        boolean isClosed, isValid;
-        String storedSession;
+        SQLiteDatabase db = getDatabase();
 
-        storedSession  = c.getString(c.getColumnIndex(TraceEntry.COLUMN_NAME_SESSION));
+        String[] projection = {
+                TraceEntry.COLUMN_NAME_IS_CLOSED,
+                TraceEntry.COLUMN_NAME_IS_VALID,
+                TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE
+        };
 
-        isClosed= c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_CLOSED)) != 0;
-        isValid = c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_VALID)) != 0;
+        String selection = TraceEntry._ID+" = ?";
+        String[] selectionArgs = { String.valueOf(getTrackId(session)) };
 
-        Track track = new Track();
-        track.setSessionId(storedSession);
-        if(isClosed) track.upload();
-        track.setIsValid(isValid);
-        track.setTravelledDistance(c.getDouble(c.getColumnIndex(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE)));
+        ColumnarTrack track;
+        Cursor c = db.query(TraceEntry.TABLE_NAME_TRACKS, projection, selection, selectionArgs, null, null, null);
+        TrackLocationIterator locations = null;
 
-        JsonParser parser = new JsonParser();
-        TraceLocation location;
-        do {
-            location = new TraceLocation();
+        try {
+            if (!c.moveToFirst()) return null;
 
-            location.setLatitude(c.getDouble(c.getColumnIndex(TraceEntry.COLUMN_NAME_LATITUDE)));
-            location.setLongitude(c.getDouble(c.getColumnIndex(TraceEntry.COLUMN_NAME_LONGITUDE)));
-            location.setTime(c.getLong(c.getColumnIndex(TraceEntry.COLUMN_NAME_TIMESTAMP)));
+            locations = iterateTrack(session);
+            if(!locations.hasNext()) return null;
 
-            String attributes = c.getString(c.getColumnIndex(TraceEntry.COLUMN_NAME_ATTRIBUTES));
-            location.setSecondaryAttributes((JsonObject) parser.parse(attributes));
+            track = new ColumnarTrack();
+            track.setSessionId(session);
+            if (c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_CLOSED)) != 0) track.upload();
+            track.setIsValid(c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_VALID)) != 0);
+            track.setTravelledDistance(c.getDouble(c.getColumnIndex(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE)));
 
-            track.addTracedLocation(location);
+            while (locations.hasNext())
+                track.addTracedLocation(locations.next());
 
-        }while (c.moveToNext());
+            track.trimToSize();
 
-        db.close();
+        }finally {
+            c.close();
+            if(locations != null) locations.close();
+        }
 
         return track;
     }
 
+    /**
+     * Iterates over all the locations of a track, in chronological order, without loading the
+     * whole track into memory.
+     *
+     * @param session The session identifier
+     * @return The locations iterator, which must be closed once no longer required. If the track
+     * does not exist the iterator is empty.
+     * @see TrackLocationIterator
+     */
+    public TrackLocationIterator iterateTrack(String session){
+        return iterateTrack(session, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Iterates over the locations of a track, in chronological order, whose timestamp lies within
+     * the provided time range, without loading the whole track into memory. Each location's
+     * activity is joined from the track's activity transitions.
+     *
+     * @param session The session identifier
+     * @param fromTime The range's lower bound, inclusive, in milliseconds.
+     * @param toTime The range's upper bound, inclusive, in milliseconds.
+     * @return The locations iterator, which must be closed once no longer required. If the track
+     * does not exist the iterator is empty.
+     * @see TrackLocationIterator
+     */
+    public TrackLocationIterator iterateTrack(String session, long fromTime, long toTime){
+
+        SQLiteDatabase db = getDatabase();
+
+        String[] selectionArgs = {
+                String.valueOf(getTrackId(session)),
+                String.valueOf(fromTime),
+                String.valueOf(toTime)
+        };
+
+        Cursor c = db.rawQuery(ContractHelper.SQL_RAW_QUERY_TRACK_LOCATIONS, selectionArgs);
+        Cursor activities = db.rawQuery(ContractHelper.SQL_RAW_QUERY_TRACK_ACTIVITIES, selectionArgs);
+
+        return new TrackLocationIterator(c, activities);
+    }
+
     /**
      * Fetches a list of all stored tracks. These are provided as simplified Tracks that contain only
-     * top level information.
+     * top level information, which is read from a single query and without loading the tracks'
+     * locations.
      * @return List of simplified tracks
      * @see TrackSummary
      */
     public List<TrackSummary> getTracksSessions(){
 
         List<TrackSummary> simplifiedTracks = new ArrayList<>();
-        SQLiteDatabase db = mDBHelper.getReadableDatabase();
+        SQLiteDatabase db = getDatabase();
 
-        String[] projection = {
-                TraceEntry.COLUMN_NAME_SESSION,
-                TraceEntry.COLUMN_NAME_IS_CLOSED,
-                TraceEntry.COLUMN_NAME_IS_VALID
-        };
+        Cursor c = db.query(TraceEntry.TABLE_NAME_TRACKS, ContractHelper.TRACK_SUMMARY_PROJECTION, ContractHelper.SELECTION_ORIGINAL_TRACKS, null, null, null, null);
 
+        try {
+            while (c.moveToNext())
+                simplifiedTracks.add(readTrackSummary(c));
+        }finally {
+            c.close();
+        }
 
-        Cursor c = db.query(true, TraceEntry.TABLE_NAME_TRACKS, projection, "", null, "", "", "", "");
+        return simplifiedTracks;
+    }
 
+    /**
+     * Fetches a page of the stored tracks, sorted by their start time and filtered according to the
+     * provided query. Each page resumes right after the last track of the previous one, through
+     * the start time index, and thus takes the same time regardless of how many tracks are stored.
+     *
+     * @param query The query that defines the tracks to be listed.
+     * @return The page of simplified tracks.
+     * @throws IllegalArgumentException If the query's page token is malformed.
+     * @see TrackSummaryQuery
+     */
+    public TrackSummaryPage getTracksSessions(TrackSummaryQuery query){
 
+        SQLiteDatabase db = getDatabase();
+        List<TrackSummary> summaries = new ArrayList<>(query.getPageSize());
+
+        StringBuilder selection = new StringBuilder(TraceEntry.COLUMN_NAME_START_TIME + " BETWEEN ? AND ?");
+        selection.append(" AND ").append(ContractHelper.SELECTION_ORIGINAL_TRACKS);
+        List<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(String.valueOf(query.getFromTime()));
+        selectionArgs.add(String.valueOf(query.getToTime()));
+
+        if(query.isClosed() != null) {
+            selection.append(" AND ").append(TraceEntry.COLUMN_NAME_IS_CLOSED).append(" = ?");
+            selectionArgs.add(query.isClosed() ? "1" : "0");
+        }
 
-        if(c.moveToFirst()) {
+        if(query.isValid() != null) {
+            selection.append(" AND ").append(TraceEntry.COLUMN_NAME_IS_VALID).append(" = ?");
+            selectionArgs.add(query.isValid() ? "1" : "0");
+        }
 
-            boolean isClosed, isValid;
-            String session;
-            do {
-                session = c.getString(c.getColumnIndex(TraceEntry.COLUMN_NAME_SESSION));
+        if(query.getMinimumDistance() > 0) {
+            selection.append(" AND ").append(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE).append(" >= ?");
+            selectionArgs.add(String.valueOf(query.getMinimumDistance()));
+        }
 
-                isClosed= c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_CLOSED)) == 1;
-                isValid = c.getInt(c.getColumnIndex(TraceEntry.COLUMN_NAME_IS_VALID)) == 1;
+        String order = query.isNewestFirst() ? " DESC" : " ASC";
+        String after = query.isNewestFirst() ? " < ?" : " > ?";
 
-                simplifiedTracks.add(new TrackSummary(session, isClosed, isValid));
+        if(query.getPageToken() != null) {
+            long[] last = TrackSummaryPage.decodeToken(query.getPageToken());
 
-            } while (c.moveToNext());
+            selection.append(" AND (").append(TraceEntry.COLUMN_NAME_START_TIME).append(after)
+                    .append(" OR (").append(TraceEntry.COLUMN_NAME_START_TIME).append(" = ?")
+                    .append(" AND ").append(TraceEntry._ID).append(after).append("))");
+            selectionArgs.add(String.valueOf(last[0]));
+            selectionArgs.add(String.valueOf(last[0]));
+            selectionArgs.add(String.valueOf(last[1]));
         }
 
-        db.close();
+        String[] projection = new String[ContractHelper.TRACK_SUMMARY_PROJECTION.length + 1];
+        System.arraycopy(ContractHelper.TRACK_SUMMARY_PROJECTION, 0, projection, 0, projection.length - 1);
+        projection[projection.length - 1] = TraceEntry._ID;
 
-        return simplifiedTracks;
+        //One extra track is fetched, only to know whether there is a following page
+        Cursor c = db.query(
+                TraceEntry.TABLE_NAME_TRACKS,
+                projection,
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null, null,
+                TraceEntry.COLUMN_NAME_START_TIME + order + ContractHelper.SEPARATOR + TraceEntry._ID + order,
+                String.valueOf(query.getPageSize() + 1));
+
+        String nextPageToken = null;
+        TrackSummary last = null;
+        long lastId = -1;
+
+        try {
+            while (c.moveToNext()) {
+
+                if(summaries.size() == query.getPageSize()) {
+                    nextPageToken = TrackSummaryPage.encodeToken(last.getStartTime(), lastId);
+                    break;
+                }
+
+                summaries.add(last = readTrackSummary(c));
+                lastId = c.getLong(projection.length - 1);
+            }
+        }finally {
+            c.close();
+        }
+
+        return new TrackSummaryPage(summaries, nextPageToken);
+    }
+
+    /**
+     * Fetches the session identifiers of the versions derived from a track, from the oldest to
+     * the newest.
+     *
+     * @param session The session identifier of the original track.
+     * @return The versions' session identifiers, which is empty if there are none.
+     * @see #storeTrackVersion(String, List, double)
+     */
+    public List<String> getTrackVersions(String session){
+
+        List<String> versions = new ArrayList<>();
+        int trackId = getTrackId(session);
+
+        if(trackId == -1) return versions;
+
+        SQLiteDatabase db = getDatabase();
+
+        String[] projection = { TraceEntry.COLUMN_NAME_SESSION };
+        String selection = TraceEntry.COLUMN_NAME_SOURCE_TRACK+" = ?";
+        String[] selectionArgs = { String.valueOf(trackId) };
+
+        Cursor c = db.query(TraceEntry.TABLE_NAME_TRACKS, projection, selection, selectionArgs, null, null, TraceEntry.COLUMN_NAME_VERSION);
+
+        try {
+            while (c.moveToNext())
+                versions.add(c.getString(0));
+        }finally {
+            c.close();
+        }
+
+        return versions;
+    }
+
+    /**
+     * Reads the TrackSummary in the cursor's current row, which must follow the
+     * {@link ContractHelper#TRACK_SUMMARY_PROJECTION}.
+     */
+    private static TrackSummary readTrackSummary(Cursor c){
+
+        TrackSummary summary = new TrackSummary(
+                c.getString(0),
+                c.getInt(1) == 1,
+                c.getInt(2) == 1);
+
+        summary.setElapsedTime(c.getDouble(3));
+        summary.setElapsedDistance(c.getDouble(4));
+        summary.setStartTime(c.getLong(5));
+        summary.setEndTime(c.getLong(6));
+        summary.setPointCount(c.getInt(7));
+        summary.setMovingTime(c.getLong(8));
+        summary.setTopSpeed(c.getDouble(9) * 3.6);      //Km/h
+        summary.setAverageSpeed(c.getDouble(10) * 3.6); //Km/h
+        summary.setBoundingBox(c.getDouble(11), c.getDouble(12), c.getDouble(13), c.getDouble(14));
+
+        return summary;
     }
 
     /**
@@ -224,8 +780,8 @@ public class PersistentTrackStorage {
     public int getTracksCount(){
 
         int count;
-        SQLiteDatabase db = mDBHelper.getReadableDatabase();
-        count = (int) DatabaseUtils.queryNumEntries(db, TraceEntry.TABLE_NAME_TRACKS,"", null);
+        SQLiteDatabase db = getDatabase();
+        count = (int) DatabaseUtils.queryNumEntries(db, TraceEntry.TABLE_NAME_TRACKS, ContractHelper.SELECTION_ORIGINAL_TRACKS, null);
 
         return count;
     }
@@ -233,11 +789,11 @@ public class PersistentTrackStorage {
     public int getTracksCount(boolean isClosed){
 
         int count;
-        SQLiteDatabase db = mDBHelper.getReadableDatabase();
+        SQLiteDatabase db = getDatabase();
         count = (int) DatabaseUtils.queryNumEntries(
                 db,
                 TraceEntry.TABLE_NAME_TRACKS,
-                TraceEntry.COLUMN_NAME_IS_CLOSED+"=?",
+                TraceEntry.COLUMN_NAME_IS_CLOSED+"=? AND "+ContractHelper.SELECTION_ORIGINAL_TRACKS,
                 new String[]{String.valueOf((isClosed ? 1 : 0))});
 
         return count;
@@ -246,15 +802,19 @@ public class PersistentTrackStorage {
     public String getNextAvailableId(){
         int nextId;
 
-        SQLiteDatabase db = mDBHelper.getReadableDatabase();
+        SQLiteDatabase db = getDatabase();
 
         //Cursor c = db.rawQuery("SELECT MAX("+TraceEntry._ID+") FROM "+TraceEntry.TABLE_NAME_TRACKS, null);
         Cursor c = db.query(TraceEntry.TABLE_NAME_TRACKS, new String[]{"MAX("+ TraceEntry._ID+")"}, null, null, null, null, null);
 
-        if(c.moveToFirst()){
-            nextId = c.getInt(0)+1;
-        }else{
-            nextId = -1;
+        try {
+            if (c.moveToFirst()) {
+                nextId = c.getInt(0) + 1;
+            } else {
+                nextId = -1;
+            }
+        }finally {
+            c.close();
         }
 
         return String.valueOf(nextId);
@@ -275,7 +835,7 @@ public class PersistentTrackStorage {
 
         if(trackId == -1) return false;
 
-        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        SQLiteDatabase db = getDatabase();
 
         ContentValues values = new ContentValues();
         values.put(TraceEntry.COLUMN_NAME_SESSION, newSession);
@@ -286,7 +846,10 @@ public class PersistentTrackStorage {
 
         int count = db.update(TraceEntry.TABLE_NAME_TRACKS, values, selection, selectionArgs);
 
-        db.close();
+        if(count > 0) {
+            mSessionCache.remove(oldSession);
+            mSessionCache.put(newSession, trackId);
+        }
 
         return count > 0;
     }
@@ -297,7 +860,7 @@ public class PersistentTrackStorage {
 
         if(trackId == -1) return false;
 
-        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        SQLiteDatabase db = getDatabase();
 
         ContentValues values = new ContentValues();
         values.put(TraceEntry.COLUMN_NAME_IS_CLOSED, 1);
@@ -307,8 +870,6 @@ public class PersistentTrackStorage {
 
         int count = db.update(TraceEntry.TABLE_NAME_TRACKS, values, selection, selectionArgs);
 
-        db.close();
-
         return count > 0;
     }
 
@@ -317,7 +878,7 @@ public class PersistentTrackStorage {
 
         if(trackId == -1) return false;
 
-        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        SQLiteDatabase db = getDatabase();
 
         ContentValues values = new ContentValues();
         values.put(TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE, distance);
@@ -328,8 +889,6 @@ public class PersistentTrackStorage {
 
         int count = db.update(TraceEntry.TABLE_NAME_TRACKS, values, selection, selectionArgs);
 
-        db.close();
-
         return count > 0;
     }
 
@@ -346,15 +905,21 @@ public class PersistentTrackStorage {
 
         if(trackId == -1) return false;
 
-        SQLiteDatabase db = mDBHelper.getWritableDatabase();
+        //The versions are deleted along with the track
+        List<String> versions = getTrackVersions(session);
+
+        SQLiteDatabase db = getDatabase();
 
         String selection = TraceEntry._ID + " = ?";
         String[] selectionArgs = {String.valueOf(trackId)};
 
         int affected = db.delete(TraceEntry.TABLE_NAME_TRACKS, selection, selectionArgs);
-        Log.d("DELETED", "Rows deleted with session "+ session+" : "+String.valueOf(affected));
+        mSessionCache.remove(session);
 
-        db.close();
+        for(String version : versions)
+            mSessionCache.remove(version);
+
+        Log.d("DELETED", "Rows deleted with session "+ session+" : "+String.valueOf(affected));
 
         return affected > 0;
     }
@@ -378,29 +943,52 @@ public class PersistentTrackStorage {
      */
     private class TrackStorageDBHelper extends SQLiteOpenHelper {
 
-        public static final int DATABASE_VERSION = 2;
         public static final String DATABASE_NAME = "TraceTracker.db";
 
         public TrackStorageDBHelper(Context context){
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            super(context, DATABASE_NAME, null, TrackStorageMigrations.LATEST_VERSION);
         }
 
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            db.setForeignKeyConstraintsEnabled(true);
+
+            //Readers, e.g. the track list, should not block behind the tracking writer
+            db.enableWriteAheadLogging();
+        }
+
+        /**
+         * The database is created with the base schema, which is then upgraded through the same
+         * migrations used by existing databases. This way both end up with the exact same schema.
+         */
         @Override
         public void onCreate(SQLiteDatabase db) {
             db.execSQL(ContractHelper.SQL_CREATE_TRACKS);
             db.execSQL(ContractHelper.SQL_CREATE_TRACES);
+
+            TrackStorageMigrations.migrate(db, TrackStorageMigrations.BASE_VERSION, TrackStorageMigrations.LATEST_VERSION);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            db.execSQL(ContractHelper.SQL_DELETE_TRACES_TABLE);
-            db.execSQL(ContractHelper.SQL_DELETE_TRACKS_TABLE);
-            onCreate(db);
+
+            if(TrackStorageMigrations.canMigrate(oldVersion))
+                TrackStorageMigrations.migrate(db, oldVersion, newVersion);
+            else
+                recreate(db);
         }
 
         @Override
         public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            onUpgrade(db, oldVersion, newVersion);
+            recreate(db);
+        }
+
+        private void recreate(SQLiteDatabase db){
+            mSessionCache.clear();
+            db.execSQL(ContractHelper.SQL_DELETE_ACTIVITIES_TABLE);
+            db.execSQL(ContractHelper.SQL_DELETE_TRACES_TABLE);
+            db.execSQL(ContractHelper.SQL_DELETE_TRACKS_TABLE);
+            onCreate(db);
         }
     }
 
@@ -409,6 +997,7 @@ public class PersistentTrackStorage {
     public static abstract class TraceEntry implements BaseColumns {
         public static final String TABLE_NAME_TRACKS = "tracks";
         public static final String TABLE_NAME_TRACES = "traces";
+        public static final String TABLE_NAME_ACTIVITIES = "activityTransitions";
 
         public static final String COLUMN_NAME_SESSION = "localSession";
         public static final String COLUMN_NAME_IS_VALID = "isValid";
@@ -421,15 +1010,60 @@ public class PersistentTrackStorage {
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
         public static final String COLUMN_NAME_ATTRIBUTES = "attributes";
         public static final String COLUMN_NAME_TRACK_ID = "trackId";
+
+        public static final String COLUMN_NAME_ACCURACY = "accuracy";
+        public static final String COLUMN_NAME_SPEED = "speed";
+        public static final String COLUMN_NAME_BEARING = "bearing";
+        public static final String COLUMN_NAME_ALTITUDE = "altitude";
+        public static final String COLUMN_NAME_ELAPSED_NANOS = "elapsedNanos";
+        public static final String COLUMN_NAME_PROVIDER = "provider";
+        public static final String COLUMN_NAME_ACTIVITY = "activity";
+        public static final String COLUMN_NAME_ACTIVITY_CONFIDENCE = "activityConfidence";
+        public static final String COLUMN_NAME_DWELL_TIME = "dwellTime";
+
+        public static final String COLUMN_NAME_START_TIME = "startTime";
+        public static final String COLUMN_NAME_END_TIME = "endTime";
+        public static final String COLUMN_NAME_POINT_COUNT = "pointCount";
+        public static final String COLUMN_NAME_MOVING_TIME = "movingTime";
+        public static final String COLUMN_NAME_MAX_SPEED = "maxSpeed";
+        public static final String COLUMN_NAME_AVG_SPEED = "avgSpeed";
+        public static final String COLUMN_NAME_MIN_LATITUDE = "minLatitude";
+        public static final String COLUMN_NAME_MAX_LATITUDE = "maxLatitude";
+        public static final String COLUMN_NAME_MIN_LONGITUDE = "minLongitude";
+        public static final String COLUMN_NAME_MAX_LONGITUDE = "maxLongitude";
+
+        public static final String COLUMN_NAME_SOURCE_TRACK = "sourceTrackId";
+        public static final String COLUMN_NAME_VERSION = "version";
+
+        public static final String INDEX_NAME_TRACKS_SESSION = "tracksSessionIndex";
+        public static final String INDEX_NAME_TRACES_TRACK = "tracesTrackIndex";
+        public static final String INDEX_NAME_TRACKS_START = "tracksStartIndex";
+        public static final String INDEX_NAME_TRACKS_SOURCE = "tracksSourceIndex";
+        public static final String INDEX_NAME_ACTIVITIES_TRACK = "activitiesTrackIndex";
     }
 
-    private interface ContractHelper {
+    /**
+     * Builds the SQL expression that merges a value into a column, keeping the smallest of the
+     * two. Columns without a value yet, <i>i.e.</i> null, simply take the new value.
+     */
+    private static String mergeMin(String column, String value){
+        return "min(COALESCE("+ column + ContractHelper.SEPARATOR + value + ")"+ ContractHelper.SEPARATOR + value + ")";
+    }
+
+    /** @see #mergeMin(String, String) */
+    private static String mergeMax(String column, String value){
+        return "max(COALESCE("+ column + ContractHelper.SEPARATOR + value + ")"+ ContractHelper.SEPARATOR + value + ")";
+    }
+
+    interface ContractHelper {
         String TEXT_TYPE        = " TEXT";
         String IDENTIFIER_TYPE  = " INTEGER PRIMARY KEY AUTOINCREMENT";
         String DOUBLE_TYPE      = " DOUBLE";
         String DATE_TYPE        = " LONG";
         String BOOLEAN_TYPE     = " INTEGER DEFAULT 0";
         String INT_TYPE         = " INTEGER";
+        String FLOAT_TYPE       = " FLOAT";
+        String COUNTER_TYPE     = " INTEGER DEFAULT 0";
 
         String SEPARATOR = ", ";
 
@@ -452,26 +1086,169 @@ public class PersistentTrackStorage {
                         TraceEntry.COLUMN_NAME_TRACK_ID     + INT_TYPE          + SEPARATOR +
                         " FOREIGN KEY ( "+ TraceEntry.COLUMN_NAME_TRACK_ID+" ) REFERENCES "+ TraceEntry.TABLE_NAME_TRACKS+ " ( "+ TraceEntry._ID+" ) ON DELETE CASCADE)";
 
+        String SQL_CREATE_SESSION_INDEX =
+                "CREATE UNIQUE INDEX IF NOT EXISTS "+ TraceEntry.INDEX_NAME_TRACKS_SESSION +
+                        " ON "+ TraceEntry.TABLE_NAME_TRACKS + " ( "+ TraceEntry.COLUMN_NAME_SESSION +" )";
+
+        String SQL_CREATE_TRACES_INDEX =
+                "CREATE INDEX IF NOT EXISTS "+ TraceEntry.INDEX_NAME_TRACES_TRACK +
+                        " ON "+ TraceEntry.TABLE_NAME_TRACES + " ( "+ TraceEntry.COLUMN_NAME_TRACK_ID + SEPARATOR + TraceEntry.COLUMN_NAME_TIMESTAMP +" )";
+
+        String SQL_CREATE_START_INDEX =
+                "CREATE INDEX IF NOT EXISTS "+ TraceEntry.INDEX_NAME_TRACKS_START +
+                        " ON "+ TraceEntry.TABLE_NAME_TRACKS + " ( "+ TraceEntry.COLUMN_NAME_START_TIME +" )";
+
+        String SQL_CREATE_SOURCE_INDEX =
+                "CREATE INDEX IF NOT EXISTS "+ TraceEntry.INDEX_NAME_TRACKS_SOURCE +
+                        " ON "+ TraceEntry.TABLE_NAME_TRACKS + " ( "+ TraceEntry.COLUMN_NAME_SOURCE_TRACK +" )";
+
+        /**
+         * The activity of each track, as a run-length log, where each transition holds the
+         * activity of every location from its start time until the next transition.
+         */
+        String SQL_CREATE_ACTIVITIES =
+                "CREATE TABLE "+ TraceEntry.TABLE_NAME_ACTIVITIES +" ("+
+                        TraceEntry._ID + " "                + IDENTIFIER_TYPE   + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_TRACK_ID     + INT_TYPE          + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_START_TIME   + DATE_TYPE         + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY     + INT_TYPE          + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE + INT_TYPE   + SEPARATOR +
+                        " FOREIGN KEY ( "+ TraceEntry.COLUMN_NAME_TRACK_ID+" ) REFERENCES "+ TraceEntry.TABLE_NAME_TRACKS+ " ( "+ TraceEntry._ID+" ) ON DELETE CASCADE)";
+
+        String SQL_CREATE_ACTIVITIES_INDEX =
+                "CREATE INDEX IF NOT EXISTS "+ TraceEntry.INDEX_NAME_ACTIVITIES_TRACK +
+                        " ON "+ TraceEntry.TABLE_NAME_ACTIVITIES + " ( "+ TraceEntry.COLUMN_NAME_TRACK_ID + SEPARATOR + TraceEntry.COLUMN_NAME_START_TIME +" )";
+
         String SQL_DELETE_TRACKS_TABLE =
                 "DROP TABLE IF EXISTS " + TraceEntry.TABLE_NAME_TRACKS;
 
         String SQL_DELETE_TRACES_TABLE =
                 "DROP TABLE IF EXISTS " + TraceEntry.TABLE_NAME_TRACES;
 
+        String SQL_DELETE_ACTIVITIES_TABLE =
+                "DROP TABLE IF EXISTS " + TraceEntry.TABLE_NAME_ACTIVITIES;
+
+
+        String SQL_INSERT_TRACE =
+                "INSERT INTO "+ TraceEntry.TABLE_NAME_TRACES +" ("+
+                        TraceEntry.COLUMN_NAME_LATITUDE     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_LONGITUDE    + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_TIMESTAMP    + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_TRACK_ID     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACCURACY     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_SPEED        + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_BEARING      + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ALTITUDE     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ELAPSED_NANOS+ SEPARATOR +
+                        TraceEntry.COLUMN_NAME_PROVIDER     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_DWELL_TIME +
+                        ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        String SQL_INSERT_ACTIVITY_TRANSITION =
+                "INSERT INTO "+ TraceEntry.TABLE_NAME_ACTIVITIES +" ("+
+                        TraceEntry.COLUMN_NAME_TRACK_ID     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_START_TIME   + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY     + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE +
+                        ") VALUES (?, ?, ?, ?)";
+
+        /** The track's last stored activity, or -1 if none was stored yet. */
+        String SQL_QUERY_LAST_ACTIVITY =
+                "SELECT COALESCE((SELECT "+ TraceEntry.COLUMN_NAME_ACTIVITY +
+                        " FROM "+ TraceEntry.TABLE_NAME_ACTIVITIES +
+                        " WHERE "+ TraceEntry.COLUMN_NAME_TRACK_ID + " = ?"+
+                        " ORDER BY "+ TraceEntry.COLUMN_NAME_START_TIME + " DESC"+ SEPARATOR + TraceEntry._ID + " DESC LIMIT 1), -1)";
+
+        String SQL_UPDATE_TRACK_DISTANCE =
+                "UPDATE "+ TraceEntry.TABLE_NAME_TRACKS +
+                        " SET "+ TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE + " = ?" +
+                        " WHERE "+ TraceEntry._ID + " = ?";
+
+        /**
+         * Merges the aggregates of a batch of locations into the track's aggregates. The batch's
+         * parameters are: 1) first timestamp, 2) last timestamp, 3) count, 4) sum of speeds,
+         * 5) top speed, 6) moving time, 7) first speed, 8-11) bounding box and 12) the track.
+         */
+        String SQL_UPDATE_TRACK_AGGREGATES =
+                "UPDATE "+ TraceEntry.TABLE_NAME_TRACKS + " SET "+
+                        TraceEntry.COLUMN_NAME_MOVING_TIME + " = "+ TraceEntry.COLUMN_NAME_MOVING_TIME + " + ?6 + " +
+                        "CASE WHEN "+ TraceEntry.COLUMN_NAME_END_TIME + " IS NOT NULL AND ?7 > "+ TrackStatistics.MOVING_SPEED_THRESHOLD +
+                        " AND ?1 > "+ TraceEntry.COLUMN_NAME_END_TIME +
+                        " THEN ?1 - "+ TraceEntry.COLUMN_NAME_END_TIME + " ELSE 0 END"                                       + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_AVG_SPEED + " = (COALESCE("+ TraceEntry.COLUMN_NAME_AVG_SPEED + ", 0) * "+
+                        TraceEntry.COLUMN_NAME_POINT_COUNT + " + ?4) / ("+ TraceEntry.COLUMN_NAME_POINT_COUNT + " + ?3)"    + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_POINT_COUNT  + " = "+ TraceEntry.COLUMN_NAME_POINT_COUNT + " + ?3"           + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_MAX_SPEED    + " = "+ mergeMax(TraceEntry.COLUMN_NAME_MAX_SPEED, "?5")       + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_START_TIME   + " = "+ mergeMin(TraceEntry.COLUMN_NAME_START_TIME, "?1")      + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_END_TIME     + " = "+ mergeMax(TraceEntry.COLUMN_NAME_END_TIME, "?2")        + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ELAPSED_TIME + " = "+ mergeMax(TraceEntry.COLUMN_NAME_END_TIME, "?2") +
+                        " - "+ mergeMin(TraceEntry.COLUMN_NAME_START_TIME, "?1")                                            + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_MIN_LATITUDE + " = "+ mergeMin(TraceEntry.COLUMN_NAME_MIN_LATITUDE, "?8")    + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_MAX_LATITUDE + " = "+ mergeMax(TraceEntry.COLUMN_NAME_MAX_LATITUDE, "?9")    + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_MIN_LONGITUDE+ " = "+ mergeMin(TraceEntry.COLUMN_NAME_MIN_LONGITUDE, "?10")  + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_MAX_LONGITUDE+ " = "+ mergeMax(TraceEntry.COLUMN_NAME_MAX_LONGITUDE, "?11")  +
+                        " WHERE "+ TraceEntry._ID + " = ?12";
+
+        String SQL_QUERY_LATEST_VERSION =
+                "SELECT COALESCE(MAX("+ TraceEntry.COLUMN_NAME_VERSION +"), 0)" +
+                        " FROM "+ TraceEntry.TABLE_NAME_TRACKS +
+                        " WHERE "+ TraceEntry.COLUMN_NAME_SOURCE_TRACK + " = ?";
+
+        /** Selects the original tracks, leaving out their versions. */
+        String SELECTION_ORIGINAL_TRACKS = TraceEntry.COLUMN_NAME_SOURCE_TRACK + " IS NULL";
+
+        String[] TRACK_SUMMARY_PROJECTION = {
+                TraceEntry.COLUMN_NAME_SESSION,
+                TraceEntry.COLUMN_NAME_IS_CLOSED,
+                TraceEntry.COLUMN_NAME_IS_VALID,
+                TraceEntry.COLUMN_NAME_ELAPSED_TIME,
+                TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE,
+                TraceEntry.COLUMN_NAME_START_TIME,
+                TraceEntry.COLUMN_NAME_END_TIME,
+                TraceEntry.COLUMN_NAME_POINT_COUNT,
+                TraceEntry.COLUMN_NAME_MOVING_TIME,
+                TraceEntry.COLUMN_NAME_MAX_SPEED,
+                TraceEntry.COLUMN_NAME_AVG_SPEED,
+                TraceEntry.COLUMN_NAME_MIN_LATITUDE,
+                TraceEntry.COLUMN_NAME_MIN_LONGITUDE,
+                TraceEntry.COLUMN_NAME_MAX_LATITUDE,
+                TraceEntry.COLUMN_NAME_MAX_LONGITUDE
+        };
 
-        String SQL_RAW_QUERY_COMPLETE_TRACKS =
+        String SQL_RAW_QUERY_TRACK_LOCATIONS =
                 "SELECT "+
                         TraceEntry.COLUMN_NAME_LATITUDE         + SEPARATOR +
                         TraceEntry.COLUMN_NAME_LONGITUDE        + SEPARATOR +
                         TraceEntry.COLUMN_NAME_TIMESTAMP        + SEPARATOR +
-                        TraceEntry.COLUMN_NAME_ATTRIBUTES       + SEPARATOR +
-                        TraceEntry.COLUMN_NAME_SESSION          + SEPARATOR +
-                        TraceEntry.COLUMN_NAME_IS_CLOSED        + SEPARATOR +
-                        TraceEntry.COLUMN_NAME_IS_VALID         + SEPARATOR +
-                        TraceEntry.COLUMN_NAME_ELAPSED_DISTANCE + SEPARATOR +
-                        TraceEntry.COLUMN_NAME_ELAPSED_TIME     +
-                        " FROM "+ TraceEntry.TABLE_NAME_TRACKS+ " INNER JOIN "+ TraceEntry.TABLE_NAME_TRACES +
-                        " ON "+ TraceEntry.TABLE_NAME_TRACKS+"."+ TraceEntry._ID+"="+ TraceEntry.TABLE_NAME_TRACES+"."+ TraceEntry.COLUMN_NAME_TRACK_ID+
-                        " WHERE "+ TraceEntry.COLUMN_NAME_SESSION + " = ?";
+                        TraceEntry.COLUMN_NAME_ACCURACY         + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_SPEED            + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_BEARING          + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ALTITUDE         + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ELAPSED_NANOS    + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_PROVIDER         + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_DWELL_TIME +
+                        " FROM "+ TraceEntry.TABLE_NAME_TRACES +
+                        " WHERE "+ TraceEntry.COLUMN_NAME_TRACK_ID + " = ?"+
+                        " AND "+ TraceEntry.COLUMN_NAME_TIMESTAMP + " BETWEEN ? AND ?"+
+                        " ORDER BY "+ TraceEntry.COLUMN_NAME_TIMESTAMP;
+
+        /**
+         * The activity transitions that apply to the locations of a track within a time range,
+         * that is, those within the range along with the last one before it. The parameters are
+         * the same as those of {@link #SQL_RAW_QUERY_TRACK_LOCATIONS}.
+         */
+        String SQL_RAW_QUERY_TRACK_ACTIVITIES =
+                "SELECT "+
+                        TraceEntry.COLUMN_NAME_START_TIME       + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY         + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE +
+                        " FROM "+ TraceEntry.TABLE_NAME_ACTIVITIES +
+                        " WHERE "+ TraceEntry.COLUMN_NAME_TRACK_ID + " = ?1"+
+                        " AND "+ TraceEntry.COLUMN_NAME_START_TIME + " <= ?3"+
+                        " AND "+ TraceEntry.COLUMN_NAME_START_TIME + " >= COALESCE((" +
+                            "SELECT MAX("+ TraceEntry.COLUMN_NAME_START_TIME + ") FROM "+ TraceEntry.TABLE_NAME_ACTIVITIES +
+                            " WHERE "+ TraceEntry.COLUMN_NAME_TRACK_ID + " = ?1"+
+                            " AND "+ TraceEntry.COLUMN_NAME_START_TIME + " <= ?2), ?2)"+
+                        " ORDER BY "+ TraceEntry.COLUMN_NAME_START_TIME + SEPARATOR + TraceEntry._ID;
     }
 }
@@ -0,0 +1,36 @@
+package org.trace.tracker.storage;
+
+/**
+ * Dictionary that encodes the location providers as small integer codes, so that the provider
+ * of each stored location does not have to be stored as text.
+ * <br>
+ * <b>Note:</b> The codes are persisted, and therefore must never be changed or reused. Unknown
+ * providers are all mapped onto the {@link #UNKNOWN} code.
+ */
+final class ProviderDictionary {
+
+    static final int UNKNOWN   = 0;
+    static final int FUSED     = 1;
+    static final int GPS       = 2;
+    static final int NETWORK   = 3;
+    static final int PASSIVE   = 4;
+
+    private static final String[] PROVIDERS = { "unknown", "fused", "gps", "network", "passive" };
+
+    private ProviderDictionary(){}
+
+    static int encode(String provider){
+
+        if(provider == null) return UNKNOWN;
+
+        for(int code = 1; code < PROVIDERS.length; code++)
+            if(PROVIDERS[code].equals(provider))
+                return code;
+
+        return UNKNOWN;
+    }
+
+    static String decode(int code){
+        return code > 0 && code < PROVIDERS.length ? PROVIDERS[code] : PROVIDERS[UNKNOWN];
+    }
+}
@@ -0,0 +1,132 @@
+package org.trace.tracker.storage;
+
+import android.database.Cursor;
+import android.os.Build;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import org.trace.tracker.storage.PersistentTrackStorage.TraceEntry;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the stored locations of a track, in chronological order, directly from the
+ * underlying database cursor. Unlike a {@link org.trace.tracker.storage.data.Track}, the locations
+ * are never all held in memory at once, which allows tracks of any length to be processed in
+ * constant memory.
+ * <br>
+ * <b>Note:</b> The iterator must always be closed once it is no longer required, as to release
+ * the underlying cursors.
+ * <pre>
+ *     {@code
+ *     TrackLocationIterator locations = storage.iterateTrack(session);
+ *     try {
+ *         while (locations.hasNext()) {
+ *             TraceLocation location = locations.next();
+ *             //Do something with the location
+ *         }
+ *     } finally {
+ *         locations.close();
+ *     }
+ *     }
+ * </pre>
+ *
+ * @see PersistentTrackStorage#iterateTrack(String)
+ * @see PersistentTrackStorage#iterateTrack(String, long, long)
+ */
+public class TrackLocationIterator implements Iterator<TraceLocation>, Closeable {
+
+    private final Cursor mCursor, mActivities;
+
+    private final int latitude, longitude, timestamp, accuracy, speed, bearing, altitude,
+            elapsedNanos, provider, dwellTime, startTime, activity, confidence;
+
+    private boolean hasNext, hasTransition;
+
+    //The activity of the locations, until the next transition
+    private int mActivity = DetectedActivity.UNKNOWN, mConfidence = 100;
+
+    /**
+     * @param cursor The track's locations, in chronological order.
+     * @param activities The track's activity transitions, in chronological order, which are
+     *                   merged with the locations as these are iterated.
+     */
+    TrackLocationIterator(Cursor cursor, Cursor activities){
+        mCursor = cursor;
+        mActivities = activities;
+
+        latitude    = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_LATITUDE);
+        longitude   = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_LONGITUDE);
+        timestamp   = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_TIMESTAMP);
+        accuracy    = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_ACCURACY);
+        speed       = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_SPEED);
+        bearing     = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_BEARING);
+        altitude    = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_ALTITUDE);
+        elapsedNanos= cursor.getColumnIndex(TraceEntry.COLUMN_NAME_ELAPSED_NANOS);
+        provider    = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_PROVIDER);
+        dwellTime   = cursor.getColumnIndex(TraceEntry.COLUMN_NAME_DWELL_TIME);
+
+        startTime   = activities.getColumnIndex(TraceEntry.COLUMN_NAME_START_TIME);
+        activity    = activities.getColumnIndex(TraceEntry.COLUMN_NAME_ACTIVITY);
+        confidence  = activities.getColumnIndex(TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE);
+
+        hasNext = cursor.moveToFirst();
+        hasTransition = activities.moveToFirst();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public TraceLocation next() {
+
+        if(!hasNext)
+            throw new NoSuchElementException();
+
+        TraceLocation location = new TraceLocation();
+        long time = mCursor.getLong(timestamp);
+
+        //Locations before the first transition have an unknown activity
+        while (hasTransition && mActivities.getLong(startTime) <= time){
+            mActivity = mActivities.getInt(activity);
+            mConfidence = mActivities.getInt(confidence);
+            hasTransition = mActivities.moveToNext();
+        }
+
+        location.setLatitude(mCursor.getDouble(latitude));
+        location.setLongitude(mCursor.getDouble(longitude));
+        location.setTime(time);
+        location.setAccuracy(mCursor.getFloat(accuracy));
+        location.setSpeed(mCursor.getFloat(speed));
+        location.setBearing(mCursor.getFloat(bearing));
+        location.setAltitude(mCursor.getDouble(altitude));
+        location.setProvider(ProviderDictionary.decode(mCursor.getInt(provider)));
+        location.setActivity(mActivity, mConfidence);
+        location.setDwellTime(mCursor.getLong(dwellTime));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            location.setElapsedRealtimeNanos(mCursor.getLong(elapsedNanos));
+
+        hasNext = mCursor.moveToNext();
+
+        return location;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        hasNext = false;
+        hasTransition = false;
+        mCursor.close();
+        mActivities.close();
+    }
+}
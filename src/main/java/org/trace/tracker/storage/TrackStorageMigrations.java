@@ -0,0 +1,326 @@
+package org.trace.tracker.storage;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.trace.tracker.TrackingConstants;
+import org.trace.tracker.storage.PersistentTrackStorage.ContractHelper;
+import org.trace.tracker.storage.PersistentTrackStorage.TraceEntry;
+import org.trace.tracker.storage.data.TraceLocation;
+import org.trace.tracker.storage.data.TrackStatistics;
+
+import static org.trace.tracker.storage.PersistentTrackStorage.ContractHelper.SEPARATOR;
+
+/**
+ * The TrackStorageMigrations define how the schema of the PersistentTrackStorage evolves between
+ * database versions. Each migration upgrades the schema from one version to the next, in place,
+ * and without losing any of the stored tracks.
+ * <br>
+ * New schema versions must be added as a new migration at the end of the migrations array, and
+ * never by changing an existing migration.
+ */
+final class TrackStorageMigrations {
+
+    /**
+     * A single migration step, which upgrades the database from a version to the following one.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    /** The oldest schema version that can be upgraded in place. Older databases are recreated. */
+    static final int BASE_VERSION = 2;
+
+    private static final Migration[] MIGRATIONS = {
+
+            // 2 -> 3 : unique sessions, indexes and consistent foreign keys
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    //Locations whose track has been deleted, before the foreign keys were enforced
+                    db.execSQL("DELETE FROM " + TraceEntry.TABLE_NAME_TRACES +
+                            " WHERE " + TraceEntry.COLUMN_NAME_TRACK_ID + " NOT IN" +
+                            " (SELECT " + TraceEntry._ID + " FROM " + TraceEntry.TABLE_NAME_TRACKS + ")");
+
+                    //Merge tracks that share the same session into the oldest one
+                    db.execSQL("UPDATE " + TraceEntry.TABLE_NAME_TRACES +
+                            " SET " + TraceEntry.COLUMN_NAME_TRACK_ID + " = (" +
+                            " SELECT MIN(b." + TraceEntry._ID + ")" +
+                            " FROM " + TraceEntry.TABLE_NAME_TRACKS + " a, " + TraceEntry.TABLE_NAME_TRACKS + " b" +
+                            " WHERE a." + TraceEntry._ID + " = " + TraceEntry.TABLE_NAME_TRACES + "." + TraceEntry.COLUMN_NAME_TRACK_ID +
+                            " AND a." + TraceEntry.COLUMN_NAME_SESSION + " = b." + TraceEntry.COLUMN_NAME_SESSION + ")" +
+                            " WHERE " + TraceEntry.COLUMN_NAME_TRACK_ID + " IN (" + SQL_DUPLICATED_TRACKS + ")");
+
+                    db.execSQL("DELETE FROM " + TraceEntry.TABLE_NAME_TRACKS +
+                            " WHERE " + TraceEntry._ID + " IN (" + SQL_DUPLICATED_TRACKS + ")");
+
+                    db.execSQL(ContractHelper.SQL_CREATE_SESSION_INDEX);
+                    db.execSQL(ContractHelper.SQL_CREATE_TRACES_INDEX);
+                }
+            },
+
+            // 3 -> 4 : typed secondary attributes, instead of a JSON string per location
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_ACCURACY, ContractHelper.FLOAT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_SPEED, ContractHelper.FLOAT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_BEARING, ContractHelper.FLOAT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_ALTITUDE, ContractHelper.DOUBLE_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_ELAPSED_NANOS, ContractHelper.INT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_PROVIDER, ContractHelper.INT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_ACTIVITY, ContractHelper.INT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE, ContractHelper.INT_TYPE);
+
+                    convertJsonAttributes(db);
+
+                    db.execSQL("UPDATE " + TraceEntry.TABLE_NAME_TRACES + " SET " + TraceEntry.COLUMN_NAME_ATTRIBUTES + " = NULL");
+                }
+            },
+
+            // 4 -> 5 : per-track aggregates, maintained as the locations are stored
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_START_TIME, ContractHelper.DATE_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_END_TIME, ContractHelper.DATE_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_POINT_COUNT, ContractHelper.COUNTER_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_MOVING_TIME, ContractHelper.COUNTER_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_MAX_SPEED, ContractHelper.FLOAT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_AVG_SPEED, ContractHelper.FLOAT_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_MIN_LATITUDE, ContractHelper.DOUBLE_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_MAX_LATITUDE, ContractHelper.DOUBLE_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_MIN_LONGITUDE, ContractHelper.DOUBLE_TYPE);
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_MAX_LONGITUDE, ContractHelper.DOUBLE_TYPE);
+
+                    //Every time and speed is measured over the track's locations, through the (trackId, timestamp) index
+                    db.execSQL("UPDATE " + TraceEntry.TABLE_NAME_TRACKS + " SET " +
+                            TraceEntry.COLUMN_NAME_START_TIME + " = " + aggregate("MIN(" + TraceEntry.COLUMN_NAME_TIMESTAMP + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_END_TIME + " = " + aggregate("MAX(" + TraceEntry.COLUMN_NAME_TIMESTAMP + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_ELAPSED_TIME + " = COALESCE(" +
+                                aggregate("MAX(" + TraceEntry.COLUMN_NAME_TIMESTAMP + ") - MIN(" + TraceEntry.COLUMN_NAME_TIMESTAMP + ")") + ", 0)" + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_POINT_COUNT + " = " + aggregate("COUNT(*)") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_MAX_SPEED + " = " + aggregate("MAX(" + TraceEntry.COLUMN_NAME_SPEED + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_AVG_SPEED + " = " + aggregate("AVG(" + TraceEntry.COLUMN_NAME_SPEED + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_MIN_LATITUDE + " = " + aggregate("MIN(" + TraceEntry.COLUMN_NAME_LATITUDE + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_MAX_LATITUDE + " = " + aggregate("MAX(" + TraceEntry.COLUMN_NAME_LATITUDE + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_MIN_LONGITUDE + " = " + aggregate("MIN(" + TraceEntry.COLUMN_NAME_LONGITUDE + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_MAX_LONGITUDE + " = " + aggregate("MAX(" + TraceEntry.COLUMN_NAME_LONGITUDE + ")") + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_MOVING_TIME + " = COALESCE((" +
+                                "SELECT SUM(t." + TraceEntry.COLUMN_NAME_TIMESTAMP + " - (" +
+                                    "SELECT MAX(p." + TraceEntry.COLUMN_NAME_TIMESTAMP + ") FROM " + TraceEntry.TABLE_NAME_TRACES + " p" +
+                                    " WHERE p." + TraceEntry.COLUMN_NAME_TRACK_ID + " = t." + TraceEntry.COLUMN_NAME_TRACK_ID +
+                                    " AND p." + TraceEntry.COLUMN_NAME_TIMESTAMP + " < t." + TraceEntry.COLUMN_NAME_TIMESTAMP + "))" +
+                                " FROM " + TraceEntry.TABLE_NAME_TRACES + " t" +
+                                " WHERE t." + TraceEntry.COLUMN_NAME_TRACK_ID + " = " + TraceEntry.TABLE_NAME_TRACKS + "." + TraceEntry._ID +
+                                " AND t." + TraceEntry.COLUMN_NAME_SPEED + " > " + TrackStatistics.MOVING_SPEED_THRESHOLD + "), 0)");
+                }
+            },
+
+            // 5 -> 6 : tracks listed by their start time
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(ContractHelper.SQL_CREATE_START_INDEX);
+                }
+            },
+
+            // 6 -> 7 : reprocessed versions of the tracks, deleted along with the original track
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_SOURCE_TRACK, ContractHelper.INT_TYPE +
+                            " REFERENCES " + TraceEntry.TABLE_NAME_TRACKS + " ( " + TraceEntry._ID + " ) ON DELETE CASCADE");
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACKS, TraceEntry.COLUMN_NAME_VERSION, ContractHelper.COUNTER_TYPE);
+
+                    db.execSQL(ContractHelper.SQL_CREATE_SOURCE_INDEX);
+                }
+            },
+
+            // 7 -> 8 : stay points, stored as a single location with the time spent there
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    addColumn(db, TraceEntry.TABLE_NAME_TRACES, TraceEntry.COLUMN_NAME_DWELL_TIME, ContractHelper.COUNTER_TYPE);
+                }
+            },
+
+            // 8 -> 9 : activity stored as a run-length log of transitions, instead of once per location
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+
+                    db.execSQL(ContractHelper.SQL_CREATE_ACTIVITIES);
+                    db.execSQL(ContractHelper.SQL_CREATE_ACTIVITIES_INDEX);
+
+                    //A location starts a transition if its activity differs from the previous location's, through the (trackId, timestamp) index
+                    db.execSQL("INSERT INTO " + TraceEntry.TABLE_NAME_ACTIVITIES + " (" +
+                            TraceEntry.COLUMN_NAME_TRACK_ID + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_START_TIME + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_ACTIVITY + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE + ")" +
+                            " SELECT t." + TraceEntry.COLUMN_NAME_TRACK_ID + SEPARATOR +
+                                "t." + TraceEntry.COLUMN_NAME_TIMESTAMP + SEPARATOR +
+                                "t." + TraceEntry.COLUMN_NAME_ACTIVITY + SEPARATOR +
+                                "t." + TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE +
+                            " FROM " + TraceEntry.TABLE_NAME_TRACES + " t" +
+                            " WHERE t." + TraceEntry.COLUMN_NAME_ACTIVITY + " IS NOT NULL" +
+                            " AND t." + TraceEntry.COLUMN_NAME_ACTIVITY + " IS NOT (" +
+                                "SELECT p." + TraceEntry.COLUMN_NAME_ACTIVITY + " FROM " + TraceEntry.TABLE_NAME_TRACES + " p" +
+                                " WHERE p." + TraceEntry.COLUMN_NAME_TRACK_ID + " = t." + TraceEntry.COLUMN_NAME_TRACK_ID +
+                                " AND p." + TraceEntry.COLUMN_NAME_TIMESTAMP + " < t." + TraceEntry.COLUMN_NAME_TIMESTAMP +
+                                " ORDER BY p." + TraceEntry.COLUMN_NAME_TIMESTAMP + " DESC LIMIT 1)" +
+                            " ORDER BY t." + TraceEntry.COLUMN_NAME_TRACK_ID + SEPARATOR + "t." + TraceEntry.COLUMN_NAME_TIMESTAMP);
+
+                    //The columns are kept, as SQLite cannot drop them, but are no longer used
+                    db.execSQL("UPDATE " + TraceEntry.TABLE_NAME_TRACES + " SET " +
+                            TraceEntry.COLUMN_NAME_ACTIVITY + " = NULL" + SEPARATOR +
+                            TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE + " = NULL");
+                }
+            }
+    };
+
+    /** Tracks whose session is also used by an older track. */
+    private static final String SQL_DUPLICATED_TRACKS =
+            "SELECT " + TraceEntry._ID + " FROM " + TraceEntry.TABLE_NAME_TRACKS +
+                    " WHERE " + TraceEntry.COLUMN_NAME_SESSION + " IS NOT NULL" +
+                    " AND " + TraceEntry._ID + " NOT IN (" +
+                    " SELECT MIN(" + TraceEntry._ID + ") FROM " + TraceEntry.TABLE_NAME_TRACKS +
+                    " GROUP BY " + TraceEntry.COLUMN_NAME_SESSION + ")";
+
+    /** The current schema version, i.e. the version reached after all the migrations. */
+    static final int LATEST_VERSION = BASE_VERSION + MIGRATIONS.length;
+
+    private TrackStorageMigrations(){}
+
+    /** Subquery that computes the aggregate over the locations of the track being updated. */
+    private static String aggregate(String expression){
+        return "(SELECT " + expression + " FROM " + TraceEntry.TABLE_NAME_TRACES +
+                " WHERE " + TraceEntry.COLUMN_NAME_TRACK_ID + " = " + TraceEntry.TABLE_NAME_TRACKS + "." + TraceEntry._ID + ")";
+    }
+
+    private static void addColumn(SQLiteDatabase db, String table, String column, String type){
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + type);
+    }
+
+    /**
+     * Converts the JSON encoded secondary attributes of every stored location into the
+     * corresponding typed columns. The locations are converted in chunks, ordered by their
+     * identifiers, so that the cursor is never affected by the updates.
+     */
+    private static void convertJsonAttributes(SQLiteDatabase db){
+
+        final int chunkSize = 1000;
+        final String query =
+                "SELECT " + TraceEntry._ID + SEPARATOR + TraceEntry.COLUMN_NAME_ATTRIBUTES +
+                        " FROM " + TraceEntry.TABLE_NAME_TRACES +
+                        " WHERE " + TraceEntry._ID + " > ? AND " + TraceEntry.COLUMN_NAME_ATTRIBUTES + " IS NOT NULL" +
+                        " ORDER BY " + TraceEntry._ID + " LIMIT " + chunkSize;
+
+        SQLiteStatement update = db.compileStatement(
+                "UPDATE " + TraceEntry.TABLE_NAME_TRACES + " SET " +
+                        TraceEntry.COLUMN_NAME_ACCURACY + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_SPEED + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_BEARING + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ALTITUDE + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ELAPSED_NANOS + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_PROVIDER + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY + " = ?" + SEPARATOR +
+                        TraceEntry.COLUMN_NAME_ACTIVITY_CONFIDENCE + " = ?" +
+                        " WHERE " + TraceEntry._ID + " = ?");
+
+        JsonParser parser = new JsonParser();
+        TraceLocation activityDecoder = new TraceLocation();
+        long lastId = -1;
+        int converted;
+
+        try {
+            do {
+                converted = 0;
+                Cursor c = db.rawQuery(query, new String[]{String.valueOf(lastId)});
+
+                try {
+                    while (c.moveToNext()) {
+                        lastId = c.getLong(0);
+
+                        JsonObject attributes;
+                        try {
+                            attributes = (JsonObject) parser.parse(c.getString(1));
+                        } catch (JsonParseException | ClassCastException e) {
+                            attributes = new JsonObject();
+                        }
+
+                        JsonElement activity = attributes.get(TrackingConstants.location.attributes.ACTIVITY);
+                        JsonElement provider = attributes.get(TrackingConstants.location.attributes.PROVIDER);
+                        activityDecoder.setActivityMode(activity == null ? null : activity.getAsString());
+
+                        update.clearBindings();
+                        update.bindDouble(1, getAsDouble(attributes, TrackingConstants.location.attributes.ACCURACY));
+                        update.bindDouble(2, getAsDouble(attributes, TrackingConstants.location.attributes.SPEED));
+                        update.bindDouble(3, getAsDouble(attributes, TrackingConstants.location.attributes.BEARING));
+                        update.bindDouble(4, getAsDouble(attributes, TrackingConstants.location.attributes.ALTITUDE));
+                        update.bindLong(5, getAsLong(attributes, TrackingConstants.location.attributes.ELAPSED_NANOS));
+                        update.bindLong(6, ProviderDictionary.encode(provider == null ? null : provider.getAsString()));
+                        update.bindLong(7, activityDecoder.getActivityType());
+                        update.bindLong(8, activityDecoder.getActivityConfidence());
+                        update.bindLong(9, lastId);
+                        update.executeUpdateDelete();
+
+                        converted++;
+                    }
+                } finally {
+                    c.close();
+                }
+
+            } while (converted == chunkSize);
+
+        }finally {
+            update.close();
+        }
+    }
+
+    private static double getAsDouble(JsonObject attributes, String key){
+        JsonElement value = attributes.get(key);
+        return value == null || value.isJsonNull() ? 0 : value.getAsDouble();
+    }
+
+    private static long getAsLong(JsonObject attributes, String key){
+        JsonElement value = attributes.get(key);
+        return value == null || value.isJsonNull() ? 0 : value.getAsLong();
+    }
+
+    /**
+     * @param version The schema version.
+     * @return True if a database with the provided schema version can be upgraded in place.
+     */
+    static boolean canMigrate(int version){
+        return version >= BASE_VERSION && version <= LATEST_VERSION;
+    }
+
+    /**
+     * Sequentially applies every migration between the two versions. This method should be
+     * invoked inside a transaction, as is the case of the SQLiteOpenHelper's onCreate and onUpgrade.
+     *
+     * @param db The database being upgraded.
+     * @param fromVersion The database's current schema version.
+     * @param toVersion The target schema version.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion){
+
+        if(!canMigrate(fromVersion) || !canMigrate(toVersion))
+            throw new IllegalArgumentException("Unable to migrate from version "+fromVersion+" to "+toVersion);
+
+        for(int version = fromVersion; version < toVersion; version++)
+            MIGRATIONS[version - BASE_VERSION].migrate(db);
+    }
+}
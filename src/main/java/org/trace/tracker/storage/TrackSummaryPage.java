@@ -0,0 +1,63 @@
+package org.trace.tracker.storage;
+
+import org.trace.tracker.storage.data.TrackSummary;
+
+import java.util.List;
+
+/**
+ * A single page of stored track summaries, as fetched by a {@link TrackSummaryQuery}.
+ */
+public class TrackSummaryPage {
+
+    private static final String TOKEN_SEPARATOR = ":";
+
+    private final List<TrackSummary> summaries;
+    private final String nextPageToken;
+
+    TrackSummaryPage(List<TrackSummary> summaries, String nextPageToken){
+        this.summaries = summaries;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<TrackSummary> getSummaries() {
+        return summaries;
+    }
+
+    /**
+     * @return The token that identifies the following page, or null if this is the last page.
+     * @see TrackSummaryQuery#setPageToken(String)
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasNextPage(){
+        return nextPageToken != null;
+    }
+
+    /**
+     * Page tokens identify the last track of a page by its start time and identifier, which is
+     * where the following page resumes.
+     */
+    static String encodeToken(long startTime, long trackId){
+        return startTime + TOKEN_SEPARATOR + trackId;
+    }
+
+    /**
+     * @return The start time and identifier of the last track of the previous page.
+     * @throws IllegalArgumentException If the token is malformed.
+     */
+    static long[] decodeToken(String token){
+
+        int separator = token.indexOf(TOKEN_SEPARATOR);
+
+        try {
+            return new long[]{
+                    Long.parseLong(token.substring(0, separator)),
+                    Long.parseLong(token.substring(separator + 1))
+            };
+        }catch (NumberFormatException | IndexOutOfBoundsException e){
+            throw new IllegalArgumentException("Invalid page token "+token);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.trace.tracker.storage;
+
+/**
+ * The TrackSummaryQuery defines which stored tracks are listed, in which order, and how many of
+ * them are fetched at once. The tracks are sorted by their start time and fetched in pages, where
+ * each page resumes right after the last track of the previous one, as identified by its
+ * page token.
+ * <br>
+ * <b>Note:</b> Tracks without any stored location have no start time, and are therefore never
+ * listed.
+ *
+ * @see PersistentTrackStorage#getTracksSessions(TrackSummaryQuery)
+ * @see TrackSummaryPage
+ */
+public class TrackSummaryQuery {
+
+    /** The default number of tracks per page. */
+    public static final int DEFAULT_PAGE_SIZE = 25;
+
+    private boolean isNewestFirst = true;
+    private Boolean isClosed = null, isValid = null;
+    private long fromTime = Long.MIN_VALUE, toTime = Long.MAX_VALUE;
+    private double minimumDistance = 0;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private String pageToken = null;
+
+    /**
+     * Creates a new query for the first page of all the tracks, newest first.
+     */
+    public TrackSummaryQuery(){}
+
+    /**
+     * @return True if the most recent tracks are listed first.
+     */
+    public boolean isNewestFirst() {
+        return isNewestFirst;
+    }
+
+    public void setNewestFirst(boolean newestFirst) {
+        isNewestFirst = newestFirst;
+    }
+
+    /**
+     * @return The closed state of the listed tracks, or null if tracks are listed regardless of it.
+     */
+    public Boolean isClosed() {
+        return isClosed;
+    }
+
+    public void setClosed(Boolean closed) {
+        isClosed = closed;
+    }
+
+    /**
+     * @return The valid state of the listed tracks, or null if tracks are listed regardless of it.
+     */
+    public Boolean isValid() {
+        return isValid;
+    }
+
+    public void setValid(Boolean valid) {
+        isValid = valid;
+    }
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Restricts the listed tracks to those that started within the time window.
+     * @param fromTime The window's lower bound, inclusive, in milliseconds.
+     * @param toTime The window's upper bound, inclusive, in milliseconds.
+     */
+    public void setTimeWindow(long fromTime, long toTime) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    public double getMinimumDistance() {
+        return minimumDistance;
+    }
+
+    /**
+     * @param minimumDistance The minimum travelled distance, in meters, of the listed tracks.
+     */
+    public void setMinimumDistance(double minimumDistance) {
+        this.minimumDistance = minimumDistance;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+
+        if(pageSize <= 0)
+            throw new IllegalArgumentException("The page size must be positive");
+
+        this.pageSize = pageSize;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    /**
+     * @param pageToken The token of the page to be fetched, as provided by
+     *                  {@link TrackSummaryPage#getNextPageToken()}, or null for the first page.
+     */
+    public void setPageToken(String pageToken) {
+        this.pageToken = pageToken;
+    }
+}
@@ -0,0 +1,88 @@
+package org.trace.tracker.storage;
+
+/**
+ * Snapshot of the metrics of a BufferedTrackWriter, that is, how deep its queue is and has been,
+ * how many locations were stored, and how many were lost or delayed because the queue was full.
+ *
+ * @see BufferedTrackWriter#getMetrics()
+ */
+public class TrackWriterMetrics {
+
+    private final int capacity, queueDepth, maxQueueDepth;
+    private final BufferedTrackWriter.OverflowPolicy overflowPolicy;
+    private final long stored, dropped, coalesced, blocked;
+
+    TrackWriterMetrics(int capacity, BufferedTrackWriter.OverflowPolicy overflowPolicy,
+                       int queueDepth, int maxQueueDepth,
+                       long stored, long dropped, long coalesced, long blocked){
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.stored = stored;
+        this.dropped = dropped;
+        this.coalesced = coalesced;
+        this.blocked = blocked;
+    }
+
+    /**
+     * @return The maximum number of locations that may be waiting to be written.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public BufferedTrackWriter.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return The number of locations waiting to be written when the snapshot was taken.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return The largest number of locations that have been waiting to be written at once.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return The number of locations successfully written into persistent storage.
+     */
+    public long getStoredCount() {
+        return stored;
+    }
+
+    /**
+     * @return The number of locations discarded by the {@link BufferedTrackWriter.OverflowPolicy#DROP_OLDEST} policy.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return The number of locations replaced by the {@link BufferedTrackWriter.OverflowPolicy#COALESCE} policy.
+     */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * @return The number of times a location had to wait, under the {@link BufferedTrackWriter.OverflowPolicy#BLOCK} policy.
+     */
+    public long getBlockedCount() {
+        return blocked;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackWriterMetrics{capacity="+capacity+", policy="+overflowPolicy
+                +", queueDepth="+queueDepth+", maxQueueDepth="+maxQueueDepth
+                +", stored="+stored+", dropped="+dropped+", coalesced="+coalesced
+                +", blocked="+blocked+"}";
+    }
+}
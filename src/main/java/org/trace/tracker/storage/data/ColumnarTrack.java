@@ -0,0 +1,360 @@
+package org.trace.tracker.storage.data;
+
+import android.location.Location;
+
+import java.util.Arrays;
+
+/**
+ * Compact, column-oriented representation of a track. Instead of one {@link TraceLocation} object
+ * per point, each of the location's attributes is stored in its own growable primitive array,
+ * which greatly reduces the memory footprint of long tracks and turns the computation of the
+ * track's statistics into linear scans over arrays.
+ * <br>
+ * <b>Note:</b> Only the attributes relevant for the track's analysis are kept, that is the
+ * coordinates, altitude, time, accuracy, speed, bearing and activity. The location's provider,
+ * elapsed real-time and dwell time are not preserved when converting from and to a {@link Track}.
+ *
+ * @see Track
+ */
+public class ColumnarTrack {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private String sessionId;
+    private double elapsedDistance;
+    private boolean isLocalOnly = true;
+    private boolean isValid = false;
+
+    private int size = 0;
+
+    private double[] latitudes, longitudes, altitudes;
+    private long[] timestamps;
+    private float[] accuracies, speeds, bearings;
+    private byte[] activities, confidences;
+
+    public ColumnarTrack(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The initial number of locations the track can hold before growing.
+     */
+    public ColumnarTrack(int capacity){
+
+        capacity = Math.max(1, capacity);
+
+        latitudes   = new double[capacity];
+        longitudes  = new double[capacity];
+        altitudes   = new double[capacity];
+        timestamps  = new long[capacity];
+        accuracies  = new float[capacity];
+        speeds      = new float[capacity];
+        bearings    = new float[capacity];
+        activities  = new byte[capacity];
+        confidences = new byte[capacity];
+    }
+
+    /**
+     * Converts a Track into its columnar representation.
+     * @param track The track to be converted.
+     * @return The ColumnarTrack
+     */
+    public static ColumnarTrack fromTrack(Track track){
+
+        ColumnarTrack columnar = new ColumnarTrack(track.getTracedTrack().size());
+
+        columnar.sessionId = track.getSessionId();
+        columnar.elapsedDistance = track.getTravelledDistance();
+        columnar.isLocalOnly = track.isLocalOnly();
+        columnar.isValid = track.isValid();
+
+        for(TraceLocation location : track.getTracedTrack())
+            columnar.addTracedLocation(location);
+
+        return columnar;
+    }
+
+    /**
+     * Converts the columnar track back into a Track, with one TraceLocation per point.
+     * @return The Track
+     */
+    public Track toTrack(){
+
+        Track track = new Track();
+        track.setSessionId(sessionId);
+        track.setIsValid(isValid);
+        if(!isLocalOnly) track.upload();
+
+        for(int i = 0; i < size; i++)
+            track.addTracedLocation(getLocation(i));
+
+        track.setTravelledDistance(elapsedDistance);
+
+        return track;
+    }
+
+    /* Location Management
+    /* Location Management
+    /* Location Management
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public void addTracedLocation(TraceLocation location){
+        addTracedLocation(
+                location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                location.getTime(), location.getAccuracy(), location.getSpeed(), location.getBearing(),
+                location.getActivityType(), location.getActivityConfidence());
+    }
+
+    public void addTracedLocation(double latitude, double longitude, double altitude, long time,
+                                  float accuracy, float speed, float bearing,
+                                  int activityType, int activityConfidence){
+
+        if(size == timestamps.length)
+            grow();
+
+        latitudes[size]   = latitude;
+        longitudes[size]  = longitude;
+        altitudes[size]   = altitude;
+        timestamps[size]  = time;
+        accuracies[size]  = accuracy;
+        speeds[size]      = speed;
+        bearings[size]    = bearing;
+        activities[size]  = (byte) activityType;
+        confidences[size] = (byte) activityConfidence;
+
+        size++;
+    }
+
+    private void grow(){
+        int capacity = timestamps.length + (timestamps.length >> 1) + 1;
+
+        latitudes   = Arrays.copyOf(latitudes, capacity);
+        longitudes  = Arrays.copyOf(longitudes, capacity);
+        altitudes   = Arrays.copyOf(altitudes, capacity);
+        timestamps  = Arrays.copyOf(timestamps, capacity);
+        accuracies  = Arrays.copyOf(accuracies, capacity);
+        speeds      = Arrays.copyOf(speeds, capacity);
+        bearings    = Arrays.copyOf(bearings, capacity);
+        activities  = Arrays.copyOf(activities, capacity);
+        confidences = Arrays.copyOf(confidences, capacity);
+    }
+
+    /**
+     * Releases the unused capacity of the track's columns.
+     */
+    public void trimToSize(){
+        if(size == timestamps.length || size == 0) return;
+
+        latitudes   = Arrays.copyOf(latitudes, size);
+        longitudes  = Arrays.copyOf(longitudes, size);
+        altitudes   = Arrays.copyOf(altitudes, size);
+        timestamps  = Arrays.copyOf(timestamps, size);
+        accuracies  = Arrays.copyOf(accuracies, size);
+        speeds      = Arrays.copyOf(speeds, size);
+        bearings    = Arrays.copyOf(bearings, size);
+        activities  = Arrays.copyOf(activities, size);
+        confidences = Arrays.copyOf(confidences, size);
+    }
+
+    /**
+     * Builds the TraceLocation of the point at the provided position.
+     * @param index The point's position
+     * @return The TraceLocation
+     */
+    public TraceLocation getLocation(int index){
+        checkIndex(index);
+
+        TraceLocation location = new TraceLocation();
+        location.setLatitude(latitudes[index]);
+        location.setLongitude(longitudes[index]);
+        location.setAltitude(altitudes[index]);
+        location.setTime(timestamps[index]);
+        location.setAccuracy(accuracies[index]);
+        location.setSpeed(speeds[index]);
+        location.setBearing(bearings[index]);
+        location.setActivity(activities[index], confidences[index]);
+
+        return location;
+    }
+
+    private void checkIndex(int index){
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+    }
+
+    /* Getters
+    /* Getters
+    /* Getters
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public boolean isValid() {
+        return isValid;
+    }
+
+    public void setIsValid(boolean isValid) {
+        this.isValid = isValid;
+    }
+
+    public boolean isLocalOnly(){
+        return isLocalOnly;
+    }
+
+    public void upload(){
+        isLocalOnly = false;
+    }
+
+    public double getTravelledDistance() {
+        return elapsedDistance;
+    }
+
+    public void setTravelledDistance(double distance){
+        this.elapsedDistance = distance;
+    }
+
+    public double getLatitude(int index){
+        checkIndex(index);
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index){
+        checkIndex(index);
+        return longitudes[index];
+    }
+
+    public double getAltitude(int index){
+        checkIndex(index);
+        return altitudes[index];
+    }
+
+    public long getTime(int index){
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public float getAccuracy(int index){
+        checkIndex(index);
+        return accuracies[index];
+    }
+
+    public float getSpeed(int index){
+        checkIndex(index);
+        return speeds[index];
+    }
+
+    public float getBearing(int index){
+        checkIndex(index);
+        return bearings[index];
+    }
+
+    public int getActivityType(int index){
+        checkIndex(index);
+        return activities[index];
+    }
+
+    public int getActivityConfidence(int index){
+        checkIndex(index);
+        return confidences[index];
+    }
+
+    public long getStartTimestamp(){
+        return getTime(0);
+    }
+
+    public long getEndTimestamp(){
+        return getTime(size - 1);
+    }
+
+    public long getElapsedTime(){
+        return size == 0 ? 0 : timestamps[size - 1] - timestamps[0];
+    }
+
+    /* Statistics
+    /* Statistics
+    /* Statistics
+     ***********************************************************************************************
+     ***********************************************************************************************
+     ***********************************************************************************************
+     */
+
+    /**
+     * @return The distance, in meters, between every consecutive pair of points.
+     */
+    public double computeTravelledDistance(){
+
+        double distance = 0;
+        float[] results = new float[1];
+
+        for(int i = 1; i < size; i++){
+            Location.distanceBetween(latitudes[i-1], longitudes[i-1], latitudes[i], longitudes[i], results);
+            distance += results[0];
+        }
+
+        return distance;
+    }
+
+    /**
+     * @return The average speed in Km/h.
+     */
+    public double getAverageSpeed(){
+
+        if(size == 0) return 0;
+
+        double sum = 0;
+        for(int i = 0; i < size; i++)
+            sum += speeds[i];
+
+        return (sum / size) * 3.6; //Km/h
+    }
+
+    /**
+     * @return The top speed in Km/h.
+     */
+    public double getTopSpeed(){
+
+        if(size == 0) return 0;
+
+        float max = speeds[0];
+        for(int i = 1; i < size; i++)
+            if(speeds[i] > max) max = speeds[i];
+
+        return max * 3.6; //Km/h
+    }
+
+    /**
+     * @return The median speed in Km/h.
+     */
+    public double getMedianSpeed(){
+
+        if(size == 0) return 0;
+
+        float[] sorted = Arrays.copyOf(speeds, size);
+        Arrays.sort(sorted);
+
+        int middle = size / 2;
+        double median = size % 2 == 0 ? (sorted[middle - 1] + sorted[middle]) / 2.0 : sorted[middle];
+
+        return median * 3.6; //Km/h
+    }
+}
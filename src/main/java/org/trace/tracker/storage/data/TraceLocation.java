@@ -5,15 +5,26 @@ import android.os.Build;
 import android.os.Parcel;
 
 import com.google.android.gms.location.DetectedActivity;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 import org.trace.tracker.TrackingConstants;
+import org.trace.tracker.modules.activity.ActivityConstants;
 import org.trace.tracker.modules.activity.ActivityRecognitionModule;
 
 
 public class TraceLocation extends Location{
 
-    private String activityMode;
+    private int activityType = DetectedActivity.UNKNOWN;
+    private int activityConfidence = 100;
+
+    /** Serialized activity mode, which is only built when requested. */
+    private String activityMode = null;
+
+    /** How long the user stayed at this location, for locations that represent a stay point. */
+    private long dwellTime = 0;
 
     public TraceLocation(){
         super("unknown");
@@ -21,8 +32,6 @@ public class TraceLocation extends Location{
 
     public TraceLocation(Location location){
         super(location);
-        this.activityMode = "unknown";
-
     }
 
 
@@ -39,7 +48,9 @@ public class TraceLocation extends Location{
         float speed     = in.readFloat();
         float bearing   = in.readFloat();
         String provider = in.readString();
-        String activity = in.readString();
+        int activityType = in.readInt();
+        int activityConfidence = in.readInt();
+        long dwellTime = in.readLong();
 
         setLatitude(latitude);
         setLongitude(longitude);
@@ -49,7 +60,8 @@ public class TraceLocation extends Location{
         setAltitude(altitude);
         setSpeed(speed);
         setProvider(provider);
-        setActivityMode(activity);
+        setActivity(activityType, activityConfidence);
+        setDwellTime(dwellTime);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
             setElapsedRealtimeNanos(elapsedNanos);
@@ -76,26 +88,87 @@ public class TraceLocation extends Location{
     }
 
 
+    /**
+     * @return The activity mode serialized as a JSON string, with the activity's type and confidence.
+     */
     public String getActivityMode() {
-        return activityMode  == null ? "null" : activityMode;
+
+        if(activityMode == null) {
+            JsonObject jsonActivity = new JsonObject();
+            jsonActivity.addProperty("type", ActivityRecognitionModule.getActivityString(activityType));
+            jsonActivity.addProperty("confidence", activityConfidence);
+            activityMode = jsonActivity.toString();
+        }
+
+        return activityMode;
     }
 
+    /**
+     * Sets the activity mode from its serialized form, which may either be a JSON string, as
+     * produced by {@link #getActivityMode()}, or simply the activity's name.
+     * @param activityMode The serialized activity mode.
+     */
     public void setActivityMode(String activityMode) {
-        this.activityMode = activityMode;
+
+        int type = DetectedActivity.UNKNOWN, confidence = 100;
+
+        if(activityMode != null && activityMode.startsWith("{")) {
+            try {
+                JsonObject jsonActivity = (JsonObject) new JsonParser().parse(activityMode);
+                JsonElement jsonType = jsonActivity.get("type");
+                JsonElement jsonConfidence = jsonActivity.get("confidence");
+
+                if (jsonType != null) type = ActivityConstants.getActivityType(jsonType.getAsString());
+                if (jsonConfidence != null) confidence = jsonConfidence.getAsInt();
+
+            }catch (JsonParseException | ClassCastException e){
+                type = DetectedActivity.UNKNOWN;
+            }
+        }else
+            type = ActivityConstants.getActivityType(activityMode);
+
+        this.activityType = type;
+        this.activityConfidence = confidence;
+        this.activityMode = null;
     }
 
     public void setActivityMode(DetectedActivity activity){
+        if(activity == null)
+            setActivity(DetectedActivity.UNKNOWN, 100);
+        else
+            setActivity(activity.getType(), activity.getConfidence());
+    }
 
-        JsonObject jsonActivity = new JsonObject();
-        if(activity == null){
-            jsonActivity.addProperty("type", "unknown");
-            jsonActivity.addProperty("confidence", 100);
-        }else{
-            jsonActivity.addProperty("type", ActivityRecognitionModule.getActivityString(activity.getType()));
-            jsonActivity.addProperty("confidence", activity.getConfidence());
-        }
+    public void setActivity(int activityType, int activityConfidence){
+        this.activityType = activityType;
+        this.activityConfidence = activityConfidence;
+        this.activityMode = null;
+    }
+
+    /**
+     * @return The activity type, as defined by the DetectedActivity.
+     * @see DetectedActivity
+     */
+    public int getActivityType() {
+        return activityType;
+    }
+
+    public int getActivityConfidence() {
+        return activityConfidence;
+    }
+
+    /**
+     * @return The time, in milliseconds, the user stayed at this location, which is only positive
+     * for locations that represent a whole stay point, in which case the location's time is the
+     * stay's start time.
+     * @see org.trace.tracker.filter.StayPointDetectionStage
+     */
+    public long getDwellTime() {
+        return dwellTime;
+    }
 
-        this.activityMode = jsonActivity.toString();
+    public void setDwellTime(long dwellTime) {
+        this.dwellTime = dwellTime;
     }
 
     public JsonObject getSerializableLocationAsJson(){
@@ -146,7 +219,7 @@ public class TraceLocation extends Location{
             setProvider(secondaryAttributes.get(TrackingConstants.location.attributes.PROVIDER).getAsString());
 
         if (secondaryAttributes.has(TrackingConstants.location.attributes.ACTIVITY))
-            activityMode = secondaryAttributes.get(TrackingConstants.location.attributes.ACTIVITY).getAsString();
+            setActivityMode(secondaryAttributes.get(TrackingConstants.location.attributes.ACTIVITY).getAsString());
     }
 
     @Override
@@ -165,6 +238,8 @@ public class TraceLocation extends Location{
         dest.writeFloat(getSpeed());
         dest.writeFloat(getBearing());
         dest.writeString(getProvider());
-        dest.writeString(activityMode);
+        dest.writeInt(activityType);
+        dest.writeInt(activityConfidence);
+        dest.writeLong(dwellTime);
     }
 }
\ No newline at end of file
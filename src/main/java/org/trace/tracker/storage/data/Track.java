@@ -6,16 +6,8 @@ import android.os.Parcelable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
-import org.apache.commons.math3.stat.descriptive.moment.Mean;
-import org.apache.commons.math3.stat.descriptive.rank.Max;
-import org.apache.commons.math3.stat.descriptive.rank.Median;
-
 import java.util.LinkedList;
 
-//import org.apache.commons.math3.stat.descriptive.moment.Mean;
-//import org.apache.commons.math3.stat.descriptive.rank.Max;
-//import org.apache.commons.math3.stat.descriptive.rank.Median;
-
 /**
  * @version 1.0
  * @author Rodrigo Lourenço
@@ -25,8 +17,7 @@ public class Track implements Parcelable{
     private String sessionId;
     private long startTime, stopTime;
     private LinkedList<TraceLocation> tracedTrack;
-    private double elapsedDistance;
-    private double averageSpeed, medianSpeed, topSpeed;
+    private final TrackStatistics statistics = new TrackStatistics();
 
     private boolean isLocalOnly;
     private boolean isValid = false;
@@ -34,20 +25,24 @@ public class Track implements Parcelable{
     public Track(){
         tracedTrack = new LinkedList<>();
         isLocalOnly = true;
-        elapsedDistance = 0;
     }
 
     protected Track(Parcel in) {
         sessionId = in.readString();
         startTime = in.readLong();
         stopTime = in.readLong();
-        elapsedDistance = in.readDouble();
+        double distance = in.readDouble();
         isLocalOnly = in.readByte() != 0;
         isValid = in.readByte() != 0;
         tracedTrack = new LinkedList<>();
-        in.readTypedList(tracedTrack, TraceLocation.CREATOR);
 
-        updateSpeeds();
+        LinkedList<TraceLocation> locations = new LinkedList<>();
+        in.readTypedList(locations, TraceLocation.CREATOR);
+
+        for(TraceLocation location : locations)
+            addTracedLocation(location);
+
+        setTravelledDistance(distance);
     }
 
     public static final Creator<Track> CREATOR = new Creator<Track>() {
@@ -62,13 +57,26 @@ public class Track implements Parcelable{
         }
     };
 
+    /**
+     * Adds a new location to the end of the track, updating the track's running statistics.
+     * @param location The traced location.
+     */
     public void addTracedLocation(TraceLocation location){
 
+        double distance = 0;
+        long elapsedTime = 0;
+
         if(tracedTrack.isEmpty())
             startTime = location.getTime();
+        else {
+            TraceLocation previous = tracedTrack.getLast();
+            distance = previous.distanceTo(location);
+            //The time spent at a stay point is not moving time
+            elapsedTime = location.getTime() - (previous.getTime() + previous.getDwellTime());
+        }
 
-        stopTime = location.getTime();
-        //TODO: update elapsedDistance;
+        stopTime = location.getTime() + location.getDwellTime();
+        statistics.update(distance, elapsedTime, location.getSpeed());
         tracedTrack.add(location);
     }
 
@@ -80,8 +88,12 @@ public class Track implements Parcelable{
         return tracedTrack;
     }
 
+    /**
+     * @return The travelled distance, in meters.
+     * @see TrackStatistics#getDistance()
+     */
     public double getTravelledDistance() {
-        return elapsedDistance;
+        return statistics.getDistance();
     }
 
     public long getElapsedTime(){
@@ -116,20 +128,49 @@ public class Track implements Parcelable{
         this.isValid = isValid;
     }
 
+    /**
+     * Overrides the travelled distance, <i>e.g.</i> with the one computed while tracking, which
+     * the distances of the locations added afterwards are then added to.
+     * @param distance The travelled distance, in meters.
+     */
     public void setTravelledDistance(double distance){
-        this.elapsedDistance = distance;
+        statistics.setDistance(distance);
+    }
+
+    /**
+     * @return The time, in milliseconds, spent moving.
+     * @see TrackStatistics#getMovingTime()
+     */
+    public long getMovingTime(){
+        return statistics.getMovingTime();
     }
 
+    /**
+     * @return The average speed in Km/h.
+     */
     public double getAverageSpeed() {
-        return averageSpeed;
+        return statistics.getAverageSpeed() * 3.6; //Km/h
     }
 
+    /**
+     * @return The estimated median speed in Km/h.
+     */
     public double getMedianSpeed() {
-        return medianSpeed;
+        return statistics.getMedianSpeed() * 3.6; //Km/h
     }
 
+    /**
+     * @return The top speed in Km/h.
+     */
     public double getTopSpeed() {
-        return topSpeed;
+        return statistics.getTopSpeed() * 3.6; //Km/h
+    }
+
+    /**
+     * @return The track's running statistics.
+     */
+    public TrackStatistics getStatistics(){
+        return statistics;
     }
 
     @Override
@@ -142,31 +183,20 @@ public class Track implements Parcelable{
         dest.writeString(sessionId);
         dest.writeLong(startTime);
         dest.writeLong(stopTime);
-        dest.writeDouble(elapsedDistance);
+        dest.writeDouble(getTravelledDistance());
         dest.writeByte((byte) (isLocalOnly ? 1 : 0));
         dest.writeByte((byte) (isValid ? 1 : 0));
         dest.writeTypedList(tracedTrack);
     }
 
-    private void updateSpeeds(){
-
-        double[] measuredSpeeds = new double[tracedTrack.size()];
-
-        for(int i=0; i < tracedTrack.size(); i++){
-            measuredSpeeds[i] = tracedTrack.get(i).getSpeed();
-        }
-
-        Mean mean = new Mean();
-        Median median = new Median();
-        Max max = new Max();
-
-        averageSpeed    = (mean.evaluate(measuredSpeeds)    *3600)/1000; //Km/h
-        medianSpeed     = (median.evaluate(measuredSpeeds)  *3600)/1000; //Km/h
-        topSpeed        = (max.evaluate(measuredSpeeds)     *3600)/1000; //Km/h
-
+    /**
+     * @return The track in its compact, column-oriented representation.
+     * @see ColumnarTrack
+     */
+    public ColumnarTrack toColumnar(){
+        return ColumnarTrack.fromTrack(this);
     }
 
-
     public JsonObject toJson(){
         JsonObject traceTrack = new JsonObject();
         JsonArray track = new JsonArray();
@@ -179,6 +209,7 @@ public class Track implements Parcelable{
         traceTrack.addProperty("start", getStartTimestamp());
         traceTrack.addProperty("end", getEndTimestamp());
         traceTrack.addProperty("elapsedTime", getElapsedTime());
+        traceTrack.addProperty("movingTime", getMovingTime());
         traceTrack.addProperty("distance", getTravelledDistance());
         traceTrack.addProperty("topSpeed", getTopSpeed());
         traceTrack.addProperty("avgSpeed", getAverageSpeed());
@@ -0,0 +1,101 @@
+package org.trace.tracker.storage.data;
+
+import org.trace.tracker.utils.P2QuantileEstimator;
+
+/**
+ * Running statistics of a track, which are updated in constant time and memory as each new
+ * location is added, and are therefore always available, even while the track is still being
+ * recorded.
+ * <br>
+ * <b>Note:</b> All speeds are kept in meters per second. The median speed is an estimate,
+ * computed by a {@link P2QuantileEstimator}.
+ */
+public class TrackStatistics {
+
+    /** Speed, in meters per second, above which the user is considered to be moving. */
+    public static final float MOVING_SPEED_THRESHOLD = 0.5f;
+
+    private int count = 0;
+    private double distance = 0;
+    private long movingTime = 0;
+
+    private double speedSum = 0;
+    private float topSpeed = 0;
+    private final P2QuantileEstimator medianSpeed = new P2QuantileEstimator(0.5);
+
+    /**
+     * Updates the statistics with a new location.
+     *
+     * @param distance The distance, in meters, from the previous location.
+     * @param elapsedTime The time, in milliseconds, since the previous location, or since the end
+     *                    of its stay, if it is a stay point.
+     * @param speed The location's speed, in meters per second.
+     */
+    public void update(double distance, long elapsedTime, float speed){
+
+        if(count > 0) {
+            this.distance += distance;
+
+            if (speed > MOVING_SPEED_THRESHOLD && elapsedTime > 0)
+                movingTime += elapsedTime;
+        }
+
+        if(count == 0 || speed > topSpeed)
+            topSpeed = speed;
+
+        speedSum += speed;
+        medianSpeed.add(speed);
+        count++;
+    }
+
+    /**
+     * Discards all the accumulated statistics.
+     */
+    public void clear(){
+        count = 0;
+        distance = 0;
+        movingTime = 0;
+        speedSum = 0;
+        topSpeed = 0;
+        medianSpeed.clear();
+    }
+
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * @return The distance, in meters, between every consecutive pair of locations.
+     */
+    public double getDistance(){
+        return distance;
+    }
+
+    /**
+     * Overrides the accumulated distance, which the distances of the following updates are then
+     * added to.
+     * @param distance The distance, in meters.
+     */
+    public void setDistance(double distance){
+        this.distance = distance;
+    }
+
+    /**
+     * @return The time, in milliseconds, spent above the {@link #MOVING_SPEED_THRESHOLD}.
+     */
+    public long getMovingTime(){
+        return movingTime;
+    }
+
+    public double getAverageSpeed(){
+        return count == 0 ? 0 : speedSum / count;
+    }
+
+    public double getTopSpeed(){
+        return topSpeed;
+    }
+
+    public double getMedianSpeed(){
+        return medianSpeed.getEstimate();
+    }
+}
@@ -2,12 +2,20 @@ package org.trace.tracker.storage.data;
 
 /**
  * Created by Rodrigo Lourenço on 11/03/2016.
+ * <br>
+ * Top level information about a stored track, which is kept up to date as the track's locations
+ * are stored, and thus does not require the track's locations to be loaded.
  */
 public class TrackSummary {
     private String session;
     private boolean isClosed, isValid;
     private double elapsedTime, elapsedDistance;
 
+    private long startTime, endTime, movingTime;
+    private int pointCount;
+    private double averageSpeed, topSpeed;
+    private double minLatitude, minLongitude, maxLatitude, maxLongitude;
+
     public TrackSummary(){}
 
     public TrackSummary(String session, boolean isUploaded, boolean isValid){
@@ -47,4 +55,87 @@ public class TrackSummary {
     public void setElapsedDistance(double elapsedDistance) {
         this.elapsedDistance = elapsedDistance;
     }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return The time, in milliseconds, spent moving.
+     */
+    public long getMovingTime() {
+        return movingTime;
+    }
+
+    public void setMovingTime(long movingTime) {
+        this.movingTime = movingTime;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public void setPointCount(int pointCount) {
+        this.pointCount = pointCount;
+    }
+
+    /**
+     * @return The average speed in Km/h.
+     */
+    public double getAverageSpeed() {
+        return averageSpeed;
+    }
+
+    public void setAverageSpeed(double averageSpeed) {
+        this.averageSpeed = averageSpeed;
+    }
+
+    /**
+     * @return The top speed in Km/h.
+     */
+    public double getTopSpeed() {
+        return topSpeed;
+    }
+
+    public void setTopSpeed(double topSpeed) {
+        this.topSpeed = topSpeed;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * Sets the track's bounding box, that is the smallest area that contains all its locations.
+     */
+    public void setBoundingBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude){
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+    }
 }
@@ -0,0 +1,148 @@
+package org.trace.tracker.utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile estimator, based on the P² algorithm by Jain and Chlamtac. The estimator
+ * keeps only five markers, regardless of the number of observations, and updates them in constant
+ * time, which makes it possible to estimate the median, or any other percentile, of an unbounded
+ * stream of values.
+ * <br>
+ * While fewer than five values have been observed the quantile is computed exactly.
+ *
+ * <h3>References</h3>
+ * R. Jain and I. Chlamtac, "The P² algorithm for dynamic calculation of quantiles and histograms
+ * without storing observations", Communications of the ACM, 1985.
+ */
+public class P2QuantileEstimator {
+
+    private final double p;
+
+    private int count = 0;
+
+    private final double[] heights = new double[5];
+    private final int[] positions = new int[5];
+    private final double[] desired = new double[5];
+    private final double[] increments = new double[5];
+
+    /**
+     * @param p The quantile to be estimated, between 0 and 1, for example 0.5 for the median.
+     */
+    public P2QuantileEstimator(double p){
+
+        if(p < 0 || p > 1)
+            throw new IllegalArgumentException("The quantile must be between 0 and 1");
+
+        this.p = p;
+
+        increments[0] = 0;
+        increments[1] = p / 2;
+        increments[2] = p;
+        increments[3] = (1 + p) / 2;
+        increments[4] = 1;
+    }
+
+    public double getQuantile(){
+        return p;
+    }
+
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * Adds a new observation to the estimator.
+     * @param value The observed value.
+     */
+    public void add(double value){
+
+        if(count < 5){
+            heights[count++] = value;
+
+            if(count == 5){
+                Arrays.sort(heights);
+
+                for(int i = 0; i < 5; i++) {
+                    positions[i] = i;
+                    desired[i] = 4 * increments[i];
+                }
+            }
+
+            return;
+        }
+
+        int k;
+
+        if(value < heights[0]){
+            heights[0] = value;
+            k = 0;
+        }else if(value >= heights[4]){
+            heights[4] = value;
+            k = 3;
+        }else {
+            k = 0;
+            while (value >= heights[k + 1]) k++;
+        }
+
+        for(int i = k + 1; i < 5; i++)
+            positions[i]++;
+
+        for(int i = 0; i < 5; i++)
+            desired[i] += increments[i];
+
+        for(int i = 1; i < 4; i++){
+            double d = desired[i] - positions[i];
+
+            if((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)){
+                int sign = d >= 0 ? 1 : -1;
+
+                double height = parabolic(i, sign);
+
+                if(heights[i - 1] < height && height < heights[i + 1])
+                    heights[i] = height;
+                else
+                    heights[i] = linear(i, sign);
+
+                positions[i] += sign;
+            }
+        }
+
+        count++;
+    }
+
+    private double parabolic(int i, int sign){
+        return heights[i] + (double) sign / (positions[i + 1] - positions[i - 1]) * (
+                (positions[i] - positions[i - 1] + sign) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i]) +
+                (positions[i + 1] - positions[i] - sign) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+    }
+
+    private double linear(int i, int sign){
+        return heights[i] + sign * (heights[i + sign] - heights[i]) / (positions[i + sign] - positions[i]);
+    }
+
+    /**
+     * @return The current estimate of the quantile, or 0 if no values have been observed.
+     */
+    public double getEstimate(){
+
+        if(count == 0) return 0;
+
+        if(count < 5){
+            double[] sorted = Arrays.copyOf(heights, count);
+            Arrays.sort(sorted);
+
+            int index = (int) Math.round(p * (count - 1));
+            return sorted[index];
+        }
+
+        return heights[2];
+    }
+
+    /**
+     * Discards every observed value.
+     */
+    public void clear(){
+        count = 0;
+        Arrays.fill(heights, 0);
+    }
+}
@@ -0,0 +1,150 @@
+package org.trace.tracker.filter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveRuleOrderTest {
+
+    //Simulated rules, in their declared order: cost class, as the simulated cost per evaluation (ns), and rejection probability
+    private static final int[] COSTS = { 800, 200, 50, 400 };
+    private static final double[] REJECTION = { 0.01, 0.05, 0.30, 0.10 };
+
+    @Test
+    public void cheapSelectiveRule_movesFirst() throws Exception {
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(new boolean[]{ true, true, true, true }, COSTS, 16);
+
+        simulate(order, new Random(3), 1000, true);
+
+        assertEquals(2, order.getRule(0));
+        assertEquals(0, order.getRule(order.size() - 1));
+    }
+
+    @Test
+    public void sameStatistics_produceTheSameOrder() throws Exception {
+        AdaptiveRuleOrder first = new AdaptiveRuleOrder(new boolean[]{ true, true, true, true }, COSTS, 16),
+                second = new AdaptiveRuleOrder(new boolean[]{ true, true, true, true }, COSTS, 16);
+
+        simulate(first, new Random(11), 5000, true);
+        simulate(second, new Random(11), 5000, true);
+
+        for(int i = 0; i < first.size(); i++)
+            assertEquals(first.getRule(i), second.getRule(i));
+    }
+
+    @Test
+    public void identicalRules_keepTheirDeclaredOrder() throws Exception {
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(new boolean[]{ true, true, true }, new int[]{ 1, 1, 1 }, 1);
+
+        for(int i = 0; i < 100; i++) {
+            for(int rule = 0; rule < order.size(); rule++)
+                order.record(rule, false);
+
+            order.onChainEvaluated();
+        }
+
+        for(int i = 0; i < order.size(); i++)
+            assertEquals(i, order.getRule(i));
+    }
+
+    @Test
+    public void equallySelectiveRules_areOrderedByTheirCostClass() throws Exception {
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(new boolean[]{ true, true },
+                new int[]{ AdaptiveRuleOrder.DISTANCE_COST, AdaptiveRuleOrder.SCALAR_COST }, 1);
+
+        //Every fifth location is rejected by both rules
+        for(int i = 0; i < 100; i++) {
+            for(int p = 0; p < order.size(); p++)
+                order.record(order.getRule(p), i % 5 == 0);
+
+            order.onChainEvaluated();
+        }
+
+        assertEquals(1, order.getRule(0));
+        assertEquals(0, order.getRule(1));
+    }
+
+    @Test
+    public void invalidCosts_areRejected() throws Exception {
+        try {
+            new AdaptiveRuleOrder(new boolean[]{ true, true }, new int[]{ 1 });
+            fail();
+        }catch (IllegalArgumentException e){
+            //Expected
+        }
+
+        try {
+            new AdaptiveRuleOrder(new boolean[]{ true }, new int[]{ 0 });
+            fail();
+        }catch (IllegalArgumentException e){
+            //Expected
+        }
+    }
+
+    @Test
+    public void barriers_keepTheirPosition() throws Exception {
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(new boolean[]{ true, true, false, true }, COSTS, 16);
+
+        simulate(order, new Random(5), 1000, true);
+
+        //Rules 0 and 1 may only swap among themselves, as may rule 3, which stays behind the barrier
+        assertEquals(1, order.getRule(0));
+        assertEquals(0, order.getRule(1));
+        assertEquals(2, order.getRule(2));
+        assertEquals(3, order.getRule(3));
+
+        order.reset();
+
+        for(int i = 0; i < order.size(); i++)
+            assertEquals(i, order.getRule(i));
+    }
+
+    /**
+     * Compares the simulated costs only. The cost of real rules on real locations, including the
+     * cost of timing each rule, is measured by the instrumented AdaptiveRuleOrderBenchmarkTest.
+     */
+    @Test
+    public void benchmark_expectedCostPerFix() throws Exception {
+        int fixes = 200000;
+
+        long declared = simulate(new AdaptiveRuleOrder(new boolean[4], COSTS), new Random(42), fixes, false),
+                adaptive = simulate(new AdaptiveRuleOrder(new boolean[]{ true, true, true, true }, COSTS), new Random(42), fixes, true);
+
+        //The optimal order, 2-1-3-0, costs about 935ns per fix, against about 1307ns for the declared order
+        assertTrue(String.format(
+                "Adaptive rule ordering: %.1f ns per fix declared, %.1f ns per fix adaptive",
+                declared / (double) fixes, adaptive / (double) fixes), adaptive < declared * 0.75);
+    }
+
+    /**
+     * Evaluates the simulated rules over a stream of fixes, where the rules' outcomes for each fix
+     * are drawn beforehand, and so do not depend on the order.
+     *
+     * @return The total simulated cost, in nanoseconds.
+     */
+    private static long simulate(AdaptiveRuleOrder order, Random random, int fixes, boolean isAdaptive){
+        boolean[] outcomes = new boolean[COSTS.length];
+        long total = 0;
+
+        for(int fix = 0; fix < fixes; fix++){
+
+            for(int rule = 0; rule < outcomes.length; rule++)
+                outcomes[rule] = random.nextDouble() < REJECTION[rule];
+
+            for(int p = 0; p < order.size(); p++){
+                int rule = isAdaptive ? order.getRule(p) : p;
+
+                order.record(rule, outcomes[rule]);
+                total += COSTS[rule];
+
+                if(outcomes[rule]) break;
+            }
+
+            order.onChainEvaluated();
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,68 @@
+package org.trace.tracker.filter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FilterChainSpecTest {
+
+    @Test
+    public void json_roundTripsTheChain() throws Exception {
+        FilterChainSpec spec = FilterChainSpec.getDefault(40, 55.56f);
+
+        JsonArray json = (JsonArray) new JsonParser().parse(spec.toString());
+        FilterChainSpec parsed = FilterChainSpec.fromJson(json);
+
+        assertEquals(spec.getRules().size(), parsed.getRules().size());
+
+        for(int i = 0; i < spec.getRules().size(); i++){
+            assertEquals(spec.getRules().get(i).getType(), parsed.getRules().get(i).getType());
+            assertEquals(spec.getRules().get(i).getThreshold(), parsed.getRules().get(i).getThreshold(), 0);
+        }
+    }
+
+    @Test
+    public void fromJson_keepsTheDeclaredOrder() throws Exception {
+        JsonArray json = (JsonArray) new JsonParser().parse(
+                "[{\"type\":\"overlapping\"},{\"type\":\"satellites\",\"threshold\":4},{\"type\":\"accuracy\",\"threshold\":25}]");
+
+        FilterChainSpec spec = FilterChainSpec.fromJson(json);
+
+        assertEquals(FilterChainSpec.RuleType.OVERLAPPING, spec.getRules().get(0).getType());
+        assertEquals(FilterChainSpec.RuleType.SATELLITES, spec.getRules().get(1).getType());
+        assertEquals(25, spec.getRules().get(2).getThreshold(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromJson_rejectsUnknownRules() throws Exception {
+        FilterChainSpec.fromJson((JsonArray) new JsonParser().parse("[{\"type\":\"unknown\",\"threshold\":1}]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromJson_rejectsMissingThresholds() throws Exception {
+        FilterChainSpec.fromJson((JsonArray) new JsonParser().parse("[{\"type\":\"accuracy\"}]"));
+    }
+
+    @Test
+    public void withThreshold_onlyUpdatesRulesOfThatType() throws Exception {
+        FilterChainSpec spec = FilterChainSpec.getDefault(40, 55.56f)
+                .withThreshold(FilterChainSpec.RuleType.ACCURACY, 20);
+
+        assertEquals(20, spec.getRules().get(0).getThreshold(), 0);
+        assertEquals(55.56f, spec.getRules().get(1).getThreshold(), 0);
+    }
+
+    @Test
+    public void compile_buildsEveryRuleInOrder() throws Exception {
+        FilterChain chain = FilterChainSpec.getDefault(40, 55.56f).compile();
+
+        assertEquals(4, chain.size());
+        assertEquals(2, chain.getHistorySize());
+        assertEquals("accuracy", chain.getName(0));
+        assertEquals("passThroughSpeed", chain.getName(3));
+        assertEquals(2, chain.getRule(3).getHistorySize());
+    }
+}
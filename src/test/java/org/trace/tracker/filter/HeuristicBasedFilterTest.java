@@ -0,0 +1,71 @@
+package org.trace.tracker.filter;
+
+import org.junit.Test;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import static org.junit.Assert.*;
+
+public class HeuristicBasedFilterTest {
+
+    /**
+     * Rejects a single location, whichever overload is evaluated.
+     */
+    private static class RejectingRule implements HeuristicBasedFilter.HeuristicRule {
+
+        private final TraceLocation mOutlier;
+        int evaluations = 0;
+
+        RejectingRule(TraceLocation outlier){
+            this.mOutlier = outlier;
+        }
+
+        @Override
+        public boolean isOutlier(TraceLocation location) {
+            evaluations++;
+            return location == mOutlier;
+        }
+
+        @Override
+        public boolean isOutlier(TraceLocation location, TraceLocation previous) {
+            return isOutlier(location);
+        }
+
+        @Override
+        public boolean isOutlier(TraceLocation current, TraceLocation previous, TraceLocation earlierThan) {
+            return isOutlier(current);
+        }
+    }
+
+    @Test
+    public void pairwiseRules_areSkippedWithoutAPreviousLocation() throws Exception {
+        TraceLocation outlier = new TraceLocation();
+        RejectingRule rejecting = new RejectingRule(outlier);
+
+        //The pairwise rules come first, as they would once learned to be cheap and selective
+        HeuristicBasedFilter filter = new HeuristicBasedFilter();
+        filter.setAdaptiveOrdering(false);
+        filter.addNewHeuristic(new HeuristicBasedFilter.OverlappingLocationHeuristicRule());
+        filter.addNewHeuristic(new HeuristicBasedFilter.CalculatedSpeedBasedHeuristicRule(55));
+        filter.addNewHeuristic(rejecting);
+
+        assertFalse(filter.isValidLocation(outlier));
+        assertTrue(filter.isValidLocation(new TraceLocation()));
+        assertEquals(2, rejecting.evaluations);
+    }
+
+    @Test
+    public void firstLocation_isEvaluatedByTheSingleLocationRules() throws Exception {
+        TraceLocation outlier = new TraceLocation();
+
+        HeuristicBasedFilter filter = new HeuristicBasedFilter();
+        filter.setAdaptiveOrdering(false);
+        filter.addNewHeuristic(new HeuristicBasedFilter.OverlappingLocationHeuristicRule());
+        filter.addNewHeuristic(new RejectingRule(outlier));
+
+        LocationRingBuffer<TraceLocation> history = new LocationRingBuffer<>(2);
+        LocationWindow window = new LocationWindow(history);
+        window.setCandidate(outlier);
+
+        assertEquals(0, filter.evaluate(window));
+    }
+}
@@ -0,0 +1,190 @@
+package org.trace.tracker.filter;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KalmanLocationSmootherTest {
+
+    private static final double EARTH_RADIUS = 6371 * 1000;
+
+    @Test
+    public void stationaryFixes_stayCloseToTheTruePosition() throws Exception {
+        Trace trace = Trace.generate(new Random(7), 0, 600, 1000, 10, 10);
+        KalmanLocationSmoother smoother = new KalmanLocationSmoother();
+
+        double rawError = 0, smoothedError = 0, speed = 0;
+
+        for(int i = 0; i < trace.size; i++) {
+            smoother.update(trace.latitude[i], trace.longitude[i], trace.accuracy[i], trace.time[i]);
+
+            rawError += distance(trace.latitude[i], trace.longitude[i], trace.trueLatitude[i], trace.trueLongitude[i]);
+            smoothedError += distance(smoother.getLatitude(), smoother.getLongitude(), trace.trueLatitude[i], trace.trueLongitude[i]);
+            speed += smoother.getSpeed();
+        }
+
+        assertTrue(smoothedError < rawError);
+        assertTrue(speed / trace.size < 1.5);
+    }
+
+    @Test
+    public void largeTimeGap_restartsTheFilter() throws Exception {
+        KalmanLocationSmoother smoother = new KalmanLocationSmoother(1, 1000);
+
+        smoother.update(38.7, -9.14, 10, 0);
+        smoother.update(38.71, -9.14, 10, 5000);
+
+        assertEquals(38.71, smoother.getLatitude(), 1e-9);
+        assertEquals(0, smoother.getSpeed(), 0);
+    }
+
+    @Test
+    public void walkingTrace_reducesDistanceAndPositionErrors() throws Exception {
+        //Urban walk, at 1.4 m/s, with fixes every second and accuracies between 5 and 30 meters
+        assertImprovement("walking", Trace.generate(new Random(42), 1.4, 1800, 1000, 5, 30),
+                DetectedActivity.WALKING, 0.25);
+    }
+
+    @Test
+    public void drivingTrace_reducesDistanceAndPositionErrors() throws Exception {
+        //Urban drive, at 12 m/s, with fixes every 3 seconds and accuracies between 5 and 20 meters
+        assertImprovement("driving", Trace.generate(new Random(42), 12, 1200, 3000, 5, 20),
+                DetectedActivity.IN_VEHICLE, 0.05);
+    }
+
+    @Test
+    public void processNoise_followsTheActivity() throws Exception {
+        KalmanLocationSmoother smoother = new KalmanLocationSmoother();
+
+        assertEquals(KalmanLocationSmoother.DEFAULT_PROCESS_NOISE, smoother.getProcessNoise(), 0);
+
+        smoother.update(38.7, -9.14, 10, 0);
+        smoother.setProcessNoise(KalmanLocationSmoother.getProcessNoise(DetectedActivity.ON_FOOT));
+
+        //The estimate is kept
+        assertTrue(smoother.isInitialized());
+        assertEquals(KalmanLocationSmoother.WALKING_PROCESS_NOISE, smoother.getProcessNoise(), 0);
+
+        assertTrue(KalmanLocationSmoother.getProcessNoise(DetectedActivity.WALKING)
+                < KalmanLocationSmoother.getProcessNoise(DetectedActivity.RUNNING));
+        assertTrue(KalmanLocationSmoother.getProcessNoise(DetectedActivity.RUNNING)
+                < KalmanLocationSmoother.getProcessNoise(DetectedActivity.ON_BICYCLE));
+        assertTrue(KalmanLocationSmoother.getProcessNoise(DetectedActivity.ON_BICYCLE)
+                < KalmanLocationSmoother.getProcessNoise(DetectedActivity.IN_VEHICLE));
+        assertEquals(KalmanLocationSmoother.DEFAULT_PROCESS_NOISE,
+                KalmanLocationSmoother.getProcessNoise(DetectedActivity.UNKNOWN), 0);
+    }
+
+    /**
+     * Smooths the trace with the process noise of the given activity, which must improve both the
+     * distance and position errors, and keep the travelled distance within the maximum error.
+     */
+    private static void assertImprovement(String name, Trace trace, int activity, double maxDistanceError){
+
+        KalmanLocationSmoother smoother = new KalmanLocationSmoother(
+                KalmanLocationSmoother.getProcessNoise(activity), KalmanLocationSmoother.DEFAULT_MAX_TIME_GAP);
+
+        double trueDistance = 0, rawDistance = 0, smoothedDistance = 0;
+        double rawSquaredError = 0, smoothedSquaredError = 0;
+        double previousLatitude = 0, previousLongitude = 0;
+
+        for(int i = 0; i < trace.size; i++){
+            smoother.update(trace.latitude[i], trace.longitude[i], trace.accuracy[i], trace.time[i]);
+
+            double rawError = distance(trace.latitude[i], trace.longitude[i], trace.trueLatitude[i], trace.trueLongitude[i]);
+            double smoothedError = distance(smoother.getLatitude(), smoother.getLongitude(), trace.trueLatitude[i], trace.trueLongitude[i]);
+            rawSquaredError += rawError * rawError;
+            smoothedSquaredError += smoothedError * smoothedError;
+
+            if(i > 0) {
+                trueDistance += distance(trace.trueLatitude[i - 1], trace.trueLongitude[i - 1], trace.trueLatitude[i], trace.trueLongitude[i]);
+                rawDistance += distance(trace.latitude[i - 1], trace.longitude[i - 1], trace.latitude[i], trace.longitude[i]);
+                smoothedDistance += distance(previousLatitude, previousLongitude, smoother.getLatitude(), smoother.getLongitude());
+            }
+
+            previousLatitude = smoother.getLatitude();
+            previousLongitude = smoother.getLongitude();
+        }
+
+        double rawDistanceError = Math.abs(rawDistance - trueDistance) / trueDistance,
+                smoothedDistanceError = Math.abs(smoothedDistance - trueDistance) / trueDistance,
+                rawRms = Math.sqrt(rawSquaredError / trace.size),
+                smoothedRms = Math.sqrt(smoothedSquaredError / trace.size);
+
+        String errors = String.format(
+                "Kalman smoothing (%s): distance error %.1f%% raw, %.1f%% smoothed; RMS position error %.1fm raw, %.1fm smoothed",
+                name, rawDistanceError * 100, smoothedDistanceError * 100, rawRms, smoothedRms);
+
+        assertTrue(errors, smoothedDistanceError < rawDistanceError);
+        assertTrue(errors, smoothedDistanceError < maxDistanceError);
+        assertTrue(errors, smoothedRms < rawRms);
+    }
+
+    private static double distance(double fromLat, double fromLon, double toLat, double toLon){
+        double dLat = Math.toRadians(toLat - fromLat), dLon = Math.toRadians(toLon - fromLon);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(fromLat)) * Math.cos(Math.toRadians(toLat)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(a));
+    }
+
+    /**
+     * Synthetic replay trace, made of straight segments joined by turns, along with the noisy fixes
+     * which would have been reported for it.
+     */
+    private static class Trace {
+
+        final int size;
+        final long[] time;
+        final double[] trueLatitude, trueLongitude, latitude, longitude;
+        final float[] accuracy;
+
+        Trace(int size){
+            this.size = size;
+            time = new long[size];
+            trueLatitude = new double[size];
+            trueLongitude = new double[size];
+            latitude = new double[size];
+            longitude = new double[size];
+            accuracy = new float[size];
+        }
+
+        static Trace generate(Random random, double speed, int size, long interval,
+                              float minAccuracy, float maxAccuracy){
+
+            Trace trace = new Trace(size);
+
+            double north = 0, east = 0, heading = random.nextDouble() * 2 * Math.PI;
+            double originLatitude = 38.7369, originLongitude = -9.1388;
+            double metersPerDegreeLat = Math.toRadians(EARTH_RADIUS),
+                    metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(originLatitude));
+
+            for(int i = 0; i < size; i++){
+
+                //Turn, on average, once every 30 fixes
+                if(random.nextInt(30) == 0)
+                    heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;
+
+                double dt = interval / 1000d;
+                north += speed * dt * Math.cos(heading);
+                east += speed * dt * Math.sin(heading);
+
+                //The reported accuracy is the radius of 68% confidence, i.e. about 1.5 standard deviations per axis
+                float accuracy = minAccuracy + random.nextFloat() * (maxAccuracy - minAccuracy);
+                double sigma = accuracy / 1.515;
+
+                trace.time[i] = i * interval;
+                trace.accuracy[i] = accuracy;
+                trace.trueLatitude[i] = originLatitude + north / metersPerDegreeLat;
+                trace.trueLongitude[i] = originLongitude + east / metersPerDegreeLon;
+                trace.latitude[i] = originLatitude + (north + random.nextGaussian() * sigma) / metersPerDegreeLat;
+                trace.longitude[i] = originLongitude + (east + random.nextGaussian() * sigma) / metersPerDegreeLon;
+            }
+
+            return trace;
+        }
+    }
+}
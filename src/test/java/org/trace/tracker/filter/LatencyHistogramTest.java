@@ -0,0 +1,50 @@
+package org.trace.tracker.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_areBoundedByTheirBucket() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for(int i = 1; i <= 100; i++)
+            histogram.record(i * 10);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(505, histogram.getMean(), 1e-9);
+        assertEquals(1000, histogram.getMax());
+
+        //The median, 500ns, lies in the [256, 512) bucket
+        assertEquals(512, histogram.getPercentile(0.5));
+        //The upper bound never exceeds the largest recorded latency
+        assertEquals(1000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void copy_isNotUpdated() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+
+        LatencyHistogram copy = histogram.copy();
+        histogram.record(7);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(1, copy.getCount());
+        assertEquals(5, copy.getMax());
+    }
+
+    @Test
+    public void zeroAndNegativeLatencies_fallInTheFirstBucket() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(-3);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
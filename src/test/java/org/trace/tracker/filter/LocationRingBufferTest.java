@@ -0,0 +1,203 @@
+package org.trace.tracker.filter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class LocationRingBufferTest {
+
+    @Test
+    public void offer_evictsTheOldestWhenFull() throws Exception {
+        LocationRingBuffer<Integer> buffer = new LocationRingBuffer<>(3);
+
+        assertNull(buffer.offer(1));
+        assertNull(buffer.offer(2));
+        assertNull(buffer.offer(3));
+        assertEquals(Integer.valueOf(1), buffer.offer(4));
+
+        assertEquals(3, buffer.size());
+        assertEquals(Integer.valueOf(2), buffer.get(0));
+        assertEquals(Integer.valueOf(4), buffer.get(2));
+        assertNull(buffer.get(3));
+        assertEquals(Integer.valueOf(4), buffer.peekLast());
+    }
+
+    @Test
+    public void removeLast_onlyRemovesTheExpectedElement() throws Exception {
+        LocationRingBuffer<Integer> buffer = new LocationRingBuffer<>(2);
+        Integer first = 1000, second = 2000;
+
+        buffer.offer(first);
+        buffer.offer(second);
+
+        assertFalse(buffer.removeLast(first));
+        assertTrue(buffer.removeLast(second));
+        assertEquals(first, buffer.peekLast());
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void removeFromLast_shiftsTheNewerElements() throws Exception {
+        LocationRingBuffer<Integer> buffer = new LocationRingBuffer<>(5);
+
+        //Start past the first slot, so that the shift wraps around the slots
+        for(int i = 0; i < 11; i++)
+            buffer.offer(i);
+
+        Integer retracted = buffer.getFromLast(2);
+        assertEquals(Integer.valueOf(8), retracted);
+        assertFalse(buffer.removeFromLast(1, retracted));
+        assertTrue(buffer.removeFromLast(2, retracted));
+
+        assertEquals(4, buffer.size());
+        assertEquals(Integer.valueOf(6), buffer.poll());
+        assertEquals(Integer.valueOf(7), buffer.poll());
+        assertEquals(Integer.valueOf(9), buffer.poll());
+        assertEquals(Integer.valueOf(10), buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void pollAndClear_emptyTheBuffer() throws Exception {
+        LocationRingBuffer<Integer> buffer = new LocationRingBuffer<>(5);
+
+        for(int i = 0; i < 5; i++)
+            buffer.offer(i);
+
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertEquals(4, buffer.size());
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        assertNull(buffer.peekLast());
+        assertFalse(buffer.removeLast(4));
+    }
+
+    @Test
+    public void positions_wrapAroundTheSlots() throws Exception {
+        //Non power-of-two capacity, over more elements than the packed positions can count
+        LocationRingBuffer<Integer> buffer = new LocationRingBuffer<>(3);
+
+        for(int i = 0; i < (1 << 25); i++){
+            Integer evicted = buffer.offer(i);
+
+            if(i >= 3)
+                assertEquals(i - 3, evicted.intValue());
+        }
+
+        assertEquals((1 << 25) - 3, buffer.get(0).intValue());
+        assertEquals((1 << 25) - 1, buffer.peekLast().intValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsInvalidCapacity() throws Exception {
+        new LocationRingBuffer<Integer>(0);
+    }
+
+    /**
+     * A producer offers and retracts elements, at any position, while a flusher concurrently polls
+     * them. Every element must leave the buffer exactly once, and in order.
+     */
+    @Test
+    public void concurrentProducerAndFlusher_neitherLoseNorDuplicateElements() throws Exception {
+
+        final int count = 2000000;
+        final LocationRingBuffer<Integer> buffer = new LocationRingBuffer<>(4);
+
+        final List<Integer> evicted = new ArrayList<>(), retracted = new ArrayList<>(),
+                polled = new ArrayList<>(), remaining = new ArrayList<>();
+
+        final AtomicBoolean isProducing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(42);
+                awaitStart(start);
+
+                for(int i = 0; i < count; i++){
+                    Integer element = i; //Distinct instances, as removals compare references
+                    Integer oldest = buffer.offer(element);
+
+                    if(oldest != null)
+                        evicted.add(oldest);
+
+                    //Retract either the newest element or one of the previous ones
+                    if(random.nextInt(8) == 0){
+                        int offset = random.nextInt(4);
+                        Integer previous = buffer.getFromLast(offset);
+
+                        if(previous != null && buffer.removeFromLast(offset, previous))
+                            retracted.add(previous);
+                    }
+                }
+
+                isProducing.set(false);
+            }
+        });
+
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                awaitStart(start);
+
+                while (isProducing.get()){
+                    Integer element = buffer.poll();
+
+                    if(element != null)
+                        polled.add(element);
+                }
+            }
+        });
+
+        producer.start();
+        flusher.start();
+        start.countDown();
+
+        producer.join();
+        flusher.join();
+
+        Integer element;
+        while ((element = buffer.poll()) != null)
+            remaining.add(element);
+
+        assertIncreasing(evicted);
+        assertIncreasing(polled);
+        assertIncreasing(remaining);
+
+        boolean[] seen = new boolean[count];
+        int total = 0;
+
+        for(List<Integer> elements : Arrays.asList(evicted, retracted, polled, remaining)) {
+            for (Integer e : elements) {
+                assertFalse("Element " + e + " left the buffer twice", seen[e]);
+                seen[e] = true;
+                total++;
+            }
+        }
+
+        assertEquals(count, total);
+    }
+
+    private static void awaitStart(CountDownLatch start){
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void assertIncreasing(List<Integer> elements){
+        for(int i = 1; i < elements.size(); i++)
+            assertTrue(elements.get(i - 1) < elements.get(i));
+    }
+}
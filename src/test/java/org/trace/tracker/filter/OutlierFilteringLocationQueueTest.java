@@ -0,0 +1,228 @@
+package org.trace.tracker.filter;
+
+import org.junit.Test;
+import org.trace.tracker.pipeline.LocationSink;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class OutlierFilteringLocationQueueTest {
+
+    /**
+     * Window rule whose outcome is scripted per candidate, and which records every window it saw.
+     */
+    private static class ScriptedRule implements SlidingWindowRule {
+
+        private final int mHistorySize;
+        private final Map<TraceLocation, Integer> mOutcomes = new IdentityHashMap<>();
+
+        final List<TraceLocation> candidates = new ArrayList<>();
+        final List<List<TraceLocation>> windows = new ArrayList<>();
+
+        ScriptedRule(int historySize){
+            this.mHistorySize = historySize;
+        }
+
+        ScriptedRule on(TraceLocation candidate, int outlier){
+            mOutcomes.put(candidate, outlier);
+            return this;
+        }
+
+        @Override
+        public int getHistorySize() {
+            return mHistorySize;
+        }
+
+        @Override
+        public int evaluate(LocationWindow window) {
+            candidates.add(window.getCandidate());
+
+            List<TraceLocation> locations = new ArrayList<>();
+            for(int i = 0; i < window.size(); i++)
+                locations.add(window.get(i));
+            windows.add(locations);
+
+            Integer outcome = mOutcomes.get(window.getCandidate());
+            return outcome == null ? NO_OUTLIER : outcome;
+        }
+    }
+
+    /**
+     * Heuristic rule which rejects a fixed set of locations, after spinning for the given time.
+     */
+    private static class ScriptedHeuristicRule implements HeuristicBasedFilter.HeuristicRule {
+
+        private final Set<TraceLocation> mOutliers = Collections.newSetFromMap(new IdentityHashMap<TraceLocation, Boolean>());
+        private final long mNanos;
+
+        ScriptedHeuristicRule(long nanos){
+            this.mNanos = nanos;
+        }
+
+        @Override
+        public boolean isOutlier(TraceLocation location) {
+            long until = System.nanoTime() + mNanos;
+            while (System.nanoTime() < until);
+
+            return mOutliers.contains(location);
+        }
+
+        @Override
+        public boolean isOutlier(TraceLocation location, TraceLocation previous) {
+            return isOutlier(location);
+        }
+
+        @Override
+        public boolean isOutlier(TraceLocation current, TraceLocation previous, TraceLocation earlierThan) {
+            return isOutlier(current);
+        }
+    }
+
+    private static class CollectingSink implements LocationSink {
+
+        final List<TraceLocation> locations = new ArrayList<>();
+
+        @Override
+        public void onLocation(TraceLocation location) {
+            locations.add(location);
+        }
+    }
+
+    private static OutlierFilteringLocationQueue createQueue(CollectingSink sink, SlidingWindowRule... rules){
+        String[] names = new String[rules.length];
+        for(int i = 0; i < rules.length; i++)
+            names[i] = "rule" + i;
+
+        OutlierFilteringLocationQueue queue = new OutlierFilteringLocationQueue(true, 3);
+        queue.setFilterChain(new FilterChain(rules, names));
+        queue.setAdaptiveOrdering(false);
+        queue.setNext(sink);
+        return queue;
+    }
+
+    private static TraceLocation[] createLocations(int count){
+        TraceLocation[] locations = new TraceLocation[count];
+        for(int i = 0; i < count; i++)
+            locations[i] = new TraceLocation();
+        return locations;
+    }
+
+    @Test
+    public void rules_areSkippedWhileTheHistoryIsShort() throws Exception {
+        ScriptedRule current = new ScriptedRule(0), pair = new ScriptedRule(1), triple = new ScriptedRule(2);
+        CollectingSink sink = new CollectingSink();
+        OutlierFilteringLocationQueue queue = createQueue(sink, current, pair, triple);
+
+        TraceLocation[] locations = createLocations(4);
+        for(TraceLocation location : locations)
+            queue.addLocation(location);
+
+        assertEquals(Arrays.asList(locations), current.candidates);
+        assertEquals(Arrays.asList(locations).subList(1, 4), pair.candidates);
+        assertEquals(Arrays.asList(locations).subList(2, 4), triple.candidates);
+
+        //Each rule sees the newest location first, followed by the previously accepted ones
+        assertEquals(Arrays.asList(locations[2], locations[1], locations[0]), triple.windows.get(0));
+
+        //The window holds three locations, and so only the first one has been emitted
+        assertEquals(Arrays.asList(locations[0]), sink.locations);
+    }
+
+    @Test
+    public void retraction_updatesTheWindowOfTheFollowingRules() throws Exception {
+        TraceLocation[] locations = createLocations(3);
+
+        ScriptedRule retracting = new ScriptedRule(1).on(locations[2], 1),
+                following = new ScriptedRule(1);
+
+        CollectingSink sink = new CollectingSink();
+        OutlierFilteringLocationQueue queue = createQueue(sink, retracting, following);
+
+        for(TraceLocation location : locations)
+            queue.addLocation(location);
+
+        //The second location is gone by the time the following rule evaluates the third one
+        assertEquals(Arrays.asList(locations[2], locations[0]), following.windows.get(1));
+
+        queue.clearAndStoreQueue();
+        assertEquals(Arrays.asList(locations[0], locations[2]), sink.locations);
+
+        FilterMetrics metrics = queue.getMetrics();
+        assertEquals(3, metrics.getAcceptedCount());
+        assertEquals(1, metrics.getRetractedCount());
+        assertEquals(0, metrics.getRejectedCount());
+    }
+
+    @Test
+    public void rejection_skipsTheRemainingRules() throws Exception {
+        TraceLocation[] locations = createLocations(3);
+
+        ScriptedRule rejecting = new ScriptedRule(0).on(locations[1], 0),
+                following = new ScriptedRule(0);
+
+        CollectingSink sink = new CollectingSink();
+        OutlierFilteringLocationQueue queue = createQueue(sink, rejecting, following);
+
+        for(TraceLocation location : locations)
+            queue.addLocation(location);
+
+        assertEquals(Arrays.asList(locations), rejecting.candidates);
+        assertEquals(Arrays.asList(locations[0], locations[2]), following.candidates);
+
+        //The rejected location never enters the window
+        assertEquals(Arrays.asList(locations[2], locations[0]), following.windows.get(1));
+
+        queue.clearAndStoreQueue();
+        assertEquals(Arrays.asList(locations[0], locations[2]), sink.locations);
+
+        FilterMetrics metrics = queue.getMetrics();
+        assertEquals(1, metrics.getRejectedCount());
+        assertEquals(1, metrics.getRuleMetrics().get(0).getRejectedCount());
+        assertEquals(2, metrics.getRuleMetrics().get(1).getEvaluatedCount());
+    }
+
+    @Test
+    public void adaptiveOrder_doesNotDependOnTheRulesTimings() throws Exception {
+        TraceLocation[] locations = createLocations(1000);
+
+        ScriptedHeuristicRule selective = new ScriptedHeuristicRule(0),
+                slowSelective = new ScriptedHeuristicRule(20000);
+
+        //The second rule rejects every third location
+        for(int i = 0; i < locations.length; i += 3) {
+            selective.mOutliers.add(locations[i]);
+            slowSelective.mOutliers.add(locations[i]);
+        }
+
+        OutlierFilteringLocationQueue fast = createQueue(new CollectingSink(),
+                        new HeuristicWindowRule(new ScriptedHeuristicRule(0), 0, 0), new HeuristicWindowRule(selective, 0, 0)),
+                slow = createQueue(new CollectingSink(),
+                        new HeuristicWindowRule(new ScriptedHeuristicRule(0), 0, 0), new HeuristicWindowRule(slowSelective, 0, 0));
+
+        fast.setAdaptiveOrdering(true);
+        slow.setAdaptiveOrdering(true);
+
+        for(TraceLocation location : locations) {
+            fast.addLocation(location);
+            slow.addLocation(location);
+        }
+
+        List<RuleMetrics> fastMetrics = fast.getMetrics().getRuleMetrics(),
+                slowMetrics = slow.getMetrics().getRuleMetrics();
+
+        //The selective rule moved first, which spares the permissive rule the rejected locations
+        assertTrue(fastMetrics.get(0).getEvaluatedCount() < locations.length);
+
+        //Regardless of how long the selective rule takes to evaluate
+        for(int i = 0; i < fastMetrics.size(); i++)
+            assertEquals(fastMetrics.get(i).getEvaluatedCount(), slowMetrics.get(i).getEvaluatedCount());
+    }
+}
@@ -0,0 +1,86 @@
+package org.trace.tracker.filter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StayPointDetectorTest {
+
+    private static final double EARTH_RADIUS = 6371 * 1000;
+    private static final double ORIGIN_LATITUDE = 38.7369, ORIGIN_LONGITUDE = -9.1388;
+
+    private static final double METERS_PER_DEGREE_LAT = Math.toRadians(EARTH_RADIUS),
+            METERS_PER_DEGREE_LON = METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(ORIGIN_LATITUDE));
+
+    @Test
+    public void stationaryJitter_becomesAStayPoint() throws Exception {
+        Random random = new Random(7);
+        StayPointDetector detector = new StayPointDetector();
+
+        //10 minutes on a desk, with fixes every 5 seconds wandering within 20 meters
+        for(int i = 0; i < 120; i++){
+            double north = random.nextGaussian() * 8, east = random.nextGaussian() * 8;
+
+            if(!detector.isEmpty())
+                assertTrue(detector.isWithin(latitude(north), longitude(east)));
+
+            detector.add(latitude(north), longitude(east), 10 + random.nextFloat() * 10, i * 5000);
+        }
+
+        assertTrue(detector.isStay());
+        assertEquals(120, detector.getCount());
+        assertEquals(0, detector.getStartTime());
+        assertEquals(119 * 5000, detector.getEndTime());
+
+        //The centroid is much closer to the true position than any single fix
+        double north = (detector.getLatitude() - ORIGIN_LATITUDE) * METERS_PER_DEGREE_LAT,
+                east = (detector.getLongitude() - ORIGIN_LONGITUDE) * METERS_PER_DEGREE_LON;
+
+        assertTrue(Math.sqrt(north * north + east * east) < 3);
+    }
+
+    @Test
+    public void shortStop_isNotAStayPoint() throws Exception {
+        StayPointDetector detector = new StayPointDetector(50, 180000);
+
+        for(int i = 0; i < 12; i++)
+            detector.add(latitude(i), longitude(0), 10, i * 5000);
+
+        assertFalse(detector.isStay());
+
+        detector.reset();
+        assertTrue(detector.isEmpty());
+        assertFalse(detector.isWithin(latitude(0), longitude(0)));
+    }
+
+    @Test
+    public void movingFixes_leaveTheRadius() throws Exception {
+        StayPointDetector detector = new StayPointDetector(50, 180000);
+        int clusters = 0;
+
+        //Driving at 12 m/s, with fixes every 5 seconds, i.e. 60 meters apart
+        for(int i = 0; i < 100; i++){
+            double north = i * 60;
+
+            if(!detector.isWithin(latitude(north), longitude(0))) {
+                detector.reset();
+                clusters++;
+            }
+
+            detector.add(latitude(north), longitude(0), 10, i * 5000);
+            assertFalse(detector.isStay());
+        }
+
+        assertEquals(100, clusters);
+    }
+
+    private static double latitude(double north){
+        return ORIGIN_LATITUDE + north / METERS_PER_DEGREE_LAT;
+    }
+
+    private static double longitude(double east){
+        return ORIGIN_LONGITUDE + east / METERS_PER_DEGREE_LON;
+    }
+}
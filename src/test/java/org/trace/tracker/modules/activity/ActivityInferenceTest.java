@@ -0,0 +1,130 @@
+package org.trace.tracker.modules.activity;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ActivityInferenceTest {
+
+    private static final int[] NOISE = {
+            DetectedActivity.IN_VEHICLE,
+            DetectedActivity.ON_BICYCLE,
+            DetectedActivity.WALKING,
+            DetectedActivity.STILL,
+            DetectedActivity.TILTING
+    };
+
+    /**
+     * Simulates an activity recognition update, where the top activity is wrong with the given
+     * probability, in which case the true activity is reported second.
+     * @return The reported types, followed by their confidences.
+     */
+    private static int[][] sample(Random random, int activity, float errorRate){
+
+        int top = activity, topConfidence = 60 + random.nextInt(35);
+
+        if(random.nextFloat() < errorRate)
+            do top = NOISE[random.nextInt(NOISE.length)]; while (top == activity);
+
+        int[] types = top == activity
+                ? new int[]{ activity, DetectedActivity.UNKNOWN }
+                : new int[]{ top, activity };
+
+        return new int[][]{ types, { topConfidence, 100 - topConfidence } };
+    }
+
+    @Test
+    public void consistentUpdates_areAdopted() throws Exception {
+        ActivityInference inference = new ActivityInference();
+
+        assertEquals(DetectedActivity.UNKNOWN, inference.getActivity());
+
+        assertTrue(inference.onActivities(
+                new int[]{ DetectedActivity.IN_VEHICLE, DetectedActivity.STILL },
+                new int[]{ 90, 10 }, 0));
+
+        assertEquals(DetectedActivity.IN_VEHICLE, inference.getActivity());
+        assertTrue(inference.getConfidence() >= 75);
+    }
+
+    @Test
+    public void onFoot_isWalkingUnlessTheGaitIsReported() throws Exception {
+        ActivityInference inference = new ActivityInference();
+
+        inference.onActivities(new int[]{ DetectedActivity.ON_FOOT }, new int[]{ 95 }, 0);
+        assertEquals(DetectedActivity.WALKING, inference.getActivity());
+
+        inference.reset();
+
+        for(long time = 0; time < 30000; time += 3000)
+            inference.onActivities(
+                    new int[]{ DetectedActivity.ON_FOOT, DetectedActivity.RUNNING },
+                    new int[]{ 95, 95 }, time);
+
+        assertEquals(DetectedActivity.RUNNING, inference.getActivity());
+    }
+
+    @Test
+    public void uninformativeUpdates_changeNothing() throws Exception {
+        ActivityInference inference = new ActivityInference();
+
+        inference.onActivities(new int[]{ DetectedActivity.STILL }, new int[]{ 100 }, 0);
+
+        assertFalse(inference.onActivities(
+                new int[]{ DetectedActivity.TILTING, DetectedActivity.UNKNOWN },
+                new int[]{ 80, 20 }, 3000));
+
+        assertEquals(DetectedActivity.STILL, inference.getActivity());
+    }
+
+    @Test
+    public void noisyTrip_yieldsStableSegments() throws Exception {
+
+        //Walk 5min, drive 20min, walk 3min and sit 30min, with an update every 3s, 20% of them wrong
+        int[] activities = { DetectedActivity.WALKING, DetectedActivity.IN_VEHICLE, DetectedActivity.WALKING, DetectedActivity.STILL };
+        long[] durations = { 300000, 1200000, 180000, 1800000 };
+
+        ActivityInference inference = new ActivityInference();
+        Random random = new Random(11);
+
+        int rawSwitches = 0, previousTop = -1, wrongUpdates = 0, updates = 0;
+        long time = 0, maximumLag = 0;
+
+        for(int segment = 0; segment < activities.length; segment++) {
+
+            long start = time, lag = -1;
+
+            for (long end = time + durations[segment]; time < end; time += 3000, updates++) {
+
+                int[][] update = sample(random, activities[segment], 0.2f);
+                inference.onActivities(update[0], update[1], time);
+
+                //The raw top activity, which is what used to be stored with each location
+                if(previousTop >= 0 && update[0][0] != previousTop) rawSwitches++;
+                previousTop = update[0][0];
+
+                if(inference.getActivity() != activities[segment])
+                    wrongUpdates++;
+                else if(lag < 0)
+                    lag = time - start;
+            }
+
+            assertEquals(activities[segment], inference.getActivity());
+            maximumLag = Math.max(maximumLag, lag);
+        }
+
+        String summary = String.format(
+                "Activity inference: %d raw switches, %d inferred switches, %d of %d updates mislabelled, %ds maximum lag",
+                rawSwitches, inference.getSwitchCount(), wrongUpdates, updates, maximumLag / 1000);
+
+        //One switch per segment, including the first activity
+        assertEquals(summary, activities.length, inference.getSwitchCount());
+        assertTrue(summary, rawSwitches > 100);
+        assertTrue(summary, maximumLag <= 15000);
+        assertTrue(summary, wrongUpdates < updates / 50);
+    }
+}
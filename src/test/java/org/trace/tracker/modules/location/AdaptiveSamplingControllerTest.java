@@ -0,0 +1,191 @@
+package org.trace.tracker.modules.location;
+
+import com.google.android.gms.location.DetectedActivity;
+import com.google.android.gms.location.LocationRequest;
+
+import org.junit.Test;
+import org.trace.tracker.modules.location.AdaptiveSamplingController.SamplingMode;
+import org.trace.tracker.modules.location.AdaptiveSamplingController.SamplingParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSamplingControllerTest {
+
+    //The default tracking profile: 3.5s interval, 1.5s fastest interval, high accuracy, 2m displacement
+    private static final SamplingParameters PROFILE =
+            new SamplingParameters(3500, 1500, LocationRequest.PRIORITY_HIGH_ACCURACY, 2);
+
+    @Test
+    public void sustainedStillness_downgradesAfterTheDelay() throws Exception {
+        AdaptiveSamplingController controller = new AdaptiveSamplingController(PROFILE);
+
+        assertEquals(SamplingMode.DRIVING, controller.getMode());
+
+        for(long time = 0; time < AdaptiveSamplingController.DEFAULT_DOWNGRADE_DELAY; time += 3000) {
+            assertFalse(controller.onActivity(DetectedActivity.STILL, time));
+            assertEquals(SamplingMode.DRIVING, controller.getMode());
+        }
+
+        assertTrue(controller.onActivity(DetectedActivity.STILL, AdaptiveSamplingController.DEFAULT_DOWNGRADE_DELAY));
+        assertEquals(SamplingMode.STILL, controller.getMode());
+        assertEquals(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, controller.getParameters().getPriority());
+
+        //Moving again is picked up much faster
+        long start = AdaptiveSamplingController.DEFAULT_DOWNGRADE_DELAY + 3000;
+        controller.onActivity(DetectedActivity.IN_VEHICLE, start);
+        assertTrue(controller.onActivity(DetectedActivity.IN_VEHICLE, start + AdaptiveSamplingController.DEFAULT_UPGRADE_DELAY));
+        assertEquals(SamplingMode.DRIVING, controller.getMode());
+        assertSame(PROFILE, controller.getParameters());
+    }
+
+    @Test
+    public void speedAroundAThreshold_doesNotThrash() throws Exception {
+        AdaptiveSamplingController controller = new AdaptiveSamplingController(PROFILE);
+        Random random = new Random(3);
+
+        //Slow urban driving, between 6 and 8 m/s, right around the driving threshold, for 30 minutes
+        for(long time = 0; time < 30 * 60000; time += 3500)
+            controller.onLocation(6 + 2 * random.nextFloat(), time);
+
+        assertEquals(SamplingMode.DRIVING, controller.getMode());
+        assertEquals(0, controller.getSwitchCount());
+    }
+
+    @Test
+    public void shortStops_keepTheCurrentMode() throws Exception {
+        AdaptiveSamplingController controller = new AdaptiveSamplingController(PROFILE);
+
+        //Traffic lights: 40s driving followed by 30s stopped, without activity recognition
+        for(long time = 0; time < 20 * 60000; time += 1000)
+            controller.onLocation(time % 70000 < 40000 ? 12 : 0, time);
+
+        assertEquals(0, controller.getSwitchCount());
+    }
+
+    @Test
+    public void replay_reducesFixesAndGpsTimePerKilometre() throws Exception {
+
+        List<Segment> trip = new ArrayList<>();
+        trip.add(new Segment(600, 1.4f, DetectedActivity.WALKING));     //Walk to the car
+        trip.add(new Segment(900, 0, DetectedActivity.STILL));          //Coffee
+        for(int i = 0; i < 12; i++) {                                   //Urban drive, with traffic lights
+            trip.add(new Segment(70, 13, DetectedActivity.IN_VEHICLE));
+            trip.add(new Segment(30, 0, DetectedActivity.IN_VEHICLE));
+        }
+        trip.add(new Segment(300, 1.4f, DetectedActivity.WALKING));     //Walk to the office
+        trip.add(new Segment(1800, 0, DetectedActivity.STILL));         //Desk
+
+        Replay fixed = Replay.run(trip, null, new Random(42));
+        Replay adaptive = Replay.run(trip, new AdaptiveSamplingController(PROFILE), new Random(42));
+
+        String summary = String.format(
+                "Adaptive sampling over %.1fkm: %.0f fixes/km and %.0fs GPS/km fixed, %.0f fixes/km and %.0fs GPS/km adaptive, %d mode switches",
+                fixed.kilometres,
+                fixed.fixes / fixed.kilometres, fixed.gpsSeconds / fixed.kilometres,
+                adaptive.fixes / adaptive.kilometres, adaptive.gpsSeconds / adaptive.kilometres,
+                adaptive.switches);
+
+        assertTrue(summary, adaptive.fixes < fixed.fixes / 2);
+        assertTrue(summary, adaptive.gpsSeconds < fixed.gpsSeconds * 0.8);
+        assertTrue(summary, adaptive.switches <= 10);
+
+        //Moving segments are still sampled densely enough to follow the streets
+        assertTrue("Largest gap of " + adaptive.maxGap + "m", adaptive.maxGap < 200);
+    }
+
+    @Test
+    public void equalParameters_identifyUnchangedSettings() throws Exception {
+        SamplingParameters same = new SamplingParameters(3500, 1500, LocationRequest.PRIORITY_HIGH_ACCURACY, 2);
+
+        assertEquals(PROFILE, same);
+        assertEquals(PROFILE.hashCode(), same.hashCode());
+        assertNotEquals(PROFILE, new SamplingParameters(5000, 1500, LocationRequest.PRIORITY_HIGH_ACCURACY, 2));
+        assertNotEquals(PROFILE, new SamplingParameters(3500, 1500, LocationRequest.PRIORITY_HIGH_ACCURACY, 5));
+    }
+
+    private static class Segment {
+
+        final int duration;     //seconds
+        final float speed;      //m/s
+        final int activity;
+
+        Segment(int duration, float speed, int activity){
+            this.duration = duration;
+            this.speed = speed;
+            this.activity = activity;
+        }
+    }
+
+    //Activities reported by the simulated activity recognition when it is wrong
+    private static final int[] MISDETECTED_ACTIVITIES = {
+            DetectedActivity.STILL, DetectedActivity.UNKNOWN, DetectedActivity.TILTING, DetectedActivity.ON_FOOT
+    };
+
+    /**
+     * Replays a trip, second by second, through a simulated fused location provider, which
+     * delivers a fix whenever both the request's interval and smallest displacement have elapsed,
+     * and through a simulated activity recognition, which reports an activity every 3 seconds.
+     */
+    private static class Replay {
+
+        int fixes = 0, switches = 0;
+        double kilometres = 0, gpsSeconds = 0, maxGap = 0;
+
+        static Replay run(List<Segment> trip, AdaptiveSamplingController controller, Random random){
+
+            Replay replay = new Replay();
+            SamplingParameters parameters = controller == null ? PROFILE : controller.getParameters();
+
+            double position = 0, lastFix = Double.NaN, lastTruePosition = 0;
+            long lastFixTime = Long.MIN_VALUE / 2, time = 0;
+
+            for(Segment segment : trip){
+                for(int second = 0; second < segment.duration; second++, time += 1000){
+
+                    position += segment.speed;
+
+                    boolean isGps = parameters.getPriority() == LocationRequest.PRIORITY_HIGH_ACCURACY;
+                    if(isGps) replay.gpsSeconds++;
+
+                    //Activity recognition, which is wrong 15% of the time
+                    if(controller != null && time % 3000 == 0){
+                        int activity = random.nextFloat() < 0.85f
+                                ? segment.activity
+                                : MISDETECTED_ACTIVITIES[random.nextInt(MISDETECTED_ACTIVITIES.length)];
+
+                        if(controller.onActivity(activity, time))
+                            parameters = controller.getParameters();
+                    }
+
+                    if(time - lastFixTime < parameters.getInterval())
+                        continue;
+
+                    double reported = position + random.nextGaussian() * (isGps ? 5 : 20);
+
+                    if(!Double.isNaN(lastFix) && Math.abs(reported - lastFix) < parameters.getDisplacement())
+                        continue;
+
+                    replay.fixes++;
+                    replay.maxGap = Math.max(replay.maxGap, position - lastTruePosition);
+                    lastFix = reported;
+                    lastFixTime = time;
+                    lastTruePosition = position;
+
+                    float speed = Math.max(0, segment.speed + (float) random.nextGaussian() * 0.3f);
+
+                    if(controller != null && controller.onLocation(speed, time))
+                        parameters = controller.getParameters();
+                }
+            }
+
+            replay.kilometres = position / 1000;
+            replay.switches = controller == null ? 0 : controller.getSwitchCount();
+
+            return replay;
+        }
+    }
+}
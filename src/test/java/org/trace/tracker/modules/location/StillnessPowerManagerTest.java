@@ -0,0 +1,102 @@
+package org.trace.tracker.modules.location;
+
+import com.google.android.gms.location.DetectedActivity;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StillnessPowerManagerTest {
+
+    private static final long TIMEOUT = StillnessPowerManager.DEFAULT_STILL_TIMEOUT;
+
+    @Test
+    public void sustainedStillness_savesPowerAfterTheTimeout() throws Exception {
+        StillnessPowerManager manager = new StillnessPowerManager(TIMEOUT, true);
+
+        for(long time = 0; time < TIMEOUT; time += 3000) {
+            assertFalse(manager.onActivity(DetectedActivity.STILL, time));
+            assertFalse(manager.isPowerSaving());
+        }
+
+        assertTrue(manager.onActivity(DetectedActivity.STILL, TIMEOUT));
+        assertTrue(manager.isPowerSaving());
+
+        //Further still reports change nothing
+        assertFalse(manager.onActivity(DetectedActivity.STILL, TIMEOUT + 3000));
+        assertEquals(1, manager.getPowerSavingCount());
+    }
+
+    @Test
+    public void movement_resumesImmediately() throws Exception {
+        StillnessPowerManager manager = new StillnessPowerManager(TIMEOUT, true);
+
+        manager.onActivity(DetectedActivity.STILL, 0);
+        manager.onActivity(DetectedActivity.STILL, TIMEOUT);
+        assertTrue(manager.isPowerSaving());
+
+        //Neither tilting nor unknown activities count as movement
+        assertFalse(manager.onActivity(DetectedActivity.TILTING, TIMEOUT + 60000));
+        assertFalse(manager.onActivity(DetectedActivity.UNKNOWN, TIMEOUT + 63000));
+        assertTrue(manager.isPowerSaving());
+
+        assertTrue(manager.onActivity(DetectedActivity.WALKING, TIMEOUT + 120000));
+        assertFalse(manager.isPowerSaving());
+        assertEquals(120000, manager.getPowerSavingTime(TIMEOUT + 500000));
+    }
+
+    @Test
+    public void shortStops_neverSavePower() throws Exception {
+        StillnessPowerManager manager = new StillnessPowerManager(TIMEOUT, false);
+
+        //Stop-and-go traffic: 2min driving followed by 2min stopped, for an hour
+        for(long time = 0; time < 3600000; time += 3000)
+            assertFalse(manager.onActivity(time % 240000 < 120000 ? DetectedActivity.IN_VEHICLE : DetectedActivity.STILL, time));
+
+        assertEquals(0, manager.getPowerSavingCount());
+    }
+
+    @Test
+    public void officeDay_pausesMostOfTheDesk() throws Exception {
+        StillnessPowerManager manager = new StillnessPowerManager(TIMEOUT, true);
+        Random random = new Random(7);
+
+        long time = 0;
+
+        //Commute on foot, 20min
+        for(; time < 1200000; time += 3000)
+            manager.onActivity(DetectedActivity.WALKING, time);
+
+        //Desk, 4h, where the phone is sometimes tilted or the activity unknown
+        long desk = 4 * 3600000;
+        for(long end = time + desk; time < end; time += 3000) {
+            float noise = random.nextFloat();
+            manager.onActivity(noise < 0.03f
+                    ? DetectedActivity.TILTING
+                    : noise < 0.06f ? DetectedActivity.UNKNOWN : DetectedActivity.STILL, time);
+        }
+
+        assertTrue(manager.isPowerSaving());
+
+        //Walking home resumes the location updates, in the same track
+        assertTrue(manager.onActivity(DetectedActivity.WALKING, time));
+
+        assertEquals(1, manager.getPowerSavingCount());
+        assertEquals(desk - TIMEOUT, manager.getPowerSavingTime(time));
+    }
+
+    @Test
+    public void reset_endsThePowerSaving() throws Exception {
+        StillnessPowerManager manager = new StillnessPowerManager(0, true);
+
+        assertTrue(manager.onActivity(DetectedActivity.STILL, 0));
+
+        manager.reset();
+
+        assertFalse(manager.isPowerSaving());
+        assertEquals(0, manager.getPowerSavingTime(1000));
+        assertEquals(0, manager.getPowerSavingCount());
+    }
+}
@@ -0,0 +1,62 @@
+package org.trace.tracker.settings;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+import org.trace.tracker.storage.BufferedTrackWriter;
+
+import static org.junit.Assert.*;
+
+public class ConfigurationProfileTest {
+
+    private static JsonObject getLocationProfile(JsonObject profile){
+        return profile.getAsJsonObject(ConfigurationProfile.Constants.LOCATION);
+    }
+
+    @Test
+    public void storageSettings_roundTripThroughJson() throws Exception {
+        ConfigurationProfile profile = new ConfigurationProfile();
+        profile.setStorageQueueCapacity(500);
+        profile.setStorageOverflowPolicy(BufferedTrackWriter.OverflowPolicy.DROP_OLDEST);
+
+        ConfigurationProfile loaded = new ConfigurationProfile(profile.getJsonTrackingProfile());
+
+        assertEquals(500, loaded.getStorageQueueCapacity());
+        assertEquals(BufferedTrackWriter.OverflowPolicy.DROP_OLDEST, loaded.getStorageOverflowPolicy());
+    }
+
+    @Test
+    public void capacityWithoutPolicy_keepsTheDefaultPolicy() throws Exception {
+        JsonObject json = new ConfigurationProfile().getJsonTrackingProfile();
+        getLocationProfile(json).addProperty(ConfigurationProfile.Constants.STORAGE_QUEUE_CAPACITY, 500);
+        getLocationProfile(json).remove(ConfigurationProfile.Constants.STORAGE_OVERFLOW_POLICY);
+
+        ConfigurationProfile loaded = new ConfigurationProfile(json);
+
+        assertEquals(500, loaded.getStorageQueueCapacity());
+        assertEquals(BufferedTrackWriter.DEFAULT_OVERFLOW_POLICY, loaded.getStorageOverflowPolicy());
+    }
+
+    @Test
+    public void unknownPolicy_fallsBackToTheDefault() throws Exception {
+        JsonObject json = new ConfigurationProfile().getJsonTrackingProfile();
+        getLocationProfile(json).addProperty(ConfigurationProfile.Constants.STORAGE_OVERFLOW_POLICY, "DROP_EVERYTHING");
+
+        assertEquals(BufferedTrackWriter.DEFAULT_OVERFLOW_POLICY,
+                new ConfigurationProfile(json).getStorageOverflowPolicy());
+    }
+
+    @Test
+    public void capacityBelowTheBatchSize_isRaisedToIt() throws Exception {
+        ConfigurationProfile profile = new ConfigurationProfile();
+        profile.setStorageQueueCapacity(1);
+
+        assertEquals(BufferedTrackWriter.DEFAULT_MAX_BATCH_SIZE, profile.getStorageQueueCapacity());
+
+        JsonObject json = new ConfigurationProfile().getJsonTrackingProfile();
+        getLocationProfile(json).addProperty(ConfigurationProfile.Constants.STORAGE_QUEUE_CAPACITY, 0);
+
+        assertEquals(BufferedTrackWriter.DEFAULT_MAX_BATCH_SIZE,
+                new ConfigurationProfile(json).getStorageQueueCapacity());
+    }
+}
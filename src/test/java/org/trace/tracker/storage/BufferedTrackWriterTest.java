@@ -0,0 +1,283 @@
+package org.trace.tracker.storage;
+
+import org.junit.Test;
+import org.trace.tracker.storage.data.TraceLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BufferedTrackWriterTest {
+
+    private static final String SESSION = "session";
+
+    /**
+     * Records every stored batch. When stalled, the gate holds the writer thread inside the first
+     * batch, as if the disk had stalled, until it is opened.
+     */
+    private static class StubStorage implements BufferedTrackWriter.BatchStorage {
+
+        final List<TraceLocation> stored = Collections.synchronizedList(new ArrayList<TraceLocation>());
+        final List<Long> storedAt = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate;
+        volatile long stallTime = 0;
+
+        StubStorage(boolean isStalled){
+            gate = new CountDownLatch(isStalled ? 1 : 0);
+        }
+
+        @Override
+        public void storeLocations(List<TraceLocation> locations, String session, boolean isRemote, double travelledDistance) {
+
+            assertEquals(SESSION, session);
+
+            entered.countDown();
+
+            try {
+                gate.await();
+                Thread.sleep(stallTime);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+
+            long time = System.nanoTime();
+            for(TraceLocation location : locations) {
+                stored.add(location);
+                storedAt.add(time);
+            }
+
+            stallTime = 0;
+        }
+    }
+
+    private static List<TraceLocation> createLocations(int count){
+        List<TraceLocation> locations = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+            locations.add(new TraceLocation());
+        return locations;
+    }
+
+    private static void assertStored(List<TraceLocation> expected, StubStorage storage){
+        assertEquals(expected.size(), storage.stored.size());
+        for(int i = 0; i < expected.size(); i++)
+            assertSame("Location "+i, expected.get(i), storage.stored.get(i));
+    }
+
+    /**
+     * Appends a full batch, which the writer thread takes and stalls on, and then fills the queue.
+     */
+    private static List<TraceLocation> fillWhileStalled(BufferedTrackWriter writer, StubStorage storage, int capacity)
+            throws InterruptedException {
+
+        List<TraceLocation> locations = createLocations(2 * capacity);
+
+        for(int i = 0; i < capacity; i++)
+            writer.append(locations.get(i), i);
+
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+
+        for(int i = capacity; i < locations.size(); i++)
+            writer.append(locations.get(i), i);
+
+        assertEquals(capacity, writer.getQueueDepth());
+        return locations;
+    }
+
+    @Test
+    public void block_waitsForRoomAndLosesNothing() throws Exception {
+        StubStorage storage = new StubStorage(true);
+        final BufferedTrackWriter writer = new BufferedTrackWriter(storage, SESSION, true,
+                5, 60000, 5, BufferedTrackWriter.OverflowPolicy.BLOCK);
+
+        final List<TraceLocation> locations = fillWhileStalled(writer, storage, 5);
+        final TraceLocation last = new TraceLocation();
+        locations.add(last);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writer.append(last, 10);
+            }
+        });
+        producer.start();
+
+        producer.join(200);
+        assertTrue("The producer should wait while the queue is full", producer.isAlive());
+        assertEquals(1, writer.getBlockedCount());
+
+        storage.gate.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+
+        writer.close();
+
+        assertStored(locations, storage);
+        TrackWriterMetrics metrics = writer.getMetrics();
+        assertEquals(11, metrics.getStoredCount());
+        assertEquals(5, metrics.getMaxQueueDepth());
+        assertEquals(0, metrics.getDroppedCount() + metrics.getCoalescedCount());
+    }
+
+    @Test
+    public void coalesce_replacesTheNewestLocation() throws Exception {
+        StubStorage storage = new StubStorage(true);
+        BufferedTrackWriter writer = new BufferedTrackWriter(storage, SESSION, true,
+                5, 60000, 5, BufferedTrackWriter.OverflowPolicy.COALESCE);
+
+        List<TraceLocation> locations = fillWhileStalled(writer, storage, 5);
+
+        TraceLocation first = new TraceLocation(), second = new TraceLocation();
+        writer.append(first, 10);
+        writer.append(second, 11);
+
+        storage.gate.countDown();
+        writer.close();
+
+        List<TraceLocation> expected = new ArrayList<>(locations.subList(0, 9));
+        expected.add(second);
+
+        assertStored(expected, storage);
+        assertEquals(2, writer.getCoalescedCount());
+        assertEquals(0, writer.getBlockedCount());
+    }
+
+    @Test
+    public void dropOldest_discardsTheOldestQueuedLocation() throws Exception {
+        StubStorage storage = new StubStorage(true);
+        BufferedTrackWriter writer = new BufferedTrackWriter(storage, SESSION, true,
+                5, 60000, 5, BufferedTrackWriter.OverflowPolicy.DROP_OLDEST);
+
+        List<TraceLocation> locations = fillWhileStalled(writer, storage, 5);
+
+        TraceLocation first = new TraceLocation(), second = new TraceLocation();
+        writer.append(first, 10);
+        writer.append(second, 11);
+
+        storage.gate.countDown();
+        writer.close();
+
+        List<TraceLocation> expected = new ArrayList<>(locations.subList(0, 5));
+        expected.addAll(locations.subList(7, 10));
+        expected.add(first);
+        expected.add(second);
+
+        assertStored(expected, storage);
+        assertEquals(2, writer.getDroppedCount());
+        assertEquals(0, writer.getBlockedCount());
+    }
+
+    @Test
+    public void concurrentProducers_keepTheirOrder() throws Exception {
+        final int producers = 4, perProducer = 2000;
+
+        StubStorage storage = new StubStorage(false);
+        final BufferedTrackWriter writer = new BufferedTrackWriter(storage, SESSION, true,
+                10, 60000, 50, BufferedTrackWriter.OverflowPolicy.BLOCK);
+
+        final List<List<TraceLocation>> appended = new ArrayList<>();
+        Thread[] threads = new Thread[producers];
+
+        for(int p = 0; p < producers; p++) {
+            final List<TraceLocation> locations = createLocations(perProducer);
+            appended.add(locations);
+
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < locations.size(); i++)
+                        writer.append(locations.get(i), i);
+                }
+            });
+        }
+
+        for(Thread thread : threads) thread.start();
+        for(Thread thread : threads) thread.join();
+
+        writer.close();
+
+        assertEquals(producers * perProducer, storage.stored.size());
+        assertEquals(producers * perProducer, writer.getStoredCount());
+        assertTrue(writer.getMaxQueueDepth() <= 50);
+
+        //Every location is stored once, after the ones appended before it by the same producer
+        Map<TraceLocation, Integer> positions = new IdentityHashMap<>();
+        for(int i = 0; i < storage.stored.size(); i++)
+            assertNull(positions.put(storage.stored.get(i), i));
+
+        for(List<TraceLocation> locations : appended)
+            for(int i = 1; i < locations.size(); i++)
+                assertTrue(positions.get(locations.get(i - 1)) < positions.get(locations.get(i)));
+    }
+
+    @Test
+    public void flushAndClose_storeEveryQueuedLocation() throws Exception {
+        StubStorage storage = new StubStorage(false);
+        BufferedTrackWriter writer = new BufferedTrackWriter(storage, SESSION, true,
+                100, 3600000, 100, BufferedTrackWriter.OverflowPolicy.BLOCK);
+
+        List<TraceLocation> locations = createLocations(5);
+
+        for(int i = 0; i < 3; i++)
+            writer.append(locations.get(i), i);
+
+        //Neither the batch is full nor the flush delay has elapsed
+        writer.flush();
+        assertStored(locations.subList(0, 3), storage);
+
+        for(int i = 3; i < 5; i++)
+            writer.append(locations.get(i), i);
+
+        writer.close();
+        assertStored(locations, storage);
+        assertEquals(0, writer.getQueueDepth());
+
+        try {
+            writer.append(new TraceLocation(), 0);
+            fail("A closed writer should not accept locations");
+        }catch (IllegalStateException e){
+            //Expected
+        }
+    }
+
+    @Test
+    public void flushDelay_countsFromWhenTheLocationWasQueued() throws Exception {
+        final long delay = 300, stall = 250;
+
+        StubStorage storage = new StubStorage(false);
+        storage.stallTime = stall;
+
+        BufferedTrackWriter writer = new BufferedTrackWriter(storage, SESSION, true,
+                5, delay, 50, BufferedTrackWriter.OverflowPolicy.BLOCK);
+
+        //A full batch, which stalls, while a full batch and one more location are queued
+        List<TraceLocation> locations = createLocations(11);
+        long start = System.nanoTime();
+
+        for(int i = 0; i < 5; i++)
+            writer.append(locations.get(i), i);
+
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+
+        for(int i = 5; i < 11; i++)
+            writer.append(locations.get(i), i);
+
+        //The last location is due once it has been queued for the flush delay, not once the
+        //batch ahead of it has been taken
+        while (storage.stored.size() < 11 && (System.nanoTime() - start) / 1000000 < 5000)
+            Thread.sleep(5);
+
+        assertStored(locations, storage);
+
+        long lastStored = (storage.storedAt.get(10) - start) / 1000000;
+        assertTrue("Stored after "+lastStored+"ms", lastStored < stall + delay - 100);
+
+        writer.close();
+    }
+}
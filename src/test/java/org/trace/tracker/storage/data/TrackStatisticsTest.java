@@ -0,0 +1,73 @@
+package org.trace.tracker.storage.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrackStatisticsTest {
+
+    @Test
+    public void updates_accumulateDistanceAndMovingTime() throws Exception {
+        TrackStatistics statistics = new TrackStatistics();
+
+        //The first location has no previous one, and so neither distance nor time count
+        statistics.update(100, 5000, 2);
+        statistics.update(10, 5000, 2);
+        statistics.update(20, 5000, 4);
+        //Below the moving threshold
+        statistics.update(1, 5000, 0.2f);
+        //Received out of order
+        statistics.update(5, -1000, 3);
+
+        assertEquals(5, statistics.getCount());
+        assertEquals(36, statistics.getDistance(), 1e-9);
+        assertEquals(10000, statistics.getMovingTime());
+        assertEquals(4, statistics.getTopSpeed(), 0);
+        assertEquals(11.2 / 5, statistics.getAverageSpeed(), 1e-6);
+        assertEquals(2, statistics.getMedianSpeed(), 0);
+    }
+
+    @Test
+    public void clear_discardsEverything() throws Exception {
+        TrackStatistics statistics = new TrackStatistics();
+
+        assertEquals(0, statistics.getAverageSpeed(), 0);
+        assertEquals(0, statistics.getMedianSpeed(), 0);
+
+        statistics.update(0, 0, 5);
+        statistics.update(50, 5000, 10);
+        statistics.clear();
+
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getDistance(), 0);
+        assertEquals(0, statistics.getMovingTime());
+        assertEquals(0, statistics.getTopSpeed(), 0);
+        assertEquals(0, statistics.getAverageSpeed(), 0);
+
+        //The top speed is the first location's, even if slower than the cleared ones
+        statistics.update(0, 0, 1);
+        assertEquals(1, statistics.getTopSpeed(), 0);
+    }
+
+    @Test
+    public void setDistance_isTheBaseOfTheFollowingUpdates() throws Exception {
+        TrackStatistics statistics = new TrackStatistics();
+
+        statistics.update(0, 0, 1);
+        statistics.setDistance(1000);
+        statistics.update(15, 5000, 1);
+
+        assertEquals(1015, statistics.getDistance(), 1e-9);
+    }
+
+    @Test
+    public void trackDistance_agreesWithItsStatistics() throws Exception {
+        Track track = new Track();
+
+        track.addTracedLocation(new TraceLocation());
+        track.setTravelledDistance(1200);
+
+        assertEquals(1200, track.getTravelledDistance(), 0);
+        assertEquals(track.getTravelledDistance(), track.getStatistics().getDistance(), 0);
+    }
+}
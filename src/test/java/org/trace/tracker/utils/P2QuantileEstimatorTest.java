@@ -0,0 +1,96 @@
+package org.trace.tracker.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class P2QuantileEstimatorTest {
+
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void uniformDistribution_medianAndP90() throws Exception {
+        Random random = new Random(1);
+        P2QuantileEstimator median = new P2QuantileEstimator(0.5), p90 = new P2QuantileEstimator(0.9);
+
+        for(int i = 0; i < SAMPLES; i++) {
+            double value = random.nextDouble() * 100;
+            median.add(value);
+            p90.add(value);
+        }
+
+        assertEquals(SAMPLES, median.getCount());
+        assertEquals(50, median.getEstimate(), 1);
+        assertEquals(90, p90.getEstimate(), 1);
+    }
+
+    @Test
+    public void skewedDistribution_medianAndP90() throws Exception {
+        Random random = new Random(2);
+        P2QuantileEstimator median = new P2QuantileEstimator(0.5), p90 = new P2QuantileEstimator(0.9);
+
+        //Exponential, with unit rate, whose quantiles are -ln(1 - p)
+        for(int i = 0; i < SAMPLES; i++) {
+            double value = -Math.log(1 - random.nextDouble());
+            median.add(value);
+            p90.add(value);
+        }
+
+        assertEquals(Math.log(2), median.getEstimate(), 0.02);
+        assertEquals(Math.log(10), p90.getEstimate(), 0.05);
+    }
+
+    @Test
+    public void sortedInput_median() throws Exception {
+        P2QuantileEstimator median = new P2QuantileEstimator(0.5);
+
+        for(int i = 1; i <= 1001; i++)
+            median.add(i);
+
+        assertEquals(501, median.getEstimate(), 5);
+    }
+
+    @Test
+    public void fewerThanFiveValues_areExact() throws Exception {
+        P2QuantileEstimator median = new P2QuantileEstimator(0.5),
+                minimum = new P2QuantileEstimator(0),
+                maximum = new P2QuantileEstimator(1);
+
+        assertEquals(0, median.getEstimate(), 0);
+
+        for(double value : new double[]{ 7, 3, 9, 1 }) {
+            median.add(value);
+            minimum.add(value);
+            maximum.add(value);
+        }
+
+        assertEquals(4, median.getCount());
+        assertEquals(7, median.getEstimate(), 0);
+        assertEquals(1, minimum.getEstimate(), 0);
+        assertEquals(9, maximum.getEstimate(), 0);
+
+        median.clear();
+        median.add(5);
+        assertEquals(5, median.getEstimate(), 0);
+    }
+
+    @Test
+    public void constantInput_isExact() throws Exception {
+        P2QuantileEstimator median = new P2QuantileEstimator(0.5), p90 = new P2QuantileEstimator(0.9);
+
+        for(int i = 0; i < 1000; i++) {
+            median.add(4.2);
+            p90.add(4.2);
+        }
+
+        assertEquals(4.2, median.getEstimate(), 0);
+        assertEquals(4.2, p90.getEstimate(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQuantile_isRejected() throws Exception {
+        new P2QuantileEstimator(1.5);
+    }
+}